@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.datatransform.AbstractPCA;
+import com.edwardraff.jsatexamples.datatransform.FusedTransformPipeline;
+import com.edwardraff.jsatexamples.datatransform.RandomizedPCA;
+import com.edwardraff.jsatexamples.datatransform.StreamingPCA;
+import java.util.Random;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.datatransform.DataTransform;
+import jsat.linear.SparseVector;
+
+/**
+ * DataTransformsExample uses {@link jsat.datatransform.PCA}, which is exact
+ * but needs the whole data set as a dense matrix. That is fine for the 4
+ * features of iris, but not for sparse text data with 100,000 features. This
+ * example compares two approximate PCAs that work on the sparse vectors
+ * directly: {@link RandomizedPCA} and {@link StreamingPCA}. Both can be used
+ * anywhere a PCA can.
+ *
+ * @author Edward Raff
+ */
+public class ApproximatePCAExample
+{
+    public static void main(String[] args)
+    {
+        int k = 10;
+
+        /*
+         * First a data set small enough that we can find the exact principal
+         * components to compare with. It looks like bag-of-words text: every
+         * document is about one of 20 topics, and most of its words come from
+         * the topic's own small set of words.
+         *
+         * The exact PCA is done with a FusedTransformPipeline that only does
+         * PCA. It builds the 1000 by 1000 covariance matrix and finds its
+         * eigenvectors, which is exact but costs O(d^2) memory and O(d^3) time.
+         */
+        ClassificationDataSet small = topicData(30000, 1000, 20, new Random(1));
+        System.out.println("30,000 points with 1,000 features, finding " + k + " components");
+        FusedTransformPipeline exact = new FusedTransformPipeline(false, false, true, k);
+        long start = System.currentTimeMillis();
+        exact.fit(small);
+        long exactTime = System.currentTimeMillis() - start;
+        double total = totalVariance(small);
+        double exactKept = projectedVariance(small, exact) / total;
+        System.out.printf("%-16s %6d ms, explains %.2f%% of the variance\n", "Exact", exactTime, 100 * exactKept);
+
+        /*
+         * The randomized PCA makes 6 passes over the data by default. The
+         * streaming PCA reads the data once, in batches, and never needs more
+         * than one batch in memory.
+         *
+         * We measure how much variance each one really explains by projecting
+         * the data, and compare it to the exact answer. Each also has its own
+         * estimate from getExplainedVarianceRatio(), which costs nothing.
+         */
+        AbstractPCA[] approximations = new AbstractPCA[]
+        {
+            new RandomizedPCA(k, new Random(2)), new StreamingPCA(k, new Random(2))
+        };
+        for(AbstractPCA pca : approximations)
+        {
+            start = System.currentTimeMillis();
+            pca.fit(small);
+            long time = System.currentTimeMillis() - start;
+            double kept = projectedVariance(small, pca) / total;
+            System.out.printf("%-16s %6d ms, explains %.2f%% of the variance (%.1f%% of exact), estimated %.2f%%\n",
+                    pca.getClass().getSimpleName(), time, 100 * kept, 100 * kept / exactKept,
+                    100 * pca.getExplainedVarianceRatio());
+        }
+
+        /*
+         * Now the same kind of data with 100,000 features. The covariance
+         * matrix alone would need 80GB, so there is no exact answer to compare
+         * against. The approximate methods only ever need the data and a few
+         * 100,000 by 20 blocks.
+         */
+        ClassificationDataSet big = topicData(50000, 100000, 20, new Random(3));
+        System.out.println("\n50,000 points with 100,000 features, finding " + k + " components");
+        for(AbstractPCA pca : approximations)
+        {
+            start = System.currentTimeMillis();
+            pca.fit(big);
+            long time = System.currentTimeMillis() - start;
+            System.out.printf("%-16s %6d ms, estimated to explain %.2f%% of the variance\n",
+                    pca.getClass().getSimpleName(), time,
+                    100 * pca.getExplainedVarianceRatio());
+        }
+    }
+
+    /**
+     * Makes sparse count data that looks like text. Each topic has 50 words
+     * of its own, and 70% of the words in a document come from its topic.
+     */
+    private static ClassificationDataSet topicData(int n, int d, int topics, Random rand)
+    {
+        int[][] topicWords = new int[topics][50];
+        for(int[] words : topicWords)
+            for(int w = 0; w < words.length; w++)
+                words[w] = rand.nextInt(d);
+        ClassificationDataSet data = new ClassificationDataSet(d, new CategoricalData[0], new CategoricalData(topics));
+        for(int i = 0; i < n; i++)
+        {
+            int topic = rand.nextInt(topics);
+            SparseVector x = new SparseVector(d, 40);
+            for(int word = 0; word < 40; word++)
+            {
+                int feature = rand.nextDouble() < 0.7 ? topicWords[topic][rand.nextInt(50)] : rand.nextInt(d);
+                x.increment(feature, 1.0);
+            }
+            data.addDataPoint(x, topic);
+        }
+        return data;
+    }
+
+    /**
+     * @return the sum of the variances of every feature
+     */
+    private static double totalVariance(ClassificationDataSet data)
+    {
+        return data.getColumnMeanVariance()[1].sum();
+    }
+
+    /**
+     * @return the total variance of the data after it is transformed
+     */
+    private static double projectedVariance(ClassificationDataSet data, DataTransform transform)
+    {
+        ClassificationDataSet projected = data.getTwiceShallowClone();
+        projected.applyTransform(transform);
+        return totalVariance(projected);
+    }
+}
@@ -16,7 +16,9 @@
  */
 package com.edwardraff.jsatexamples;
 
+import com.edwardraff.jsatexamples.classifiers.ParallelCrossValidation;
 import java.io.File;
+import java.util.Random;
 import jsat.ARFFLoader;
 import jsat.DataSet;
 import jsat.classifiers.ClassificationDataSet;
@@ -67,5 +69,26 @@ public class ClassificationCrossValidationExample
         //Off diagonal values indicate mistakes
         modelEvaluation.prettyPrintConfusionMatrix();
         
+        /*
+         * The folds of cross validation don't depend on each other, so they 
+         * can all be run at the same time. ParallelCrossValidation does just 
+         * that. If we give it the same seed for splitting the data as the 
+         * normal evaluation, we get the exact same error rate back. 
+         */
+        modelEvaluation = new ClassificationModelEvaluation(classifier, cDataSet);
+        modelEvaluation.evaluateCrossValidation(10, new Random(42));
+        
+        ParallelCrossValidation parallelCV = new ParallelCrossValidation(classifier, cDataSet);
+        //Each fold in flight needs memory for its own model. Naive Bayes is 
+        //tiny, but for big models you can limit how many folds run at once
+        parallelCV.setMemoryBudget(256*1024*1024);
+        parallelCV.evaluateCrossValidation(10, new Random(42));
+        
+        System.out.println("\nSerial error rate with a fixed seed:   " + 100.0*modelEvaluation.getErrorRate() + "%");
+        System.out.println("Parallel error rate with a fixed seed: " + 100.0*parallelCV.getErrorRate() + "%");
+        System.out.println("Ran up to " + parallelCV.getMaxFoldsInFlight() + " folds at the same time");
+        
+        //Both of these need the whole data set in memory. For data sets that
+        //don't fit, look at StreamingCrossValidationExample
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -16,6 +16,7 @@
  */
 package com.edwardraff.jsatexamples;
 
+import com.edwardraff.jsatexamples.classifiers.BatchClassifier;
 import java.io.File;
 import jsat.ARFFLoader;
 import jsat.DataSet;
@@ -64,5 +65,19 @@ public class ClassificationExample
         }
         
         System.out.println(errors + " errors were made, " + 100.0*errors/dataSet.getSampleSize() + "% error rate" );
+        
+        //Every call to classify creates a new CategoricalResults. When scoring lots of points, a BatchClassifier 
+        //can write the results for a whole batch into arrays we give it, and reuse them for the next batch
+        int n = cDataSet.getSampleSize();
+        BatchClassifier batch = BatchClassifier.of(classifier, cDataSet.getClassSize());
+        double[] probabilities = new double[n*batch.getCategories()];//row i holds the probabilities for point i
+        int[] predictions = new int[n];
+        batch.classify(cDataSet.getDataPoints(), 0, n, probabilities, predictions);
+        
+        int batchErrors = 0;
+        for(int i = 0; i < n; i++)
+            if(predictions[i] != cDataSet.getDataPointCategory(i))
+                batchErrors++;
+        System.out.println("Batch scoring made " + batchErrors + " errors");
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
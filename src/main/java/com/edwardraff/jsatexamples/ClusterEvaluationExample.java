@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.clustering.ContingencyTable;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.clustering.evaluation.NormalizedMutualInformation;
+import jsat.linear.DenseVector;
+
+/**
+ * You should look at KMeansAndK first! Evaluating a clustering against the
+ * class labels is cheap for small data sets, but when there are millions of
+ * points and you want to score many clusterings, such as every iteration of
+ * an algorithm or every k of a sweep, the evaluation itself can take as long
+ * as the clustering. This example shows how a {@link ContingencyTable} keeps
+ * that cost down.
+ *
+ * @author Edward Raff
+ */
+public class ClusterEvaluationExample
+{
+    public static void main(String[] args)
+    {
+        /*
+         * We don't need to actually cluster anything to show this, so we make
+         * up 2 million points with 10 classes, and a clustering into 50
+         * clusters that mostly follows the classes. Each class is split over
+         * 5 clusters, and 1 in 5 points is put in a random cluster instead.
+         */
+        int n = 2000000, classes = 10, clusters = 50;
+        Random rand = new Random(42);
+        int[] labels = new int[n];
+        int[] assignments = new int[n];
+        for(int i = 0; i < n; i++)
+        {
+            labels[i] = rand.nextInt(classes);
+            if(rand.nextDouble() < 0.8)
+                assignments[i] = labels[i] * (clusters / classes) + rand.nextInt(clusters / classes);
+            else
+                assignments[i] = rand.nextInt(clusters);
+        }
+        /*
+         * JSAT's evaluations need a data set with the labels. The points
+         * themselves don't matter, so they all share one empty vector.
+         */
+        ClassificationDataSet data = new ClassificationDataSet(1, new CategoricalData[0], new CategoricalData(classes));
+        DenseVector empty = new DenseVector(1);
+        for(int i = 0; i < n; i++)
+            data.addDataPoint(empty, labels[i]);
+
+        /*
+         * First, one clustering scored from scratch both ways. JSAT's NMI
+         * returns 1 - NMI, so that 0 is best. The table gives the NMI the
+         * usual way, along with the other scores it can compute from the
+         * same counts.
+         */
+        long start = System.currentTimeMillis();
+        double jsatNMI = 1 - new NormalizedMutualInformation().evaluate(assignments, data);
+        long jsatTime = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        ContingencyTable table = new ContingencyTable(labels, assignments, ForkJoinPool.commonPool());
+        ContingencyTable.Scores scores = table.getScores();
+        long tableTime = System.currentTimeMillis() - start;
+        System.out.printf("JSAT:  NMI %.4f in %d ms\n", jsatNMI, jsatTime);
+        System.out.printf("Table: %s in %d ms\n", scores, tableTime);
+
+        /*
+         * Now pretend we are watching an algorithm converge. Each "iteration"
+         * moves 0.5% of the points to a new cluster, and we want the scores
+         * after every one. JSAT's NMI and building a new table each time
+         * both count all 2 million points again, while updating the table
+         * only moves the 10,000 points that changed.
+         */
+        NormalizedMutualInformation nmi = new NormalizedMutualInformation();
+        int iterations = 20;
+        long jsatTotal = 0, rebuildTime = 0, updateTime = 0;
+        for(int iter = 0; iter < iterations; iter++)
+        {
+            for(int moved = 0; moved < n / 200; moved++)
+                assignments[rand.nextInt(n)] = rand.nextInt(clusters);
+
+            start = System.nanoTime();
+            nmi.evaluate(assignments, data);
+            jsatTotal += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ContingencyTable.Scores rebuilt = new ContingencyTable(labels, assignments, ForkJoinPool.commonPool()).getScores();
+            rebuildTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            table.update(assignments);
+            ContingencyTable.Scores updated = table.getScores();
+            updateTime += System.nanoTime() - start;
+
+            if(iter == iterations - 1)
+            {
+                System.out.println("After " + iterations + " iterations:");
+                System.out.println("Rebuilt: " + rebuilt);
+                System.out.println("Updated: " + updated);
+            }
+        }
+        System.out.printf("Average per iteration: JSAT NMI %.1f ms, rebuilding %.1f ms, updating %.1f ms\n",
+                jsatTotal / 1e6 / iterations, rebuildTime / 1e6 / iterations, updateTime / 1e6 / iterations);
+    }
+}
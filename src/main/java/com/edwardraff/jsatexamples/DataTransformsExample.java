@@ -50,6 +50,7 @@ public class DataTransformsExample
         
         //PCA is a transform that attempts to reduce the dimensionality while maintaining all the variance in the data. 
         //PCA also allows us to specify the exact number of dimensions we would like 
+        //For data with thousands of features, see ApproximatePCAExample for faster alternatives
         DataTransform pca = new PCA(cDataSet, 2, 1e-9);
         
         //We can now apply the transformations to our data set
@@ -49,6 +49,7 @@ public class EasyParameterSearch
         ///////First, the code someone new would use////////
         PlattSMO model = new PlattSMO(new RBFKernel());
         model.setCacheMode(CacheMode.FULL);//Small dataset, so we can do this
+        //For larger datasets, see KernelCacheExample for a cache with a memory budget
         
         ClassificationModelEvaluation cme = new ClassificationModelEvaluation(model, dataset);
         cme.evaluateCrossValidation(10);
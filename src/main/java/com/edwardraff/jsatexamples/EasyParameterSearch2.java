@@ -16,19 +16,22 @@
  */
 package com.edwardraff.jsatexamples;
 
+import com.edwardraff.jsatexamples.classifiers.PackedClassificationDataSet;
+import com.edwardraff.jsatexamples.io.ParallelLIBSVMLoader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import jsat.classifiers.*;
 import jsat.classifiers.linear.LogisticRegressionDCD;
 import jsat.classifiers.linear.kernelized.KernelSGD;
 import jsat.classifiers.svm.extended.AMM;
 import jsat.classifiers.trees.RandomForest;
 import jsat.datatransform.LinearTransform;
-import jsat.io.LIBSVMLoader;
 import jsat.parameters.RandomSearch;
 import jsat.utils.SystemInfo;
 
@@ -45,10 +48,14 @@ public class EasyParameterSearch2
         //Lets use the slightly larger MNIST dataset, dataset downloaded from 
         //https://www.csie.ntu.edu.tw/~cjlin/libsvmtools/datasets/multiclass.html#mnist
         ClassLoader classloader = Thread.currentThread().getContextClassLoader();
-        ClassificationDataSet train = LIBSVMLoader.loadC(new File(classloader.getResource("mnist").getFile()));
+        File trainFile = new File(classloader.getResource("mnist").getFile());
+        File testFile = new File(classloader.getResource("mnist.t").getFile());
         //LIBSVM format isn't very good for sparse datasets when you don't see all features
-        //the extra arguments help deal with issues where a feature isn't seen in the test set but is in the training set
-        ClassificationDataSet test = LIBSVMLoader.loadC(new File(classloader.getResource("mnist.t").getFile()), 0.5, train.getNumNumericalVars());
+        //loading both files together makes sure they get the same features (and labels), even if a
+        //feature is only seen in the training set. The loader also uses all our cores and packs the data compactly
+        List<PackedClassificationDataSet> loaded = ParallelLIBSVMLoader.loadC(Arrays.asList(trainFile, testFile), -1, ForkJoinPool.commonPool());
+        ClassificationDataSet train = loaded.get(0);
+        ClassificationDataSet test = loaded.get(1);
         
         //Lets normalize the mnist datasets into the range of [0, 1]
         //original example used already scaled versions of mnist, but that broke Github's file size limit
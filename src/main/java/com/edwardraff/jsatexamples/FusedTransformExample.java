@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.benchmarks.BenchmarkData;
+import com.edwardraff.jsatexamples.datatransform.FusedTransformPipeline;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.DataPoint;
+import jsat.datatransform.Imputer;
+import jsat.datatransform.LinearTransform;
+import jsat.datatransform.PCA;
+import jsat.datatransform.ZeroMeanTransform;
+
+/**
+ * KMeansAndK imputes and scales its data, and DataTransformsExample makes its
+ * data zero mean before doing PCA. Each of those steps is fit and applied
+ * with its own passes over the data. This example counts how many times the
+ * data points are read when all four steps are chained, compared to doing
+ * them with a single {@link FusedTransformPipeline}, and how long each takes.
+ *
+ * @author Edward Raff
+ */
+public class FusedTransformExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        //breast-w has missing values, so the imputer has something to do
+        String[] dataSetNames = new String[]{"breast-w", "ionosphere", "sonar"};
+        int scale = 50;
+        int runs = 10;
+
+        System.out.printf("%-12s %8s | %-24s | %-24s%n", "Data Set", "points", "chained: passes, time", "fused: passes, time");
+        for(String name : dataSetNames)
+        {
+            ClassificationDataSet original = BenchmarkData.loadArffC(name, scale);
+
+            /*
+             * The chained version is what you would normally write. Every
+             * step is fit to the output of the step before it, and then
+             * applied to the whole data set.
+             */
+            long chainedPasses = 0, chainedTime = 0;
+            for(int run = 0; run < runs; run++)
+            {
+                CountingDataSet data = new CountingDataSet(original);
+                long start = System.nanoTime();
+                data.applyTransform(new Imputer(data));
+                data.applyTransform(new LinearTransform(data));
+                data.applyTransform(new ZeroMeanTransform(data));
+                data.applyTransform(new PCA(data, 2, 1e-9));
+                chainedTime += System.nanoTime() - start;
+                chainedPasses = data.getPasses();
+            }
+
+            /*
+             * The fused pipeline collects everything all four steps need in
+             * one pass, then does all four at once in a second pass. Both
+             * passes are done in parallel.
+             */
+            long fusedPasses = 0, fusedTime = 0;
+            for(int run = 0; run < runs; run++)
+            {
+                CountingDataSet data = new CountingDataSet(original);
+                long start = System.nanoTime();
+                FusedTransformPipeline pipeline = new FusedTransformPipeline(true, true, true, 2);
+                pipeline.fit(data);
+                pipeline.apply(data);
+                fusedTime += System.nanoTime() - start;
+                fusedPasses = data.getPasses();
+            }
+
+            System.out.printf("%-12s %8d | %6d passes %8.2f ms | %6d passes %8.2f ms%n", name, original.getSampleSize(),
+                    chainedPasses, chainedTime / 1e6 / runs, fusedPasses, fusedTime / 1e6 / runs);
+        }
+
+        /*
+         * The pipeline keeps the sums it collected, so when more data shows
+         * up it can be updated without going over the old data again. The
+         * result is the same as fitting on everything at once.
+         */
+        ClassificationDataSet first = BenchmarkData.loadArffC("breast-w", 1);
+        ClassificationDataSet more = BenchmarkData.loadArffC("breast-w", 2);
+        FusedTransformPipeline pipeline = new FusedTransformPipeline(true, true, true, 2);
+        pipeline.fit(first);
+        pipeline.update(more);
+        System.out.println("Updated pipeline has seen " + pipeline.getPointsSeen() + " points, and maps the first one to "
+                + pipeline.transform(first.getDataPoint(0)).getNumericalValues());
+    }
+
+    /**
+     * A data set that counts how many times its points are read, so we can
+     * see how many passes over the data a transform makes
+     */
+    private static class CountingDataSet extends ClassificationDataSet
+    {
+        private final LongAdder reads = new LongAdder();
+
+        public CountingDataSet(ClassificationDataSet toCopy)
+        {
+            super(toCopy.getNumNumericalVars(), toCopy.getCategories(), toCopy.getPredicting());
+            for(int i = 0; i < toCopy.getSampleSize(); i++)
+            {
+                DataPoint dp = toCopy.getDataPoint(i);
+                addDataPoint(new DataPoint(dp.getNumericalValues().clone(), dp.getCategoricalValues(),
+                        dp.getCategoricalData(), dp.getWeight()), toCopy.getDataPointCategory(i));
+            }
+            reads.reset();
+        }
+
+        @Override
+        public DataPoint getDataPoint(int i)
+        {
+            reads.increment();
+            return super.getDataPoint(i);
+        }
+
+        /**
+         * @return the number of times every point has been read
+         */
+        public long getPasses()
+        {
+            return reads.sum() / getSampleSize();
+        }
+    }
+}
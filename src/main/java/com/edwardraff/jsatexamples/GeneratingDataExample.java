@@ -18,6 +18,7 @@ import jsat.linear.Vec;
 
 /**
  * It can often be useful to generate synthetic data sets to test out classifiers on, and get a feel for how they work. 
+ * To make millions of points for load testing, see SyntheticDataExample instead.
  * 
  * @author Edward Raff
  */
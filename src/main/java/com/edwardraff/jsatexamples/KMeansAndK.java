@@ -16,23 +16,26 @@
  */
 package com.edwardraff.jsatexamples;
 
+import com.edwardraff.jsatexamples.clustering.ContingencyTable;
+import com.edwardraff.jsatexamples.clustering.KMeansSweep;
+import com.edwardraff.jsatexamples.clustering.ParallelGapStatistic;
+import com.edwardraff.jsatexamples.io.DataSetCache;
+import com.edwardraff.jsatexamples.random.SeedSequence;
 import java.io.File;
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.stream.IntStream;
-import jsat.ARFFLoader;
 import jsat.classifiers.ClassificationDataSet;
 import jsat.clustering.Clusterer;
-import jsat.clustering.GapStatistic;
-import jsat.clustering.evaluation.ClusterEvaluation;
-import jsat.clustering.evaluation.NormalizedMutualInformation;
+import jsat.clustering.SeedSelectionMethods.SeedSelection;
 import jsat.clustering.kmeans.GMeans;
 import jsat.clustering.kmeans.HamerlyKMeans;
-import jsat.clustering.kmeans.KMeans;
 import jsat.clustering.kmeans.KMeansPDN;
 import jsat.clustering.kmeans.XMeans;
 import jsat.datatransform.Imputer;
 import jsat.datatransform.LinearTransform;
+import jsat.linear.distancemetrics.EuclideanDistance;
 
 /**
  * K-Means is one of the most commonly used algorithms for clustering, but has a
@@ -44,7 +47,7 @@ import jsat.datatransform.LinearTransform;
  */
 public class KMeansAndK
 {
-    public static void main(String[] args)
+    public static void main(String[] args) throws IOException
     {
         //the data sets we we use, all have only numeric features and a class label
         String[] dataSetName = new String[]
@@ -53,27 +56,43 @@ public class KMeansAndK
         };
         ClassificationDataSet[] dataSets = new ClassificationDataSet[dataSetName.length];
         
+        /*
+         * Loading and transforming the data sets is the same every time we 
+         * run this example, so we keep the results in a cache. The first run 
+         * parses the ARFF files and fits the transforms as normal, later runs 
+         * just memory map the cached copies. 
+         */
+        DataSetCache cache = new DataSetCache(new File(System.getProperty("java.io.tmpdir"), "jsat-examples-cache"));
+        
         for(int i = 0; i < dataSetName.length; i++)
         {
             ClassLoader classloader = Thread.currentThread().getContextClassLoader();
             File file = new File(classloader.getResource(dataSetName[i] + ".arff").getFile());
             //We know that there is only one categorical feature for each of these data sets, and it is the class label. So we use '0' as the argument 
-            dataSets[i] = ARFFLoader.loadArffFile(file).asClassificationDataSet(0);
-            dataSets[i].applyTransform(new Imputer(dataSets[i]));//impute missing values in the dataset
-            dataSets[i].applyTransform(new LinearTransform(dataSets[i]));//scale feature values to [0, 1]
+            dataSets[i] = cache.loadC(file, "arff:0", DataSetCache.arffC(0), new DataSetCache.TransformChain()
+                    .then("Imputer", Imputer::new)//impute missing values in the dataset
+                    .then("LinearTransform[0,1]", LinearTransform::new));//scale feature values to [0, 1]
         }
         
         /**
          * This map contains 4 different methods that try to infer the "best"
          * value of k for k-means. These don't always work well, but its
          * something lots of people are interested in.
+         * 
+         * Each one is given its own split of one seed, so every run of this 
+         * example prints the same table. ParallelGapStatistic does the same 
+         * thing as JSAT's GapStatistic, but takes a seed and gives the same 
+         * answer no matter how many threads it uses. 
          */
+        SeedSequence seeds = new SeedSequence(2017);
         Map<String, Clusterer> methodsToEval = new LinkedHashMap<String, Clusterer>()
         {{
-            put("PDN KMeans", new KMeansPDN());
-            put("Gap-Means", new GapStatistic());
-            put("X-Means", new XMeans());
-            put("G-Means", new GMeans());
+            put("PDN KMeans", new KMeansPDN(new HamerlyKMeans(new EuclideanDistance(), SeedSelection.KPP, seeds.split(0).getRandom())));
+            ParallelGapStatistic gap = new ParallelGapStatistic();
+            gap.setSeeds(seeds.split(1));
+            put("Gap-Means", gap);
+            put("X-Means", new XMeans(new HamerlyKMeans(new EuclideanDistance(), SeedSelection.KPP, seeds.split(2).getRandom())));
+            put("G-Means", new GMeans(new HamerlyKMeans(new EuclideanDistance(), SeedSelection.KPP, seeds.split(3).getRandom())));
         }};
         
         /**
@@ -89,20 +108,29 @@ public class KMeansAndK
          * properly evaluate clustering algorithms is a very open question! But
          * this is a commonly used method.
          *
-         * The ClusterEvaluation interface dictates that values near 0 are
-         * better, and larger values are worse. NMI is usually the opposite, but
-         * obeys the interface. Read the NMI's Javadoc for more details.
+         * JSAT's NormalizedMutualInformation class follows the 
+         * ClusterEvaluation interface, where values near 0 are better. We 
+         * instead count how many points of each class are in each cluster with
+         * a ContingencyTable, which gives the NMI the usual way around, where 
+         * 1 is a perfect match and 0 is no better than chance. The same table 
+         * also gives the adjusted Rand index, V-measure, and purity if you 
+         * want to try those instead. 
          */
-        ClusterEvaluation evaluator = new NormalizedMutualInformation();
         
         /**
          * And finally, we will use a normal k-means algorithm to do clustering
          * when we specify the number of clusters we want. JSAT implements a
          * number of different algorithms that all solve the k-means problem,
-         * and are better in different scenarios. This one is likely to be the
-         * best for most users.
+         * and are better in different scenarios. HamerlyKMeans is likely to 
+         * be the best for most users. 
+         * 
+         * Since we want several values of k, we use a KMeansSweep. It runs 
+         * Hamerly's algorithm for each k we want from the smallest to the largest,
+         * starting each k from the means found for the previous one plus a
+         * few new seeds. That is a lot cheaper than starting from scratch 
+         * for every k.
          */
-        KMeans simpleKMeans = new HamerlyKMeans();
+        KMeansSweep kMeansSweep = new KMeansSweep(new EuclideanDistance(), seeds.split(4).getRandom());
         
         
         /*
@@ -132,15 +160,26 @@ public class KMeansAndK
                clusterer.cluster(data, clusteringResults);
                 //the number of clusters found can be determined from the maximimum cluster ID returned, +1 since 0 is a cluster ID. 
                 int kFound = IntStream.of(clusteringResults).max().getAsInt()+1;;
-                System.out.printf("%4d , %.3f | ",kFound, evaluator.evaluate(clusteringResults, data));
+                System.out.printf("%4d , %.3f | ",kFound, new ContingencyTable(data, clusteringResults).getScores().getNMI());
             }
             //now lets print out our results when we specify the value of k we want to try
-            for(int k : kToTest)
+            ContingencyTable table = null;
+            for(KMeansSweep.Result result : kMeansSweep.sweep(data, kToTest))
             {
-                //run k-means with a specific value of k, and keep track of cluster assignments
-                clusteringResults = simpleKMeans.cluster(data, k, clusteringResults);
+                //get the cluster assignments k-means found with this value of k
+                clusteringResults = result.getAssignments();
+                /*
+                 * Each k of the sweep started from the means of the one 
+                 * before, so most points stay in the same cluster. Instead of
+                 * counting everything again, we just move the points that 
+                 * changed cluster in the table. 
+                 */
+                if(table == null)
+                    table = new ContingencyTable(data, clusteringResults);
+                else
+                    table.update(clusteringResults);
                 //now evaluate the cluster assignments and print a score
-                System.out.printf("    %.3f    | ",evaluator.evaluate(clusteringResults, data));
+                System.out.printf("    %.3f    | ", table.getScores().getNMI());
             }
             System.out.println();
         }
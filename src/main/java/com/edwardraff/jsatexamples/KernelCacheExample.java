@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.benchmarks.BenchmarkData;
+import com.edwardraff.jsatexamples.classifiers.CachedPlattSMO;
+import com.edwardraff.jsatexamples.kernels.KernelRowCache;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.svm.SupportVectorLearner.CacheMode;
+import jsat.distributions.kernels.RBFKernel;
+import jsat.parameters.GridSearch;
+
+/**
+ * EasyParameterSearch uses {@link CacheMode#FULL}, which keeps the whole
+ * kernel matrix in memory. That is fine for a small data set, but the memory
+ * needed grows with the square of the number of points. This example shows
+ * how the training time of an SVM changes as it is allowed more or less
+ * memory for a {@link KernelRowCache}, and how one cache can be shared by all
+ * the models in a parameter search.
+ *
+ * @author Edward Raff
+ */
+public class KernelCacheExample
+{
+    public static void main(String[] args)
+    {
+        //Two overlapping Gaussians, with enough points that the full kernel matrix is ~70MB
+        ClassificationDataSet data = BenchmarkData.gaussianMixture(3000, 100, 2, 7);
+        RBFKernel kernel = new RBFKernel(3);
+
+        //First JSAT's own cache modes. ROWS keeps a small number of rows, set by setCacheValue
+        for(CacheMode mode : CacheMode.values())
+        {
+            PlattSMO smo = new PlattSMO(kernel.clone());
+            smo.setCacheMode(mode);
+            long start = System.currentTimeMillis();
+            smo.trainC(data);
+            System.out.println(mode + " took " + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        /*
+         * Now the same model with different memory budgets. SMO keeps coming
+         * back to the rows of the support vectors, so the cache only helps
+         * once its budget holds about one row for each of them. A smaller
+         * budget keeps evicting rows it is about to need again, and is slower
+         * than no cache at all. So we train once to count the support
+         * vectors, and size the budgets from that.
+         */
+        long rowBytes = data.getSampleSize() * Double.BYTES;
+        CachedPlattSMO counting = new CachedPlattSMO(kernel.clone(), null);
+        counting.trainC(data);
+        long needed = counting.getSupportVectorCount() * rowBytes;
+        System.out.printf("%d support vectors, so a budget of about %.1f MB is needed\n", counting.getSupportVectorCount(), needed / 1024.0 / 1024.0);
+        for(double fraction : new double[]{0.25, 1.0, 1.5})
+        {
+            KernelRowCache cache = new KernelRowCache((long) (fraction * needed));
+            CachedPlattSMO smo = new CachedPlattSMO(kernel.clone(), cache);
+            long start = System.currentTimeMillis();
+            smo.trainC(data);
+            System.out.printf("%.1f MB budget took %d ms, %s\n", cache.getBudget() / 1024.0 / 1024.0, System.currentTimeMillis() - start, cache);
+        }
+
+        /*
+         * A grid search trains one clone of the model for every combination
+         * of parameters on every fold. All the clones share the cache, and
+         * the ones with the same kernel width on the same fold share rows,
+         * no matter what C they use. Each fold trains on 2/3 of the points,
+         * so it needs about 4/9 of the budget found above, and there are 3
+         * folds for each of the 2 kernel widths.
+         */
+        KernelRowCache cache = new KernelRowCache(3 * needed);
+        GridSearch search = new GridSearch((Classifier) new CachedPlattSMO(new RBFKernel(), cache), 3);
+        search.addParameter("C", 0.1, 1.0, 10.0, 100.0);
+        search.addParameter("RBFKernel_Sigma", 2.0, 4.0);
+        long start = System.currentTimeMillis();
+        search.trainC(data);
+        System.out.printf("Grid search with a shared %.1f MB cache took %d ms, %s\n", cache.getBudget() / 1024.0 / 1024.0, System.currentTimeMillis() - start, cache);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.classifiers.ParallelCrossValidation;
+import com.edwardraff.jsatexamples.clustering.StreamingKMeans;
+import com.edwardraff.jsatexamples.io.DataSetBatchSource;
+import com.edwardraff.jsatexamples.io.ParallelLIBSVMLoader;
+import com.edwardraff.jsatexamples.metrics.JsonlMetricsWriter;
+import com.edwardraff.jsatexamples.metrics.MeteredClassifier;
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.metrics.PrometheusEndpoint;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.trees.RandomForest;
+import jsat.distributions.kernels.RBFKernel;
+import jsat.parameters.RandomSearch;
+
+/**
+ * Shows how to watch what the models, searches, and loaders in these
+ * examples are doing. They all report to
+ * {@link MetricsRegistry#getDefault() }, so nothing needs to be added to a
+ * program to measure it. Running any of the examples with
+ * <pre>
+ * -Djsatexamples.metrics.port=9400 -Djsatexamples.metrics.jsonl=metrics.jsonl
+ * </pre>
+ * serves its metrics at http://localhost:9400/metrics for Prometheus to
+ * scrape, and writes every event to metrics.jsonl. Here we set up the same
+ * thing by hand, so that we can look at the output before the program ends.
+ *
+ * @author Edward Raff
+ */
+public class MetricsExample
+{
+    public static void main(String[] args) throws Exception
+    {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        //port 0 picks any free port
+        PrometheusEndpoint endpoint = new PrometheusEndpoint(metrics);
+        endpoint.start(0);
+        File jsonl = File.createTempFile("metrics", ".jsonl");
+        jsonl.deleteOnExit();
+        JsonlMetricsWriter writer = new JsonlMetricsWriter(metrics, jsonl);
+
+        /*
+         * Loading with the parallel loader records how long it took and how
+         * many rows and bytes were read
+         */
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        File file = new File(classloader.getResource("diabetes_scale.libsvm").getFile());
+        ClassificationDataSet data = ParallelLIBSVMLoader.loadC(file);
+
+        /*
+         * Every fold of a ParallelCrossValidation is timed, and reported with
+         * its error rate
+         */
+        ParallelCrossValidation cv = new ParallelCrossValidation(new RandomForest(50), data);
+        cv.evaluateCrossValidation(5, new Random(1));
+        System.out.printf("RandomForest cross validation error %.4f\n", cv.getErrorRate());
+
+        /*
+         * JSAT's own RandomSearch can't report anything itself, but it only
+         * ever sees the model it is given. Wrapping that model in a
+         * MeteredClassifier times every model the search trains, along with
+         * the parameters it was trained with. The wrapper has the same
+         * parameters as the model, so the search works just the same.
+         */
+        RandomSearch search = new RandomSearch((Classifier) new MeteredClassifier(new PlattSMO(new RBFKernel())), 3);
+        search.setTrials(4);
+        search.autoAddParameters(data);
+        search.trainC(data);
+
+        /*
+         * Streaming k-means reports how far the means moved in every batch,
+         * which shows how quickly it is converging
+         */
+        StreamingKMeans kmeans = new StreamingKMeans();
+        kmeans.setBatchSize(100);
+        kmeans.setSeedSampleSize(200);
+        kmeans.setPasses(3);
+        kmeans.fit(new DataSetBatchSource(data), 2);
+
+        /*
+         * This is what Prometheus would see if it scraped us now. The
+         * timers are summaries, with the 50th, 90th and 99th percentiles
+         */
+        System.out.println("\nGET http://localhost:" + endpoint.getPort() + "/metrics");
+        URL url = new URL("http://localhost:" + endpoint.getPort() + "/metrics");
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while((line = reader.readLine()) != null)
+                if(!line.startsWith("#"))
+                    System.out.println(line);
+        }
+
+        /*
+         * Closing the writer adds a last snapshot of every metric. The events
+         * are one JSON object per line, so they are easy to pull apart with
+         * any tool. Here we just count them, and show the first of each type.
+         */
+        writer.close();
+        endpoint.stop();
+        List<String> lines = Files.readAllLines(jsonl.toPath(), StandardCharsets.UTF_8);
+        Map<String, Integer> counts = new TreeMap<>();
+        Map<String, String> firsts = new TreeMap<>();
+        for(String line : lines)
+        {
+            String type = line.contains("\"event\":") ? line.replaceFirst(".*?\"event\":\"([^\"]*)\".*", "$1") : "metric snapshot";
+            counts.merge(type, 1, Integer::sum);
+            firsts.putIfAbsent(type, line);
+        }
+        System.out.println("\n" + lines.size() + " lines written to " + jsonl);
+        for(Map.Entry<String, Integer> entry : counts.entrySet())
+            System.out.printf("%5d %-24s e.g. %s\n", entry.getValue(), entry.getKey(), firsts.get(entry.getKey()));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.classifiers.BatchClassifier;
+import com.edwardraff.jsatexamples.classifiers.ModelFile;
+import com.edwardraff.jsatexamples.io.BatchSources;
+import com.edwardraff.jsatexamples.io.SyntheticDataSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jsat.classifiers.CategoricalResults;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.bayesian.NaiveBayes;
+import jsat.classifiers.linear.LogisticRegressionDCD;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.trees.RandomForest;
+import jsat.distributions.kernels.RBFKernel;
+import jsat.io.LIBSVMLoader;
+
+/**
+ * You should look at ModelServingExample first! Once a model is trained and
+ * tuned, it has to be saved somewhere so it can be served. JSAT models are
+ * Serializable, but for a big model like a RandomForest the serialized file
+ * is large and slow to read back. This example compares that with a
+ * {@link ModelFile}, which stores just the learned parameters as flat arrays
+ * and memory maps them when loaded.
+ *
+ * @author Edward Raff
+ */
+public class ModelFileExample
+{
+    public static void main(String[] args) throws Exception
+    {
+        /*
+         * The binary models are trained on the diabetes data set that
+         * EasyParameterSearch uses, and the others on 10,000 points from 4
+         * Gaussians in 20 dimensions.
+         */
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        ClassificationDataSet diabetes = LIBSVMLoader.loadC(new File(classloader.getResource("diabetes_scale.libsvm").getFile()));
+        ClassificationDataSet gaussians;
+        try(SyntheticDataSource source = SyntheticDataSource.gaussianMixture(10000, 20, new double[]{1, 1, 1, 1}, 3))
+        {
+            gaussians = BatchSources.head(source, 10000);
+        }
+
+        Map<String, Classifier> models = new LinkedHashMap<>();
+        Map<String, ClassificationDataSet> data = new LinkedHashMap<>();
+        models.put("NaiveBayes", new NaiveBayes());
+        data.put("NaiveBayes", gaussians);
+        models.put("LogisticRegressionDCD", new LogisticRegressionDCD());
+        data.put("LogisticRegressionDCD", diabetes);
+        PlattSMO smo = new PlattSMO(new RBFKernel(0.5));
+        smo.setC(10);
+        models.put("PlattSMO", smo);
+        data.put("PlattSMO", diabetes);
+        models.put("RandomForest", new RandomForest(100));
+        data.put("RandomForest", gaussians);
+
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        System.out.printf("%-22s| %-23s| %-23s| %s\n", "Model", "Serialized size, load", "Model file size, load", "Same predictions");
+        for(String name : models.keySet())
+        {
+            Classifier model = models.get(name);
+            ClassificationDataSet d = data.get(name);
+            model.trainC(d);
+
+            //the usual way, Java serialization of the whole model
+            File serFile = File.createTempFile("model", ".ser", dir);
+            serFile.deleteOnExit();
+            try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(serFile))))
+            {
+                out.writeObject(model);
+            }
+            //and the model file
+            File modelFile = File.createTempFile("model", ".jsm", dir);
+            modelFile.deleteOnExit();
+            ModelFile.write(model, d.getClassSize(), modelFile);
+
+            /*
+             * Loading is timed over many loads, after a few to warm up, so we
+             * are timing the code and not the JIT or the disk
+             */
+            int loads = 20;
+            Classifier deserialized = null;
+            long serTime = 0;
+            for(int i = 0; i < loads + 5; i++)
+            {
+                long start = System.nanoTime();
+                try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(serFile))))
+                {
+                    deserialized = (Classifier) in.readObject();
+                }
+                if(i >= 5)
+                    serTime += System.nanoTime() - start;
+            }
+            BatchClassifier loaded = null;
+            long fileTime = 0;
+            for(int i = 0; i < loads + 5; i++)
+            {
+                long start = System.nanoTime();
+                loaded = ModelFile.load(modelFile);
+                if(i >= 5)
+                    fileTime += System.nanoTime() - start;
+            }
+
+            /*
+             * Check that the loaded model makes the same prediction as the
+             * model it was written from, for every training point
+             */
+            boolean same = true;
+            double[] probs = new double[d.getClassSize()];
+            for(int i = 0; i < d.getSampleSize(); i++)
+            {
+                CategoricalResults expected = deserialized.classify(d.getDataPoint(i));
+                if(loaded.classify(d.getDataPoint(i), probs, 0) != expected.mostLikely())
+                    same = false;
+            }
+
+            System.out.printf("%-22s| %8.1f KB, %7.3f ms | %8.1f KB, %7.3f ms | %s\n", name,
+                    serFile.length() / 1024.0, serTime / 1e6 / loads,
+                    modelFile.length() / 1024.0, fileTime / 1e6 / loads, same);
+        }
+    }
+}
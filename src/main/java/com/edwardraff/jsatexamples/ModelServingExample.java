@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.serving.LoadGenerator;
+import com.edwardraff.jsatexamples.serving.ModelServer;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.svm.SupportVectorLearner.CacheMode;
+import jsat.distributions.kernels.RBFKernel;
+import jsat.io.LIBSVMLoader;
+import jsat.parameters.RandomSearch;
+
+/**
+ * Tunes a model like EasyParameterSearch does, saves it, and then serves the
+ * saved model over HTTP with a {@link ModelServer}. A {@link LoadGenerator}
+ * then sends it requests, first one client at a time, and then many at once,
+ * with and without micro batching.
+ *
+ * @author Edward Raff
+ */
+public class ModelServingExample
+{
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        /*
+         * The JDK's HTTP server leaves Nagle's algorithm on unless told
+         * otherwise, which adds about 40ms to every request. It reads this
+         * setting once, when the first server is made, so we set it before
+         * anything else.
+         */
+        if(System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        File file = new File(classloader.getResource("diabetes_scale.libsvm").getFile());
+        ClassificationDataSet dataset = LIBSVMLoader.loadC(file);
+
+        //The same tuning as in EasyParameterSearch, just with fewer trials to save time
+        PlattSMO smo = new PlattSMO(new RBFKernel());
+        smo.setCacheMode(CacheMode.FULL);
+        RandomSearch search = new RandomSearch((Classifier) smo, 3);
+        search.setTrials(20);
+        search.autoAddParameters(dataset);
+        search.trainC(dataset);
+
+        /*
+         * Save the tuned model, and load it back like a separate serving
+         * process would. The search itself holds on to its parameters, which
+         * can't be serialized, so we save the best model it trained.
+         */
+        File modelFile = File.createTempFile("tuned_smo", ".model");
+        modelFile.deleteOnExit();
+        ModelServer.writeModel(search.getTrainedClassifier(), modelFile);
+        Classifier model = ModelServer.readModel(modelFile);
+        System.out.println("Saved model is " + modelFile.length() / 1024 + " KB");
+
+        ModelServer server = new ModelServer(model, dataset.getNumNumericalVars(), dataset.getClassSize());
+        server.setScoringThreads(Runtime.getRuntime().availableProcessors());
+        server.start(0);//any free port
+        URL url = new URL("http://localhost:" + server.getPort() + "/predict");
+        System.out.println("Serving on " + url);
+
+        //Every line of the data file is one request. The label at the start of each line is ignored by the server
+        List<String> bodies = LoadGenerator.libsvmBodies(file, 1);
+        LoadGenerator generator = new LoadGenerator(url, bodies);
+        generator.run(4, 2, TimeUnit.SECONDS);//warm up the JIT on both ends
+
+        /*
+         * With one client there is never more than one point waiting, so the
+         * server scores each one right away. With many clients, points queue
+         * up while a batch is being scored and get scored together. A latency
+         * budget lets the server wait a little for more points when it
+         * expects them, making the batches larger.
+         */
+        for(long budgetMicros : new long[]{0, 2000})
+        {
+            server.setLatencyBudget(budgetMicros, TimeUnit.MICROSECONDS);
+            for(int clients : new int[]{1, 32})
+            {
+                server.resetStats();
+                LoadGenerator.Report report = generator.run(clients, 5, TimeUnit.SECONDS);
+                System.out.println("Budget " + budgetMicros + " us, " + clients + " clients: " + report);
+                System.out.printf("\tserver side p50 %.3f ms, p99 %.3f ms, mean batch size %.1f\n",
+                        server.getLatency().getPercentile(0.5, TimeUnit.MILLISECONDS),
+                        server.getLatency().getPercentile(0.99, TimeUnit.MILLISECONDS),
+                        server.getMeanBatchSize());
+            }
+        }
+
+        server.stop();
+    }
+}
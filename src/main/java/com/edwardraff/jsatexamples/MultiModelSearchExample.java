@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.parameters.MultiModelSearch;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.ClassificationModelEvaluation;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.OneVSAll;
+import jsat.classifiers.linear.LogisticRegressionDCD;
+import jsat.classifiers.linear.kernelized.KernelSGD;
+import jsat.classifiers.svm.extended.AMM;
+import jsat.classifiers.trees.RandomForest;
+import jsat.io.LIBSVMLoader;
+import jsat.utils.SystemInfo;
+
+/**
+ * You should look at EasyParameterSearch2 first! That example searches the
+ * parameters of four models one after another. Here we search all four at the
+ * same time, so no cores sit idle while a model that can't use them all is
+ * training.
+ *
+ * @author Edward Raff
+ */
+public class MultiModelSearchExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        //MNIST is too big to include, so we use the already scaled diabetes
+        //data. Swap in MNIST as in EasyParameterSearch2 for a bigger test
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        File file = new File(classloader.getResource("diabetes_scale.libsvm").getFile());
+        ClassificationDataSet dataset = LIBSVMLoader.loadC(file);
+        List<ClassificationDataSet> splits = dataset.randomSplit(0.75, 0.25);
+        ClassificationDataSet train = splits.get(0), test = splits.get(1);
+
+        //The same four models as EasyParameterSearch2, with 10 trials each
+        MultiModelSearch search = new MultiModelSearch(3);
+        search.addModel(new OneVSAll(new LogisticRegressionDCD(), true), 10);
+        search.addModel(new AMM(), 10);
+        search.addModel(new RandomForest(), 10);
+        //We can give a model a bigger share of the CPU if we care more about it
+        search.addModel(new KernelSGD(), 10, 2.0);
+        //and we can stop the search early, no matter how many trials are left
+        search.setTimeBudget(5, TimeUnit.MINUTES);
+
+        //We get told about every trial as it finishes, so we can watch the 
+        //search make progress
+        search.setLeaderboardListener((trial, leaderboard) -> 
+        {
+            if(leaderboard.get(0) == trial)
+                System.out.println("New leader after " + leaderboard.size() + " trials: " + trial);
+        });
+
+        System.out.println("Searching on " + SystemInfo.LogicalCores + " cores");
+        long start = System.currentTimeMillis();
+        List<MultiModelSearch.TrialResult> bests = search.search(train);
+        long wallTime = System.currentTimeMillis() - start;
+
+        long trialTime = 0;
+        for(MultiModelSearch.TrialResult trial : search.getLeaderboard())
+            trialTime += trial.getWallTime();
+        System.out.printf("\nRan %d trials in %.2f seconds, they would have taken %.2f seconds one at a time\n", 
+                search.getLeaderboard().size(), wallTime / 1000.0, trialTime / 1e9);
+
+        //Now we check the best parameters of each model on the test set
+        for(MultiModelSearch.TrialResult best : bests)
+        {
+            Classifier model = best.getModel();
+            ClassificationModelEvaluation cme = new ClassificationModelEvaluation(model, train);
+            cme.evaluateTestSet(test);
+            System.out.printf("%-20s CV error %.4f, test error %.4f\n", best.getModelName(), best.getErrorRate(), cme.getErrorRate());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.classifiers.PackedClassificationDataSet;
+import com.edwardraff.jsatexamples.datatransform.FusedTransformPipeline;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.ClassificationModelEvaluation;
+import jsat.classifiers.linear.LogisticRegressionDCD;
+import jsat.io.LIBSVMLoader;
+import jsat.linear.SparseVector;
+
+/**
+ * This example shows how to store a big data set in less memory, using the
+ * {@link PackedClassificationDataSet}. A normal ClassificationDataSet has a
+ * DataPoint, a Vec, and a few arrays for every row. Each of those objects has
+ * a header and is pointed to by another object, which adds up to a lot of
+ * memory that isn't your data, and a lot of work for the garbage collector.
+ *
+ * @author Edward Raff
+ */
+public class PackedDataSetExample
+{
+    public static void main(String... args) throws IOException
+    {
+        /*
+         * EasyParameterSearch2 uses MNIST, which is too big to include with 
+         * the examples. So instead we make a random data set of the same 
+         * shape: 60,000 sparse rows with 784 features, where about 150 of them 
+         * are non-zero. 
+         */
+        report("MNIST sized", () ->
+        {
+            Random rand = new Random(42);
+            int n = 60000, d = 784, nnz = 150;
+            ClassificationDataSet data = new ClassificationDataSet(d, new CategoricalData[0], new CategoricalData(10));
+            for(int i = 0; i < n; i++)
+            {
+                int label = rand.nextInt(10);
+                SparseVector x = new SparseVector(d, nnz);
+                for(int j = 0; j < nnz; j++)
+                    x.set(rand.nextInt(d), (label + 1) * rand.nextDouble());
+                data.addDataPoint(x, label);
+            }
+            return data;
+        });
+
+        //Small dense data works the same way. We use diabetes copied 100 times
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        File diabetesFile = new File(classloader.getResource("diabetes.libsvm").getFile());
+        ClassificationDataSet diabetes = LIBSVMLoader.loadC(diabetesFile);
+        //LIBSVM files are always loaded as sparse vectors, but diabetes has 
+        //almost no zeros. So pack() will pick dense storage for us
+        report("diabetes x100", () ->
+        {
+            ClassificationDataSet data = new ClassificationDataSet(diabetes.getNumNumericalVars(), diabetes.getCategories(), diabetes.getPredicting());
+            for(int copy = 0; copy < 100; copy++)
+                for(int i = 0; i < diabetes.getSampleSize(); i++)
+                    data.addDataPoint(diabetes.getDataPoint(i).getNumericalValues().clone(), diabetes.getDataPointCategory(i));
+            return data;
+        });
+
+        /*
+         * The packed data set is still a ClassificationDataSet, so we can use
+         * it with anything in JSAT. Each call to getDataPoint gives back a 
+         * small view of the packed arrays, so models that keep their own 
+         * references to data points (like SVMs) will still work. 
+         */
+        File scaledFile = new File(classloader.getResource("diabetes_scale.libsvm").getFile());
+        PackedClassificationDataSet packed = PackedClassificationDataSet.pack(LIBSVMLoader.loadC(scaledFile));
+        ClassificationModelEvaluation cme = new ClassificationModelEvaluation(new LogisticRegressionDCD(), packed);
+        cme.evaluateCrossValidation(10);
+        System.out.println("Logistic Regression on packed diabetes_scale, 10 fold CV error rate: " + cme.getErrorRate());
+
+        /*
+         * Transforms can be applied to a packed data set with many threads,
+         * just like a normal one. Rows that still fit are written back into
+         * the packed arrays, and the rest (here all of them, since PCA makes
+         * them shorter) are kept on the side. Either way we should get the
+         * same answer as applying the transform with one thread.
+         */
+        FusedTransformPipeline pca = new FusedTransformPipeline(false, false, true, 4);
+        pca.fit(packed);
+        PackedClassificationDataSet serial = PackedClassificationDataSet.pack(LIBSVMLoader.loadC(scaledFile));
+        PackedClassificationDataSet parallel = PackedClassificationDataSet.pack(LIBSVMLoader.loadC(scaledFile));
+        serial.applyTransform(pca);
+        ForkJoinPool pool = new ForkJoinPool(8);
+        pca.apply(parallel, pool);
+        pool.shutdown();
+        boolean same = true;
+        for(int i = 0; i < serial.getSampleSize(); i++)
+            if(!serial.getDataPoint(i).getNumericalValues().equals(parallel.getDataPoint(i).getNumericalValues()))
+                same = false;
+        System.out.println("PCA applied with 8 threads matches 1 thread: " + same);
+    }
+
+    /**
+     * Packs the data set, and prints out how much memory each version uses.
+     * We show both an estimate made by counting the objects, and a measure of
+     * how much the used heap grows when each version is created. Measuring the
+     * heap is noisy, but it lets us check the estimate.
+     */
+    private static void report(String name, Supplier<ClassificationDataSet> creator)
+    {
+        long before = usedMemory();
+        ClassificationDataSet data = creator.get();
+        long withNormal = usedMemory();
+        long estimate = PackedClassificationDataSet.estimateHeapBytes(data);
+        PackedClassificationDataSet packed = PackedClassificationDataSet.pack(data);
+        data = null;//let the normal version be collected
+        long withPacked = usedMemory();
+
+        System.out.println(name + ": " + packed.getSampleSize() + " rows, stored " + (packed.isSparse() ? "sparse" : "dense"));
+        System.out.printf("\tClassificationDataSet estimated: %,14d bytes, measured: %,14d bytes\n", estimate, withNormal - before);
+        System.out.printf("\tPacked storage:                  %,14d bytes, measured: %,14d bytes\n", packed.getStorageBytes(), withPacked - before);
+        System.out.printf("\t%.1fx smaller\n\n", estimate / (double) packed.getStorageBytes());
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
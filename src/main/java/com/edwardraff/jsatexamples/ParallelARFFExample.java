@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.benchmarks.BenchmarkData;
+import com.edwardraff.jsatexamples.io.ParallelARFFLoader;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import jsat.ARFFLoader;
+import jsat.DataSet;
+import jsat.utils.SystemInfo;
+
+/**
+ * ARFFLoader reads a file using only one thread. When the file gets to
+ * millions of rows, just loading the data can take longer than the rest of
+ * the program. This example compares it with the ParallelARFFLoader, which
+ * splits the file up and parses the pieces on multiple cores.
+ *
+ * @author Edward Raff
+ */
+public class ParallelARFFExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        /*
+         * The ARFF files we ship with the examples are small, so lets make a 
+         * bigger one by repeating the rows of breast-w 2000 times. That 
+         * gives us about 1.4 million rows. 
+         */
+        File file = BenchmarkData.scaledArff("breast-w", 2000);
+        
+        long start = System.currentTimeMillis();
+        DataSet serial = ARFFLoader.loadArffFile(file);
+        long serialTime = System.currentTimeMillis() - start;
+        System.out.println("ARFFLoader: " + serial.getSampleSize() + " rows in " + serialTime/1000.0 + " seconds");
+        
+        //Now lets try the parallel loader with different numbers of threads
+        for(int threads = 1; threads <= SystemInfo.LogicalCores; threads *= 2)
+        {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            start = System.currentTimeMillis();
+            DataSet parallel = ParallelARFFLoader.loadArffFile(file, pool);
+            long time = System.currentTimeMillis() - start;
+            pool.shutdown();
+            
+            //The rows come back in the same order as the serial loader, so we
+            //can compare them one by one
+            boolean same = parallel.getSampleSize() == serial.getSampleSize();
+            for(int i = 0; same && i < serial.getSampleSize(); i++)
+                same = serial.getDataPoint(i).getNumericalValues().equals(parallel.getDataPoint(i).getNumericalValues(), 1e-10);
+            
+            System.out.printf("ParallelARFFLoader, %2d threads: %.3f seconds, %.2fx speedup, matches: %s\n", 
+                    threads, time/1000.0, serialTime/(double)Math.max(time, 1), same);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.classifiers.PackedClassificationDataSet;
+import com.edwardraff.jsatexamples.io.ParallelLIBSVMLoader;
+import com.edwardraff.jsatexamples.io.SyntheticDataSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.io.LIBSVMLoader;
+import jsat.linear.IndexValue;
+import jsat.linear.Vec;
+import jsat.utils.SystemInfo;
+
+/**
+ * LIBSVMLoader reads a file using only one thread, and makes a SparseVector
+ * object for every row. This example compares it with the
+ * ParallelLIBSVMLoader, which memory maps the file, parses pieces of it on
+ * multiple cores, and puts the values straight into compact CSR arrays.
+ *
+ * @author Edward Raff
+ */
+public class ParallelLIBSVMExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        /*
+         * The LIBSVM files we ship with the examples are small and dense, so
+         * lets make a big sparse one that looks like text: 500,000 rows with
+         * 100,000 features and about 40 non-zeros each.
+         */
+        File file = File.createTempFile("sparse", ".libsvm");
+        file.deleteOnExit();
+        SyntheticDataSource.sparseTopics(500000, 100000, 40, new double[]{0.5, 0.3, 0.2}, 1).writeLibsvm(file);
+        System.out.printf("File is %,d MB%n", file.length() >> 20);
+
+        long start = System.currentTimeMillis();
+        ClassificationDataSet serial = LIBSVMLoader.loadC(file);
+        long serialTime = System.currentTimeMillis() - start;
+        System.out.printf("LIBSVMLoader: %,d rows in %.3f seconds, about %,d MB of memory%n", serial.getSampleSize(),
+                serialTime / 1000.0, PackedClassificationDataSet.estimateHeapBytes(serial) >> 20);
+
+        //Now lets try the parallel loader with different numbers of threads
+        for(int threads = 1; threads <= SystemInfo.LogicalCores; threads *= 2)
+        {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            start = System.currentTimeMillis();
+            PackedClassificationDataSet parallel = ParallelLIBSVMLoader.loadC(file, -1, pool);
+            long time = System.currentTimeMillis() - start;
+            pool.shutdown();
+
+            //The values are parsed the same way JSAT does, so they should
+            //match exactly, not just to some tolerance
+            System.out.printf("ParallelLIBSVMLoader, %2d threads: %.3f seconds, %.2fx speedup, %,d MB of memory, matches: %s%n",
+                    threads, time / 1000.0, serialTime / (double) Math.max(time, 1), parallel.getStorageBytes() >> 20,
+                    identical(serial, parallel));
+        }
+
+        /*
+         * When a training and a testing file are loaded separately, each one
+         * gets as many features as its own largest feature index. If the
+         * largest one only shows up in the training file, the two data sets
+         * won't agree, and LIBSVMLoader needs to be told the length. Loading
+         * them together gives them the same features and labels. Here the
+         * test file only uses the first 90,000 features.
+         */
+        File test = File.createTempFile("sparse_test", ".libsvm");
+        test.deleteOnExit();
+        SyntheticDataSource.sparseTopics(1000, 90000, 40, new double[]{0.5, 0.3, 0.2}, 2).writeLibsvm(test);
+        List<PackedClassificationDataSet> both = ParallelLIBSVMLoader.loadC(Arrays.asList(file, test), -1, ForkJoinPool.commonPool());
+        System.out.println("Loaded separately, test has " + LIBSVMLoader.loadC(test).getNumNumericalVars()
+                + " features. Loaded together, train and test have " + both.get(0).getNumNumericalVars()
+                + " and " + both.get(1).getNumNumericalVars());
+    }
+
+    /**
+     * @return {@code true} if both data sets have exactly the same labels and
+     * values
+     */
+    private static boolean identical(ClassificationDataSet a, ClassificationDataSet b)
+    {
+        if(a.getSampleSize() != b.getSampleSize() || a.getNumNumericalVars() != b.getNumNumericalVars())
+            return false;
+        for(int i = 0; i < a.getSampleSize(); i++)
+        {
+            if(a.getDataPointCategory(i) != b.getDataPointCategory(i))
+                return false;
+            Vec x = a.getDataPoint(i).getNumericalValues();
+            Vec y = b.getDataPoint(i).getNumericalValues();
+            if(x.nnz() != y.nnz())
+                return false;
+            for(Iterator<IndexValue> iter = x.getNonZeroIterator(); iter.hasNext(); )
+            {
+                IndexValue iv = iter.next();
+                if(y.get(iv.getIndex()) != iv.getValue())
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.io.BatchSources;
+import com.edwardraff.jsatexamples.io.DataPointBatch;
+import com.edwardraff.jsatexamples.io.DataSetBatchSource;
+import com.edwardraff.jsatexamples.io.PipelinedBatchSource;
+import com.edwardraff.jsatexamples.io.StreamingCSVReader;
+import com.edwardraff.jsatexamples.io.SyntheticDataSource;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Random;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.DataPoint;
+import jsat.classifiers.linear.LinearSGD;
+import jsat.datatransform.DataTransform;
+import jsat.datatransform.LinearTransform;
+import jsat.datatransform.PolynomialTransform;
+import jsat.io.CSV;
+import jsat.linear.Vec;
+import jsat.lossfunctions.SoftmaxLoss;
+
+/**
+ * You should look at StreamingCSVExample first! The examples usually load all
+ * the data, then transform all of it, and only then start training. The CPU
+ * has nothing to do while the file is read, and the disk has nothing to do
+ * while the model trains. A {@link PipelinedBatchSource} runs the three at
+ * the same time, so an online model can start training on the first batch
+ * while the rest of the file is still being read and transformed.
+ *
+ * @author Edward Raff
+ */
+public class PipelinedTrainingExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        /*
+         * First we need a file big enough to be worth the trouble. We write
+         * 200,000 points from 4 overlapping Gaussians in 20 dimensions to one
+         * CSV file for training, and 50,000 more to another for testing.
+         */
+        int trainRows = 200000, testRows = 50000, batchSize = 1000;
+        File trainFile = File.createTempFile("pipeline_train", ".csv");
+        File testFile = File.createTempFile("pipeline_test", ".csv");
+        trainFile.deleteOnExit();
+        testFile.deleteOnExit();
+        SyntheticDataSource generator = new SyntheticDataSource(trainRows + testRows, 20, 4, 7);
+        Random rand = new Random(7);
+        for(int c = 0; c < 4; c++)
+            generator.addGaussian(c, 1.0, Vec.random(20, rand).multiply(4), 3.0);
+        writeCSV(generator, trainRows, trainFile);
+        writeCSV(generator, testRows, testFile);
+        System.out.printf("Wrote %.1f MB of training data\n", trainFile.length() / 1e6);
+
+        /*
+         * Transforms have to be fit before they can be used, and we don't
+         * want to read the whole file just to fit them. The first 10,000
+         * points are plenty to find the range of each feature, to scale them
+         * all to [0, 1]. Then adding all the pairwise products of the
+         * features lets a linear model draw curved boundaries. That makes 230
+         * features, so the transforms are a real share of the work.
+         */
+        DataTransform scale, square = new PolynomialTransform(2);
+        try(StreamingCSVReader reader = new StreamingCSVReader(trainFile.toPath(), 0, 0))
+        {
+            scale = new LinearTransform(BatchSources.head(reader, 10000));
+        }
+
+        /*
+         * The usual way: load everything, transform everything, then train.
+         * A LinearSGD trained with one pass over the data in order is an
+         * online model, so it can be trained from a source either way.
+         */
+        long start = System.currentTimeMillis();
+        ClassificationDataSet train = CSV.readC(0, trainFile.toPath(), 0, Collections.<Integer>emptySet());
+        long loaded = System.currentTimeMillis();
+        train.applyTransform(scale);
+        train.applyTransform(square);
+        long transformed = System.currentTimeMillis();
+        LinearSGD sequentialModel = new LinearSGD(new SoftmaxLoss(), 1e-4, 0);
+        BatchSources.trainC(sequentialModel, new DataSetBatchSource(train), batchSize);
+        long sequentialTime = System.currentTimeMillis() - start;
+        System.out.printf("Sequential: %5d ms (load %d ms, transform %d ms, train %d ms)\n", sequentialTime,
+                loaded - start, transformed - loaded, start + sequentialTime - transformed);
+        train = null;//let the data set be collected, the pipeline never needs it
+
+        /*
+         * The pipelined way. The reader is wrapped in a PipelinedBatchSource
+         * with the same transforms, and the model trains from that. Reading
+         * happens on a thread of its own, and each batch is transformed in
+         * the common ForkJoinPool, while the model trains on this thread.
+         *
+         * The wait times tell us which stage held the others back. If the
+         * reader waited, the model was the slowest part. If the model waited,
+         * reading or transforming was.
+         */
+        LinearSGD pipelinedModel = new LinearSGD(new SoftmaxLoss(), 1e-4, 0);
+        try(PipelinedBatchSource pipeline = new PipelinedBatchSource(new StreamingCSVReader(trainFile.toPath(), 0, 0), batchSize, scale, square))
+        {
+            start = System.currentTimeMillis();
+            BatchSources.trainC(pipelinedModel, pipeline, batchSize);
+            long pipelinedTime = System.currentTimeMillis() - start;
+            System.out.printf("Pipelined:  %5d ms (reader waited %d ms, model waited %d ms), %.2fx faster\n", pipelinedTime,
+                    pipeline.getReaderWaitTime() / 1000000, pipeline.getConsumerWaitTime() / 1000000,
+                    sequentialTime / (double) pipelinedTime);
+        }
+
+        /*
+         * Both models saw the same points in the same order, so they should
+         * be just as good. The test set is scored through a pipeline as well,
+         * so it is never in memory either.
+         */
+        try(PipelinedBatchSource test = new PipelinedBatchSource(new StreamingCSVReader(testFile.toPath(), 0, 0), batchSize, scale, square))
+        {
+            System.out.printf("Test error: sequential %.4f, pipelined %.4f\n",
+                    BatchSources.errorRate(BatchSources.confusionMatrix(sequentialModel, test, batchSize)),
+                    BatchSources.errorRate(BatchSources.confusionMatrix(pipelinedModel, test, batchSize)));
+        }
+    }
+
+    /**
+     * Writes the next rows of a source to a CSV file, with the class label
+     * in the first column
+     */
+    private static void writeCSV(SyntheticDataSource source, int rows, File file) throws IOException
+    {
+        DataPointBatch batch = new DataPointBatch(1000);
+        try(Writer out = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)))
+        {
+            int written = 0;
+            while(written < rows && source.nextBatch(batch))
+                for(int i = 0; i < batch.size() && written < rows; i++, written++)
+                {
+                    out.write(Integer.toString(batch.getLabel(i)));
+                    DataPoint dp = batch.getDataPoint(i);
+                    Vec x = dp.getNumericalValues();
+                    for(int j = 0; j < x.length(); j++)
+                        out.append(',').append(Double.toString(x.get(j)));
+                    out.write('\n');
+                }
+        }
+    }
+}
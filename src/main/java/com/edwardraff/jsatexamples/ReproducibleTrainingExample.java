@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.classifiers.ParallelCrossValidation;
+import com.edwardraff.jsatexamples.clustering.KMeansSweep;
+import com.edwardraff.jsatexamples.clustering.ParallelGapStatistic;
+import com.edwardraff.jsatexamples.parameters.MultiModelSearch;
+import com.edwardraff.jsatexamples.parameters.SuccessiveHalvingSearch;
+import com.edwardraff.jsatexamples.random.ReproducibleMode;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.ClassificationModelEvaluation;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.linear.LinearBatch;
+import jsat.clustering.SeedSelectionMethods.SeedSelection;
+import jsat.clustering.kmeans.HamerlyKMeans;
+import jsat.clustering.kmeans.XMeans;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.distributions.kernels.LinearKernel;
+import jsat.io.LIBSVMLoader;
+import jsat.linear.distancemetrics.EuclideanDistance;
+
+/**
+ * You should look at EasyParameterSearch2 and KMeansAndK first! Running
+ * searches and cross validation on many threads makes them faster, but the
+ * results change a little from run to run, and from a machine with 4 cores
+ * to one with 32. That makes it hard to tell if a change to your code made
+ * things better or if you just got lucky. This example runs the same work on
+ * 1, 2, and 4 threads inside a {@link ReproducibleMode}, and checks that
+ * every result is exactly the same. The trick is to give everything random
+ * its own seed, split from the mode's seeds: the folds of cross validation,
+ * a train/test split, a random search, and a few clusterers. Models that ask
+ * JSAT for random numbers while they train can't be given a seed, so they
+ * are only repeatable on one thread. See the ReproducibleMode documentation
+ * for the ones to avoid.
+ *
+ * @author Edward Raff
+ */
+public class ReproducibleTrainingExample
+{
+    public static void main(String[] args) throws Exception
+    {
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        ClassificationDataSet data = LIBSVMLoader.loadC(new File(classloader.getResource("diabetes_scale.libsvm").getFile()));
+
+        List<String> expected = null;
+        for(int threads : new int[]{1, 2, 4})
+        {
+            long start = System.currentTimeMillis();
+            List<String> results;
+            /*
+             * Everything random inside the block gets a seed split from 42,
+             * by a fixed index rather than by the order things happen to run
+             * in.
+             */
+            try(ReproducibleMode mode = ReproducibleMode.enable(42))
+            {
+                results = runEverything(data, threads, mode);
+            }
+            long time = System.currentTimeMillis() - start;
+
+            System.out.println(threads + " thread(s), " + time + " ms");
+            for(String result : results)
+                System.out.println("\t" + result);
+            if(expected == null)
+                expected = results;
+            else
+                System.out.println("\tSame as 1 thread: " + expected.equals(results));
+        }
+    }
+
+    /**
+     * Runs a few searches, cross validations, and clusterings on the given
+     * number of threads. Doubles are printed in full, so two lists are only
+     * equal if every number is exactly the same.
+     */
+    private static List<String> runEverything(ClassificationDataSet data, int threads, ReproducibleMode mode)
+    {
+        List<String> results = new ArrayList<>();
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            /*
+             * The folds run in parallel, and are made with a seed split from
+             * the mode's seeds. LinearBatch doesn't use any randomness while
+             * it trains, so nothing else depends on which fold runs first.
+             */
+            ParallelCrossValidation cv = new ParallelCrossValidation(new LinearBatch(), data);
+            cv.evaluateCrossValidation(5, mode.getSeeds().split(0).getRandom(), pool);
+            results.add("LinearBatch in ParallelCrossValidation error: " + cv.getErrorRate());
+
+            //without a Random, the folds would come from JSAT's shared seed
+            ClassificationModelEvaluation cme = new ClassificationModelEvaluation(new PlattSMO(new LinearKernel()), data);
+            cme.evaluateCrossValidation(5, mode.getSeeds().split(1).getRandom());
+            results.add("PlattSMO in ClassificationModelEvaluation error: " + cme.getErrorRate());
+
+            //the same goes for a train/test split
+            List<ClassificationDataSet> split = data.randomSplit(mode.getSeeds().split(5).getRandom(), 0.75, 0.25);
+            LinearBatch model = new LinearBatch();
+            model.trainC(split.get(0));
+            int wrong = 0;
+            for(int i = 0; i < split.get(1).getSampleSize(); i++)
+                if(model.classify(split.get(1).getDataPoint(i)).mostLikely() != split.get(1).getDataPointCategory(i))
+                    wrong++;
+            results.add("LinearBatch on a random split error: " + wrong / (double) split.get(1).getSampleSize());
+
+            /*
+             * JSAT's RandomSearch makes its folds from RandomUtil, so it is
+             * only repeatable on one thread. When every trial gets all of the
+             * data, a successive halving search is a plain random search that
+             * takes a seed.
+             */
+            SuccessiveHalvingSearch random = new SuccessiveHalvingSearch((Classifier) new PlattSMO(new LinearKernel()), 3);
+            random.setSeeds(mode.getSeeds().split(6));
+            random.setMinDataFraction(1);
+            random.setTrials(6);
+            random.autoAddParameters(data);
+            random.trainC(data, exec);
+            results.add("Random search score: " + random.getBestScore());
+
+            //successive halving gives every trial and round its own seed
+            SuccessiveHalvingSearch halving = new SuccessiveHalvingSearch((Classifier) new PlattSMO(new LinearKernel()), 3);
+            halving.setSeeds(mode.getSeeds().split(2));
+            halving.setTrials(9);
+            halving.autoAddParameters(data);
+            halving.trainC(data, exec);
+            results.add("SuccessiveHalvingSearch score: " + halving.getBestScore());
+
+            //which model gets a thread next depends on timing, but the final leaderboard doesn't
+            MultiModelSearch multi = new MultiModelSearch(3);
+            multi.setSeeds(mode.getSeeds().split(3));
+            multi.addModel(new LinearBatch(), 5);
+            multi.addModel(new PlattSMO(new LinearKernel()), 5);
+            for(MultiModelSearch.TrialResult trial : multi.search(data, exec, threads))
+                results.add("MultiModelSearch: " + trial);
+
+            //the k-means sweep adds up the new means in the same order on any number of threads
+            KMeansSweep sweep = new KMeansSweep(new EuclideanDistance(), mode.getSeeds().split(4).getRandom());
+            StringBuilder sse = new StringBuilder("KMeansSweep SSE:");
+            for(KMeansSweep.Result result : sweep.sweep(data, 2, 6, exec))
+                sse.append(' ').append(result.getSSE());
+            results.add(sse.toString());
+
+            //the gap statistic was not given a seed, so it takes the next one from the mode
+            ParallelGapStatistic gap = new ParallelGapStatistic();
+            int[] gapClusters = gap.cluster(data, 1, 8, exec, (int[]) null);
+            results.add("ParallelGapStatistic k: " + (IntStream.of(gapClusters).max().getAsInt() + 1));
+
+            //JSAT's k-means is given a seed, but no thread pool, since it adds the means up in the order the threads finish
+            XMeans xMeans = new XMeans(new HamerlyKMeans(new EuclideanDistance(), SeedSelection.KPP, mode.getSeeds().split(7).getRandom()));
+            int[] xClusters = xMeans.cluster(data, (int[]) null);
+            results.add("XMeans k: " + (IntStream.of(xClusters).max().getAsInt() + 1));
+        }
+        finally
+        {
+            exec.shutdownNow();
+            pool.shutdownNow();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.io.BatchSources;
+import com.edwardraff.jsatexamples.io.DataPointBatch;
+import com.edwardraff.jsatexamples.io.StreamingCSVReader;
+import java.io.File;
+import java.io.IOException;
+import jsat.ARFFLoader;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.bayesian.NaiveBayesUpdateable;
+import jsat.io.CSV;
+
+/**
+ * You should look at CSVExample first! This example shows how to work with a
+ * CSV file that is too big to load into memory, by reading it in batches and
+ * feeding it to an online model.
+ *
+ * @author Edward Raff
+ */
+public class StreamingCSVExample
+{
+    public static void main(String... args) throws IOException
+    {
+        //Just like in CSVExample, lets write out the iris dataset to a CSV file
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        File irisArffFile = new File(classloader.getResource("iris.arff").getFile());
+        ClassificationDataSet irisDataSet = ARFFLoader.loadArffFile(irisArffFile).asClassificationDataSet(0);
+        File irisCSVFile = new File(irisArffFile.getParent(), "iris_stream.csv");
+        CSV.write(irisDataSet, irisCSVFile.toPath());
+        
+        /*
+         * CSV.readC loads every row into memory before we can use any of 
+         * them. That is fine for iris, but not for a 50GB file! The 
+         * StreamingCSVReader instead reads the file a batch at a time. It uses 
+         * the same arguments as readC: the class label is in column 0, and we 
+         * don't skip any lines. 
+         */
+        try(StreamingCSVReader reader = new StreamingCSVReader(irisCSVFile.toPath(), 0, 0))
+        {
+            System.out.println("Found " + reader.getNumNumericalVars() + " features and " + reader.getPredicting().getNumOfCategories() + " classes");
+            
+            //We can look at the batches ourselves. The batch object is reused
+            //for every call, so the memory used stays the same no matter how 
+            //big the file is
+            DataPointBatch batch = new DataPointBatch(32);
+            int batches = 0;
+            while(reader.nextBatch(batch))
+                batches++;
+            System.out.println("The file was read in " + batches + " batches");
+            
+            /*
+             * More usefully, we can train any UpdateableClassifier directly 
+             * from the file. Since the data points in a batch are reused, this
+             * should be a model that doesn't hold on to the points it sees. 
+             * Naive Bayes is a good example. 
+             */
+            NaiveBayesUpdateable model = new NaiveBayesUpdateable();
+            long seen = BatchSources.trainC(model, reader, 32);
+            System.out.println("Trained on " + seen + " data points");
+            
+            //And we can evaluate a model the same way, again without loading
+            //everything into memory. (We are testing on the training data here
+            //just to keep the example short, don't do that for real!)
+            double[][] confusion = BatchSources.confusionMatrix(model, reader, 32);
+            System.out.println("Error rate: " + BatchSources.errorRate(confusion));
+        }
+        
+        irisCSVFile.delete();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.classifiers.StreamingCrossValidation;
+import com.edwardraff.jsatexamples.io.ParallelLIBSVMLoader;
+import com.edwardraff.jsatexamples.io.StreamingLIBSVMReader;
+import com.edwardraff.jsatexamples.io.SyntheticDataSource;
+import com.edwardraff.jsatexamples.random.SeedSequence;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.ClassificationModelEvaluation;
+import jsat.classifiers.UpdateableClassifier;
+import jsat.classifiers.bayesian.NaiveBayesUpdateable;
+import jsat.classifiers.linear.SPA;
+import jsat.linear.DenseVector;
+
+/**
+ * You should look at ClassificationCrossValidationExample and
+ * StreamingCSVExample first! Cross validation normally needs the whole data
+ * set in memory, plus a copy of the training data for each fold. This example
+ * cross validates online models straight from a LIBSVM file instead, so the
+ * file could be far bigger than the heap.
+ *
+ * @author Edward Raff
+ */
+public class StreamingCrossValidationExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        /*
+         * We need a big file to stream from, so we write out 200,000 points
+         * from 3 overlapping Gaussians in 20 dimensions. The points are
+         * generated in a random order, which matters for online models: they
+         * only see each point once, and would learn poorly from a file sorted
+         * by class.
+         */
+        File file = File.createTempFile("streaming_cv", ".libsvm");
+        file.deleteOnExit();
+        Random rand = new Random(7);
+        try(SyntheticDataSource synthetic = new SyntheticDataSource(200000, 20, 3, 7))
+        {
+            for(int c = 0; c < 3; c++)
+            {
+                DenseVector mean = new DenseVector(20);
+                for(int j = 0; j < 20; j++)
+                    mean.set(j, rand.nextDouble());
+                synthetic.addGaussian(c, 1.0, mean, 1.0);
+            }
+            synthetic.writeLibsvm(file);
+        }
+        System.out.printf("Wrote %.1f MB of LIBSVM data\n", file.length() / 1024.0 / 1024.0);
+
+        UpdateableClassifier[] models = new UpdateableClassifier[]
+        {
+            new NaiveBayesUpdateable(), new SPA()
+        };
+
+        /*
+         * The StreamingLIBSVMReader reads the file a batch at a time. It
+         * makes one quick pass first to find the number of features and the
+         * labels, since LIBSVM files don't say what they are.
+         */
+        try(StreamingLIBSVMReader reader = new StreamingLIBSVMReader(file.toPath()))
+        {
+            for(UpdateableClassifier model : models)
+            {
+                /*
+                 * A file can't be shuffled into folds, so each row is put in
+                 * a fold by hashing its row number with a seed. All 10 models
+                 * learn from one pass over the file, and are then tested with
+                 * a second pass, so the file is read twice instead of 20
+                 * times. Only the 10 models and one batch are ever in memory.
+                 */
+                StreamingCrossValidation streamingCV = new StreamingCrossValidation(model, reader);
+                long start = System.currentTimeMillis();
+                streamingCV.evaluateCrossValidation(10, new SeedSequence(42));
+                long time = System.currentTimeMillis() - start;
+                System.out.println("\n" + model.getClass().getSimpleName() + ", streamed from the file:");
+                System.out.printf("Error rate %.4f%% (+/- %.4f over folds) in %d ms\n",
+                        100.0 * streamingCV.getErrorRate(), 100.0 * streamingCV.getErrorRateStats().getStandardDeviation(), time);
+                streamingCV.prettyPrintConfusionMatrix();
+
+                //Each model sees its rows in file order, so the number of
+                //threads doesn't change the answer
+                StreamingCrossValidation oneThread = new StreamingCrossValidation(model, reader);
+                ForkJoinPool single = new ForkJoinPool(1);
+                oneThread.evaluateCrossValidation(10, new SeedSequence(42), single);
+                single.shutdown();
+                System.out.println("Same with 1 thread: " + (oneThread.getErrorRate() == streamingCV.getErrorRate()));
+            }
+        }
+
+        /*
+         * This file does fit in memory, so we can compare with the usual
+         * cross validation. The folds are different, and it shuffles the
+         * training data before giving it to an online model, so the error
+         * rates won't be exactly the same. Naive Bayes doesn't care about the
+         * order of the data and comes out very close, while SPA does care.
+         */
+        ClassificationDataSet dataSet = ParallelLIBSVMLoader.loadC(file);
+        for(UpdateableClassifier model : models)
+        {
+            ClassificationModelEvaluation modelEvaluation = new ClassificationModelEvaluation(model, dataSet);
+            long start = System.currentTimeMillis();
+            modelEvaluation.evaluateCrossValidation(10, new Random(42));
+            long time = System.currentTimeMillis() - start;
+            System.out.printf("\n%s, in memory: error rate %.4f%% in %d ms\n", model.getClass().getSimpleName(),
+                    100.0 * modelEvaluation.getErrorRate(), time);
+        }
+    }
+}
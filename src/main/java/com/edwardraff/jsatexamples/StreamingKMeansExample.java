@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.clustering.StreamingKMeans;
+import com.edwardraff.jsatexamples.io.StreamingCSVReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import jsat.ARFFLoader;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.clustering.evaluation.ClusterEvaluation;
+import jsat.clustering.evaluation.NormalizedMutualInformation;
+import jsat.clustering.kmeans.HamerlyKMeans;
+import jsat.datatransform.Imputer;
+import jsat.datatransform.LinearTransform;
+import jsat.io.CSV;
+
+/**
+ * You should look at KMeansAndK and StreamingCSVExample first! This example
+ * shows how to run k-means on data that is too big to fit in memory, by
+ * reading it from disk in batches.
+ *
+ * @author Edward Raff
+ */
+public class StreamingKMeansExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        //We use NMI to compare the clusters to the class labels, using JSAT's version where 0 is best
+        ClusterEvaluation evaluator = new NormalizedMutualInformation();
+
+        /*
+         * StreamingKMeans is a normal JSAT clusterer, so first lets compare it
+         * to HamerlyKMeans on the small data sets from KMeansAndK. We ask for
+         * as many clusters as there are classes.
+         */
+        String[] dataSetName = new String[]
+        {
+            "breast-w", "heart-statlog", "ionosphere", "iris", "sonar", 
+        };
+        System.out.printf("%-15s| %-14s| %-14s\n", "Data Set", "Hamerly NMI", "Streaming NMI");
+        for(String name : dataSetName)
+        {
+            ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+            File file = new File(classloader.getResource(name + ".arff").getFile());
+            ClassificationDataSet data = ARFFLoader.loadArffFile(file).asClassificationDataSet(0);
+            data.applyTransform(new Imputer(data));
+            data.applyTransform(new LinearTransform(data));
+
+            int k = data.getClassSize();
+            int[] hamerly = new HamerlyKMeans().cluster(data, k, (int[]) null);
+            StreamingKMeans streaming = new StreamingKMeans();
+            //these data sets are tiny, so we use small batches and a few passes
+            streaming.setBatchSize(50);
+            streaming.setPasses(5);
+            int[] stream = streaming.cluster(data, k, (int[]) null);
+            System.out.printf("%-15s| %.3f         | %.3f\n", name, evaluator.evaluate(hamerly, data), evaluator.evaluate(stream, data));
+        }
+
+        /*
+         * Now the interesting case. We write a CSV file with 500,000 points 
+         * from 8 Gaussians, one row at a time, so it never has to be in 
+         * memory. Pretend this is a file much bigger than your RAM. The class 
+         * label (which Gaussian the point came from) goes in the first column. 
+         */
+        File csvFile = File.createTempFile("gaussians", ".csv");
+        csvFile.deleteOnExit();
+        int n = 500000, d = 10, k = 8;
+        Random rand = new Random(42);
+        double[][] centers = new double[k][d];
+        for(double[] center : centers)
+            for(int j = 0; j < d; j++)
+                center[j] = rand.nextDouble() * 10;
+        try(BufferedWriter writer = Files.newBufferedWriter(csvFile.toPath()))
+        {
+            for(int i = 0; i < n; i++)
+            {
+                int c = rand.nextInt(k);
+                writer.write(Integer.toString(c));
+                for(int j = 0; j < d; j++)
+                    writer.write("," + (centers[c][j] + rand.nextGaussian()));
+                writer.newLine();
+            }
+        }
+
+        /*
+         * StreamingKMeans can read straight from the file. With one pass it 
+         * reads the file once to find the means, and once more to assign 
+         * each row to a cluster. Memory use is just the means, one batch, and
+         * the 10,000 points used to pick the seeds. 
+         */
+        StreamingKMeans streaming = new StreamingKMeans();
+        int[] onePass, threePass;
+        long start = System.currentTimeMillis();
+        try(StreamingCSVReader reader = new StreamingCSVReader(csvFile.toPath(), 0, 0))
+        {
+            onePass = streaming.cluster(reader, k);
+            long onePassTime = System.currentTimeMillis() - start;
+
+            streaming.setPasses(3);
+            start = System.currentTimeMillis();
+            threePass = streaming.cluster(reader, k);
+            long threePassTime = System.currentTimeMillis() - start;
+            System.out.printf("\nStreaming one pass:    %.2f seconds\n", onePassTime / 1000.0);
+            System.out.printf("Streaming three passes: %.2f seconds\n", threePassTime / 1000.0);
+        }
+
+        //To check the results we load the file into memory, which is only OK 
+        //because this example's file isn't really bigger than RAM
+        ClassificationDataSet all = CSV.readC(0, csvFile.toPath(), 0, new java.util.HashSet<>());
+        start = System.currentTimeMillis();
+        int[] hamerly = new HamerlyKMeans().cluster(all, k, (int[]) null);
+        System.out.printf("HamerlyKMeans in memory: %.2f seconds\n", (System.currentTimeMillis() - start) / 1000.0);
+
+        System.out.printf("\nNMI, one pass:      %.4f\n", evaluator.evaluate(onePass, all));
+        System.out.printf("NMI, three passes:  %.4f\n", evaluator.evaluate(threePass, all));
+        System.out.printf("NMI, HamerlyKMeans: %.4f\n", evaluator.evaluate(hamerly, all));
+    }
+}
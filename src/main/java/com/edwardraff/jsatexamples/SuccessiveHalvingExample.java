@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.parameters.SuccessiveHalvingSearch;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.ClassificationModelEvaluation;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.OneVSAll;
+import jsat.classifiers.linear.LogisticRegressionDCD;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.svm.SupportVectorLearner.CacheMode;
+import jsat.datatransform.LinearTransform;
+import jsat.distributions.kernels.RBFKernel;
+import jsat.io.LIBSVMLoader;
+import jsat.parameters.RandomSearch;
+
+/**
+ * You should look at EasyParameterSearch first! This example compares
+ * RandomSearch to the SuccessiveHalvingSearch, which tries the same number of
+ * random parameter values but throws the bad ones out early, using only a
+ * small part of the data to do so.
+ *
+ * @author Edward Raff
+ */
+public class SuccessiveHalvingExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        File file = new File(classloader.getResource("diabetes.libsvm").getFile());
+        ClassificationDataSet dataset = LIBSVMLoader.loadC(file);
+
+        System.out.println("diabetes, PlattSMO with an RBF kernel");
+        PlattSMO svm = new PlattSMO(new RBFKernel());
+        svm.setCacheMode(CacheMode.FULL);//Small dataset, so we can do this
+        compare(svm, dataset, 81);
+
+        /*
+         * MNIST is too big to include with the examples. If you download it 
+         * like EasyParameterSearch2 describes, and put it in the resources 
+         * folder, we will run the comparison on it as well. 
+         */
+        URL mnist = classloader.getResource("mnist");
+        if(mnist == null)
+        {
+            System.out.println("\nMNIST not found in the resources, skipping it");
+            return;
+        }
+        ClassificationDataSet train = LIBSVMLoader.loadC(new File(mnist.getFile()));
+        train.applyTransform(new LinearTransform(train));
+        System.out.println("\nMNIST, one-vs-all Logistic Regression");
+        compare(new OneVSAll(new LogisticRegressionDCD(), true), train, 27);
+    }
+
+    private static void compare(Classifier model, ClassificationDataSet dataset, int trials)
+    {
+        //split the data so we can check the final models on data neither search saw
+        List<ClassificationDataSet> splits = dataset.randomSplit(0.75, 0.25);
+        ClassificationDataSet train = splits.get(0), test = splits.get(1);
+
+        //First the normal RandomSearch, exactly as in EasyParameterSearch
+        RandomSearch randomSearch = new RandomSearch(model, 3);
+        randomSearch.setTrials(trials);
+        if(randomSearch.autoAddParameters(train) == 0)
+        {
+            System.out.println("This model dosn't seem to have any easy to tune parameters");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ClassificationModelEvaluation cme = new ClassificationModelEvaluation(randomSearch, train);
+        cme.evaluateTestSet(test);
+        long randomTime = System.currentTimeMillis() - start;
+        //every trial is trained on 2/3 of the data, 3 times
+        long randomPoints = (long) trials * 2 * train.getSampleSize();
+        System.out.printf("\tRandomSearch:       %3d trials, %,12d training points, %6.2f seconds, test error %.4f\n",
+                trials, randomPoints, randomTime / 1000.0, cme.getErrorRate());
+
+        /*
+         * The SuccessiveHalvingSearch is set up the same way. We tell it to 
+         * start with the same number of trials. With the default eta of 3, 
+         * all of them get tested on 1/27th of the data, the best third of 
+         * those get tested on 1/9th, and so on. 
+         */
+        SuccessiveHalvingSearch halving = new SuccessiveHalvingSearch(model, 3);
+        halving.setTrials(trials);
+        halving.autoAddParameters(train);
+        start = System.currentTimeMillis();
+        cme = new ClassificationModelEvaluation(halving, train);
+        cme.setKeepModels(true);
+        cme.evaluateTestSet(test);
+        long halvingTime = System.currentTimeMillis() - start;
+        //evaluateTestSet trains a clone of the search, so we keep the trained
+        //clone to ask it how much work it did
+        SuccessiveHalvingSearch trained = (SuccessiveHalvingSearch) cme.getKeptModels()[0];
+        System.out.printf("\tSuccessive halving: %3d trials, %,12d training points, %6.2f seconds, test error %.4f\n",
+                trials, trained.getTrainingPointsUsed(), halvingTime / 1000.0, cme.getErrorRate());
+
+        //Hyperband runs several rounds of successive halving, some less 
+        //aggressive than others, in case the small subsets are misleading
+        halving.setHyperband(true);
+        start = System.currentTimeMillis();
+        cme = new ClassificationModelEvaluation(halving, train);
+        cme.setKeepModels(true);
+        cme.evaluateTestSet(test);
+        long hyperbandTime = System.currentTimeMillis() - start;
+        trained = (SuccessiveHalvingSearch) cme.getKeptModels()[0];
+        System.out.printf("\tHyperband:          %3d evals,  %,12d training points, %6.2f seconds, test error %.4f\n",
+                trained.getEvaluations(), trained.getTrainingPointsUsed(), hyperbandTime / 1000.0, cme.getErrorRate());
+    }
+}
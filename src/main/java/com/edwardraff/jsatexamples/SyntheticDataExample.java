@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples;
+
+import com.edwardraff.jsatexamples.classifiers.PackedClassificationDataSet;
+import com.edwardraff.jsatexamples.io.DataPointBatch;
+import com.edwardraff.jsatexamples.io.SyntheticDataSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import jsat.linear.DenseMatrix;
+import jsat.linear.DenseVector;
+import jsat.linear.IndexValue;
+import jsat.linear.Matrix;
+
+/**
+ * GeneratingDataExample makes a few hundred points with NormalM, one at a
+ * time. To test how code copes with millions of rows we need something much
+ * faster, that does not have to keep all the points in memory, and gives the
+ * same data every time. This example shows {@link SyntheticDataSource} doing
+ * that for dense and sparse data.
+ *
+ * @author Edward Raff
+ */
+public class SyntheticDataExample
+{
+    public static void main(String[] args) throws IOException
+    {
+        /*
+         * A mixture of 3 Gaussians in 10 dimensions, like the ones in
+         * GeneratingDataExample, except the classes are imbalanced: class 0
+         * is 90% of the data. The first Gaussian has correlated features,
+         * which is done with a full covariance matrix just like NormalM.
+         */
+        int d = 10;
+        SyntheticDataSource dense = new SyntheticDataSource(2000000, d, 3, 42);
+        Matrix covariance = new DenseMatrix(d, d);
+        for(int i = 0; i < d; i++)
+            for(int j = 0; j < d; j++)
+                covariance.set(i, j, Math.pow(0.5, Math.abs(i - j)));
+        dense.addGaussian(0, 0.90, new DenseVector(d), covariance);
+        DenseVector mean1 = new DenseVector(d);
+        mean1.set(0, 3.0);
+        dense.addGaussian(1, 0.08, mean1, 1.0);
+        DenseVector mean2 = new DenseVector(d);
+        mean2.set(1, 3.0);
+        dense.addGaussian(2, 0.02, mean2, 0.5);
+
+        /*
+         * Reading the source works like any other DataPointBatchSource. The
+         * rows of each batch are made in parallel, and the batch's points are
+         * reused, so this needs almost no memory no matter how many rows
+         * there are.
+         */
+        DataPointBatch batch = new DataPointBatch(1024);
+        long[] counts = new long[3];
+        long start = System.nanoTime();
+        while(dense.nextBatch(batch))
+            for(int i = 0; i < batch.size(); i++)
+                counts[batch.getLabel(i)]++;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Made %,d dense rows in %.2f s, %,.0f rows/sec%n", dense.getRows(), seconds, dense.getRows() / seconds);
+        System.out.printf("Class sizes: %,d %,d %,d%n", counts[0], counts[1], counts[2]);
+
+        /*
+         * Every row has its own random stream, made from the seed and the
+         * row's index. So the data is the same with any number of threads
+         * and any batch size, and any single row can be made on its own.
+         */
+        long checksum = checksum(dense, 1024);
+        dense.setPool(new ForkJoinPool(1));
+        boolean same = checksum == checksum(dense, 100);
+        dense.setPool(ForkJoinPool.commonPool());
+        System.out.println("Same data with 1 thread and batches of 100: " + same);
+        System.out.println("Row 1,234,567 is " + dense.getDataPoint(1234567).getNumericalValues()
+                + " with label " + dense.getDataPointCategory(1234567));
+
+        /*
+         * Packing the source puts the rows straight into columnar storage,
+         * without ever making a normal ClassificationDataSet.
+         */
+        start = System.nanoTime();
+        PackedClassificationDataSet packed = PackedClassificationDataSet.pack(dense, false);
+        seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Packed %,d rows into %,d MB in %.2f s%n", packed.getSampleSize(),
+                packed.getStorageBytes() >> 20, seconds);
+        packed = null;
+
+        /*
+         * Sparse data that looks like text: 100,000 features with about 40
+         * non-zeros each, and 4 imbalanced classes. This is written to disk
+         * in LIBSVM's format, which is made and formatted in parallel.
+         */
+        SyntheticDataSource sparse = SyntheticDataSource.sparseTopics(1000000, 100000, 40, new double[]{0.7, 0.2, 0.08, 0.02}, 7);
+        File file = File.createTempFile("synthetic", ".libsvm");
+        file.deleteOnExit();
+        start = System.nanoTime();
+        sparse.writeLibsvm(file);
+        seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Wrote %,d sparse rows (%,d MB) in %.2f s, %,.0f rows/sec%n", sparse.getRows(),
+                file.length() >> 20, seconds, sparse.getRows() / seconds);
+        file.delete();
+    }
+
+    /**
+     * @return a hash of every value and label in the source
+     */
+    private static long checksum(SyntheticDataSource source, int batchSize)
+    {
+        source.reset();
+        DataPointBatch batch = new DataPointBatch(batchSize);
+        long hash = 1;
+        while(source.nextBatch(batch))
+            for(int i = 0; i < batch.size(); i++)
+            {
+                hash = 31 * hash + batch.getLabel(i);
+                for(IndexValue iv : batch.getDataPoint(i).getNumericalValues())
+                    hash = 31 * hash + Double.hashCode(iv.getValue());
+            }
+        return hash;
+    }
+}
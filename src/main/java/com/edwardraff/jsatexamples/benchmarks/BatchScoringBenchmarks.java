@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import com.edwardraff.jsatexamples.classifiers.BatchClassifier;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.DataPoint;
+import jsat.classifiers.bayesian.NaiveBayes;
+import jsat.classifiers.linear.LogisticRegressionDCD;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.trees.RandomForest;
+import jsat.distributions.kernels.RBFKernel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares scoring a data set one point at a time with
+ * {@link Classifier#classify(DataPoint) } against scoring it in one call to a
+ * {@link BatchClassifier}. One operation is scoring every point of the data
+ * set, so the gc.alloc.rate.norm column of the GC profiler (which
+ * {@link BenchmarkRunner} always turns on) is the bytes allocated to score
+ * the whole set. For the batch path it should be zero, or close to it.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchScoringBenchmarks
+{
+    /**
+     * A trained model, both as it is and as a {@link BatchClassifier}, and
+     * the points and output arrays to score with them
+     */
+    @State(Scope.Thread)
+    public static class ScoringState
+    {
+        @Param({"NaiveBayes", "LogisticRegressionDCD", "PlattSMO", "RandomForest"})
+        public String model;
+
+        /**
+         * How many copies of diabetes to score. The models are always trained
+         * on the original, since SMO is quadratic in the training set size.
+         */
+        @Param({"10"})
+        public int scale;
+
+        public Classifier trained;
+        public List<DataPoint> points;
+        public BatchClassifier batch;
+        public double[] probabilities;
+        public int[] predictions;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            ClassificationDataSet train = BenchmarkData.loadLibsvmC("diabetes_scale.libsvm", 1);
+            switch(model)
+            {
+                case "NaiveBayes":
+                    trained = new NaiveBayes();
+                    break;
+                case "LogisticRegressionDCD":
+                    trained = new LogisticRegressionDCD();
+                    break;
+                case "PlattSMO":
+                    trained = new PlattSMO(new RBFKernel(0.5));
+                    break;
+                default:
+                    trained = new RandomForest();
+            }
+            trained.trainC(train);
+
+            ClassificationDataSet test = BenchmarkData.loadLibsvmC("diabetes_scale.libsvm", scale);
+            points = test.getDataPoints();
+            batch = BatchClassifier.of(trained, test.getClassSize());
+            probabilities = new double[points.size() * test.getClassSize()];
+            predictions = new int[points.size()];
+        }
+    }
+
+    @Benchmark
+    public void perPoint(ScoringState state, Blackhole bh)
+    {
+        List<DataPoint> points = state.points;
+        for(int i = 0; i < points.size(); i++)
+            bh.consume(state.trained.classify(points.get(i)).mostLikely());
+    }
+
+    @Benchmark
+    public int[] batch(ScoringState state)
+    {
+        state.batch.classify(state.points, 0, state.points.size(), state.probabilities, state.predictions);
+        return state.predictions;
+    }
+}
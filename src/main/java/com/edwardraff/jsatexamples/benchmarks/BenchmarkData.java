@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import jsat.ARFFLoader;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.datatransform.LinearTransform;
+import jsat.io.LIBSVMLoader;
+import jsat.linear.DenseVector;
+import jsat.linear.SparseVector;
+
+/**
+ * Helper methods shared by the benchmarks. The bundled data sets are tiny, so
+ * to get meaningful numbers the benchmarks can ask for a "scaled up" copy of a
+ * resource, which is just the original file with its data rows repeated
+ * <i>scale</i> times. The copies are written to temporary files that are
+ * removed when the JVM exits.
+ *
+ * @author Edward Raff
+ */
+public class BenchmarkData
+{
+    private BenchmarkData()
+    {
+    }
+
+    /**
+     * Gets one of the files in src/main/resources, the same way all the
+     * examples do.
+     *
+     * @param name the name of the resource, such as "iris.arff"
+     * @return the file for the resource
+     */
+    public static File resourceFile(String name)
+    {
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        return new File(classloader.getResource(name).getFile());
+    }
+
+    /**
+     * Creates a copy of an ARFF resource with the data section repeated
+     * {@code scale} times. The header is only written once, so the result is
+     * still a valid ARFF file.
+     *
+     * @param name the ARFF resource name, without the ".arff" extension
+     * @param scale how many copies of the data rows to write
+     * @return a temporary ARFF file, or the original if {@code scale} is 1
+     * @throws IOException if the copy could not be written
+     */
+    public static File scaledArff(String name, int scale) throws IOException
+    {
+        File original = resourceFile(name + ".arff");
+        if(scale <= 1)
+            return original;
+
+        List<String> header = new ArrayList<>();
+        List<String> rows = new ArrayList<>();
+        try(BufferedReader reader = Files.newBufferedReader(original.toPath(), StandardCharsets.UTF_8))
+        {
+            boolean inData = false;
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                if(inData)
+                {
+                    if(!line.trim().isEmpty() && !line.startsWith("%"))
+                        rows.add(line);
+                }
+                else
+                {
+                    header.add(line);
+                    if(line.trim().toLowerCase().startsWith("@data"))
+                        inData = true;
+                }
+            }
+        }
+
+        return writeScaled(name, ".arff", header, rows, scale);
+    }
+
+    /**
+     * Creates a copy of a LIBSVM resource with every line repeated
+     * {@code scale} times.
+     *
+     * @param name the full resource name, such as "diabetes.libsvm"
+     * @param scale how many copies of the data rows to write
+     * @return a temporary LIBSVM file, or the original if {@code scale} is 1
+     * @throws IOException if the copy could not be written
+     */
+    public static File scaledLibsvm(String name, int scale) throws IOException
+    {
+        File original = resourceFile(name);
+        if(scale <= 1)
+            return original;
+        List<String> rows = new ArrayList<>();
+        for(String line : Files.readAllLines(original.toPath(), StandardCharsets.UTF_8))
+            if(!line.trim().isEmpty())
+                rows.add(line);
+        return writeScaled(name, ".libsvm", new ArrayList<>(), rows, scale);
+    }
+
+    /**
+     * Loads a scaled copy of an ARFF resource as a classification data set.
+     * All the bundled ARFF files have the class label as their only
+     * categorical feature, so index 0 is used as the target.
+     *
+     * @param name the ARFF resource name, without the ".arff" extension
+     * @param scale how many copies of the data rows to use
+     * @return the classification data set
+     * @throws IOException if the copy could not be written
+     */
+    public static ClassificationDataSet loadArffC(String name, int scale) throws IOException
+    {
+        return ARFFLoader.loadArffFile(scaledArff(name, scale)).asClassificationDataSet(0);
+    }
+
+    /**
+     * Loads a scaled copy of a LIBSVM resource as a classification data set.
+     *
+     * @param name the full resource name, such as "diabetes.libsvm"
+     * @param scale how many copies of the data rows to use
+     * @return the classification data set
+     * @throws IOException if the file could not be read
+     */
+    public static ClassificationDataSet loadLibsvmC(String name, int scale) throws IOException
+    {
+        return LIBSVMLoader.loadC(scaledLibsvm(name, scale));
+    }
+
+    /**
+     * Creates a data set of points drawn from a mixture of Gaussians. Each
+     * component has its mean drawn uniformly from [0, 10]<sup>d</sup> and unit
+     * variance in every dimension, and the class label is the component the
+     * point came from.
+     *
+     * @param n the number of points
+     * @param d the number of dimensions
+     * @param k the number of Gaussians
+     * @param seed the seed for the random number generator
+     * @return the data set
+     */
+    public static ClassificationDataSet gaussianMixture(int n, int d, int k, long seed)
+    {
+        Random rand = new Random(seed);
+        double[][] centers = new double[k][d];
+        for(double[] center : centers)
+            for(int j = 0; j < d; j++)
+                center[j] = rand.nextDouble() * 10;
+        ClassificationDataSet data = new ClassificationDataSet(d, new CategoricalData[0], new CategoricalData(k));
+        for(int i = 0; i < n; i++)
+        {
+            int c = rand.nextInt(k);
+            DenseVector x = new DenseVector(d);
+            for(int j = 0; j < d; j++)
+                x.set(j, centers[c][j] + rand.nextGaussian());
+            data.addDataPoint(x, c);
+        }
+        return data;
+    }
+
+    /**
+     * Gets the first rows of MNIST, scaled to [0, 1] the same way
+     * EasyParameterSearch2 does. MNIST is too big to include with the
+     * examples, so if it has not been downloaded into the resources (as
+     * "mnist", in LIBSVM format), a random data set of the same shape is made
+     * instead: 784 features, of which about 150 are non-zero, with values in
+     * [0, 1]. The pixels each class uses are picked at random, so the classes
+     * overlap but are not the same.
+     *
+     * @param n the number of rows
+     * @param seed the seed for the random number generator, used only if the
+     * data set is made up
+     * @return the data set
+     * @throws IOException if MNIST is present but could not be read
+     */
+    public static ClassificationDataSet mnist(int n, long seed) throws IOException
+    {
+        ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+        URL mnist = classloader.getResource("mnist");
+        if(mnist != null)
+        {
+            ClassificationDataSet all = LIBSVMLoader.loadC(new File(mnist.getFile()));
+            ClassificationDataSet data = new ClassificationDataSet(all.getAsDPPList().subList(0, Math.min(n, all.getSampleSize())), all.getPredicting());
+            data.applyTransform(new LinearTransform(data));
+            return data;
+        }
+        int d = 784, classes = 10, pixels = 300, nnz = 150;
+        Random rand = new Random(seed);
+        int[][] ink = new int[classes][pixels];
+        for(int[] classInk : ink)
+            for(int j = 0; j < pixels; j++)
+                classInk[j] = rand.nextInt(d);
+        ClassificationDataSet data = new ClassificationDataSet(d, new CategoricalData[0], new CategoricalData(classes));
+        for(int i = 0; i < n; i++)
+        {
+            int c = rand.nextInt(classes);
+            SparseVector x = new SparseVector(d, nnz);
+            for(int j = 0; j < nnz; j++)
+                x.set(ink[c][rand.nextInt(pixels)], rand.nextDouble());
+            data.addDataPoint(x, c);
+        }
+        return data;
+    }
+
+    private static File writeScaled(String name, String suffix, List<String> header, List<String> rows, int scale) throws IOException
+    {
+        File out = File.createTempFile(name + "_x" + scale + "_", suffix);
+        out.deleteOnExit();
+        try(BufferedWriter writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8))
+        {
+            for(String line : header)
+            {
+                writer.write(line);
+                writer.newLine();
+            }
+            for(int s = 0; s < scale; s++)
+                for(String line : rows)
+                {
+                    writer.write(line);
+                    writer.newLine();
+                }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks in this package and writes the results to a JSON
+ * file, so that runs from different releases can be compared. The GC profiler
+ * is always on, which adds the allocation rate (gc.alloc.rate.norm is the
+ * bytes allocated per operation) next to each throughput number.<br>
+ * <br>
+ * Usage: {@code java -jar target/benchmarks.jar [regexp] [result.json]} after
+ * building with {@code mvn -Pbenchmarks package}. The regexp selects which
+ * benchmarks to run, and defaults to all of them.
+ *
+ * @author Edward Raff
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws RunnerException
+    {
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+        String resultFile = args.length > 1 ? args[1] : "jmh-result.json";
+
+        Options opt = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
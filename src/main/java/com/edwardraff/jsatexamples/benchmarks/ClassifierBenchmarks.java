@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.bayesian.NaiveBayes;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.svm.SupportVectorLearner.CacheMode;
+import jsat.distributions.kernels.RBFKernel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for training and classification with the models used in
+ * ClassificationExample, ClassificationCrossValidationExample and
+ * EasyParameterSearch.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifierBenchmarks
+{
+    /**
+     * The data set to train Naive Bayes on, and a model already trained on it
+     */
+    @State(Scope.Benchmark)
+    public static class NaiveBayesState
+    {
+        @Param({"breast-w", "iris", "sonar"})
+        public String dataSet;
+
+        @Param({"1", "10", "100"})
+        public int scale;
+
+        public ClassificationDataSet data;
+        /**
+         * A model trained once during setup, used by the classify benchmark
+         */
+        public NaiveBayes trained;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            data = BenchmarkData.loadArffC(dataSet, scale);
+            trained = new NaiveBayes();
+            trained.trainC(data);
+        }
+    }
+
+    /**
+     * The diabetes data set repeated {@code scale} times, and the kernel cache
+     * mode to train PlattSMO with
+     */
+    @State(Scope.Benchmark)
+    public static class SMOState
+    {
+        /*
+         * SMO is quadratic in the number of data points, so we keep the scale
+         * smaller here than in the other benchmarks
+         */
+        @Param({"1", "2", "4"})
+        public int scale;
+
+        @Param({"NONE", "ROWS", "FULL"})
+        public CacheMode cacheMode;
+
+        public ClassificationDataSet data;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            data = BenchmarkData.loadLibsvmC("diabetes_scale.libsvm", scale);
+        }
+    }
+
+    @Benchmark
+    public NaiveBayes naiveBayesTrainC(NaiveBayesState state)
+    {
+        NaiveBayes model = new NaiveBayes();
+        model.trainC(state.data);
+        return model;
+    }
+
+    @Benchmark
+    public void naiveBayesClassify(NaiveBayesState state, Blackhole bh)
+    {
+        ClassificationDataSet data = state.data;
+        for(int i = 0; i < data.getSampleSize(); i++)
+            bh.consume(state.trained.classify(data.getDataPoint(i)));
+    }
+
+    @Benchmark
+    public PlattSMO plattSMOTrainC(SMOState state)
+    {
+        PlattSMO model = new PlattSMO(new RBFKernel());
+        model.setCacheMode(state.cacheMode);
+        model.trainC(state.data);
+        return model;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.clustering.kmeans.HamerlyKMeans;
+import jsat.datatransform.Imputer;
+import jsat.datatransform.LinearTransform;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the k-means clustering done in KMeansAndK, using the same
+ * pre-processing as that example.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClusteringBenchmarks
+{
+    @Param({"breast-w", "heart-statlog", "ionosphere", "iris", "sonar"})
+    public String dataSet;
+
+    @Param({"1", "10", "100"})
+    public int scale;
+
+    @Param({"2", "3", "6"})
+    public int k;
+
+    private ClassificationDataSet data;
+    private int[] clusteringResults;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        data = BenchmarkData.loadArffC(dataSet, scale);
+        data.applyTransform(new Imputer(data));
+        data.applyTransform(new LinearTransform(data));
+        clusteringResults = new int[data.getSampleSize()];
+    }
+
+    @Benchmark
+    public int[] hamerlyKMeansCluster()
+    {
+        return new HamerlyKMeans().cluster(data, k, clusteringResults);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import com.edwardraff.jsatexamples.classifiers.FlatForest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.DataPoint;
+import jsat.classifiers.trees.RandomForest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares a trained {@link RandomForest} with the {@link FlatForest} made
+ * from it. The throughput benchmarks score the whole test set in one
+ * operation: JSAT one point at a time, the flat forest one point at a time,
+ * and the flat forest in one batch, both in the calling thread and split
+ * over the common pool. The latency benchmarks score a single point, which is
+ * what a server answering one request at a time sees.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForestBenchmarks
+{
+    /**
+     * A trained random forest, its {@link FlatForest}, and the points to
+     * score with them
+     */
+    @State(Scope.Thread)
+    public static class ForestState
+    {
+        /**
+         * 100 trees fit in the cache, 500 don't
+         */
+        @Param({"100", "500"})
+        public int trees;
+
+        /**
+         * The number of points scored by the throughput benchmarks
+         */
+        @Param({"20000"})
+        public int points;
+
+        public RandomForest model;
+        public FlatForest flat;
+        public List<DataPoint> test;
+        public double[] probabilities;
+        public int[] predictions;
+        public int next;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            /*
+             * 8 classes in 20 dimensions overlap enough that the trees have
+             * to grow deep to fit them, like they do on real data. The model
+             * is trained on the first 5000 points and the rest are scored.
+             */
+            ClassificationDataSet all = BenchmarkData.gaussianMixture(5000 + points, 20, 8, 42);
+            ClassificationDataSet train = new ClassificationDataSet(all.getAsDPPList().subList(0, 5000), all.getPredicting());
+            model = new RandomForest(trees);
+            model.trainC(train);
+            flat = FlatForest.of(model, train.getClassSize());
+            test = all.getDataPoints().subList(5000, 5000 + points);
+            probabilities = new double[points * train.getClassSize()];
+            predictions = new int[points];
+        }
+
+        public DataPoint nextPoint()
+        {
+            DataPoint dp = test.get(next);
+            next = (next + 1) % test.size();
+            return dp;
+        }
+    }
+
+    @Benchmark
+    public void jsatPerPoint(ForestState state, Blackhole bh)
+    {
+        for(int i = 0; i < state.test.size(); i++)
+            bh.consume(state.model.classify(state.test.get(i)).mostLikely());
+    }
+
+    @Benchmark
+    public void flatPerPoint(ForestState state, Blackhole bh)
+    {
+        for(int i = 0; i < state.test.size(); i++)
+            bh.consume(state.flat.classify(state.test.get(i), state.probabilities, 0));
+    }
+
+    @Benchmark
+    public int[] flatBatch(ForestState state)
+    {
+        state.flat.setPool(null);
+        state.flat.classify(state.test, 0, state.test.size(), state.probabilities, state.predictions);
+        return state.predictions;
+    }
+
+    @Benchmark
+    public int[] flatParallel(ForestState state)
+    {
+        state.flat.setPool(ForkJoinPool.commonPool());
+        state.flat.classify(state.test, 0, state.test.size(), state.probabilities, state.predictions);
+        return state.predictions;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int jsatLatency(ForestState state)
+    {
+        return state.model.classify(state.nextPoint()).mostLikely();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int flatLatency(ForestState state)
+    {
+        return state.flat.classify(state.nextPoint(), state.probabilities, 0);
+    }
+}
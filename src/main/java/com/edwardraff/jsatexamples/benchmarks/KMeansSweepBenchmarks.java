@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import com.edwardraff.jsatexamples.clustering.KMeansSweep;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.clustering.kmeans.HamerlyKMeans;
+import jsat.datatransform.Imputer;
+import jsat.datatransform.LinearTransform;
+import jsat.linear.distancemetrics.EuclideanDistance;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares running HamerlyKMeans once for every k in [2, kMax] against the
+ * warm started {@link KMeansSweep}, on the data sets used by KMeansAndK and a
+ * large synthetic mixture of Gaussians ("synthetic", 200,000 points in 10
+ * dimensions from 8 Gaussians). Both produce the full curve of clusterings.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KMeansSweepBenchmarks
+{
+    @Param({"breast-w", "heart-statlog", "ionosphere", "iris", "sonar", "synthetic"})
+    public String dataSet;
+
+    @Param({"10"})
+    public int kMax;
+
+    private ClassificationDataSet data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        if(dataSet.equals("synthetic"))
+            data = BenchmarkData.gaussianMixture(200000, 10, 8, 42);
+        else
+            data = BenchmarkData.loadArffC(dataSet, 1);
+        data.applyTransform(new Imputer(data));
+        data.applyTransform(new LinearTransform(data));
+    }
+
+    @Benchmark
+    public int[][] independentRuns()
+    {
+        int[][] curve = new int[kMax - 1][];
+        HamerlyKMeans kmeans = new HamerlyKMeans();
+        for(int k = 2; k <= kMax; k++)
+            curve[k - 2] = kmeans.cluster(data, k, (int[]) null);
+        return curve;
+    }
+
+    @Benchmark
+    public List<KMeansSweep.Result> warmSweep()
+    {
+        return new KMeansSweep(new EuclideanDistance(), new Random(42)).sweep(data, 2, kMax);
+    }
+}
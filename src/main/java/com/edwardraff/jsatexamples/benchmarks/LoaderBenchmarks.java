@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import jsat.ARFFLoader;
+import jsat.SimpleDataSet;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.io.CSV;
+import jsat.io.LIBSVMLoader;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for reading (and writing) data sets from disk. These are the
+ * calls every example makes before it does anything interesting, so they are
+ * worth keeping an eye on.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoaderBenchmarks
+{
+    /**
+     * A bundled ARFF data set, repeated {@code scale} times into a temporary
+     * file
+     */
+    @State(Scope.Benchmark)
+    public static class ArffState
+    {
+        @Param({"breast-w", "heart-statlog", "ionosphere", "iris", "sonar"})
+        public String dataSet;
+
+        @Param({"1", "10", "100"})
+        public int scale;
+
+        public File file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            file = BenchmarkData.scaledArff(dataSet, scale);
+        }
+    }
+
+    /**
+     * A bundled LIBSVM data set, repeated {@code scale} times into a
+     * temporary file
+     */
+    @State(Scope.Benchmark)
+    public static class LibsvmState
+    {
+        @Param({"diabetes.libsvm", "diabetes_scale.libsvm"})
+        public String dataSet;
+
+        @Param({"1", "10", "100"})
+        public int scale;
+
+        public File file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            file = BenchmarkData.scaledLibsvm(dataSet, scale);
+        }
+    }
+
+    /**
+     * A bundled data set repeated {@code scale} times, along with a CSV file
+     * of it to read back
+     */
+    @State(Scope.Benchmark)
+    public static class CsvState
+    {
+        @Param({"iris", "sonar"})
+        public String dataSet;
+
+        @Param({"1", "10", "100"})
+        public int scale;
+
+        public ClassificationDataSet data;
+        public Path csvFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            data = BenchmarkData.loadArffC(dataSet, scale);
+            File tmp = File.createTempFile(dataSet + "_x" + scale + "_", ".csv");
+            tmp.deleteOnExit();
+            csvFile = tmp.toPath();
+            //written once here so that readC always has something to read
+            CSV.write(data, csvFile);
+        }
+    }
+
+    @Benchmark
+    public SimpleDataSet arffLoad(ArffState state)
+    {
+        return ARFFLoader.loadArffFile(state.file);
+    }
+
+    @Benchmark
+    public ClassificationDataSet libsvmLoadC(LibsvmState state) throws IOException
+    {
+        return LIBSVMLoader.loadC(state.file);
+    }
+
+    @Benchmark
+    public ClassificationDataSet csvReadC(CsvState state) throws IOException
+    {
+        //JSAT puts the target in the first column, same as in CSVExample
+        return CSV.readC(0, state.csvFile, 0, Collections.emptySet());
+    }
+
+    @Benchmark
+    public void csvWrite(CsvState state) throws IOException
+    {
+        CSV.write(state.data, state.csvFile);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import com.edwardraff.jsatexamples.kernels.PackedRBFKernel;
+import com.edwardraff.jsatexamples.linear.Centroids;
+import com.edwardraff.jsatexamples.linear.PackedEuclideanDistance;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.clustering.SeedSelectionMethods.SeedSelection;
+import jsat.clustering.kmeans.HamerlyKMeans;
+import jsat.distributions.kernels.KernelTrick;
+import jsat.distributions.kernels.RBFKernel;
+import jsat.linear.DenseVector;
+import jsat.linear.Vec;
+import jsat.linear.distancemetrics.DistanceMetric;
+import jsat.linear.distancemetrics.EuclideanDistance;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares JSAT's {@link RBFKernel} and {@link EuclideanDistance} with
+ * {@link PackedRBFKernel}, {@link PackedEuclideanDistance} and
+ * {@link Centroids}, on the first 10,000 rows of MNIST (or data of the same
+ * shape, see {@link BenchmarkData#mnist(int, long) }). The kernel benchmarks
+ * compute one whole row of the kernel matrix, entry by entry and as a range,
+ * and the sum a kernel model computes to classify one point. The distance
+ * benchmarks assign every point to its nearest of k means, and run
+ * HamerlyKMeans to convergence.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackedDistanceBenchmarks
+{
+    /**
+     * 10,000 MNIST-like points with the acceleration cache of either JSAT's
+     * RBF kernel or the packed one
+     */
+    @State(Scope.Thread)
+    public static class KernelState
+    {
+        @Param({"JSAT", "Packed"})
+        public String kernel;
+
+        public KernelTrick k;
+        public List<Vec> X;
+        public List<Double> cache;
+        public double[] alphas;
+        public double[] row;
+        public int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            X = BenchmarkData.mnist(10000, 42).getDataVectors();
+            k = kernel.equals("JSAT") ? new RBFKernel(5) : new PackedRBFKernel(5);
+            cache = k.getAccelerationCache(X);
+            //about half the points are support vectors
+            Random rand = new Random(42);
+            alphas = new double[X.size()];
+            for(int i = 0; i < alphas.length; i++)
+                if(rand.nextBoolean())
+                    alphas[i] = rand.nextGaussian();
+            row = new double[X.size()];
+        }
+
+        public int nextIndex()
+        {
+            next = (next + 1) % X.size();
+            return next;
+        }
+    }
+
+    /**
+     * 10,000 MNIST-like points, the acceleration cache of either JSAT's
+     * Euclidean distance or the packed one, and {@code k} means to assign the
+     * points to
+     */
+    @State(Scope.Thread)
+    public static class ClusterState
+    {
+        @Param({"JSAT", "Packed"})
+        public String metric;
+
+        @Param({"10", "100"})
+        public int k;
+
+        public DistanceMetric dm;
+        public ClassificationDataSet data;
+        public List<Vec> X;
+        public List<Double> cache;
+        public List<Vec> means;
+        public int[] nearest;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            data = BenchmarkData.mnist(10000, 42);
+            X = data.getDataVectors();
+            dm = metric.equals("JSAT") ? new EuclideanDistance() : new PackedEuclideanDistance();
+            cache = dm.getAccelerationCache(X);
+            Random rand = new Random(42);
+            means = new ArrayList<>(k);
+            for(int c = 0; c < k; c++)
+                means.add(new DenseVector(X.get(rand.nextInt(X.size()))));
+            nearest = new int[X.size()];
+        }
+    }
+
+    @Benchmark
+    public double[] kernelRow(KernelState state)
+    {
+        int i = state.nextIndex();
+        for(int j = 0; j < state.X.size(); j++)
+            state.row[j] = state.k.eval(i, j, state.X, state.cache);
+        return state.row;
+    }
+
+    /**
+     * The same row in one call, which only the packed kernel has
+     */
+    @Benchmark
+    public double[] kernelRowRange(KernelState state)
+    {
+        int i = state.nextIndex();
+        if(state.k instanceof PackedRBFKernel)
+            ((PackedRBFKernel) state.k).eval(i, state.X, state.cache, 0, state.X.size(), state.row);
+        else
+            for(int j = 0; j < state.X.size(); j++)
+                state.row[j] = state.k.eval(i, j, state.X, state.cache);
+        return state.row;
+    }
+
+    @Benchmark
+    public double kernelSum(KernelState state)
+    {
+        Vec x = state.X.get(state.nextIndex());
+        return state.k.evalSum(state.X, state.cache, state.alphas, x, 0, state.X.size());
+    }
+
+    @Benchmark
+    public int[] assignToMeans(ClusterState state)
+    {
+        List<List<Double>> meanQI = new ArrayList<>(state.k);
+        for(Vec mean : state.means)
+            meanQI.add(state.dm.getQueryInfo(mean));
+        for(int i = 0; i < state.X.size(); i++)
+        {
+            int best = 0;
+            double bestDist = Double.POSITIVE_INFINITY;
+            for(int c = 0; c < state.k; c++)
+            {
+                double d = state.dm.dist(i, state.means.get(c), meanQI.get(c), state.X, state.cache);
+                if(d < bestDist)
+                {
+                    bestDist = d;
+                    best = c;
+                }
+            }
+            state.nearest[i] = best;
+        }
+        return state.nearest;
+    }
+
+    /**
+     * All the points at once with {@link Centroids}, which doesn't use the
+     * metric
+     */
+    @Benchmark
+    public int[] assignToMeansBlocked(ClusterState state)
+    {
+        new Centroids(state.means).nearest(state.X, 0, state.X.size(), state.nearest);
+        return state.nearest;
+    }
+
+    @Benchmark
+    public int[] hamerlyKMeans(ClusterState state)
+    {
+        return new HamerlyKMeans(state.dm, SeedSelection.KPP, new Random(42)).cluster(state.data, state.k, (int[]) null);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import com.edwardraff.jsatexamples.io.ParallelARFFLoader;
+import com.edwardraff.jsatexamples.io.ParallelLIBSVMLoader;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import jsat.ARFFLoader;
+import jsat.SimpleDataSet;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.io.LIBSVMLoader;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the parallel loaders in com.edwardraff.jsatexamples.io against
+ * JSAT's own single threaded loaders, for different numbers of threads.
+ * The serial benchmarks ignore the thread count, so they act as the baseline
+ * for each row.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelLoaderBenchmarks
+{
+    /**
+     * A bundled ARFF data set repeated {@code scale} times into a temporary
+     * file, and a pool with the given number of threads to load it with
+     */
+    @State(Scope.Benchmark)
+    public static class ArffState
+    {
+        @Param({"breast-w", "sonar"})
+        public String dataSet;
+
+        @Param({"100", "1000"})
+        public int scale;
+
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+
+        public File file;
+        public ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            file = BenchmarkData.scaledArff(dataSet, scale);
+            pool = new ForkJoinPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A bundled LIBSVM data set repeated {@code scale} times into a
+     * temporary file, and a pool with the given number of threads to load it
+     * with
+     */
+    @State(Scope.Benchmark)
+    public static class LibsvmState
+    {
+        @Param({"diabetes.libsvm", "diabetes_scale.libsvm"})
+        public String dataSet;
+
+        @Param({"100", "1000"})
+        public int scale;
+
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+
+        public File file;
+        public ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            file = BenchmarkData.scaledLibsvm(dataSet, scale);
+            pool = new ForkJoinPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public SimpleDataSet arffSerial(ArffState state)
+    {
+        return ARFFLoader.loadArffFile(state.file);
+    }
+
+    @Benchmark
+    public SimpleDataSet arffParallel(ArffState state) throws IOException
+    {
+        return ParallelARFFLoader.loadArffFile(state.file, state.pool);
+    }
+
+    @Benchmark
+    public ClassificationDataSet libsvmSerial(LibsvmState state) throws IOException
+    {
+        return LIBSVMLoader.loadC(state.file);
+    }
+
+    @Benchmark
+    public ClassificationDataSet libsvmParallel(LibsvmState state) throws IOException
+    {
+        return ParallelLIBSVMLoader.loadC(state.file, -1, state.pool);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import com.edwardraff.jsatexamples.classifiers.PackedClassificationDataSet;
+import com.edwardraff.jsatexamples.io.DataPointBatch;
+import com.edwardraff.jsatexamples.io.SyntheticDataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import jsat.linear.DenseMatrix;
+import jsat.linear.DenseVector;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how many rows per second {@link SyntheticDataSource} makes, for
+ * independent Gaussians, Gaussians with a full covariance matrix, and sparse
+ * counts. Each is read in batches, packed into a
+ * {@link PackedClassificationDataSet}, and written as LIBSVM text to a stream
+ * that throws the bytes away. The score is rows per second.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(SyntheticDataBenchmarks.ROWS)
+public class SyntheticDataBenchmarks
+{
+    static final int ROWS = 100000;
+
+    @Param({"gaussian", "covariance", "sparse"})
+    public String kind;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private SyntheticDataSource source;
+    private ForkJoinPool pool;
+    private DataPointBatch batch;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        int d = 50;
+        switch(kind)
+        {
+            case "gaussian":
+                source = SyntheticDataSource.gaussianMixture(ROWS, d, new double[]{0.9, 0.1}, 42);
+                break;
+            case "covariance":
+                source = new SyntheticDataSource(ROWS, d, 2, 42);
+                DenseMatrix covariance = new DenseMatrix(d, d);
+                for(int i = 0; i < d; i++)
+                    for(int j = 0; j < d; j++)
+                        covariance.set(i, j, Math.pow(0.5, Math.abs(i - j)));
+                source.addGaussian(0, 0.9, new DenseVector(d), covariance);
+                source.addGaussian(1, 0.1, new DenseVector(d), 2.0);
+                break;
+            default:
+                source = SyntheticDataSource.sparseTopics(ROWS, 100000, 40, new double[]{0.9, 0.1}, 42);
+        }
+        pool = new ForkJoinPool(threads);
+        source.setPool(pool);
+        batch = new DataPointBatch(1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void stream(Blackhole bh)
+    {
+        source.reset();
+        while(source.nextBatch(batch))
+            for(int i = 0; i < batch.size(); i++)
+                bh.consume(batch.getLabel(i));
+    }
+
+    @Benchmark
+    public PackedClassificationDataSet pack() throws IOException
+    {
+        return PackedClassificationDataSet.pack(source, source.isSparse());
+    }
+
+    @Benchmark
+    public void writeLibsvm(Blackhole bh) throws IOException
+    {
+        source.writeLibsvm(new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                bh.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+                bh.consume(len);
+            }
+        });
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.benchmarks;
+
+import com.edwardraff.jsatexamples.datatransform.FusedTransformPipeline;
+import com.edwardraff.jsatexamples.datatransform.RandomizedPCA;
+import com.edwardraff.jsatexamples.datatransform.StreamingPCA;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.datatransform.Imputer;
+import jsat.datatransform.LinearTransform;
+import jsat.datatransform.PCA;
+import jsat.datatransform.ZeroMeanTransform;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks the ZeroMeanTransform followed by PCA pipeline from
+ * DataTransformsExample. Both fitting and applying the transforms are
+ * measured, since that is what the example does. The full Imputer,
+ * LinearTransform, ZeroMeanTransform and PCA chain is also compared with
+ * doing the same four steps with a {@link FusedTransformPipeline}, and the
+ * PCA step with the approximate {@link RandomizedPCA} and
+ * {@link StreamingPCA}, which do not need the data to be zero mean first.
+ *
+ * @author Edward Raff
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransformBenchmarks
+{
+    @Param({"iris", "ionosphere", "sonar"})
+    public String dataSet;
+
+    @Param({"1", "10", "100"})
+    public int scale;
+
+    private ClassificationDataSet original;
+    private ClassificationDataSet data;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException
+    {
+        original = BenchmarkData.loadArffC(dataSet, scale);
+    }
+
+    /**
+     * applyTransform modifies the data set, so every invocation gets a fresh
+     * copy to work on
+     */
+    @Setup(Level.Invocation)
+    public void copy()
+    {
+        data = original.getTwiceShallowClone();
+    }
+
+    @Benchmark
+    public ClassificationDataSet zeroMeanPCA()
+    {
+        data.applyTransform(new ZeroMeanTransform(data));
+        data.applyTransform(new PCA(data, 2, 1e-9));
+        return data;
+    }
+
+    @Benchmark
+    public ClassificationDataSet chainedPipeline()
+    {
+        data.applyTransform(new Imputer(data));
+        data.applyTransform(new LinearTransform(data));
+        data.applyTransform(new ZeroMeanTransform(data));
+        data.applyTransform(new PCA(data, 2, 1e-9));
+        return data;
+    }
+
+    @Benchmark
+    public ClassificationDataSet fusedPipeline()
+    {
+        FusedTransformPipeline pipeline = new FusedTransformPipeline(true, true, true, 2);
+        pipeline.fit(data);
+        pipeline.apply(data);
+        return data;
+    }
+
+    @Benchmark
+    public ClassificationDataSet randomizedPCA()
+    {
+        data.applyTransform(new RandomizedPCA(data, 2));
+        return data;
+    }
+
+    @Benchmark
+    public ClassificationDataSet streamingPCA()
+    {
+        StreamingPCA pca = new StreamingPCA(2);
+        pca.fit(data);
+        data.applyTransform(pca);
+        return data;
+    }
+}
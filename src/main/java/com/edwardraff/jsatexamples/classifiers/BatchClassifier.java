@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.classifiers;
+
+import com.edwardraff.jsatexamples.kernels.PackedRBFKernel;
+import java.util.List;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.CategoricalResults;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.DataPoint;
+import jsat.classifiers.bayesian.NaiveBayes;
+import jsat.classifiers.linear.LogisticRegressionDCD;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.trees.RandomForest;
+import jsat.distributions.ContinuousDistribution;
+import jsat.distributions.kernels.KernelTrick;
+import jsat.distributions.kernels.RBFKernel;
+import jsat.exceptions.UntrainedModelException;
+import jsat.linear.DenseVector;
+import jsat.linear.Matrix;
+import jsat.linear.Vec;
+import jsat.math.MathTricks;
+import jsat.parameters.ModelSearch;
+
+/**
+ * Scores many points with a trained classifier, writing the results into
+ * arrays given by the caller. {@link Classifier#classify(DataPoint) } returns
+ * a new {@link CategoricalResults} for every point, and models like
+ * RandomForest create several more objects along the way. When scoring tens
+ * of thousands of points a second that garbage is most of the work the
+ * collector has to do. A BatchClassifier instead writes the probabilities of
+ * each point into one row of a {@code double[]}, and the most likely class
+ * into an {@code int[]}, so scoring a batch does not allocate anything per
+ * point.<br>
+ * <br>
+ * {@link #of(Classifier, int) } picks a specialized implementation for a
+ * trained {@link NaiveBayes}, {@link LogisticRegressionDCD},
+ * {@link PlattSMO} with an {@link RBFKernel} or
+ * {@link com.edwardraff.jsatexamples.kernels.PackedRBFKernel}, or
+ * {@link RandomForest}. These
+ * read the learned parameters out of the model once, and then do the same
+ * math as the model's own classify method, so the probabilities and
+ * predictions are the same as the per point path gives. Any other classifier
+ * is wrapped by an implementation that calls {@code classify} and copies the
+ * result, which still allocates but lets the calling code use one API for
+ * every model. A trained {@link ModelSearch}, such as the result of a
+ * RandomSearch, is scored with the best model it found.<br>
+ * <br>
+ * The RandomForest implementation is a {@link FlatForest}, which copies the
+ * trees into flat arrays and scores batches a block of points at a
+ * time.<br>
+ * <br>
+ * A BatchClassifier keeps scratch space between calls, so it is not safe to
+ * use from more than one thread at a time. Create one per thread with
+ * {@link #of(Classifier, int) }. The model itself is only read, so all of
+ * them can share it.
+ *
+ * @author Edward Raff
+ */
+public abstract class BatchClassifier
+{
+    /**
+     * The number of target classes, which is also the length of the
+     * probability row written for each point
+     */
+    protected final int categories;
+    private final ScratchPoint scratch = new ScratchPoint();
+    private DenseVector rowBuffer;
+
+    /**
+     * Creates a new batch classifier
+     *
+     * @param categories the number of target classes
+     */
+    protected BatchClassifier(int categories)
+    {
+        if(categories < 1)
+            throw new IllegalArgumentException("Number of categories must be positive, not " + categories);
+        this.categories = categories;
+    }
+
+    /**
+     * Creates a batch classifier for a trained model.
+     *
+     * @param model the trained model
+     * @param categories the number of target classes the model was trained
+     * on, as given by
+     * {@link jsat.classifiers.ClassificationDataSet#getClassSize() }
+     * @return a batch classifier for the model
+     */
+    public static BatchClassifier of(Classifier model, int categories)
+    {
+        /*
+         * Exact class checks, since a subclass may well have changed how
+         * classify works
+         */
+        if(model instanceof ModelSearch && ((ModelSearch) model).getTrainedClassifier() != null)
+            return of(((ModelSearch) model).getTrainedClassifier(), categories);
+        Class<?> clazz = model.getClass();
+        if(clazz == NaiveBayes.class)
+            return new NaiveBayesBatch((NaiveBayes) model, categories);
+        else if(clazz == LogisticRegressionDCD.class)
+            return new LogisticBatch((LogisticRegressionDCD) model, categories);
+        else if(clazz == PlattSMO.class && isRBF(((PlattSMO) model).getKernel()))
+            return new RBFSMOBatch((PlattSMO) model, categories);
+        else if(clazz == RandomForest.class)
+            return FlatForest.of((RandomForest) model, categories);
+        return new GenericBatch(model, categories);
+    }
+
+    /**
+     * PackedRBFKernel only changes how the kernel values are cached, so a
+     * model using it is scored the same as one using an RBFKernel
+     *
+     * @param kernel the kernel of a model
+     * @return {@code true} if the kernel is exactly an RBF kernel
+     */
+    static boolean isRBF(KernelTrick kernel)
+    {
+        return kernel.getClass() == RBFKernel.class || kernel.getClass() == PackedRBFKernel.class;
+    }
+
+    /**
+     * @return the number of target classes, which is the number of values
+     * written to the probability array for each point
+     */
+    public int getCategories()
+    {
+        return categories;
+    }
+
+    /**
+     * Scores one point.
+     *
+     * @param dp the point to score
+     * @param probabilities the array to write the class probabilities to
+     * @param offset the index in {@code probabilities} to write the
+     * probability of the first class to. The next {@link #getCategories() }
+     * values are overwritten.
+     * @return the index of the most likely class
+     */
+    public abstract int classify(DataPoint dp, double[] probabilities, int offset);
+
+    /**
+     * Scores the points in the range [from, to) of a list. The probabilities
+     * of point {@code i} are written to row {@code i-from} of
+     * {@code probabilities}, which is used as a row major matrix with
+     * {@link #getCategories() } columns.
+     *
+     * @param points the points to score
+     * @param from the index of the first point to score, inclusive
+     * @param to the index of the last point to score, exclusive
+     * @param probabilities the array to write the probabilities to, of length
+     * at least {@code (to-from)*getCategories()}
+     * @param predictions the array to write the most likely class of each
+     * point to, of length at least {@code to-from}. May be {@code null} if
+     * only the probabilities are wanted.
+     */
+    public void classify(List<? extends DataPoint> points, int from, int to, double[] probabilities, int[] predictions)
+    {
+        checkBuffers(from, to, probabilities, predictions);
+        for(int i = from; i < to; i++)
+        {
+            int pred = classify(points.get(i), probabilities, (i - from) * categories);
+            if(predictions != null)
+                predictions[i - from] = pred;
+        }
+    }
+
+    /**
+     * Scores the vectors in the range [from, to) of an array. This is only
+     * meaningful for models trained on data with no categorical features.
+     * The results are written the same way as
+     * {@link #classify(List, int, int, double[], int[]) } does.
+     *
+     * @param points the numeric features of the points to score
+     * @param from the index of the first point to score, inclusive
+     * @param to the index of the last point to score, exclusive
+     * @param probabilities the array to write the probabilities to, of length
+     * at least {@code (to-from)*getCategories()}
+     * @param predictions the array to write the most likely class of each
+     * point to, or {@code null}
+     */
+    public void classify(Vec[] points, int from, int to, double[] probabilities, int[] predictions)
+    {
+        checkBuffers(from, to, probabilities, predictions);
+        for(int i = from; i < to; i++)
+        {
+            scratch.setNumericalValues(points[i]);
+            int pred = classify(scratch, probabilities, (i - from) * categories);
+            if(predictions != null)
+                predictions[i - from] = pred;
+        }
+        scratch.setNumericalValues(null);
+    }
+
+    /**
+     * Scores every row of a matrix, where each row holds the numeric features
+     * of one point. This is only meaningful for models trained on data with
+     * no categorical features. Each row is copied into a buffer that is
+     * reused for every row, so no row views are created.
+     *
+     * @param points the matrix of points to score, one per row
+     * @param probabilities the array to write the probabilities to, of length
+     * at least {@code points.rows()*getCategories()}
+     * @param predictions the array to write the most likely class of each
+     * row to, or {@code null}
+     */
+    public void classify(Matrix points, double[] probabilities, int[] predictions)
+    {
+        int rows = points.rows();
+        int cols = points.cols();
+        checkBuffers(0, rows, probabilities, predictions);
+        if(rowBuffer == null || rowBuffer.length() != cols)
+            rowBuffer = new DenseVector(cols);
+        scratch.setNumericalValues(rowBuffer);
+        for(int i = 0; i < rows; i++)
+        {
+            for(int j = 0; j < cols; j++)
+                rowBuffer.set(j, points.get(i, j));
+            int pred = classify(scratch, probabilities, i * categories);
+            if(predictions != null)
+                predictions[i] = pred;
+        }
+        scratch.setNumericalValues(null);
+    }
+
+    /**
+     * Checks that a range is valid and that the output arrays can hold the
+     * results for it
+     *
+     * @param from the index of the first point to score, inclusive
+     * @param to the index of the last point to score, exclusive
+     * @param probabilities the array the probabilities will be written to
+     * @param predictions the array the predictions will be written to, or
+     * {@code null}
+     */
+    protected void checkBuffers(int from, int to, double[] probabilities, int[] predictions)
+    {
+        if(from < 0 || to < from)
+            throw new IndexOutOfBoundsException("Invalid range [" + from + ", " + to + ")");
+        if(probabilities.length < (long) (to - from) * categories)
+            throw new IllegalArgumentException("Probability array of length " + probabilities.length + " can not hold " + (to - from) + " points with " + categories + " classes");
+        if(predictions != null && predictions.length < to - from)
+            throw new IllegalArgumentException("Prediction array of length " + predictions.length + " can not hold " + (to - from) + " points");
+    }
+
+    /**
+     * Finds the most likely class in a row of probabilities. Ties go to the
+     * lowest index, like {@link CategoricalResults#mostLikely() }.
+     *
+     * @param probabilities the array of probabilities
+     * @param offset the index of the first class in the array
+     * @param length the number of classes
+     * @return the index of the most likely class
+     */
+    protected static int argMax(double[] probabilities, int offset, int length)
+    {
+        int top = 0;
+        for(int i = 1; i < length; i++)
+            if(probabilities[offset + i] > probabilities[offset + top])
+                top = i;
+        return top;
+    }
+
+    /**
+     * Divides a row of values by their sum, the same way
+     * {@link CategoricalResults#normalize() } does.
+     *
+     * @param probabilities the array of values
+     * @param offset the index of the first value in the array
+     * @param length the number of values
+     */
+    protected static void normalize(double[] probabilities, int offset, int length)
+    {
+        double sum = 0;
+        for(int i = 0; i < length; i++)
+            sum += probabilities[offset + i];
+        if(sum != 0)
+            for(int i = 0; i < length; i++)
+                probabilities[offset + i] /= sum;
+    }
+
+    private static void checkCategories(int expected, int categories, Classifier model)
+    {
+        if(expected != categories)
+            throw new IllegalArgumentException(model.getClass().getSimpleName() + " was trained on " + expected + " classes, not " + categories);
+    }
+
+    /**
+     * A data point whose numeric values can be swapped, so one object can
+     * stand in for every vector of a batch
+     */
+    private static class ScratchPoint extends DataPoint
+    {
+        private static final long serialVersionUID = -2271842683532853466L;
+
+        public ScratchPoint()
+        {
+            super(null, new int[0], new CategoricalData[0]);
+        }
+
+        public void setNumericalValues(Vec x)
+        {
+            numericalValues = x;
+        }
+    }
+
+    private static class GenericBatch extends BatchClassifier
+    {
+        private final Classifier model;
+
+        public GenericBatch(Classifier model, int categories)
+        {
+            super(categories);
+            this.model = model;
+        }
+
+        @Override
+        public int classify(DataPoint dp, double[] probabilities, int offset)
+        {
+            CategoricalResults cr = model.classify(dp);
+            for(int i = 0; i < categories; i++)
+                probabilities[offset + i] = cr.getProb(i);
+            return cr.mostLikely();
+        }
+    }
+
+    /**
+     * w<sup>T</sup>x+b through the logistic function, with the same cut offs
+     * at &plusmn;30 that {@link jsat.lossfunctions.LogisticLoss#classify(double) }
+     * uses
+     */
+    static class LogisticBatch extends BatchClassifier
+    {
+        final Vec w;
+        final double bias;
+
+        public LogisticBatch(LogisticRegressionDCD model, int categories)
+        {
+            super(categories);
+            checkCategories(2, categories, model);
+            if(model.getRawWeight() == null)
+                throw new UntrainedModelException("Model has not been trained");
+            this.w = model.getRawWeight();
+            this.bias = model.getBias();
+        }
+
+        LogisticBatch(Vec w, double bias)
+        {
+            super(2);
+            this.w = w;
+            this.bias = bias;
+        }
+
+        @Override
+        public int classify(DataPoint dp, double[] probabilities, int offset)
+        {
+            double score = w.dot(dp.getNumericalValues()) + bias;
+            double p;
+            if(score > 30)
+                p = 1;
+            else if(score < -30)
+                p = 0;
+            else
+                p = 1 / (1 + Math.exp(-score));
+            probabilities[offset] = 1 - p;
+            probabilities[offset + 1] = p;
+            return p > 1 - p ? 1 : 0;
+        }
+    }
+
+    /**
+     * Sums the RBF kernel over the support vectors, with their squared norms
+     * computed once up front, so each kernel evaluation is a single dot
+     * product. JSAT's own path builds a new list holding the squared norm of
+     * the query for every point it classifies.
+     */
+    static class RBFSMOBatch extends BatchClassifier
+    {
+        final Vec[] vecs;
+        final double[] alphas;
+        final double[] sqrdNorms;
+        final double b;
+        final double sigmaSqrd2Inv;
+
+        public RBFSMOBatch(PlattSMO model, int categories)
+        {
+            super(categories);
+            checkCategories(2, categories, model);
+            List<Vec> svs = ModelInternals.get(model, "vecs");
+            if(svs == null)
+                throw new UntrainedModelException("Model has not been trained");
+            double[] allAlphas = ModelInternals.get(model, "alphas");
+            //JSAT skips the vectors with a zero alpha, so we just drop them
+            int nonZero = 0;
+            for(int i = 0; i < svs.size(); i++)
+                if(allAlphas[i] != 0)
+                    nonZero++;
+            this.vecs = new Vec[nonZero];
+            this.alphas = new double[nonZero];
+            this.sqrdNorms = new double[nonZero];
+            for(int i = 0, pos = 0; i < svs.size(); i++)
+                if(allAlphas[i] != 0)
+                {
+                    vecs[pos] = svs.get(i);
+                    alphas[pos] = allAlphas[i];
+                    sqrdNorms[pos] = vecs[pos].dot(vecs[pos]);
+                    pos++;
+                }
+            this.b = ModelInternals.getDouble(model, "b");
+            this.sigmaSqrd2Inv = ModelInternals.getDouble(model.getKernel(), "sigmaSqrd2Inv");
+        }
+
+        RBFSMOBatch(Vec[] vecs, double[] alphas, double[] sqrdNorms, double b, double sigmaSqrd2Inv)
+        {
+            super(2);
+            this.vecs = vecs;
+            this.alphas = alphas;
+            this.sqrdNorms = sqrdNorms;
+            this.b = b;
+            this.sigmaSqrd2Inv = sigmaSqrd2Inv;
+        }
+
+        @Override
+        public int classify(DataPoint dp, double[] probabilities, int offset)
+        {
+            Vec x = dp.getNumericalValues();
+            double xSqrdNorm = x.dot(x);
+            double sum = 0;
+            for(int i = 0; i < vecs.length; i++)
+                sum += alphas[i] * Math.exp(-(sqrdNorms[i] + xSqrdNorm - 2 * vecs[i].dot(x)) * sigmaSqrd2Inv);
+            int pred = sum - b > 0 ? 1 : 0;
+            probabilities[offset] = 1 - pred;
+            probabilities[offset + 1] = pred;
+            return pred;
+        }
+    }
+
+    /**
+     * The sum of the log probabilities of each feature, exactly like
+     * NaiveBayes computes it, with the log of the categorical and prior
+     * probabilities computed once up front
+     */
+    static class NaiveBayesBatch extends BatchClassifier
+    {
+        private static final double LOG_SMALL = Math.log(1e-16);
+
+        final ContinuousDistribution[][] distributions;
+        final double[][][] logApriori;
+        final double[] logPriors;
+        final boolean sparseInput;
+        private final double[] logProbs;
+
+        public NaiveBayesBatch(NaiveBayes model, int categories)
+        {
+            super(categories);
+            this.distributions = ModelInternals.get(model, "distributions");
+            if(distributions == null)
+                throw new UntrainedModelException("Model has not been trained");
+            checkCategories(distributions.length, categories, model);
+            double[][][] apriori = ModelInternals.get(model, "apriori");
+            double[] priors = ModelInternals.get(model, "priors");
+            this.sparseInput = ModelInternals.getBoolean(model, "sparceInput");
+
+            logApriori = new double[apriori.length][][];
+            logPriors = new double[priors.length];
+            for(int c = 0; c < apriori.length; c++)
+            {
+                logApriori[c] = new double[apriori[c].length][];
+                for(int j = 0; j < apriori[c].length; j++)
+                {
+                    logApriori[c][j] = new double[apriori[c][j].length];
+                    for(int v = 0; v < apriori[c][j].length; v++)
+                        logApriori[c][j][v] = Math.log(apriori[c][j][v]);
+                }
+                logPriors[c] = Math.log(priors[c]);
+            }
+            logProbs = new double[categories];
+        }
+
+        NaiveBayesBatch(ContinuousDistribution[][] distributions, double[][][] logApriori, double[] logPriors, boolean sparseInput)
+        {
+            super(logPriors.length);
+            this.distributions = distributions;
+            this.logApriori = logApriori;
+            this.logPriors = logPriors;
+            this.sparseInput = sparseInput;
+            this.logProbs = new double[categories];
+        }
+
+        @Override
+        public int classify(DataPoint dp, double[] probabilities, int offset)
+        {
+            Vec x = dp.getNumericalValues();
+            int[] cats = dp.getCategoricalValues();
+            double maxLogProb = Double.NEGATIVE_INFINITY;
+            for(int c = 0; c < categories; c++)
+            {
+                ContinuousDistribution[] dists = distributions[c];
+                double logProb = 0;
+                /*
+                 * NaiveBayes only visits the non zero values when told the
+                 * input is sparse. Checking for zeros ourselves visits the
+                 * same values in the same order, without the iterator.
+                 */
+                for(int j = 0; j < dists.length; j++)
+                {
+                    double v = x.get(j);
+                    if(sparseInput && v == 0)
+                        continue;
+                    double logPdf = dists[j] == null ? Double.NEGATIVE_INFINITY : dists[j].logPdf(v);
+                    logProb += Double.isInfinite(logPdf) ? LOG_SMALL : logPdf;
+                }
+                double[][] catLogProbs = logApriori[c];
+                for(int j = 0; j < catLogProbs.length; j++)
+                    logProb += catLogProbs[j][cats[j]];
+                logProb += logPriors[c];
+                logProbs[c] = logProb;
+                maxLogProb = Math.max(maxLogProb, logProb);
+            }
+
+            if(maxLogProb == Double.NEGATIVE_INFINITY)
+            {
+                for(int c = 0; c < categories; c++)
+                    probabilities[offset + c] = 1.0 / categories;
+                return 0;
+            }
+
+            double logSum = MathTricks.logSumExp(logProbs, maxLogProb);
+            for(int c = 0; c < categories; c++)
+                probabilities[offset + c] = Math.exp(logProbs[c] - logSum);
+            normalize(probabilities, offset, categories);
+            return argMax(probabilities, offset, categories);
+        }
+    }
+}
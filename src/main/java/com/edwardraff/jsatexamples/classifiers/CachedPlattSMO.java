@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.classifiers;
+
+import com.edwardraff.jsatexamples.kernels.KernelRowCache;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import jsat.DataSet;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.distributions.kernels.KernelTrick;
+import jsat.regression.RegressionDataSet;
+import jsat.regression.Regressor;
+
+/**
+ * A {@link PlattSMO} that gets its kernel values from a
+ * {@link KernelRowCache} with a fixed memory budget, instead of one of JSAT's
+ * {@link CacheMode cache modes}. Training works just like PlattSMO, and
+ * gives the same model, but can use as much memory as it is allowed rather
+ * than either the full kernel matrix or a handful of rows.<br>
+ * <br>
+ * Clones share the cache of the original. So when a parameter search like
+ * {@link jsat.parameters.GridSearch} clones this model for every trial, all
+ * the trials that use the same kernel parameters on the same folds share
+ * the kernel values they have computed.<br>
+ * <br>
+ * The cache is not serialized with the model. It is only needed for
+ * training, and a deserialized model can be given a new one with
+ * {@link #setKernelCache(KernelRowCache) }.<br>
+ * <br>
+ * The cache is only used while the {@link #setCacheMode(CacheMode) cache mode}
+ * is {@link CacheMode#NONE}, which is the default. Setting any other mode
+ * uses JSAT's cache for that mode instead, as a normal PlattSMO would.
+ *
+ * @author Edward Raff
+ */
+public class CachedPlattSMO extends PlattSMO
+{
+    private static final long serialVersionUID = 2905311446217716381L;
+
+    private transient KernelRowCache cache;
+    private transient KernelRowCache.Namespace namespace;
+    /*
+     * SMO works on two points at a time, and asks for the kernel between each
+     * of them and every other point. So the last two rows are kept here,
+     * which saves going to the shared cache, and taking its lock, for almost
+     * every value.
+     */
+    private transient int recentIndex0 = -1;
+    private transient double[] recentRow0;
+    private transient int recentIndex1 = -1;
+    private transient double[] recentRow1;
+    private transient long hits;
+    private transient long misses;
+
+    /**
+     * Creates a new SVM
+     *
+     * @param kernel the kernel to use
+     * @param cache the cache to store kernel values in, which may be shared
+     * with other models. May be {@code null} to not cache anything.
+     */
+    public CachedPlattSMO(KernelTrick kernel, KernelRowCache cache)
+    {
+        super(kernel);
+        this.cache = cache;
+        setCacheMode(CacheMode.NONE);
+    }
+
+    /**
+     * @param cache the cache to store kernel values in, or {@code null} to not
+     * cache anything
+     */
+    public void setKernelCache(KernelRowCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the cache kernel values are stored in, or {@code null}
+     */
+    public KernelRowCache getKernelCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Copy constructor. The copy shares the kernel cache of the original.
+     * PlattSMO keeps the extra values it needs to warm start regression
+     * private, so a copy of a trained regression model can predict, but
+     * can't be used as a warm start for training another regressor.
+     *
+     * @param toCopy the object to copy
+     */
+    public CachedPlattSMO(CachedPlattSMO toCopy)
+    {
+        super(toCopy.getKernel().clone());
+        this.cache = toCopy.cache;
+        setC(toCopy.getC());
+        setTolerance(toCopy.getTolerance());
+        setEpsilon(toCopy.getEpsilon());
+        setMaxIterations(toCopy.getMaxIterations());
+        setModificationOne(toCopy.isModificationOne());
+        if(toCopy.alphas != null)
+            this.alphas = Arrays.copyOf(toCopy.alphas, toCopy.alphas.length);
+        if(toCopy.label != null)
+            this.label = Arrays.copyOf(toCopy.label, toCopy.label.length);
+        if(toCopy.weights != null)
+            this.weights = toCopy.weights.clone();
+        if(toCopy.vecs != null)
+            this.vecs = new ArrayList<>(toCopy.vecs);
+        this.b = toCopy.b;
+        //set last, so that a FULL cache is built for the copied vectors
+        setCacheMode(toCopy.getCacheMode());
+        setCacheValue(toCopy.getCacheValue());
+    }
+
+    /**
+     * @return the number of support vectors in the trained model, or 0 if it
+     * has not been trained
+     */
+    public int getSupportVectorCount()
+    {
+        return vecs == null ? 0 : vecs.size();
+    }
+
+    /*
+     * PlattSMO's training methods don't all go through one of them, so each
+     * of the ones that start training directly is wrapped
+     */
+
+    @Override
+    public void trainC(ClassificationDataSet dataSet)
+    {
+        withNamespace(dataSet, () -> super.trainC(dataSet));
+    }
+
+    @Override
+    public void trainC(ClassificationDataSet dataSet, Classifier warmSolution)
+    {
+        withNamespace(dataSet, () -> super.trainC(dataSet, warmSolution));
+    }
+
+    @Override
+    public void trainC(ClassificationDataSet dataSet, Classifier warmSolution, ExecutorService threadPool)
+    {
+        withNamespace(dataSet, () -> super.trainC(dataSet, warmSolution, threadPool));
+    }
+
+    @Override
+    public void train(RegressionDataSet dataSet, Regressor warmSolution)
+    {
+        withNamespace(dataSet, () -> super.train(dataSet, warmSolution));
+    }
+
+    private void withNamespace(DataSet<?> dataSet, Runnable training)
+    {
+        namespace = cache == null || getCacheMode() != CacheMode.NONE ? null : cache.namespace(dataSet, getKernel());
+        try
+        {
+            training.run();
+        }
+        finally
+        {
+            if(namespace != null)
+                cache.recordLookups(hits, misses);
+            namespace = null;
+            recentIndex0 = recentIndex1 = -1;
+            recentRow0 = recentRow1 = null;
+            hits = misses = 0;
+        }
+    }
+
+    @Override
+    protected double kEval(int a, int b)
+    {
+        if(namespace == null)
+            return super.kEval(a, b);
+        double[] row;
+        if(a == recentIndex0)
+            row = recentRow0;
+        else if(a == recentIndex1)
+            row = recentRow1;
+        else
+        {
+            row = cache.getRow(namespace, a);
+            recentIndex1 = recentIndex0;
+            recentRow1 = recentRow0;
+            recentIndex0 = a;
+            recentRow0 = row;
+        }
+        double value = row[b];
+        if(Double.isNaN(value))
+        {
+            row[b] = value = k(a, b);
+            misses++;
+        }
+        else
+            hits++;
+        return value;
+    }
+
+    @Override
+    public CachedPlattSMO clone()
+    {
+        return new CachedPlattSMO(this);
+    }
+}
@@ -0,0 +1,762 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.classifiers;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.CategoricalResults;
+import jsat.classifiers.DataPoint;
+import jsat.classifiers.trees.DecisionStump;
+import jsat.classifiers.trees.DecisionTree;
+import jsat.classifiers.trees.RandomForest;
+import jsat.classifiers.trees.TreeNodeVisitor;
+import jsat.exceptions.UntrainedModelException;
+import jsat.linear.IndexValue;
+import jsat.linear.Vec;
+
+/**
+ * A {@link RandomForest} with every tree stored in a handful of flat
+ * primitive arrays instead of a graph of node, stump, list and result
+ * objects. A forest of a few hundred trees is millions of small objects in
+ * JSAT, which take a long time to serialize and deserialize and are spread
+ * all over the heap. Here each node is an index into the arrays, so the
+ * whole forest can be written to a file as is, and read back (or memory
+ * mapped, see {@link ModelFile}) without creating an object per node.<br>
+ * <br>
+ * Each node keeps everything its {@link DecisionStump} uses to classify: the
+ * feature it splits on, the sorted boundaries and the path that owns each
+ * range between them for a numeric split, and the class probabilities and
+ * weight of each path. The predictions are the same as
+ * {@link RandomForest#classify(DataPoint) } gives, including for points with
+ * missing values, which are sent down every path and weighted the way
+ * JSAT's {@link TreeNodeVisitor#classify(DataPoint) } does.<br>
+ * <br>
+ * The nodes of each tree are stored breadth first, so the top few levels
+ * that every point goes through sit next to each other in memory. Almost
+ * every node of a forest grown on numeric features is a binary split on one
+ * threshold, so when a forest is created those nodes are also compiled into
+ * a feature, a threshold, and the two places to go next, which is either the
+ * next node or the class a leaf votes for. Walking a tree is then one
+ * comparison and one array read per level. Points are scored in blocks: the
+ * numeric values of a block of points are copied into one dense array, and
+ * the whole block goes through a group of trees small enough to stay in
+ * cache before moving on to the next group, so a forest too big for the
+ * cache is read from memory once per block instead of once per point. Large
+ * batches are split over a {@link ForkJoinPool}. Anything the compiled
+ * form doesn't cover, such as a categorical split or a missing value, falls
+ * back to the exact walk, so the predictions do not change.<br>
+ * <br>
+ * The numeric values of a point are copied to a dense array before it goes
+ * down the trees, which is cheap for the number of features random forests
+ * are usually trained on, but costs time proportional to the number of
+ * features for very high dimensional sparse data.
+ *
+ * @author Edward Raff
+ */
+public class FlatForest extends BatchClassifier
+{
+    /**
+     * The first node of each tree
+     */
+    final IntBuffer roots;
+    /**
+     * The feature each node splits on. A numeric feature j is stored as j,
+     * and a categorical feature j as -(j+1).
+     */
+    final IntBuffer feature;
+    /**
+     * The paths of node i are in [pathStart[i], pathStart[i+1]) of
+     * {@link #child}, {@link #ratio}, and the rows of {@link #results}
+     */
+    final IntBuffer pathStart;
+    /**
+     * The boundaries of node i are in [boundStart[i], boundStart[i+1]) of
+     * {@link #bounds}, and the path that owns the range ending at each
+     * boundary is at the same index of {@link #owners}
+     */
+    final IntBuffer boundStart;
+    /**
+     * The child node down each path, or -1 if the path has no child
+     */
+    final IntBuffer child;
+    final IntBuffer owners;
+    final DoubleBuffer bounds;
+    /**
+     * The fraction of the training data that went down each path
+     */
+    final DoubleBuffer ratio;
+    /**
+     * The class probabilities of each path, one row of categories values per
+     * path
+     */
+    final DoubleBuffer results;
+    /**
+     * The numeric feature each compiled node splits on, or {@link #SINGLE} if
+     * the node has only one path, or {@link #GENERAL} if it has to be walked
+     * with {@link #path(int, DataPoint) }
+     */
+    private final int[] fastFeature;
+    /**
+     * The threshold of each compiled binary split. Values greater than it go
+     * to the second of the node's two {@link #fastNext} entries.
+     */
+    private final double[] fastThreshold;
+    /**
+     * Two entries per node, where to go when the value is at most and greater
+     * than the threshold. An entry is a node index, or -(c+1) for a vote for
+     * class c.
+     */
+    private final int[] fastNext;
+    /**
+     * Where to go down each path, in the same form as {@link #fastNext}
+     */
+    private final int[] pathNext;
+    /**
+     * One more than the largest numeric feature any node splits on, the
+     * number of values copied from each point
+     */
+    private final int numeric;
+    /**
+     * The trees of group g are [groupStart[g], groupStart[g+1]), a run of
+     * trees small enough to stay in cache while a block of points goes
+     * through them
+     */
+    private final int[] groupStart;
+    private final double[] scratch;
+    private final double[] row;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private static final int SINGLE = -1;
+    private static final int GENERAL = -2;
+    /**
+     * Marks a walk that hit a missing value, and has to be redone exactly
+     */
+    private static final int SLOW = Integer.MIN_VALUE;
+    /**
+     * The number of points that go through a group of trees together
+     */
+    private static final int BLOCK = 64;
+    /**
+     * The most nodes in a group of trees, unless one tree is bigger. The
+     * compiled form of a node takes 20 bytes, so a group is about 40 KB,
+     * which stays in the L2 cache along with the block of points.
+     */
+    private static final int GROUP_NODES = 2048;
+    /**
+     * The fewest blocks one task of a parallel batch scores
+     */
+    private static final int PARALLEL_BLOCKS = 8;
+
+    FlatForest(int categories, IntBuffer roots, IntBuffer feature, IntBuffer pathStart, IntBuffer boundStart, IntBuffer child, IntBuffer owners, DoubleBuffer bounds, DoubleBuffer ratio, DoubleBuffer results)
+    {
+        super(categories);
+        this.roots = roots;
+        this.feature = feature;
+        this.pathStart = pathStart;
+        this.boundStart = boundStart;
+        this.child = child;
+        this.owners = owners;
+        this.bounds = bounds;
+        this.ratio = ratio;
+        this.results = results;
+        this.scratch = new double[categories];
+
+        int nodes = feature.limit();
+        fastFeature = new int[nodes];
+        fastThreshold = new double[nodes];
+        fastNext = new int[2 * nodes];
+        pathNext = new int[child.limit()];
+        for(int p = 0; p < pathNext.length; p++)
+            if(child.get(p) >= 0)
+                pathNext[p] = child.get(p);
+            else
+                pathNext[p] = -(argMax(row(p), 0, categories) + 1);
+        int maxFeature = -1;
+        for(int n = 0; n < nodes; n++)
+        {
+            int f = feature.get(n);
+            int first = pathStart.get(n);
+            int from = boundStart.get(n);
+            if(pathCount(n) == 1)
+            {
+                fastFeature[n] = SINGLE;
+                fastNext[2 * n] = fastNext[2 * n + 1] = pathNext[first];
+                continue;
+            }
+            if(f >= 0)
+                maxFeature = Math.max(maxFeature, f);
+            /*
+             * With one finite boundary b and infinity after it, the binary
+             * search is v <= b for the first range and v > b for the second.
+             * Double.compare orders -0.0 before 0.0, which > doesn't, so a
+             * threshold of -0.0 is left to the general walk.
+             */
+            if(f >= 0 && pathCount(n) == 2 && boundStart.get(n + 1) - from == 2
+                    && bounds.get(from + 1) == Double.POSITIVE_INFINITY
+                    && !Double.isNaN(bounds.get(from))
+                    && Double.doubleToRawLongBits(bounds.get(from)) != Double.doubleToRawLongBits(-0.0))
+            {
+                fastFeature[n] = f;
+                fastThreshold[n] = bounds.get(from);
+                fastNext[2 * n] = pathNext[first + owners.get(from)];
+                fastNext[2 * n + 1] = pathNext[first + owners.get(from + 1)];
+            }
+            else
+                fastFeature[n] = GENERAL;
+        }
+        numeric = maxFeature + 1;
+        row = new double[numeric];
+
+        //the trees are stored one after the other, so a tree's size is the gap to the next root
+        List<Integer> groups = new ArrayList<>();
+        groups.add(0);
+        int groupNodes = 0;
+        for(int t = 0; t < roots.limit(); t++)
+        {
+            int size = (t + 1 < roots.limit() ? roots.get(t + 1) : nodes) - roots.get(t);
+            if(groupNodes > 0 && (size <= 0 || groupNodes + size > GROUP_NODES))
+            {
+                groups.add(t);
+                groupNodes = 0;
+            }
+            groupNodes += size <= 0 ? GROUP_NODES : size;
+        }
+        groups.add(roots.limit());
+        groupStart = new int[groups.size()];
+        for(int g = 0; g < groupStart.length; g++)
+            groupStart[g] = groups.get(g);
+    }
+
+    /**
+     * Flattens a trained random forest
+     *
+     * @param model the trained forest
+     * @param categories the number of target classes the model was trained
+     * on
+     * @return the flattened forest
+     */
+    public static FlatForest of(RandomForest model, int categories)
+    {
+        List<DecisionTree> forest = ModelInternals.get(model, "forest");
+        if(forest == null || forest.isEmpty())
+            throw new UntrainedModelException("Model has not been trained");
+        CategoricalData predicting = ModelInternals.get(model, "predicting");
+        if(predicting.getNumOfCategories() != categories)
+            throw new IllegalArgumentException("RandomForest was trained on " + predicting.getNumOfCategories() + " classes, not " + categories);
+
+        Builder builder = new Builder(categories);
+        int[] roots = new int[forest.size()];
+        for(int t = 0; t < roots.length; t++)
+            roots[t] = builder.add(forest.get(t).getTreeNodeVisitor());
+        return builder.build(roots);
+    }
+
+    /**
+     * @return the number of trees in the forest
+     */
+    public int getTreeCount()
+    {
+        return roots.limit();
+    }
+
+    /**
+     * @return the total number of nodes in all the trees
+     */
+    public int getNodeCount()
+    {
+        return feature.limit();
+    }
+
+    /**
+     * Sets the pool large batches are scored in. Batches of a few thousand
+     * points or more are split over the pool, smaller ones are scored by the
+     * calling thread.
+     *
+     * @param pool the pool to score batches in, or {@code null} to always
+     * score in the calling thread
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the pool large batches are scored in
+     */
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    @Override
+    public int classify(DataPoint dp, double[] probabilities, int offset)
+    {
+        copy(dp.getNumericalValues(), row, 0);
+        for(int c = 0; c < categories; c++)
+            probabilities[offset + c] = 0;
+        for(int t = 0; t < roots.limit(); t++)
+        {
+            int root = roots.get(t);
+            int node = walk(root, row, 0, dp);
+            probabilities[offset + (node == SLOW ? vote(root, dp, scratch) : -node - 1)] += 1.0;
+        }
+        normalize(probabilities, offset, categories);
+        return argMax(probabilities, offset, categories);
+    }
+
+    @Override
+    public void classify(List<? extends DataPoint> points, int from, int to, double[] probabilities, int[] predictions)
+    {
+        checkBuffers(from, to, probabilities, predictions);
+        if(pool != null && pool.getParallelism() > 1 && to - from >= 4 * PARALLEL_BLOCKS * BLOCK)
+        {
+            int grain = Math.max(PARALLEL_BLOCKS * BLOCK, (to - from) / (4 * pool.getParallelism()));
+            pool.invoke(new BlockAction(points, from, from, to, grain, probabilities, predictions));
+        }
+        else
+            classify(points, from, from, to, probabilities, predictions, new double[BLOCK * numeric], scratch);
+    }
+
+    /**
+     * Scores the points in [start, end) a block at a time, writing the
+     * results of point i to row i-from of the output arrays
+     */
+    private void classify(List<? extends DataPoint> points, int from, int start, int end, double[] probabilities, int[] predictions, double[] block, double[] scratch)
+    {
+        DataPoint[] blockPoints = new DataPoint[BLOCK];
+        for(int b = start; b < end; b += BLOCK)
+        {
+            int size = Math.min(BLOCK, end - b);
+            for(int i = 0; i < size; i++)
+            {
+                blockPoints[i] = points.get(b + i);
+                copy(blockPoints[i].getNumericalValues(), block, i * numeric);
+            }
+            Arrays.fill(probabilities, (b - from) * categories, (b - from + size) * categories, 0.0);
+            for(int g = 0; g + 1 < groupStart.length; g++)
+                for(int i = 0; i < size; i++)
+                {
+                    int offset = (b - from + i) * categories;
+                    for(int t = groupStart[g]; t < groupStart[g + 1]; t++)
+                    {
+                        int root = roots.get(t);
+                        int node = walk(root, block, i * numeric, blockPoints[i]);
+                        probabilities[offset + (node == SLOW ? vote(root, blockPoints[i], scratch) : -node - 1)] += 1.0;
+                    }
+                }
+            for(int i = 0; i < size; i++)
+            {
+                int offset = (b - from + i) * categories;
+                normalize(probabilities, offset, categories);
+                if(predictions != null)
+                    predictions[b - from + i] = argMax(probabilities, offset, categories);
+            }
+        }
+    }
+
+    /**
+     * Walks one tree with the compiled nodes
+     *
+     * @param root the root of the tree
+     * @param x the array holding the numeric values of the point
+     * @param offset the index of the point's first value in x
+     * @param dp the point, for nodes that aren't compiled
+     * @return -(c+1) for a vote for class c, or {@link #SLOW} if a value
+     * needed was missing
+     */
+    private int walk(int root, double[] x, int offset, DataPoint dp)
+    {
+        int node = root;
+        while(node >= 0)
+        {
+            int f = fastFeature[node];
+            if(f >= 0)
+            {
+                double v = x[offset + f];
+                if(Double.isNaN(v))
+                    return SLOW;
+                node = fastNext[2 * node + (v > fastThreshold[node] ? 1 : 0)];
+            }
+            else if(f == SINGLE)
+                node = fastNext[2 * node];
+            else
+            {
+                int path = path(node, dp);
+                if(path < 0)
+                    return SLOW;
+                node = pathNext[pathStart.get(node) + path];
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Copies the numeric values the trees split on into an array
+     */
+    private void copy(Vec x, double[] to, int offset)
+    {
+        if(x.isSparse())
+        {
+            Arrays.fill(to, offset, offset + numeric, 0.0);
+            for(IndexValue iv : x)
+            {
+                if(iv.getIndex() >= numeric)
+                    break;
+                to[offset + iv.getIndex()] = iv.getValue();
+            }
+        }
+        else
+            for(int j = 0; j < numeric; j++)
+                to[offset + j] = x.get(j);
+    }
+
+    /**
+     * The class one tree votes for, the same walk as
+     * {@link TreeNodeVisitor#classify(DataPoint) } but only creating arrays
+     * when a value needed for a split is missing
+     */
+    private int vote(int root, DataPoint dp, double[] scratch)
+    {
+        int node = root;
+        while(!isLeaf(node))
+        {
+            int path = path(node, dp);
+            if(path < 0)
+                return argMax(weighted(root, node, dp), 0, categories);
+            int next = child.get(pathStart.get(node) + path);
+            if(next < 0)
+                break;
+            node = next;
+        }
+        local(node, dp, scratch);
+        return argMax(scratch, 0, categories);
+    }
+
+    /**
+     * The full result of {@link TreeNodeVisitor#classify(DataPoint) } called
+     * on a node
+     */
+    private double[] classifyFrom(int start, DataPoint dp)
+    {
+        int node = start;
+        while(!isLeaf(node))
+        {
+            int path = path(node, dp);
+            if(path < 0)
+                return weighted(start, node, dp);
+            int next = child.get(pathStart.get(node) + path);
+            if(next < 0)
+                break;
+            node = next;
+        }
+        double[] out = new double[categories];
+        local(node, dp, out);
+        return out;
+    }
+
+    /**
+     * Sends a point down every path of a node and adds up the results,
+     * weighted by how much of the training data went down each path. JSAT
+     * loops over as many paths as the node that the walk started from has,
+     * which is the same as the node's own count unless the tree mixes
+     * categorical features with different numbers of values.
+     */
+    private double[] weighted(int start, int node, DataPoint dp)
+    {
+        int paths = Math.min(pathCount(start), pathCount(node));
+        int first = pathStart.get(node);
+        double[] sum = null;
+        double totalWeight = 0;
+        for(int i = 0; i < paths; i++)
+        {
+            int next = child.get(first + i);
+            if(next < 0)
+                continue;
+            double[] r = classifyFrom(next, dp);
+            if(sum == null)
+                sum = new double[r.length];
+            double w = ratio.get(first + i);
+            totalWeight += w;
+            for(int c = 0; c < r.length; c++)
+                sum[c] += w * r[c];
+        }
+        if(sum == null)
+        {
+            sum = new double[categories];
+            local(node, dp, sum);
+            return sum;
+        }
+        if(totalWeight < 0.99999)
+            for(int c = 0; c < sum.length; c++)
+                sum[c] /= totalWeight + 1e-6;
+        return sum;
+    }
+
+    /**
+     * The result of the node's own stump, as
+     * {@link DecisionStump#classify(DataPoint) } gives it
+     */
+    private void local(int node, DataPoint dp, double[] out)
+    {
+        int path = path(node, dp);
+        int first = pathStart.get(node);
+        if(path >= 0)
+        {
+            int row = (first + path) * categories;
+            for(int c = 0; c < categories; c++)
+                out[c] = results.get(row + c);
+            return;
+        }
+        for(int c = 0; c < categories; c++)
+            out[c] = 0;
+        for(int i = 0; i < pathCount(node); i++)
+        {
+            double w = ratio.get(first + i);
+            int row = (first + i) * categories;
+            for(int c = 0; c < categories; c++)
+                out[c] += w * results.get(row + c);
+        }
+    }
+
+    private double[] row(int path)
+    {
+        double[] r = new double[categories];
+        for(int c = 0; c < categories; c++)
+            r[c] = results.get(path * categories + c);
+        return r;
+    }
+
+    private int pathCount(int node)
+    {
+        return pathStart.get(node + 1) - pathStart.get(node);
+    }
+
+    private boolean isLeaf(int node)
+    {
+        for(int i = pathStart.get(node); i < pathStart.get(node + 1); i++)
+            if(child.get(i) >= 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * {@link DecisionStump#whichPath(DataPoint) }, with -1 for a missing
+     * value
+     */
+    private int path(int node, DataPoint dp)
+    {
+        if(pathCount(node) == 1)
+            return 0;
+        int f = feature.get(node);
+        if(f < 0)
+            return dp.getCategoricalValue(-f - 1);
+        double v = dp.getNumericalValues().get(f);
+        if(Double.isNaN(v))
+            return -1;
+        //the same search Collections.binarySearch does on the stump's list
+        int from = boundStart.get(node);
+        int count = boundStart.get(node + 1) - from;
+        int low = 0, high = count - 1;
+        int pos = -1;
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int cmp = Double.compare(bounds.get(from + mid), v);
+            if(cmp < 0)
+                low = mid + 1;
+            else if(cmp > 0)
+                high = mid - 1;
+            else
+            {
+                pos = mid;
+                break;
+            }
+        }
+        if(pos < 0)
+            pos = low;
+        //JSAT's last boundary is infinity, so this only happens for a corrupt tree
+        if(pos == count)
+            throw new IndexOutOfBoundsException("Value " + v + " is past the last boundary of node " + node);
+        return owners.get(from + pos);
+    }
+
+    /**
+     * Splits the blocks of a batch over a pool. Each task has its own block
+     * and scratch arrays, and writes to its own rows of the output.
+     */
+    private class BlockAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 5243096318107658321L;
+        private final List<? extends DataPoint> points;
+        private final int from, start, end, grain;
+        private final double[] probabilities;
+        private final int[] predictions;
+
+        BlockAction(List<? extends DataPoint> points, int from, int start, int end, int grain, double[] probabilities, int[] predictions)
+        {
+            this.points = points;
+            this.from = from;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.probabilities = probabilities;
+            this.predictions = predictions;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(end - start > grain)
+            {
+                //split on a block boundary, so only the last block is short
+                int mid = start + (((end - start) / BLOCK + 1) / 2) * BLOCK;
+                invokeAll(new BlockAction(points, from, start, mid, grain, probabilities, predictions),
+                        new BlockAction(points, from, mid, end, grain, probabilities, predictions));
+                return;
+            }
+            classify(points, from, start, end, probabilities, predictions, new double[BLOCK * numeric], new double[categories]);
+        }
+    }
+
+    /**
+     * Adds the nodes of trees to growing arrays, breadth first within each
+     * tree
+     */
+    private static class Builder
+    {
+        private final int categories;
+        private final List<Integer> feature = new ArrayList<>();
+        private final List<Integer> pathStart = new ArrayList<>();
+        private final List<Integer> boundStart = new ArrayList<>();
+        private final List<Integer> child = new ArrayList<>();
+        private final List<Integer> owners = new ArrayList<>();
+        private final List<Double> bounds = new ArrayList<>();
+        private final List<Double> ratio = new ArrayList<>();
+        private final List<Double> results = new ArrayList<>();
+
+        Builder(int categories)
+        {
+            this.categories = categories;
+        }
+
+        /**
+         * Adds a tree, one level at a time
+         *
+         * @return the index of the root
+         */
+        int add(TreeNodeVisitor root)
+        {
+            int index = feature.size();
+            ArrayDeque<TreeNodeVisitor> queue = new ArrayDeque<>();
+            //the index in child of the path each queued node hangs off
+            ArrayDeque<Integer> parents = new ArrayDeque<>();
+            queue.add(root);
+            parents.add(-1);
+            while(!queue.isEmpty())
+            {
+                int parent = parents.poll();
+                int node = addNode(queue.poll(), queue, parents);
+                if(parent >= 0)
+                    child.set(parent, node);
+            }
+            return index;
+        }
+
+        /**
+         * Adds one node, and queues its children
+         *
+         * @return the index of the node
+         */
+        private int addNode(TreeNodeVisitor node, ArrayDeque<TreeNodeVisitor> queue, ArrayDeque<Integer> parents)
+        {
+            DecisionStump stump = ModelInternals.get(node, "stump");
+            TreeNodeVisitor[] paths = ModelInternals.get(node, "paths");
+            CategoricalResults[] stumpResults = ModelInternals.get(stump, "results");
+            if(stumpResults == null)
+                throw new IllegalArgumentException("Tree was not trained for classification");
+            if(paths != null && paths.length != stumpResults.length)
+                throw new IllegalStateException("Node has " + paths.length + " children but " + stumpResults.length + " results");
+            double[] pathRatio = ModelInternals.get(stump, "pathRatio");
+            CategoricalData[] catAttributes = ModelInternals.get(stump, "catAttributes");
+            //the raw field, the getter numbers the numeric features first
+            int split = ModelInternals.getInt(stump, "splittingAttribute");
+
+            int index = feature.size();
+            feature.add(split < catAttributes.length ? -(split + 1) : split - catAttributes.length);
+            pathStart.add(child.size());
+            boundStart.add(bounds.size());
+            List<Double> stumpBounds = ModelInternals.get(stump, "boundries");
+            List<Integer> stumpOwners = ModelInternals.get(stump, "owners");
+            if(split >= catAttributes.length && stumpResults.length > 1)
+            {
+                if(stumpOwners.size() != stumpBounds.size())
+                    throw new IllegalStateException("Node has " + stumpBounds.size() + " boundaries but " + stumpOwners.size() + " owners");
+                bounds.addAll(stumpBounds);
+                owners.addAll(stumpOwners);
+            }
+
+            int firstPath = child.size();
+            for(int p = 0; p < stumpResults.length; p++)
+            {
+                child.add(-1);
+                ratio.add(pathRatio == null ? 0.0 : pathRatio[p]);
+                for(int c = 0; c < categories; c++)
+                    results.add(stumpResults[p].getProb(c));
+            }
+            if(paths != null)
+                for(int p = 0; p < paths.length; p++)
+                    if(paths[p] != null)
+                    {
+                        queue.add(paths[p]);
+                        parents.add(firstPath + p);
+                    }
+            return index;
+        }
+
+        FlatForest build(int[] roots)
+        {
+            //the end of the last node's ranges
+            pathStart.add(child.size());
+            boundStart.add(bounds.size());
+            return new FlatForest(categories, IntBuffer.wrap(roots), ints(feature), ints(pathStart), ints(boundStart),
+                    ints(child), ints(owners), doubles(bounds), doubles(ratio), doubles(results));
+        }
+
+        private static IntBuffer ints(List<Integer> list)
+        {
+            int[] array = new int[list.size()];
+            for(int i = 0; i < array.length; i++)
+                array[i] = list.get(i);
+            return IntBuffer.wrap(array);
+        }
+
+        private static DoubleBuffer doubles(List<Double> list)
+        {
+            double[] array = new double[list.size()];
+            for(int i = 0; i < array.length; i++)
+                array[i] = list.get(i);
+            return DoubleBuffer.wrap(array);
+        }
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.classifiers;
+
+import com.edwardraff.jsatexamples.linear.BufferVec;
+import com.edwardraff.jsatexamples.linear.CSRRowVec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.bayesian.NaiveBayes;
+import jsat.classifiers.linear.LogisticRegressionDCD;
+import jsat.classifiers.svm.PlattSMO;
+import jsat.classifiers.trees.RandomForest;
+import jsat.distributions.ContinuousDistribution;
+import jsat.distributions.Normal;
+import jsat.linear.IndexValue;
+import jsat.linear.Vec;
+import jsat.parameters.ModelSearch;
+
+/**
+ * A compact binary file format for trained models, that can be memory mapped
+ * and used to classify without deserializing the model. Java serialization
+ * of a JSAT model writes the whole object graph, with class descriptors and
+ * a boxed {@code Double} for every boundary of every tree node, and reading
+ * it back creates all of those objects again. A model file instead holds just
+ * the learned parameters as flat arrays of ints and doubles, and
+ * {@link #load(File) } maps the file and hands views of those arrays to a
+ * {@link BatchClassifier}, so loading costs about the same no matter how big
+ * the model is, and the operating system only reads the pages that are
+ * used.<br>
+ * <br>
+ * The supported models are the ones {@link BatchClassifier} has a
+ * specialized implementation for:
+ * <ul>
+ * <li>{@link NaiveBayes} using normal distributions for the numeric
+ * features, the default</li>
+ * <li>{@link LogisticRegressionDCD}</li>
+ * <li>{@link PlattSMO} with an {@link jsat.distributions.kernels.RBFKernel} or
+ * {@link com.edwardraff.jsatexamples.kernels.PackedRBFKernel}, with its
+ * support vectors stored dense or sparse, whichever is smaller</li>
+ * <li>{@link RandomForest}, stored as a {@link FlatForest}</li>
+ * </ul>
+ * A trained {@link ModelSearch}, such as a RandomSearch, is stored as the
+ * best model it found. The loaded classifier gives the same predictions as
+ * the model it was written from. The file starts with a magic number and a
+ * version, and a file from a different version is rejected rather than
+ * misread.
+ *
+ * @author Edward Raff
+ */
+public class ModelFile
+{
+    private static final int MAGIC = 0x4A534D31;//"JSM1"
+    private static final int VERSION = 1;
+
+    private static final int NAIVE_BAYES = 1;
+    private static final int LOGISTIC = 2;
+    private static final int RBF_SMO = 3;
+    private static final int RANDOM_FOREST = 4;
+
+    private ModelFile()
+    {
+    }
+
+    /*
+     * File layout, all little endian. Every array of doubles starts at a
+     * multiple of 8 bytes, with zero padding before it if needed.
+     * int magic, int version, int type, int categories
+     *
+     * NAIVE_BAYES:
+     * int d, int catFeatures, int sparseInput, int catValues
+     * int[catFeatures] number of values of each categorical feature
+     * double[categories] log prior of each class
+     * double[categories*d] mean, then double[categories*d] standard deviation
+     * of each feature for each class, NaN if the feature has no distribution
+     * double[categories*catValues] log probability of each value of each
+     * categorical feature for each class
+     *
+     * LOGISTIC:
+     * int d, double bias, double[d] weights
+     *
+     * RBF_SMO:
+     * int n, int d, int sparse, int nnz, double b, double sigmaSqrd2Inv
+     * double[n] alphas, double[n] squared norms
+     * dense: double[n*d] support vectors, one after another
+     * sparse: int[n+1] row starts, int[nnz] indices, double[nnz] values
+     *
+     * RANDOM_FOREST:
+     * int trees, int nodes, int paths, int bounds
+     * int[trees] roots, int[nodes] feature, int[nodes+1] pathStart,
+     * int[nodes+1] boundStart, int[paths] child, int[bounds] owners
+     * double[bounds] bounds, double[paths] ratio, double[paths*categories]
+     * results
+     */
+
+    /**
+     * @param model a trained model
+     * @return {@code true} if the model can be written to a model file
+     */
+    public static boolean isSupported(Classifier model)
+    {
+        if(model instanceof ModelSearch && ((ModelSearch) model).getTrainedClassifier() != null)
+            return isSupported(((ModelSearch) model).getTrainedClassifier());
+        if(model.getClass() == RandomForest.class)
+            return true;
+        if(model.getClass() == NaiveBayes.class)
+        {
+            ContinuousDistribution[][] dists = ModelInternals.get(model, "distributions");
+            if(dists != null)
+                for(ContinuousDistribution[] row : dists)
+                    for(ContinuousDistribution dist : row)
+                        if(dist != null && dist.getClass() != Normal.class)
+                            return false;
+        }
+        return model.getClass() == NaiveBayes.class || model.getClass() == LogisticRegressionDCD.class
+                || (model.getClass() == PlattSMO.class && BatchClassifier.isRBF(((PlattSMO) model).getKernel()));
+    }
+
+    /**
+     * Writes a trained model to a file
+     *
+     * @param model the trained model
+     * @param categories the number of target classes the model was trained
+     * on
+     * @param file the file to write to, it will be replaced if it exists
+     * @throws IOException if the file can not be written
+     * @throws IllegalArgumentException if the model is not one that can be
+     * written, see {@link #isSupported(Classifier) }
+     */
+    public static void write(Classifier model, int categories, File file) throws IOException
+    {
+        if(!isSupported(model))
+            throw new IllegalArgumentException("No model file format for " + model.getClass().getSimpleName());
+        if(model instanceof ModelSearch && ((ModelSearch) model).getTrainedClassifier() != null)
+            model = ((ModelSearch) model).getTrainedClassifier();
+        BatchClassifier batch = model instanceof RandomForest ? FlatForest.of((RandomForest) model, categories) : BatchClassifier.of(model, categories);
+
+        //write to a temp file and move it, so a crash never leaves half a model behind
+        Path path = file.toPath().toAbsolutePath();
+        Path tmp = Files.createTempFile(path.getParent(), "partial", ".model");
+        try
+        {
+            try(Out out = new Out(tmp))
+            {
+                out.putInt(MAGIC).putInt(VERSION);
+                if(batch instanceof BatchClassifier.NaiveBayesBatch)
+                    writeNaiveBayes((BatchClassifier.NaiveBayesBatch) batch, out.putInt(NAIVE_BAYES).putInt(categories));
+                else if(batch instanceof BatchClassifier.LogisticBatch)
+                    writeLogistic((BatchClassifier.LogisticBatch) batch, out.putInt(LOGISTIC).putInt(categories));
+                else if(batch instanceof BatchClassifier.RBFSMOBatch)
+                    writeSMO((BatchClassifier.RBFSMOBatch) batch, out.putInt(RBF_SMO).putInt(categories));
+                else
+                    writeForest((FlatForest) batch, out.putInt(RANDOM_FOREST).putInt(categories));
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Memory maps a model file and creates a classifier that reads the
+     * parameters straight from the mapping. Like any
+     * {@link BatchClassifier}, the result should only be used by one thread
+     * at a time; load the file once per thread, which shares the pages of
+     * the mapping.
+     *
+     * @param file the model file
+     * @return a classifier for the model in the file
+     * @throws IOException if the file can not be read, or is not a model file
+     * of this version
+     */
+    public static BatchClassifier load(File file) throws IOException
+    {
+        ByteBuffer map;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Model file is too large to map: " + file);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try
+        {
+            In in = new In(map);
+            if(map.limit() < 16 || in.getInt() != MAGIC || in.getInt() != VERSION)
+                throw new IOException("Not a model file of version " + VERSION + ": " + file);
+            int type = in.getInt();
+            int categories = in.getInt();
+            BatchClassifier model;
+            switch(type)
+            {
+                case NAIVE_BAYES:
+                    model = readNaiveBayes(in, categories);
+                    break;
+                case LOGISTIC:
+                    model = readLogistic(in);
+                    break;
+                case RBF_SMO:
+                    model = readSMO(in);
+                    break;
+                case RANDOM_FOREST:
+                    model = readForest(in, categories);
+                    break;
+                default:
+                    throw new IOException("Unknown model type " + type + " in " + file);
+            }
+            if(in.position() != map.limit())
+                throw new IOException("Model file has " + (map.limit() - in.position()) + " unexpected bytes at the end: " + file);
+            return model;
+        }
+        catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException ex)
+        {
+            throw new IOException("Model file is truncated or corrupt: " + file, ex);
+        }
+    }
+
+    private static void writeNaiveBayes(BatchClassifier.NaiveBayesBatch nb, Out out) throws IOException
+    {
+        int categories = nb.getCategories();
+        int d = nb.distributions[0].length;
+        double[][] catLogProbs = nb.logApriori[0];
+        int catValues = 0;
+        for(double[] values : catLogProbs)
+            catValues += values.length;
+        out.putInt(d).putInt(catLogProbs.length).putInt(nb.sparseInput ? 1 : 0).putInt(catValues);
+        for(double[] values : catLogProbs)
+            out.putInt(values.length);
+        out.align();
+        for(int c = 0; c < categories; c++)
+            out.putDouble(nb.logPriors[c]);
+        for(int c = 0; c < categories; c++)
+            for(int j = 0; j < d; j++)
+                out.putDouble(nb.distributions[c][j] == null ? Double.NaN : nb.distributions[c][j].mean());
+        for(int c = 0; c < categories; c++)
+            for(int j = 0; j < d; j++)
+                out.putDouble(nb.distributions[c][j] == null ? Double.NaN : nb.distributions[c][j].standardDeviation());
+        for(int c = 0; c < categories; c++)
+            for(double[] values : nb.logApriori[c])
+                for(double v : values)
+                    out.putDouble(v);
+    }
+
+    private static BatchClassifier readNaiveBayes(In in, int categories)
+    {
+        int d = in.getInt();
+        int catFeatures = in.getInt();
+        boolean sparseInput = in.getInt() != 0;
+        in.getInt();//the total number of categorical values, only needed to skip the section
+        IntBuffer catSizes = in.ints(catFeatures);
+        DoubleBuffer priorBuffer = in.doubles(categories);
+        DoubleBuffer means = in.doubles(categories * d);
+        DoubleBuffer stds = in.doubles(categories * d);
+
+        double[] logPriors = new double[categories];
+        priorBuffer.get(logPriors);
+        //the scoring code needs ContinuousDistribution objects, but these are
+        //one small object per feature per class, not a copy of the model graph
+        ContinuousDistribution[][] dists = new ContinuousDistribution[categories][d];
+        double[][][] logApriori = new double[categories][catFeatures][];
+        for(int c = 0; c < categories; c++)
+            for(int j = 0; j < d; j++)
+                if(!Double.isNaN(means.get(c * d + j)))
+                    dists[c][j] = new Normal(means.get(c * d + j), stds.get(c * d + j));
+        for(int c = 0; c < categories; c++)
+            for(int j = 0; j < catFeatures; j++)
+            {
+                logApriori[c][j] = new double[catSizes.get(j)];
+                in.doubles(logApriori[c][j].length).get(logApriori[c][j]);
+            }
+        return new BatchClassifier.NaiveBayesBatch(dists, logApriori, logPriors, sparseInput);
+    }
+
+    private static void writeLogistic(BatchClassifier.LogisticBatch lr, Out out) throws IOException
+    {
+        int d = lr.w.length();
+        out.putInt(d).align();
+        out.putDouble(lr.bias);
+        for(int j = 0; j < d; j++)
+            out.putDouble(lr.w.get(j));
+    }
+
+    private static BatchClassifier readLogistic(In in)
+    {
+        int d = in.getInt();
+        double bias = in.doubles(1).get(0);
+        return new BatchClassifier.LogisticBatch(new BufferVec(in.doubles(d), 0, d), bias);
+    }
+
+    private static void writeSMO(BatchClassifier.RBFSMOBatch smo, Out out) throws IOException
+    {
+        Vec[] vecs = smo.vecs;
+        int n = vecs.length;
+        int d = n == 0 ? 0 : vecs[0].length();
+        long nnz = 0;
+        for(Vec v : vecs)
+            nnz += v.nnz();
+        //an index and a value for each non zero, against just a value for every feature
+        boolean sparse = 12 * nnz < 8L * n * d;
+        out.putInt(n).putInt(d).putInt(sparse ? 1 : 0).putInt(sparse ? (int) nnz : 0).align();
+        out.putDouble(smo.b).putDouble(smo.sigmaSqrd2Inv);
+        for(double alpha : smo.alphas)
+            out.putDouble(alpha);
+        for(double norm : smo.sqrdNorms)
+            out.putDouble(norm);
+        if(!sparse)
+        {
+            for(Vec v : vecs)
+                for(int j = 0; j < d; j++)
+                    out.putDouble(v.get(j));
+            return;
+        }
+        int start = 0;
+        for(Vec v : vecs)
+        {
+            out.putInt(start);
+            start += v.nnz();
+        }
+        out.putInt(start);
+        for(Vec v : vecs)
+            for(Iterator<IndexValue> iter = v.getNonZeroIterator(); iter.hasNext(); )
+                out.putInt(iter.next().getIndex());
+        out.align();
+        for(Vec v : vecs)
+            for(Iterator<IndexValue> iter = v.getNonZeroIterator(); iter.hasNext(); )
+                out.putDouble(iter.next().getValue());
+    }
+
+    private static BatchClassifier readSMO(In in)
+    {
+        int n = in.getInt();
+        int d = in.getInt();
+        boolean sparse = in.getInt() != 0;
+        int nnz = in.getInt();
+        DoubleBuffer header = in.doubles(2);
+        double[] alphas = new double[n];
+        double[] sqrdNorms = new double[n];
+        in.doubles(n).get(alphas);
+        in.doubles(n).get(sqrdNorms);
+        Vec[] vecs = new Vec[n];
+        if(!sparse)
+        {
+            DoubleBuffer values = in.doubles(n * d);
+            for(int i = 0; i < n; i++)
+                vecs[i] = new BufferVec(values, i * d, d);
+        }
+        else
+        {
+            //CSRRowVec needs arrays, so the sparse vectors are copied out of the mapping
+            int[] rowStart = new int[n + 1];
+            int[] indices = new int[nnz];
+            double[] values = new double[nnz];
+            in.ints(n + 1).get(rowStart);
+            in.ints(nnz).get(indices);
+            in.doubles(nnz).get(values);
+            for(int i = 0; i < n; i++)
+                vecs[i] = new CSRRowVec(indices, values, rowStart[i], rowStart[i + 1] - rowStart[i], d);
+        }
+        return new BatchClassifier.RBFSMOBatch(vecs, alphas, sqrdNorms, header.get(0), header.get(1));
+    }
+
+    private static void writeForest(FlatForest forest, Out out) throws IOException
+    {
+        int nodes = forest.feature.limit();
+        out.putInt(forest.roots.limit()).putInt(nodes).putInt(forest.child.limit()).putInt(forest.bounds.limit());
+        out.putInts(forest.roots).putInts(forest.feature).putInts(forest.pathStart).putInts(forest.boundStart);
+        out.putInts(forest.child).putInts(forest.owners).align();
+        out.putDoubles(forest.bounds).putDoubles(forest.ratio).putDoubles(forest.results);
+    }
+
+    private static BatchClassifier readForest(In in, int categories)
+    {
+        int trees = in.getInt();
+        int nodes = in.getInt();
+        int paths = in.getInt();
+        int bounds = in.getInt();
+        return new FlatForest(categories, in.ints(trees), in.ints(nodes), in.ints(nodes + 1), in.ints(nodes + 1),
+                in.ints(paths), in.ints(bounds), in.doubles(bounds), in.doubles(paths), in.doubles(paths * categories));
+    }
+
+    /**
+     * Buffers the values written to a file, keeping track of the position so
+     * arrays of doubles can be aligned
+     */
+    private static class Out implements AutoCloseable
+    {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = 0;
+
+        Out(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        Out putInt(int v) throws IOException
+        {
+            room(4).putInt(v);
+            position += 4;
+            return this;
+        }
+
+        Out putDouble(double v) throws IOException
+        {
+            room(8).putDouble(v);
+            position += 8;
+            return this;
+        }
+
+        Out putInts(IntBuffer values) throws IOException
+        {
+            for(int i = 0; i < values.limit(); i++)
+                putInt(values.get(i));
+            return this;
+        }
+
+        Out putDoubles(DoubleBuffer values) throws IOException
+        {
+            for(int i = 0; i < values.limit(); i++)
+                putDouble(values.get(i));
+            return this;
+        }
+
+        /**
+         * Pads with zeros up to a multiple of 8 bytes
+         */
+        Out align() throws IOException
+        {
+            while(position % 8 != 0)
+            {
+                room(1).put((byte) 0);
+                position++;
+            }
+            return this;
+        }
+
+        private ByteBuffer room(int bytes) throws IOException
+        {
+            if(buf.remaining() < bytes)
+                flush();
+            return buf;
+        }
+
+        private void flush() throws IOException
+        {
+            buf.flip();
+            while(buf.hasRemaining())
+                channel.write(buf);
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                flush();
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads values and array views from a mapped file, in order
+     */
+    private static class In
+    {
+        private final ByteBuffer map;
+        private int position = 0;
+
+        In(ByteBuffer map)
+        {
+            this.map = map;
+        }
+
+        int position()
+        {
+            return position;
+        }
+
+        int getInt()
+        {
+            int v = map.getInt(position);
+            position += 4;
+            return v;
+        }
+
+        IntBuffer ints(int count)
+        {
+            IntBuffer view = slice(4L * count).asIntBuffer();
+            position += 4 * count;
+            return view;
+        }
+
+        /**
+         * A view of the next doubles, skipping the padding before them
+         */
+        DoubleBuffer doubles(int count)
+        {
+            position += (8 - position % 8) % 8;
+            DoubleBuffer view = slice(8L * count).asDoubleBuffer();
+            position += 8 * count;
+            return view;
+        }
+
+        private ByteBuffer slice(long bytes)
+        {
+            if(bytes < 0 || position + bytes > map.limit())
+                throw new BufferUnderflowException();
+            ByteBuffer dup = map.duplicate();
+            dup.position(position).limit(position + (int) bytes);
+            return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
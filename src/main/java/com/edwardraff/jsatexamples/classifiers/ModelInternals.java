@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.classifiers;
+
+import java.lang.reflect.Field;
+
+/**
+ * Reads the fields of trained JSAT models that JSAT does not expose through a
+ * getter. Code that scores or stores models without going through
+ * {@link jsat.classifiers.Classifier#classify(jsat.classifiers.DataPoint) }
+ * needs the learned parameters themselves, such as the per feature
+ * distributions of a NaiveBayes model or the trees of a RandomForest.<br>
+ * <br>
+ * The field names are the ones used by JSAT 0.0.8, and may change with other
+ * versions of JSAT. A missing field is reported with an
+ * {@link IllegalStateException} naming the field and class, rather than a
+ * reflection exception.
+ *
+ * @author Edward Raff
+ */
+public class ModelInternals
+{
+    private ModelInternals()
+    {
+    }
+
+    /**
+     * Gets the value of a field of an object. The field is looked up in the
+     * class of the object first, and then in each of its super classes, so
+     * fields declared by a base class (like the support vectors of a
+     * {@link jsat.classifiers.svm.SupportVectorLearner}) can be read too.
+     *
+     * @param <T> the type of the field
+     * @param obj the object to read the field from
+     * @param name the name of the field
+     * @return the value of the field
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(Object obj, String name)
+    {
+        try
+        {
+            return (T) find(obj.getClass(), name).get(obj);
+        }
+        catch(IllegalAccessException ex)
+        {
+            throw new IllegalStateException("Could not read " + name + " of " + obj.getClass().getName(), ex);
+        }
+    }
+
+    /**
+     * Gets the value of a primitive double field of an object.
+     *
+     * @param obj the object to read the field from
+     * @param name the name of the field
+     * @return the value of the field
+     */
+    public static double getDouble(Object obj, String name)
+    {
+        try
+        {
+            return find(obj.getClass(), name).getDouble(obj);
+        }
+        catch(IllegalAccessException ex)
+        {
+            throw new IllegalStateException("Could not read " + name + " of " + obj.getClass().getName(), ex);
+        }
+    }
+
+    /**
+     * Gets the value of a primitive int field of an object.
+     *
+     * @param obj the object to read the field from
+     * @param name the name of the field
+     * @return the value of the field
+     */
+    public static int getInt(Object obj, String name)
+    {
+        try
+        {
+            return find(obj.getClass(), name).getInt(obj);
+        }
+        catch(IllegalAccessException ex)
+        {
+            throw new IllegalStateException("Could not read " + name + " of " + obj.getClass().getName(), ex);
+        }
+    }
+
+    /**
+     * Gets the value of a primitive boolean field of an object.
+     *
+     * @param obj the object to read the field from
+     * @param name the name of the field
+     * @return the value of the field
+     */
+    public static boolean getBoolean(Object obj, String name)
+    {
+        try
+        {
+            return find(obj.getClass(), name).getBoolean(obj);
+        }
+        catch(IllegalAccessException ex)
+        {
+            throw new IllegalStateException("Could not read " + name + " of " + obj.getClass().getName(), ex);
+        }
+    }
+
+    private static Field find(Class<?> clazz, String name)
+    {
+        for(Class<?> c = clazz; c != null; c = c.getSuperclass())
+        {
+            try
+            {
+                Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            }
+            catch(NoSuchFieldException ex)
+            {
+                //keep looking in the super class
+            }
+        }
+        throw new IllegalStateException("No field named " + name + " in " + clazz.getName() + ", this code expects JSAT 0.0.8");
+    }
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.classifiers;
+
+import com.edwardraff.jsatexamples.io.DataPointBatch;
+import com.edwardraff.jsatexamples.io.DataPointBatchSource;
+import com.edwardraff.jsatexamples.linear.CSRRowVec;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.DataPoint;
+import jsat.linear.DenseVector;
+import jsat.linear.IndexValue;
+import jsat.linear.SparseVector;
+import jsat.linear.Vec;
+import jsat.utils.IntList;
+
+/**
+ * A {@link ClassificationDataSet} that stores all of its values in a few
+ * large primitive arrays, instead of one {@link DataPoint}, {@link Vec} and
+ * {@code int[]} object per row. Dense data is kept row after row in big
+ * {@code double[]} blocks, and sparse data is kept in compressed sparse row
+ * (CSR) form. For data sets with millions of rows this saves a lot of memory
+ * on object headers and pointers, and leaves the garbage collector with a
+ * handful of large arrays to track rather than millions of small ones.<br>
+ * <br>
+ * {@link #getDataPoint(int) } returns a new, light weight data point each
+ * time it is called, whose vector is a view of the shared arrays. Changes to
+ * that vector are written straight to the storage, except that making a zero
+ * value of a sparse row non-zero gives the vector its own copy of the row
+ * (see {@link CSRRowVec}), which is only kept if it is given back to
+ * {@link #setDataPoint(int, jsat.classifiers.DataPoint) }. Everything else about
+ * this class behaves like a normal ClassificationDataSet, so it can be passed
+ * to any classifier or evaluation.<br>
+ * <br>
+ * {@link #setDataPoint(int, jsat.classifiers.DataPoint) } writes the new
+ * values into the shared arrays when they fit (same dimension for dense
+ * rows, no more non-zeros for sparse rows). Rows that don't fit, and rows
+ * added after packing, are kept as normal objects on the side. Apply any
+ * transforms that change the shape of the data <i>before</i> packing it to
+ * get the full savings. Different rows may be set from different threads at
+ * the same time, as {@link #applyTransform(jsat.datatransform.DataTransform, boolean, java.util.concurrent.ExecutorService) }
+ * does.
+ *
+ * @author Edward Raff
+ */
+public class PackedClassificationDataSet extends ClassificationDataSet
+{
+    /**
+     * Most values stored in one block, 2<sup>24</sup> (128 MB of doubles).
+     * Java arrays are limited to 2<sup>31</sup> entries, so the data is split
+     * into blocks of whole rows to support data sets bigger than that.
+     */
+    private static final int BLOCK_VALUES = 1 << 24;
+    private static final int[] NO_CATEGORIES = new int[0];
+
+    private final boolean sparse;
+    private final int dim;
+    private final int numCat;
+    /**
+     * The index of the first row in each block
+     */
+    private final int[] blockFirstRow;
+    private final double[][] blockValues;
+    /**
+     * Column indices for sparse blocks, null for dense
+     */
+    private final int[][] blockIndices;
+    /**
+     * Offset of each row in its block, only used for sparse data
+     */
+    private final int[] rowStart;
+    /**
+     * Number of non-zeros in each row, only used for sparse data
+     */
+    private final int[] rowNnz;
+    private final int[] catValues;
+    /**
+     * Weight of each row, or null if every weight is 1. It is created by
+     * {@link #weights() } the first time a row needs it.
+     */
+    private volatile double[] weights;
+    private final int packedRows;
+    /**
+     * Rows that did not fit in the packed storage, or were added later
+     */
+    private final Map<Integer, DataPoint> overflow = new ConcurrentHashMap<>();
+
+    private PackedClassificationDataSet(Builder b)
+    {
+        super(b.dim, b.categories, b.predicting);
+        this.sparse = b.sparse;
+        this.dim = b.dim;
+        this.numCat = b.categories.length;
+        this.packedRows = b.rows;
+        this.blockFirstRow = Arrays.copyOf(b.blockFirstRow, b.blocks);
+        this.blockValues = Arrays.copyOf(b.blockValues, b.blocks);
+        this.blockIndices = sparse ? Arrays.copyOf(b.blockIndices, b.blocks) : null;
+        this.rowStart = sparse ? Arrays.copyOf(b.rowStart, b.rows) : null;
+        this.rowNnz = sparse ? Arrays.copyOf(b.rowNnz, b.rows) : null;
+        this.catValues = Arrays.copyOf(b.catValues, b.rows * numCat);
+        this.weights = b.weights == null ? null : Arrays.copyOf(b.weights, b.rows);
+        this.datapoints = new PackedList();
+        this.category = IntList.view(Arrays.copyOf(b.labels, b.rows), b.rows);
+    }
+
+    /**
+     * Creates a packed copy of a data set. Sparse storage is used if, on
+     * average, fewer than half the numeric values of a data point are
+     * non-zero.
+     *
+     * @param data the data set to pack
+     * @return a packed copy of the data set
+     */
+    public static PackedClassificationDataSet pack(ClassificationDataSet data)
+    {
+        long nnz = 0;
+        for(int i = 0; i < data.getSampleSize(); i++)
+            nnz += data.getDataPoint(i).getNumericalValues().nnz();
+        boolean sparse = nnz * 2 < (long) data.getSampleSize() * data.getNumNumericalVars();
+        return pack(data, sparse);
+    }
+
+    /**
+     * Creates a packed copy of a data set
+     *
+     * @param data the data set to pack
+     * @param sparse {@code true} to use sparse CSR storage, {@code false} for
+     * dense storage
+     * @return a packed copy of the data set
+     */
+    public static PackedClassificationDataSet pack(ClassificationDataSet data, boolean sparse)
+    {
+        Builder b = new Builder(data.getNumNumericalVars(), data.getCategories(), data.getPredicting(), sparse);
+        for(int i = 0; i < data.getSampleSize(); i++)
+        {
+            DataPoint dp = data.getDataPoint(i);
+            b.add(dp, data.getDataPointCategory(i));
+        }
+        PackedClassificationDataSet packed = new PackedClassificationDataSet(b.finish());
+        for(int j = 0; j < data.getNumNumericalVars(); j++)
+            if(data.getNumericName(j) != null)
+                packed.setNumericName(data.getNumericName(j), j);
+        return packed;
+    }
+
+    /**
+     * Reads all the data from a source directly into packed storage, so the
+     * data never has to exist as individual objects. This is the way to load
+     * a data set that would not fit in memory in the normal representation.
+     *
+     * @param source the data to read, starting from the beginning
+     * @param sparse {@code true} to use sparse CSR storage, {@code false} for
+     * dense storage
+     * @return the packed data set
+     * @throws IOException if an error occurs reading the source
+     */
+    public static PackedClassificationDataSet pack(DataPointBatchSource source, boolean sparse) throws IOException
+    {
+        source.reset();
+        Builder b = new Builder(source.getNumNumericalVars(), source.getCategories(), source.getPredicting(), sparse);
+        DataPointBatch batch = new DataPointBatch(1024);
+        while(source.nextBatch(batch))
+            for(int i = 0; i < batch.size(); i++)
+                b.add(batch.getDataPoint(i), batch.getLabel(i));
+        return new PackedClassificationDataSet(b.finish());
+    }
+
+    /**
+     * Creates a sparse packed data set from CSR blocks that were already
+     * built, such as by a parallel loader where each thread fills its own
+     * block. The blocks are used as they are, not copied. The rows are stored
+     * block after block: the first {@code blockRows[0]} rows are in block 0,
+     * the next {@code blockRows[1]} in block 1, and so on. Each block must
+     * hold exactly the non-zeros of its rows, in row order, with the indices
+     * of each row sorted.
+     *
+     * @param dim the number of numeric features
+     * @param predicting the class label being predicted
+     * @param labels the class label of each row
+     * @param rowNnz the number of non-zeros in each row
+     * @param blockRows the number of rows in each block, which must be
+     * positive
+     * @param indices the column indices of each block
+     * @param values the values of each block
+     * @return the packed data set
+     */
+    public static PackedClassificationDataSet ofCSR(int dim, CategoricalData predicting, int[] labels, int[] rowNnz,
+            int[] blockRows, int[][] indices, double[][] values)
+    {
+        if(rowNnz.length != labels.length)
+            throw new IllegalArgumentException("There are " + labels.length + " labels but " + rowNnz.length + " rows");
+        if(indices.length != blockRows.length || values.length != blockRows.length)
+            throw new IllegalArgumentException("Every block needs a row count, indices, and values");
+        Builder b = new Builder(dim, new CategoricalData[0], predicting, true);
+        b.rows = labels.length;
+        b.blocks = blockRows.length;
+        b.labels = labels;
+        b.rowNnz = rowNnz;
+        b.rowStart = new int[b.rows];
+        b.blockFirstRow = new int[b.blocks];
+        b.blockIndices = indices;
+        b.blockValues = values;
+        int row = 0;
+        for(int k = 0; k < b.blocks; k++)
+        {
+            if(blockRows[k] < 1)
+                throw new IllegalArgumentException("Block " + k + " has no rows");
+            if(indices[k].length != values[k].length)
+                throw new IllegalArgumentException("Block " + k + " has " + indices[k].length + " indices but " + values[k].length + " values");
+            b.blockFirstRow[k] = row;
+            int used = 0;
+            for(int end = row + blockRows[k]; row < end; row++)
+            {
+                b.rowStart[row] = used;
+                used += rowNnz[row];
+            }
+            if(used != values[k].length)
+                throw new IllegalArgumentException("Block " + k + " has " + values[k].length + " values, but its rows have " + used);
+        }
+        if(row != b.rows)
+            throw new IllegalArgumentException("The blocks have " + row + " rows, but there are " + b.rows + " labels");
+        return new PackedClassificationDataSet(b);
+    }
+
+    /**
+     * @return {@code true} if the numeric values are stored in sparse CSR
+     * form
+     */
+    public boolean isSparse()
+    {
+        return sparse;
+    }
+
+    /**
+     * @return the number of bytes used by the packed arrays, including the
+     * class labels. Rows kept outside of the packed storage are estimated
+     * with {@link #estimateObjectBytes(jsat.classifiers.DataPoint) }.
+     */
+    public long getStorageBytes()
+    {
+        long bytes = 0;
+        for(int b = 0; b < blockValues.length; b++)
+        {
+            bytes += arrayBytes(blockValues[b].length, 8);
+            if(sparse)
+                bytes += arrayBytes(blockIndices[b].length, 4);
+        }
+        if(sparse)
+            bytes += arrayBytes(rowStart.length, 4) + arrayBytes(rowNnz.length, 4);
+        bytes += arrayBytes(catValues.length, 4);
+        double[] w = weights;
+        if(w != null)
+            bytes += arrayBytes(w.length, 8);
+        bytes += arrayBytes(packedRows, 4);//labels
+        for(DataPoint dp : overflow.values())
+            bytes += estimateObjectBytes(dp);
+        return bytes;
+    }
+
+    /**
+     * Estimates the heap memory used by a normal ClassificationDataSet,
+     * assuming a 64 bit JVM with compressed pointers (the default for heaps
+     * under 32 GB). This counts every data point, its vector, its arrays,
+     * and the list entries that point to them.
+     *
+     * @param data the data set
+     * @return the estimated number of bytes
+     */
+    public static long estimateHeapBytes(ClassificationDataSet data)
+    {
+        long bytes = 0;
+        for(int i = 0; i < data.getSampleSize(); i++)
+            bytes += estimateObjectBytes(data.getDataPoint(i));
+        bytes += 2 * arrayBytes(data.getSampleSize(), 4);//ArrayList of points, and IntList of labels
+        return bytes;
+    }
+
+    /**
+     * Estimates the heap memory used by one data point and what it refers
+     * to, assuming compressed pointers.
+     *
+     * @param dp the data point
+     * @return the estimated number of bytes
+     */
+    public static long estimateObjectBytes(DataPoint dp)
+    {
+        //header + 3 references + a double
+        long bytes = align(12 + 3 * 4 + 8);
+        bytes += arrayBytes(dp.numCategoricalValues(), 4);
+        Vec v = dp.getNumericalValues();
+        if(v instanceof SparseVector)//header + 2 references + length, used, and cached stats
+            bytes += align(12 + 2 * 4 + 2 * 4 + 4 * 8) + arrayBytes(v.nnz(), 4) + arrayBytes(v.nnz(), 8);
+        else if(v.isSparse())
+            bytes += align(12 + 2 * 4 + 3 * 4) + arrayBytes(v.nnz(), 4) + arrayBytes(v.nnz(), 8);
+        else//header + reference + start and end
+            bytes += align(12 + 4 + 2 * 4) + arrayBytes(v.length(), 8);
+        return bytes;
+    }
+
+    private static long arrayBytes(long length, int elementSize)
+    {
+        return align(16 + length * elementSize);
+    }
+
+    private static long align(long bytes)
+    {
+        return (bytes + 7) & ~7L;
+    }
+
+    private int blockOf(int row)
+    {
+        int b = Arrays.binarySearch(blockFirstRow, row);
+        return b >= 0 ? b : -(b + 2);
+    }
+
+    private DataPoint view(int i)
+    {
+        DataPoint extra = overflow.get(i);
+        if(extra != null)
+            return extra;
+        int b = blockOf(i);
+        Vec x;
+        if(sparse)
+            x = new CSRRowVec(blockIndices[b], blockValues[b], rowStart[i], rowNnz[i], dim);
+        else
+        {
+            int start = (i - blockFirstRow[b]) * dim;
+            x = new DenseVector(blockValues[b], start, start + dim);
+        }
+        int[] cats = numCat == 0 ? NO_CATEGORIES : Arrays.copyOfRange(catValues, i * numCat, (i + 1) * numCat);
+        double[] w = weights;
+        return new DataPoint(x, cats, categories, w == null ? 1.0 : w[i]);
+    }
+
+    /**
+     * @return the weights array, creating it if this is the first row that
+     * isn't weight 1. Rows may be stored from many threads at once, and they
+     * must all write to the same array.
+     */
+    private double[] weights()
+    {
+        double[] w = weights;
+        if(w != null)
+            return w;
+        synchronized(this)
+        {
+            if(weights == null)
+            {
+                w = new double[packedRows];
+                Arrays.fill(w, 1.0);
+                weights = w;
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * Writes a data point into the packed storage if it fits
+     *
+     * @return {@code true} if it was stored, {@code false} if it must go in
+     * the overflow map
+     */
+    private boolean store(int i, DataPoint dp)
+    {
+        Vec x = dp.getNumericalValues();
+        if(i >= packedRows || x.length() != dim || dp.numCategoricalValues() != numCat)
+            return false;
+        int b = blockOf(i);
+        if(sparse)
+        {
+            if(x.nnz() > rowNnz[i])
+                return false;
+            int pos = rowStart[i];
+            int count = 0;
+            for(Iterator<IndexValue> iter = x.getNonZeroIterator(); iter.hasNext(); )
+            {
+                IndexValue iv = iter.next();
+                if(iv.getValue() == 0)
+                    continue;
+                if(count == rowNnz[i])
+                    return false;//nnz() was only an upper bound, and this row does not fit
+                blockIndices[b][pos + count] = iv.getIndex();
+                blockValues[b][pos + count] = iv.getValue();
+                count++;
+            }
+            rowNnz[i] = count;
+        }
+        else
+        {
+            int start = (i - blockFirstRow[b]) * dim;
+            double[] vals = blockValues[b];
+            if(x.isSparse())
+            {
+                Arrays.fill(vals, start, start + dim, 0.0);
+                for(IndexValue iv : x)
+                    vals[start + iv.getIndex()] = iv.getValue();
+            }
+            else
+                for(int j = 0; j < dim; j++)
+                    vals[start + j] = x.get(j);
+        }
+        System.arraycopy(dp.getCategoricalValues(), 0, catValues, i * numCat, numCat);
+        double[] w = weights;
+        if(dp.getWeight() != 1.0)
+            weights()[i] = dp.getWeight();
+        else if(w != null)
+            w[i] = 1.0;
+        overflow.remove(i);
+        return true;
+    }
+
+    /**
+     * The list of data points the parent class works with. It creates views
+     * on demand rather than holding any data point objects.
+     */
+    private class PackedList extends AbstractList<DataPoint>
+    {
+        private int size = packedRows;
+
+        @Override
+        public DataPoint get(int index)
+        {
+            if(index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + size + ")");
+            return view(index);
+        }
+
+        @Override
+        public DataPoint set(int index, DataPoint element)
+        {
+            DataPoint old = get(index);
+            if(!store(index, element))
+                overflow.put(index, element);
+            return old;
+        }
+
+        @Override
+        public synchronized void add(int index, DataPoint element)
+        {
+            if(index != size)
+                throw new UnsupportedOperationException("Data points can only be added to the end of a packed data set");
+            overflow.put(size++, element);
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+
+    /**
+     * Collects rows into growing blocks while packing
+     */
+    private static class Builder
+    {
+        final int dim;
+        final CategoricalData[] categories;
+        final CategoricalData predicting;
+        final boolean sparse;
+        int rows = 0;
+        int blocks = 0;
+        int[] blockFirstRow = new int[4];
+        double[][] blockValues = new double[4][];
+        int[][] blockIndices = new int[4][];
+        /**
+         * Number of values used in the last block
+         */
+        int used = 0;
+        int[] rowStart = new int[16];
+        int[] rowNnz = new int[16];
+        int[] labels = new int[16];
+        int[] catValues;
+        double[] weights = null;
+
+        Builder(int dim, CategoricalData[] categories, CategoricalData predicting, boolean sparse)
+        {
+            this.dim = dim;
+            this.categories = categories;
+            this.predicting = predicting;
+            this.sparse = sparse;
+            this.catValues = new int[16 * categories.length];
+        }
+
+        void add(DataPoint dp, int label)
+        {
+            Vec x = dp.getNumericalValues();
+            int need = sparse ? x.nnz() : dim;
+            if(blocks == 0 || (used + need > BLOCK_VALUES && used > 0))
+                newBlock(need);
+            ensureValues(need);
+
+            if(rows == labels.length)
+            {
+                int cap = rows * 2;
+                labels = Arrays.copyOf(labels, cap);
+                rowStart = Arrays.copyOf(rowStart, cap);
+                rowNnz = Arrays.copyOf(rowNnz, cap);
+                catValues = Arrays.copyOf(catValues, cap * categories.length);
+                if(weights != null)
+                    weights = Arrays.copyOf(weights, cap);
+            }
+
+            int b = blocks - 1;
+            if(sparse)
+            {
+                int count = 0;
+                for(Iterator<IndexValue> iter = x.getNonZeroIterator(); iter.hasNext(); )
+                {
+                    IndexValue iv = iter.next();
+                    if(iv.getValue() == 0)
+                        continue;
+                    blockIndices[b][used + count] = iv.getIndex();
+                    blockValues[b][used + count] = iv.getValue();
+                    count++;
+                }
+                rowStart[rows] = used;
+                rowNnz[rows] = count;
+                used += count;
+            }
+            else
+            {
+                if(x.isSparse())
+                    for(IndexValue iv : x)
+                        blockValues[b][used + iv.getIndex()] = iv.getValue();
+                else
+                    for(int j = 0; j < dim; j++)
+                        blockValues[b][used + j] = x.get(j);
+                used += dim;
+            }
+
+            labels[rows] = label;
+            System.arraycopy(dp.getCategoricalValues(), 0, catValues, rows * categories.length, categories.length);
+            if(dp.getWeight() != 1.0 && weights == null)
+            {
+                weights = new double[labels.length];
+                Arrays.fill(weights, 0, rows, 1.0);
+            }
+            if(weights != null)
+                weights[rows] = dp.getWeight();
+            rows++;
+        }
+
+        private void newBlock(int need)
+        {
+            trimLastBlock();
+            if(blocks == blockValues.length)
+            {
+                blockFirstRow = Arrays.copyOf(blockFirstRow, blocks * 2);
+                blockValues = Arrays.copyOf(blockValues, blocks * 2);
+                blockIndices = Arrays.copyOf(blockIndices, blocks * 2);
+            }
+            //start small and let ensureValues grow the block up to its limit
+            int initial = Math.max(need, Math.min(BLOCK_VALUES, 1024 * Math.max(dim, 1)));
+            blockFirstRow[blocks] = rows;
+            blockValues[blocks] = new double[initial];
+            if(sparse)
+                blockIndices[blocks] = new int[initial];
+            blocks++;
+            used = 0;
+        }
+
+        private void ensureValues(int need)
+        {
+            int b = blocks - 1;
+            if(used + need <= blockValues[b].length)
+                return;
+            int cap = (int) Math.min(Math.max((long) blockValues[b].length * 2, used + need), Integer.MAX_VALUE - 8);
+            blockValues[b] = Arrays.copyOf(blockValues[b], cap);
+            if(sparse)
+                blockIndices[b] = Arrays.copyOf(blockIndices[b], cap);
+        }
+
+        /**
+         * Releases the unused space at the end of the last block. Must be
+         * called once all rows have been added.
+         */
+        Builder finish()
+        {
+            trimLastBlock();
+            return this;
+        }
+
+        private void trimLastBlock()
+        {
+            if(blocks == 0)
+                return;
+            int b = blocks - 1;
+            blockValues[b] = Arrays.copyOf(blockValues[b], used);
+            if(sparse)
+                blockIndices[b] = Arrays.copyOf(blockIndices[b], used);
+        }
+    }
+}
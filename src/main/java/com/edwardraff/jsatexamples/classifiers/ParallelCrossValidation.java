@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.classifiers;
+
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.DataPoint;
+import jsat.datatransform.DataTransformProcess;
+import jsat.math.OnLineStatistics;
+
+/**
+ * Cross validation that trains and tests the folds at the same time, instead
+ * of one after another like {@link jsat.classifiers.ClassificationModelEvaluation}
+ * does. Giving the ClassificationModelEvaluation an ExecutorService only helps
+ * if the model itself can use more than one thread, while the folds of cross
+ * validation are always independent of each other.<br>
+ * <br>
+ * The folds run on a work stealing {@link ForkJoinPool}. Each fold needs its
+ * own model, and possibly its own transformed copy of the training data, so
+ * running all the folds at once can use a lot of memory. The number of folds
+ * in flight is limited so that the estimated memory per fold times the folds
+ * in flight stays within a {@link #setMemoryBudget(long) memory budget}.<br>
+ * <br>
+ * Every fold records its own predictions, with no locks or shared state other
+ * than a slot for its result and a few atomic timing counters. Once all the
+ * folds are done the confusion matrix is built by adding the results up in
+ * fold order, the same order the serial evaluation uses. So for the same
+ * {@link Random} seed, and a model that does not use randomness of its own,
+ * {@link #getErrorRate() } is exactly the same as the one
+ * ClassificationModelEvaluation gives. Models that do use randomness get it
+ * from JSAT's shared seed, in whatever order the folds happen to start, so
+ * they only give the same result every run with one thread. See
+ * {@link com.edwardraff.jsatexamples.random.ReproducibleMode} for more.<br>
+ * <br>
+ * The time to train and test each fold is recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}, and each
+ * fold is reported as a {@code cv_fold} event.
+ *
+ * @author Edward Raff
+ */
+public class ParallelCrossValidation
+{
+    private final Classifier classifier;
+    private final ClassificationDataSet dataSet;
+    private DataTransformProcess dtp;
+    private long memoryBudget;
+    private long foldMemoryEstimate = -1;
+    private int maxFoldsInFlight;
+
+    private double[][] confusionMatrix;
+    private double sumOfWeights;
+    private double correctWeights;
+    private OnLineStatistics errorStats;
+    private final LongAdder totalTrainingTime = new LongAdder();
+    private final LongAdder totalClassificationTime = new LongAdder();
+    private final AtomicInteger foldsCompleted = new AtomicInteger();
+
+    /**
+     * Creates a new parallel cross validation. The memory budget defaults to
+     * half of the maximum heap size.
+     *
+     * @param classifier the model to evaluate. It is cloned for every fold, and
+     * is never trained itself.
+     * @param dataSet the data set to evaluate the model on
+     */
+    public ParallelCrossValidation(Classifier classifier, ClassificationDataSet dataSet)
+    {
+        this.classifier = classifier;
+        this.dataSet = dataSet;
+        this.memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * Sets the transforms to learn on the training portion of each fold,
+     * exactly like {@link jsat.classifiers.ClassificationModelEvaluation#setDataTransformProcess(jsat.datatransform.DataTransformProcess) }.
+     *
+     * @param dtp the transforms to apply, or {@code null} for none
+     */
+    public void setDataTransformProcess(DataTransformProcess dtp)
+    {
+        this.dtp = dtp;
+    }
+
+    /**
+     * Sets the most memory, in bytes, that all the folds running at the same
+     * time may use. At least one fold is always run, no matter how small the
+     * budget is.
+     *
+     * @param memoryBudget the memory budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget)
+    {
+        if(memoryBudget <= 0)
+            throw new IllegalArgumentException("Memory budget must be positive, not " + memoryBudget);
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return the memory budget in bytes
+     */
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets how much memory, in bytes, one fold is expected to need while it
+     * runs. By default this is the estimated size of one full copy of the
+     * data set, which covers a transformed copy of the training data or a
+     * model that keeps its own copy of it (like most kernel methods). Models
+     * that keep very little, like Naive Bayes, can use a much smaller value.
+     *
+     * @param foldMemoryEstimate the bytes needed by one fold, or a negative
+     * value to use the default
+     */
+    public void setFoldMemoryEstimate(long foldMemoryEstimate)
+    {
+        this.foldMemoryEstimate = foldMemoryEstimate;
+    }
+
+    /**
+     * Performs cross validation using the common ForkJoinPool.
+     *
+     * @param folds the number of folds
+     * @param rand the source of randomness used to split the data
+     */
+    public void evaluateCrossValidation(int folds, Random rand)
+    {
+        evaluateCrossValidation(folds, rand, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Performs cross validation. The data is split into folds with
+     * {@link ClassificationDataSet#cvSet(int, java.util.Random) }, just like
+     * ClassificationModelEvaluation does, so the same seed gives the same
+     * folds.
+     *
+     * @param folds the number of folds
+     * @param rand the source of randomness used to split the data
+     * @param pool the pool to run the folds in
+     */
+    public void evaluateCrossValidation(int folds, Random rand, ForkJoinPool pool)
+    {
+        if(dataSet.getSampleSize() < folds)
+            throw new IllegalArgumentException("Data set has only " + dataSet.getSampleSize() + " points, can not make " + folds + " folds");
+        evaluateCrossValidation(dataSet.cvSet(folds, rand), pool);
+    }
+
+    /**
+     * Performs cross validation on folds that have already been made. Each
+     * fold is used once as the test set, with all the other folds used for
+     * training.
+     *
+     * @param lcds the folds
+     * @param pool the pool to run the folds in
+     */
+    public void evaluateCrossValidation(List<ClassificationDataSet> lcds, ForkJoinPool pool)
+    {
+        int folds = lcds.size();
+        long perFold = foldMemoryEstimate >= 0 ? foldMemoryEstimate : PackedClassificationDataSet.estimateHeapBytes(dataSet);
+        long byMemory = perFold == 0 ? folds : Math.max(1, memoryBudget / perFold);
+        maxFoldsInFlight = (int) Math.min(Math.min(folds, pool.getParallelism()), byMemory);
+
+        totalTrainingTime.reset();
+        totalClassificationTime.reset();
+        foldsCompleted.set(0);
+        AtomicReferenceArray<int[]> predictions = new AtomicReferenceArray<>(folds);
+        AtomicInteger nextFold = new AtomicInteger();
+
+        //Each worker keeps taking the next fold until there are none left, so
+        //there are never more than maxFoldsInFlight folds in memory at once
+        List<RecursiveAction> workers = new ArrayList<>(maxFoldsInFlight);
+        for(int w = 0; w < maxFoldsInFlight; w++)
+            workers.add(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    int fold;
+                    while((fold = nextFold.getAndIncrement()) < folds)
+                    {
+                        predictions.set(fold, runFold(lcds, fold));
+                        foldsCompleted.incrementAndGet();
+                    }
+                }
+            });
+        pool.invoke(new RecursiveAction()
+        {
+            @Override
+            protected void compute()
+            {
+                invokeAll(workers);
+            }
+        });
+
+        //Add everything up in fold order, so the result does not depend on 
+        //which fold happened to finish first
+        int C = dataSet.getClassSize();
+        confusionMatrix = new double[C][C];
+        sumOfWeights = 0;
+        correctWeights = 0;
+        errorStats = new OnLineStatistics();
+        for(int fold = 0; fold < folds; fold++)
+        {
+            ClassificationDataSet testSet = lcds.get(fold);
+            int[] predicted = predictions.get(fold);
+            double foldWeight = 0, foldCorrect = 0;
+            for(int i = 0; i < predicted.length; i++)
+            {
+                int truth = testSet.getDataPointCategory(i);
+                double weight = testSet.getDataPoint(i).getWeight();
+                confusionMatrix[truth][predicted[i]] += weight;
+                foldWeight += weight;
+                if(truth == predicted[i])
+                    foldCorrect += weight;
+            }
+            sumOfWeights += foldWeight;
+            correctWeights += foldCorrect;
+            //a fold can have no test weight when there are only a few points
+            if(foldWeight > 0)
+                errorStats.add(1.0 - foldCorrect / foldWeight);
+        }
+        MetricsRegistry.getDefault().gauge("jsat_cv_error_rate", "Error rate of the last cross validation",
+                "model", classifier.getClass().getSimpleName()).set(getErrorRate());
+    }
+
+    /**
+     * Trains a new model on every fold but one, and predicts the fold that
+     * was left out.
+     *
+     * @return the predicted class of every point in the test fold
+     */
+    private int[] runFold(List<ClassificationDataSet> lcds, int fold)
+    {
+        ClassificationDataSet trainSet = ClassificationDataSet.comineAllBut(lcds, fold);
+        ClassificationDataSet testSet = lcds.get(fold);
+
+        DataTransformProcess curProcess = null;
+        if(dtp != null)
+        {
+            curProcess = dtp.clone();
+            if(curProcess.getNumberOfTransforms() > 0)
+            {
+                trainSet = trainSet.shallowClone();
+                curProcess.learnApplyTransforms(trainSet);
+            }
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String name = classifier.getClass().getSimpleName();
+        Classifier model = classifier.clone();
+        long start = System.nanoTime();
+        model.trainC(trainSet);
+        long trainNanos = metrics.timer("jsat_cv_fold_train_seconds", "Time to train the model of one cross validation fold", "model", name).since(start);
+        totalTrainingTime.add(TimeUnit.NANOSECONDS.toMillis(trainNanos));
+
+        start = System.nanoTime();
+        int[] predicted = new int[testSet.getSampleSize()];
+        for(int i = 0; i < predicted.length; i++)
+        {
+            DataPoint dp = testSet.getDataPoint(i);
+            if(curProcess != null)
+                dp = curProcess.transform(dp);
+            predicted[i] = model.classify(dp).mostLikely();
+        }
+        long testNanos = metrics.timer("jsat_cv_fold_test_seconds", "Time to classify the test points of one cross validation fold", "model", name).since(start);
+        totalClassificationTime.add(TimeUnit.NANOSECONDS.toMillis(testNanos));
+
+        if(metrics.hasListeners())
+        {
+            double wrong = 0, total = 0;
+            for(int i = 0; i < predicted.length; i++)
+            {
+                double weight = testSet.getDataPoint(i).getWeight();
+                total += weight;
+                if(predicted[i] != testSet.getDataPointCategory(i))
+                    wrong += weight;
+            }
+            metrics.event("cv_fold", "model", name, "fold", fold, "train_points", trainSet.getSampleSize(),
+                    "test_points", predicted.length, "train_seconds", trainNanos / 1e9,
+                    "test_seconds", testNanos / 1e9, "error_rate", total > 0 ? wrong / total : Double.NaN);
+        }
+        return predicted;
+    }
+
+    /**
+     * @return the number of folds that were allowed to run at the same time
+     * in the last evaluation
+     */
+    public int getMaxFoldsInFlight()
+    {
+        return maxFoldsInFlight;
+    }
+
+    /**
+     * @return the number of folds finished so far. This may be called from
+     * another thread while the evaluation is running to track progress.
+     */
+    public int getFoldsCompleted()
+    {
+        return foldsCompleted.get();
+    }
+
+    /**
+     * @return the confusion matrix, where rows are the true classes and
+     * columns are the predicted classes
+     */
+    public double[][] getConfusionMatrix()
+    {
+        return confusionMatrix;
+    }
+
+    /**
+     * Prints out the confusion matrix in the same format as
+     * {@link jsat.classifiers.ClassificationModelEvaluation#prettyPrintConfusionMatrix() }.
+     */
+    public void prettyPrintConfusionMatrix()
+    {
+        CategoricalData predicting = dataSet.getPredicting();
+        int nameLength = 10;
+        for(int i = 0; i < predicting.getNumOfCategories(); i++)
+            nameLength = Math.max(nameLength, predicting.getOptionName(i).length() + 2);
+        final String pfx = "%-" + nameLength;//prefix
+        System.out.printf(pfx + "s ", "Matrix");
+        for(int i = 0; i < predicting.getNumOfCategories() - 1; i++)
+            System.out.printf(pfx + "s\t", predicting.getOptionName(i).toUpperCase());
+        System.out.printf(pfx + "s\n", predicting.getOptionName(predicting.getNumOfCategories() - 1).toUpperCase());
+        for(int i = 0; i < confusionMatrix.length; i++)
+        {
+            System.out.printf(pfx + "s ", predicting.getOptionName(i).toUpperCase());
+            for(int j = 0; j < confusionMatrix.length - 1; j++)
+                System.out.printf(pfx + "f ", confusionMatrix[i][j]);
+            System.out.printf(pfx + "f\n", confusionMatrix[i][confusionMatrix.length - 1]);
+        }
+    }
+
+    /**
+     * @return the sum of the weights of the points that were classified
+     * correctly
+     */
+    public double getCorrectWeights()
+    {
+        return correctWeights;
+    }
+
+    /**
+     * @return the sum of the weights of all the points tested
+     */
+    public double getSumOfWeights()
+    {
+        return sumOfWeights;
+    }
+
+    /**
+     * @return the weighted error rate over all the folds
+     */
+    public double getErrorRate()
+    {
+        return 1.0 - correctWeights / sumOfWeights;
+    }
+
+    /**
+     * @return the statistics of the error rate of each fold
+     */
+    public OnLineStatistics getErrorRateStats()
+    {
+        return errorStats;
+    }
+
+    /**
+     * Returns the total time spent training, in milliseconds. This is the
+     * sum over all folds, so with folds running at the same time it can be
+     * more than the wall clock time of the evaluation.
+     *
+     * @return the total training time in milliseconds
+     */
+    public long getTotalTrainingTime()
+    {
+        return totalTrainingTime.sum();
+    }
+
+    /**
+     * Returns the total time spent classifying, in milliseconds, summed over
+     * all folds.
+     *
+     * @return the total classification time in milliseconds
+     */
+    public long getTotalClassificationTime()
+    {
+        return totalClassificationTime.sum();
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.classifiers;
+
+import com.edwardraff.jsatexamples.io.DataPointBatch;
+import com.edwardraff.jsatexamples.io.DataPointBatchSource;
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.random.SeedSequence;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.DataPoint;
+import jsat.classifiers.UpdateableClassifier;
+import jsat.math.OnLineStatistics;
+
+/**
+ * Cross validation of an online model straight from a
+ * {@link DataPointBatchSource}, for data sets that are too big to load into
+ * memory. {@link jsat.classifiers.ClassificationModelEvaluation} and
+ * {@link ParallelCrossValidation} need the whole data set in memory, and make
+ * a copy of the training data for every fold. Here nothing but the models and
+ * one batch of data is ever held in memory, so a file of hundreds of
+ * gigabytes can be cross validated with a small heap.<br>
+ * <br>
+ * A file can't be shuffled into folds without reading it all, so each row is
+ * put in a fold by hashing its position in the source with a
+ * {@link SeedSequence}. The same seed always gives the same folds, but the
+ * folds are only about the same size, not exactly the same size, and are not
+ * stratified by class.<br>
+ * <br>
+ * The whole evaluation takes just two passes over the source, no matter how
+ * many folds there are. In the first pass, every batch is given to all the
+ * models at once, each one in its own task on a {@link ForkJoinPool}, and
+ * each model is updated with the rows that are not in its fold. In the
+ * second pass, each model classifies the rows of its own fold. Every model
+ * sees its rows in the order of the source, and the results are added up in
+ * fold order, so the result does not depend on the number of threads. An
+ * online model only sees each row once, so the rows should be in a random
+ * order: a file sorted by class will give a poor model.<br>
+ * <br>
+ * The data points in a batch are reused for the next batch, so this should
+ * only be used with models that do not keep references to the points they
+ * are updated with, the same as for
+ * {@link com.edwardraff.jsatexamples.io.BatchSources#trainC(jsat.classifiers.UpdateableClassifier, com.edwardraff.jsatexamples.io.DataPointBatchSource, int) }.<br>
+ * <br>
+ * The time to train and test each fold is recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}, and each
+ * fold is reported as a {@code cv_fold} event.
+ *
+ * @author Edward Raff
+ */
+public class StreamingCrossValidation
+{
+    private final UpdateableClassifier classifier;
+    private final DataPointBatchSource source;
+    private int batchSize = 4096;
+
+    private double[][] confusionMatrix;
+    private double sumOfWeights;
+    private double correctWeights;
+    private OnLineStatistics errorStats;
+    private long totalTrainingTime;
+    private long totalClassificationTime;
+    private long rowsRead;
+
+    /**
+     * Creates a new streaming cross validation
+     *
+     * @param classifier the model to evaluate. It is cloned for every fold,
+     * and is never trained itself.
+     * @param source the data to evaluate the model on. It is read from the
+     * start, and is not closed.
+     */
+    public StreamingCrossValidation(UpdateableClassifier classifier, DataPointBatchSource source)
+    {
+        this.classifier = classifier;
+        this.source = source;
+    }
+
+    /**
+     * Sets the number of points read from the source at a time. All the
+     * folds wait for the slowest one at the end of each batch, so bigger
+     * batches keep the threads busier, at the cost of more memory.
+     *
+     * @param batchSize the number of points in a batch
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if(batchSize <= 0)
+            throw new IllegalArgumentException("Batch size must be positive, not " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of points read from the source at a time
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Returns the fold a row is put in. Row i of the source is put in
+     * {@code fold(i)}, so this can be used to find the folds again, for
+     * example to compare with another evaluation.
+     *
+     * @param seeds the seeds the folds were made with
+     * @param folds the number of folds
+     * @param row the position of the row in the source, starting from 0
+     * @return the fold of the row, in [0, folds)
+     */
+    public static int fold(SeedSequence seeds, int folds, long row)
+    {
+        return (int) Long.remainderUnsigned(seeds.splitSeed(row), folds);
+    }
+
+    /**
+     * Performs cross validation using the common ForkJoinPool.
+     *
+     * @param folds the number of folds
+     * @param seeds the seeds used to put the rows in folds
+     * @throws IOException if an error occurs reading the source
+     */
+    public void evaluateCrossValidation(int folds, SeedSequence seeds) throws IOException
+    {
+        evaluateCrossValidation(folds, seeds, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Performs cross validation.
+     *
+     * @param folds the number of folds
+     * @param seeds the seeds used to put the rows in folds
+     * @param pool the pool to run the folds in
+     * @throws IOException if an error occurs reading the source
+     */
+    public void evaluateCrossValidation(int folds, SeedSequence seeds, ForkJoinPool pool) throws IOException
+    {
+        if(folds < 2)
+            throw new IllegalArgumentException("Need at least 2 folds, not " + folds);
+        int C = source.getPredicting().getNumOfCategories();
+        FoldTask[] tasks = new FoldTask[folds];
+        for(int f = 0; f < folds; f++)
+        {
+            tasks[f] = new FoldTask(f, C);
+            tasks[f].model.setUp(source.getCategories(), source.getNumNumericalVars(), source.getPredicting());
+        }
+        DataPointBatch batch = new DataPointBatch(batchSize);
+        int[] foldOf = new int[batchSize];
+
+        //first pass, every model learns from the rows not in its fold
+        runPass(tasks, batch, foldOf, folds, seeds, pool, true);
+        //second pass, every model classifies the rows in its fold
+        runPass(tasks, batch, foldOf, folds, seeds, pool, false);
+
+        //Add everything up in fold order, so the result does not depend on
+        //which fold happened to finish first
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String name = classifier.getClass().getSimpleName();
+        confusionMatrix = new double[C][C];
+        sumOfWeights = 0;
+        correctWeights = 0;
+        errorStats = new OnLineStatistics();
+        totalTrainingTime = 0;
+        totalClassificationTime = 0;
+        for(FoldTask task : tasks)
+        {
+            for(int i = 0; i < C; i++)
+                for(int j = 0; j < C; j++)
+                    confusionMatrix[i][j] += task.confusion[i][j];
+            sumOfWeights += task.testWeight;
+            correctWeights += task.correctWeight;
+            //a fold can get no test points when there are only a few rows,
+            //it has no error rate then and is reported as NaN
+            double foldError = task.testWeight > 0 ? 1.0 - task.correctWeight / task.testWeight : Double.NaN;
+            if(task.testWeight > 0)
+                errorStats.add(foldError);
+            totalTrainingTime += TimeUnit.NANOSECONDS.toMillis(task.trainNanos);
+            totalClassificationTime += TimeUnit.NANOSECONDS.toMillis(task.testNanos);
+
+            metrics.timer("jsat_cv_fold_train_seconds", "Time to train the model of one cross validation fold", "model", name).record(task.trainNanos);
+            metrics.timer("jsat_cv_fold_test_seconds", "Time to classify the test points of one cross validation fold", "model", name).record(task.testNanos);
+            if(metrics.hasListeners())
+                metrics.event("cv_fold", "model", name, "fold", task.fold, "train_points", task.trainPoints,
+                        "test_points", task.testPoints, "train_seconds", task.trainNanos / 1e9,
+                        "test_seconds", task.testNanos / 1e9, "error_rate", foldError);
+        }
+        metrics.gauge("jsat_cv_error_rate", "Error rate of the last cross validation",
+                "model", name).set(getErrorRate());
+    }
+
+    /**
+     * Reads the whole source once, giving every batch to all the folds
+     */
+    private void runPass(FoldTask[] tasks, DataPointBatch batch, int[] foldOf, int folds, SeedSequence seeds, ForkJoinPool pool, boolean training) throws IOException
+    {
+        source.reset();
+        long row = 0;
+        while(source.nextBatch(batch))
+        {
+            for(int i = 0; i < batch.size(); i++)
+                foldOf[i] = fold(seeds, folds, row++);
+            List<RecursiveAction> actions = new ArrayList<>(tasks.length);
+            for(FoldTask task : tasks)
+                actions.add(new RecursiveAction()
+                {
+                    @Override
+                    protected void compute()
+                    {
+                        if(training)
+                            task.train(batch, foldOf);
+                        else
+                            task.test(batch, foldOf);
+                    }
+                });
+            pool.invoke(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    invokeAll(actions);
+                }
+            });
+        }
+        rowsRead = row;
+    }
+
+    /**
+     * The model and results of one fold. Only the task of the fold touches
+     * them while a pass is running.
+     */
+    private class FoldTask
+    {
+        final int fold;
+        final UpdateableClassifier model;
+        final double[][] confusion;
+        double testWeight, correctWeight;
+        long trainPoints, testPoints;
+        long trainNanos, testNanos;
+
+        FoldTask(int fold, int C)
+        {
+            this.fold = fold;
+            this.model = classifier.clone();
+            this.confusion = new double[C][C];
+        }
+
+        void train(DataPointBatch batch, int[] foldOf)
+        {
+            long start = System.nanoTime();
+            for(int i = 0; i < batch.size(); i++)
+                if(foldOf[i] != fold)
+                {
+                    model.update(batch.getDataPoint(i), batch.getLabel(i));
+                    trainPoints++;
+                }
+            trainNanos += System.nanoTime() - start;
+        }
+
+        void test(DataPointBatch batch, int[] foldOf)
+        {
+            long start = System.nanoTime();
+            for(int i = 0; i < batch.size(); i++)
+                if(foldOf[i] == fold)
+                {
+                    DataPoint dp = batch.getDataPoint(i);
+                    int truth = batch.getLabel(i);
+                    int predicted = model.classify(dp).mostLikely();
+                    double weight = dp.getWeight();
+                    confusion[truth][predicted] += weight;
+                    testWeight += weight;
+                    if(truth == predicted)
+                        correctWeight += weight;
+                    testPoints++;
+                }
+            testNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return the number of rows read from the source in the last evaluation
+     */
+    public long getRowsRead()
+    {
+        return rowsRead;
+    }
+
+    /**
+     * @return the confusion matrix, where rows are the true classes and
+     * columns are the predicted classes
+     */
+    public double[][] getConfusionMatrix()
+    {
+        return confusionMatrix;
+    }
+
+    /**
+     * Prints out the confusion matrix in the same format as
+     * {@link jsat.classifiers.ClassificationModelEvaluation#prettyPrintConfusionMatrix() }.
+     */
+    public void prettyPrintConfusionMatrix()
+    {
+        CategoricalData predicting = source.getPredicting();
+        int nameLength = 10;
+        for(int i = 0; i < predicting.getNumOfCategories(); i++)
+            nameLength = Math.max(nameLength, predicting.getOptionName(i).length() + 2);
+        final String pfx = "%-" + nameLength;//prefix
+        System.out.printf(pfx + "s ", "Matrix");
+        for(int i = 0; i < predicting.getNumOfCategories() - 1; i++)
+            System.out.printf(pfx + "s\t", predicting.getOptionName(i).toUpperCase());
+        System.out.printf(pfx + "s\n", predicting.getOptionName(predicting.getNumOfCategories() - 1).toUpperCase());
+        for(int i = 0; i < confusionMatrix.length; i++)
+        {
+            System.out.printf(pfx + "s ", predicting.getOptionName(i).toUpperCase());
+            for(int j = 0; j < confusionMatrix.length - 1; j++)
+                System.out.printf(pfx + "f ", confusionMatrix[i][j]);
+            System.out.printf(pfx + "f\n", confusionMatrix[i][confusionMatrix.length - 1]);
+        }
+    }
+
+    /**
+     * @return the sum of the weights of the points that were classified
+     * correctly
+     */
+    public double getCorrectWeights()
+    {
+        return correctWeights;
+    }
+
+    /**
+     * @return the sum of the weights of all the points tested
+     */
+    public double getSumOfWeights()
+    {
+        return sumOfWeights;
+    }
+
+    /**
+     * @return the weighted error rate over all the folds
+     */
+    public double getErrorRate()
+    {
+        return 1.0 - correctWeights / sumOfWeights;
+    }
+
+    /**
+     * @return the statistics of the error rate of each fold
+     */
+    public OnLineStatistics getErrorRateStats()
+    {
+        return errorStats;
+    }
+
+    /**
+     * Returns the total time spent training, in milliseconds. This is the
+     * sum over all folds, so with folds running at the same time it can be
+     * more than the wall clock time of the evaluation. Reading the source is
+     * not included.
+     *
+     * @return the total training time in milliseconds
+     */
+    public long getTotalTrainingTime()
+    {
+        return totalTrainingTime;
+    }
+
+    /**
+     * Returns the total time spent classifying, in milliseconds, summed over
+     * all folds.
+     *
+     * @return the total classification time in milliseconds
+     */
+    public long getTotalClassificationTime()
+    {
+        return totalClassificationTime;
+    }
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.clustering;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import jsat.classifiers.ClassificationDataSet;
+
+/**
+ * The table of how many points of each class landed in each cluster, from
+ * which every external cluster evaluation can be computed. JSAT's
+ * {@link jsat.clustering.evaluation.NormalizedMutualInformation} builds lists
+ * of the points in every cluster and counts them again each time it is
+ * called, which gets expensive when evaluating many clusterings of millions
+ * of points. Here the counts are made once, in parallel, into hash tables of
+ * primitive ints, and {@link #getScores() } computes the NMI, adjusted Rand
+ * index, V-measure and purity together in one pass over the non-zero
+ * cells.<br>
+ * <br>
+ * When a clustering only changes a little, such as from one iteration of
+ * k-means to the next or from one k of a {@link KMeansSweep} to the next,
+ * the table can be {@link #update(int[]) updated} by moving just the points
+ * whose cluster changed instead of counting everything again.<br>
+ * <br>
+ * Cluster IDs can be any non-negative int, they do not need to be
+ * contiguous. A negative ID means the point is not in any cluster, as some
+ * clusterers mark noise, and the point is left out of the table. A table is
+ * not safe to update from more than one thread at a time.<br>
+ * <br>
+ * The table counts points, and does not use their weights. Every point
+ * counts as one even when it has a different weight in its data set, unlike
+ * NormalizedMutualInformation, which adds up the weights.
+ *
+ * @author Edward Raff
+ */
+public class ContingencyTable
+{
+    private final int[] labels;
+    private final int[] assignments;
+    private final int[] classSizes;
+    /**
+     * cluster &rarr; number of points in it
+     */
+    private final CountMap clusterSizes;
+    /**
+     * (cluster, class) &rarr; number of points of the class in the cluster
+     */
+    private final CountMap cells;
+    private int n;
+
+    /**
+     * Counts the classes of the data in each cluster, using the common
+     * ForkJoinPool
+     *
+     * @param data the labeled data that was clustered. The weights of the
+     * data points are not used.
+     * @param assignments the cluster of each data point
+     */
+    public ContingencyTable(ClassificationDataSet data, int[] assignments)
+    {
+        this(labelsOf(data), assignments, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Counts the classes in each cluster
+     *
+     * @param labels the class of each point, in [0, number of classes)
+     * @param assignments the cluster of each point
+     * @param pool the pool to count in
+     */
+    public ContingencyTable(int[] labels, int[] assignments, ForkJoinPool pool)
+    {
+        if(labels.length != assignments.length)
+            throw new IllegalArgumentException("There are " + labels.length + " labels but " + assignments.length + " assignments");
+        this.labels = labels.clone();
+        this.assignments = assignments.clone();
+        int classes = 0;
+        for(int label : labels)
+        {
+            if(label < 0)
+                throw new IllegalArgumentException("Class labels can not be negative, not " + label);
+            classes = Math.max(classes, label + 1);
+        }
+        classSizes = new int[classes];
+        int grain = Math.max(4096, labels.length / (4 * pool.getParallelism()));
+        cells = pool.invoke(new CountTask(this.labels, this.assignments, 0, labels.length, grain));
+        clusterSizes = new CountMap(16);
+        cells.forEach((key, count) ->
+        {
+            clusterSizes.add(cluster(key), count);
+            classSizes[label(key)] += count;
+            n += count;
+        });
+    }
+
+    private static int[] labelsOf(ClassificationDataSet data)
+    {
+        int[] labels = new int[data.getSampleSize()];
+        for(int i = 0; i < labels.length; i++)
+            labels[i] = data.getDataPointCategory(i);
+        return labels;
+    }
+
+    /**
+     * @return the number of points that are in a cluster
+     */
+    public int getSize()
+    {
+        return n;
+    }
+
+    /**
+     * @return the number of non-empty clusters
+     */
+    public int getClusterCount()
+    {
+        int[] count = new int[1];
+        clusterSizes.forEach((cluster, size) ->
+        {
+            if(size > 0)
+                count[0]++;
+        });
+        return count[0];
+    }
+
+    /**
+     * @param point the index of a point
+     * @return the cluster the table has the point in
+     */
+    public int getAssignment(int point)
+    {
+        return assignments[point];
+    }
+
+    /**
+     * @param cluster a cluster ID
+     * @param label a class label
+     * @return the number of points of the class in the cluster
+     */
+    public int getCount(int cluster, int label)
+    {
+        return cells.get(key(cluster, label));
+    }
+
+    /**
+     * Moves one point to a different cluster
+     *
+     * @param point the index of the point
+     * @param cluster the new cluster of the point, or a negative value to
+     * take it out of the table
+     */
+    public void move(int point, int cluster)
+    {
+        int old = assignments[point];
+        if(old == cluster || (old < 0 && cluster < 0))
+            return;
+        int label = labels[point];
+        if(old >= 0)
+        {
+            cells.add(key(old, label), -1);
+            clusterSizes.add(old, -1);
+            classSizes[label]--;
+            n--;
+        }
+        if(cluster >= 0)
+        {
+            cells.add(key(cluster, label), 1);
+            clusterSizes.add(cluster, 1);
+            classSizes[label]++;
+            n++;
+        }
+        assignments[point] = cluster;
+    }
+
+    /**
+     * Changes the table to match a new clustering of the same points, by
+     * moving only the points whose cluster changed. This is much cheaper
+     * than making a new table when most of the points stay where they
+     * were.
+     *
+     * @param newAssignments the new cluster of each point
+     * @return the number of points that moved
+     */
+    public int update(int[] newAssignments)
+    {
+        if(newAssignments.length != assignments.length)
+            throw new IllegalArgumentException("Expected " + assignments.length + " assignments, not " + newAssignments.length);
+        int moved = 0;
+        for(int i = 0; i < newAssignments.length; i++)
+            if(newAssignments[i] != assignments[i])
+            {
+                move(i, newAssignments[i]);
+                moved++;
+            }
+        return moved;
+    }
+
+    /**
+     * Computes every evaluation from the table in one pass over the non-zero
+     * cells and clusters
+     *
+     * @return the scores of the clustering the table currently holds
+     */
+    public Scores getScores()
+    {
+        if(n == 0)
+            throw new IllegalStateException("No points are in a cluster");
+        double[] sums = new double[3];//mutual information, sum of C(n_ij, 2), purity
+        double logN = Math.log(n);
+        //the purity needs the largest class of each cluster
+        CountMap largest = new CountMap(clusterSizes.capacity());
+        cells.forEach((key, count) ->
+        {
+            if(count == 0)
+                return;
+            int cluster = cluster(key);
+            double a = classSizes[label(key)];
+            double b = clusterSizes.get(cluster);
+            sums[0] += count * (Math.log(count) + logN - Math.log(a) - Math.log(b));
+            sums[1] += pairs(count);
+            int max = largest.get(cluster);
+            if(count > max)
+                largest.add(cluster, count - max);
+        });
+        double mi = Math.max(sums[0] / n, 0);//rounding can make it just below 0
+        largest.forEach((cluster, max) -> sums[2] += max);
+
+        double[] clusterStats = new double[2];//entropy, sum of C(b_j, 2)
+        clusterSizes.forEach((cluster, size) ->
+        {
+            if(size == 0)
+                return;
+            clusterStats[0] -= size * Math.log(size / (double) n);
+            clusterStats[1] += pairs(size);
+        });
+        double clusterEntropy = clusterStats[0] / n;
+
+        double classEntropy = 0, classPairs = 0;
+        for(int a : classSizes)
+            if(a > 0)
+            {
+                classEntropy -= a * Math.log(a / (double) n);
+                classPairs += pairs(a);
+            }
+        classEntropy /= n;
+
+        double ari;
+        if(n < 2)//there are no pairs of points to agree or disagree on
+            ari = 1;
+        else
+        {
+            double expected = classPairs * clusterStats[1] / pairs(n);
+            double maxIndex = (classPairs + clusterStats[1]) / 2;
+            //equal only when both are one group, or both put every point alone
+            ari = maxIndex == expected ? 1 : (sums[1] - expected) / (maxIndex - expected);
+        }
+        return new Scores(mi, classEntropy, clusterEntropy, ari, sums[2] / n);
+    }
+
+    private static double pairs(double count)
+    {
+        return count * (count - 1) / 2;
+    }
+
+    private static long key(int cluster, int label)
+    {
+        return ((long) cluster << 32) | label;
+    }
+
+    private static int cluster(long key)
+    {
+        return (int) (key >>> 32);
+    }
+
+    private static int label(long key)
+    {
+        return (int) key;
+    }
+
+    /**
+     * The evaluations of one clustering against the class labels. Every
+     * score is in [0, 1] with 1 being a perfect match, except the adjusted
+     * Rand index which is 0 for a random clustering and can go below 0.
+     */
+    public static class Scores
+    {
+        private final double mutualInformation;
+        private final double classEntropy;
+        private final double clusterEntropy;
+        private final double ari;
+        private final double purity;
+
+        Scores(double mutualInformation, double classEntropy, double clusterEntropy, double ari, double purity)
+        {
+            this.mutualInformation = mutualInformation;
+            this.classEntropy = classEntropy;
+            this.clusterEntropy = clusterEntropy;
+            this.ari = ari;
+            this.purity = purity;
+        }
+
+        /**
+         * @return the mutual information between the classes and clusters,
+         * in nats
+         */
+        public double getMutualInformation()
+        {
+            return mutualInformation;
+        }
+
+        /**
+         * Gets the mutual information normalized by the mean of the class
+         * and cluster entropies. This is the same normalization JSAT's
+         * {@link jsat.clustering.evaluation.NormalizedMutualInformation}
+         * uses, which returns one minus this value, and works out to be the
+         * same as the {@link #getVMeasure() V-measure}.
+         *
+         * @return the normalized mutual information
+         */
+        public double getNMI()
+        {
+            double mean = (classEntropy + clusterEntropy) / 2;
+            return mean == 0 ? 1 : mutualInformation / mean;
+        }
+
+        /**
+         * @return the adjusted Rand index
+         */
+        public double getARI()
+        {
+            return ari;
+        }
+
+        /**
+         * @return how much each cluster holds only one class, 1 - H(class |
+         * cluster) / H(class)
+         */
+        public double getHomogeneity()
+        {
+            return classEntropy == 0 ? 1 : mutualInformation / classEntropy;
+        }
+
+        /**
+         * @return how much each class is in only one cluster, 1 - H(cluster
+         * | class) / H(cluster)
+         */
+        public double getCompleteness()
+        {
+            return clusterEntropy == 0 ? 1 : mutualInformation / clusterEntropy;
+        }
+
+        /**
+         * @return the harmonic mean of the homogeneity and completeness
+         */
+        public double getVMeasure()
+        {
+            return getVMeasure(1);
+        }
+
+        /**
+         * @param beta how much more weight the completeness gets than the
+         * homogeneity
+         * @return the weighted harmonic mean of the homogeneity and
+         * completeness
+         */
+        public double getVMeasure(double beta)
+        {
+            double h = getHomogeneity(), c = getCompleteness();
+            return h + c == 0 ? 0 : (1 + beta) * h * c / (beta * h + c);
+        }
+
+        /**
+         * @return the fraction of points that are in the largest class of
+         * their cluster
+         */
+        public double getPurity()
+        {
+            return purity;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("NMI %.4f, ARI %.4f, V-measure %.4f, purity %.4f", getNMI(), getARI(), getVMeasure(), getPurity());
+        }
+    }
+
+    /**
+     * Counts the cells for a range of points. Each leaf of the split counts
+     * into its own map, and the smaller map is added into the larger on the
+     * way back up.
+     */
+    private static class CountTask extends RecursiveTask<CountMap>
+    {
+        private static final long serialVersionUID = 4031880163516405197L;
+        private final int[] labels, assignments;
+        private final int from, to, grain;
+
+        public CountTask(int[] labels, int[] assignments, int from, int to, int grain)
+        {
+            this.labels = labels;
+            this.assignments = assignments;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected CountMap compute()
+        {
+            if(to - from > grain)
+            {
+                int mid = (from + to) >>> 1;
+                CountTask right = new CountTask(labels, assignments, mid, to, grain);
+                right.fork();
+                CountMap counts = new CountTask(labels, assignments, from, mid, grain).compute();
+                CountMap other = right.join();
+                if(other.size() > counts.size())
+                {
+                    CountMap tmp = counts;
+                    counts = other;
+                    other = tmp;
+                }
+                other.forEach(counts::add);
+                return counts;
+            }
+            CountMap counts = new CountMap(64);
+            for(int i = from; i < to; i++)
+                if(assignments[i] >= 0)
+                    counts.add(key(assignments[i], labels[i]), 1);
+            return counts;
+        }
+    }
+
+    /**
+     * A hash map from long keys to int counts, using open addressing with
+     * linear probing so that nothing is boxed. Counts that go back to zero
+     * keep their slot.
+     */
+    static class CountMap
+    {
+        private long[] keys;
+        private int[] counts;
+        private boolean[] used;
+        private int size;
+
+        CountMap(int capacity)
+        {
+            int pow2 = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1;
+            keys = new long[pow2];
+            counts = new int[pow2];
+            used = new boolean[pow2];
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        int capacity()
+        {
+            return keys.length;
+        }
+
+        int get(long key)
+        {
+            int mask = keys.length - 1;
+            for(int i = slot(key, mask); used[i]; i = (i + 1) & mask)
+                if(keys[i] == key)
+                    return counts[i];
+            return 0;
+        }
+
+        void add(long key, int delta)
+        {
+            int mask = keys.length - 1;
+            int i = slot(key, mask);
+            for(; used[i]; i = (i + 1) & mask)
+                if(keys[i] == key)
+                {
+                    counts[i] += delta;
+                    return;
+                }
+            used[i] = true;
+            keys[i] = key;
+            counts[i] = delta;
+            //keep the table at most half full
+            if(++size * 2 > keys.length)
+                grow();
+        }
+
+        void forEach(Entry body)
+        {
+            for(int i = 0; i < keys.length; i++)
+                if(used[i])
+                    body.accept(keys[i], counts[i]);
+        }
+
+        private void grow()
+        {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for(int i = 0; i < oldKeys.length; i++)
+                if(oldUsed[i])
+                    add(oldKeys[i], oldCounts[i]);
+        }
+
+        private static int slot(long key, int mask)
+        {
+            //mix the bits so that keys differing only in the cluster or only
+            //in the label spread over the table
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        interface Entry
+        {
+            void accept(long key, int count);
+        }
+    }
+}
@@ -0,0 +1,627 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.clustering;
+
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.random.ReproducibleMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import jsat.DataSet;
+import jsat.clustering.kmeans.HamerlyKMeans;
+import jsat.exceptions.FailedToFitException;
+import jsat.linear.DenseVector;
+import jsat.linear.Vec;
+import jsat.linear.distancemetrics.DistanceMetric;
+import jsat.linear.distancemetrics.EuclideanDistance;
+import jsat.utils.FakeExecutor;
+
+/**
+ * Runs k-means for every value of k in a range, reusing as much work as
+ * possible from one value of k to the next. Calling
+ * {@link HamerlyKMeans#cluster(jsat.DataSet, int, int[]) } once for each k
+ * starts every run from scratch: the distance acceleration cache is rebuilt,
+ * new seeds are picked with a full k-means++ pass, and it takes many
+ * iterations to converge from those seeds.<br>
+ * <br>
+ * The sweep instead builds the acceleration cache once, and starts each k
+ * from the converged means of k-1 plus one new mean. The new mean is picked
+ * like the next seed of greedy k-means++, using the assignments the previous
+ * run already found. Since k-1 of the means start in good places, each run
+ * only needs a few iterations to converge.<br>
+ * <br>
+ * Each run is Hamerly's k-means, which keeps bounds on the distance from
+ * every point to its nearest and second nearest means so that most points
+ * are not compared to any mean once the means settle down. JSAT's
+ * HamerlyKMeans adds each thread's share of the new means in as the threads
+ * finish, so its means change a little with the timing. Here the points are
+ * split into blocks of a fixed size to be assigned, and each mean is added
+ * up from its own points in the order of their index. Both are done in
+ * parallel, but the result is exactly the same for any number of threads,
+ * including inside a {@link ReproducibleMode}.<br>
+ * <br>
+ * When only some values of k are wanted, the k in between are not
+ * clustered. Their seeds are still picked one at a time, each using the
+ * distances to the seeds picked before it, and k-means is only run for the
+ * values of k that were asked for.<br>
+ * <br>
+ * The result is the curve of assignments and within cluster sum of squared
+ * errors, which is what methods like the gap statistic or the elbow method
+ * need. The time and error of each k are recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}, and each k
+ * is reported as a {@code kmeans_sweep} event, so the curve can be watched
+ * as it is made.
+ *
+ * @author Edward Raff
+ */
+public class KMeansSweep
+{
+    /**
+     * The number of points in each block of work. It does not depend on the
+     * number of threads, so the same sums are always done in the same order.
+     */
+    private static final int BLOCK = 2048;
+
+    private final DistanceMetric dm;
+    private final Random rand;
+    private int iterationLimit = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new sweep using the Euclidean distance
+     */
+    public KMeansSweep()
+    {
+        this(new EuclideanDistance(), ReproducibleMode.getRandom());
+    }
+
+    /**
+     * Creates a new sweep
+     *
+     * @param dm the distance metric to use
+     * @param rand the source of randomness for picking seeds
+     */
+    public KMeansSweep(DistanceMetric dm, Random rand)
+    {
+        this.dm = dm;
+        this.rand = rand;
+    }
+
+    /**
+     * Sets the most iterations to run for each value of k
+     *
+     * @param iterationLimit the iteration limit
+     */
+    public void setIterationLimit(int iterationLimit)
+    {
+        if(iterationLimit < 1)
+            throw new IllegalArgumentException("Iteration limit must be positive, not " + iterationLimit);
+        this.iterationLimit = iterationLimit;
+    }
+
+    /**
+     * @return the most iterations run for each value of k
+     */
+    public int getIterationLimit()
+    {
+        return iterationLimit;
+    }
+
+    /**
+     * Clusters the data with every k in [kMin, kMax]
+     *
+     * @param data the data to cluster
+     * @param kMin the smallest number of clusters
+     * @param kMax the largest number of clusters
+     * @return the result for each k, in increasing order of k
+     */
+    public List<Result> sweep(DataSet<?> data, int kMin, int kMax)
+    {
+        return sweep(data, kMin, kMax, new FakeExecutor());
+    }
+
+    /**
+     * Clusters the data with every k in [kMin, kMax]
+     *
+     * @param data the data to cluster
+     * @param kMin the smallest number of clusters
+     * @param kMax the largest number of clusters
+     * @param threadpool the source of threads. The results are the same for
+     * any number of threads.
+     * @return the result for each k, in increasing order of k
+     */
+    public List<Result> sweep(DataSet<?> data, int kMin, int kMax, ExecutorService threadpool)
+    {
+        if(kMin < 1 || kMax < kMin)
+            throw new IllegalArgumentException("Invalid range of k [" + kMin + ", " + kMax + "]");
+        int[] ks = new int[kMax - kMin + 1];
+        for(int k = kMin; k <= kMax; k++)
+            ks[k - kMin] = k;
+        return sweep(data, ks, threadpool);
+    }
+
+    /**
+     * Clusters the data with only the given values of k
+     *
+     * @param data the data to cluster
+     * @param ks the numbers of clusters wanted, in any order
+     * @return the result for each distinct k, in increasing order of k
+     */
+    public List<Result> sweep(DataSet<?> data, int... ks)
+    {
+        return sweep(data, ks, new FakeExecutor());
+    }
+
+    /**
+     * Clusters the data with only the given values of k
+     *
+     * @param data the data to cluster
+     * @param ks the numbers of clusters wanted, in any order
+     * @param threadpool the source of threads. The results are the same for
+     * any number of threads.
+     * @return the result for each distinct k, in increasing order of k
+     */
+    public List<Result> sweep(DataSet<?> data, int[] ks, ExecutorService threadpool)
+    {
+        ks = Arrays.stream(ks).distinct().sorted().toArray();
+        if(ks.length == 0 || ks[0] < 1)
+            throw new IllegalArgumentException("Invalid values of k " + Arrays.toString(ks));
+        int kMax = ks[ks.length - 1];
+        if(kMax > data.getSampleSize())
+            throw new IllegalArgumentException("Can not make " + kMax + " clusters from " + data.getSampleSize() + " points");
+
+        int n = data.getSampleSize();
+        List<Vec> X = new ArrayList<>(n);
+        double[] weights = new double[n];
+        for(int i = 0; i < n; i++)
+        {
+            X.add(data.getDataPoint(i).getNumericalValues());
+            weights[i] = data.getDataPoint(i).getWeight();
+        }
+        //the one thing every run needs, computed once for the whole sweep
+        List<Double> accelCache = dm.getAccelerationCache(X, threadpool);
+
+        List<Result> results = new ArrayList<>(ks.length);
+        List<Vec> means = new ArrayList<>(kMax);
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        for(int k : ks)
+        {
+            long start = System.nanoTime();
+            double[] sqrdDist;
+            if(results.isEmpty())
+            {
+                //the first seed is a random point, as in k-means++
+                int first = rand.nextInt(n);
+                means.add(new DenseVector(X.get(first)));
+                sqrdDist = new double[n];
+                for(int i = 0; i < n; i++)
+                {
+                    double d = dm.dist(first, i, X, accelCache);
+                    sqrdDist[i] = d * d;
+                }
+            }
+            else
+                sqrdDist = sqrdDistances(X, accelCache, means, results.get(results.size() - 1).getAssignments());
+            while(means.size() < k)
+                means.add(nextSeed(X, accelCache, sqrdDist, means.size()));
+            int[] assignment = new int[n];
+            double sse = cluster(X, weights, accelCache, means, assignment, threadpool);
+
+            List<Vec> meansCopy = new ArrayList<>(k);
+            for(Vec mean : means)
+                meansCopy.add(mean.clone());
+            results.add(new Result(k, assignment, meansCopy, sse));
+
+            long elapsed = metrics.timer("jsat_kmeans_sweep_k_seconds", "Time to seed and cluster one k of a k-means sweep").since(start);
+            metrics.gauge("jsat_kmeans_sweep_k", "The last k a k-means sweep finished").set(k);
+            if(metrics.hasListeners())
+                metrics.event("kmeans_sweep", "k", k, "sse", sse, "seconds", elapsed / 1e9);
+        }
+        return results;
+    }
+
+    /**
+     * Runs Hamerly's k-means from the given means until no point changes
+     * cluster or the iteration limit is reached.
+     *
+     * @param X the data vectors
+     * @param weights the weight of each data vector
+     * @param accelCache the acceleration cache for the data
+     * @param means the means to start from, which are replaced by the final
+     * means
+     * @param assignment filled with the cluster of each point
+     * @param threadpool the source of threads
+     * @return the weighted sum of squared distances from each point to its
+     * mean
+     */
+    private double cluster(List<Vec> X, double[] weights, List<Double> accelCache, List<Vec> means, int[] assignment, ExecutorService threadpool)
+    {
+        HamerlyRun run = new HamerlyRun(X, weights, accelCache, means, assignment);
+        boolean full = true;
+        for(int iteration = 0; iteration < iterationLimit; iteration++)
+        {
+            boolean fullPass = full;
+            List<PartialMeans> partials = forEachBlock(X.size(), threadpool, (from, to) -> run.assign(from, to, fullPass));
+            full = false;
+            int changed = 0;
+            for(PartialMeans partial : partials)
+                changed += partial.changed;
+            //the means were made from these same assignments, so nothing will move
+            if(iteration > 0 && changed == 0)
+                break;
+            run.update(partials);
+        }
+
+        double sse = 0;
+        for(double blockSSE : forEachBlock(X.size(), threadpool, run::sse))
+            sse += blockSSE;
+        return sse;
+    }
+
+    /**
+     * Does some work for each block of points, and gives back the results in
+     * the order of the blocks no matter what order they finished in
+     *
+     * @param <T> the type of result for a block
+     * @param n the number of points
+     * @param threadpool the source of threads
+     * @param work the work to do for the points in [from, to)
+     * @return the result for each block
+     */
+    private static <T> List<T> forEachBlock(int n, ExecutorService threadpool, BiFunction<Integer, Integer, T> work)
+    {
+        List<Future<T>> futures = new ArrayList<>();
+        for(int from = 0; from < n; from += BLOCK)
+        {
+            int start = from, end = Math.min(from + BLOCK, n);
+            futures.add(threadpool.submit(() -> work.apply(start, end)));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        try
+        {
+            for(Future<T> future : futures)
+                results.add(future.get());
+        }
+        catch(InterruptedException | ExecutionException ex)
+        {
+            throw new FailedToFitException(ex);
+        }
+        return results;
+    }
+
+    /**
+     * The state of one run of Hamerly's k-means. For each point it keeps an
+     * upper bound on the distance to its own mean and a lower bound on the
+     * distance to every other mean. When the means move, the bounds are moved
+     * by the same amount, and a point only has to be compared to all the
+     * means when its bounds say it might be closer to another one.
+     */
+    private class HamerlyRun
+    {
+        private final List<Vec> X;
+        private final double[] weights;
+        private final List<Double> accelCache;
+        private final List<Vec> means;
+        private final List<List<Double>> meanQI;
+        private final int[] assignment;
+        private final double[] upper;
+        private final double[] lower;
+        /**
+         * Half the distance from each mean to the closest other mean. A point
+         * closer than this to its mean can not be closer to any other.
+         */
+        private final double[] halfGap;
+        /**
+         * How far each mean moved in the last update
+         */
+        private final double[] moved;
+        private int mostMoved = -1;
+        private double maxMove = 0;
+        private double secondMove = 0;
+
+        public HamerlyRun(List<Vec> X, double[] weights, List<Double> accelCache, List<Vec> means, int[] assignment)
+        {
+            this.X = X;
+            this.weights = weights;
+            this.accelCache = accelCache;
+            this.means = means;
+            this.assignment = assignment;
+            this.meanQI = new ArrayList<>(means.size());
+            for(Vec mean : means)
+                meanQI.add(dm.getQueryInfo(mean));
+            this.upper = new double[X.size()];
+            this.lower = new double[X.size()];
+            this.halfGap = new double[means.size()];
+            this.moved = new double[means.size()];
+        }
+
+        /**
+         * Assigns the points in [from, to) to their closest mean, and adds
+         * them up into the new means
+         *
+         * @param full {@code true} to compare every point to every mean,
+         * {@code false} to use the bounds
+         * @return the partial sums of the new means for this block
+         */
+        public PartialMeans assign(int from, int to, boolean full)
+        {
+            int k = means.size();
+            PartialMeans partial = new PartialMeans(k);
+            for(int i = from; i < to; i++)
+            {
+                int a = assignment[i];
+                boolean check = full;
+                if(!full)
+                {
+                    upper[i] += moved[a];
+                    lower[i] -= a == mostMoved ? secondMove : maxMove;
+                    double bound = Math.max(halfGap[a], lower[i]);
+                    if(upper[i] > bound)
+                    {
+                        upper[i] = dm.dist(i, means.get(a), meanQI.get(a), X, accelCache);
+                        check = upper[i] > bound;
+                    }
+                }
+                if(check)
+                {
+                    int nearest = -1;
+                    double d1 = Double.POSITIVE_INFINITY;
+                    double d2 = Double.POSITIVE_INFINITY;
+                    for(int j = 0; j < k; j++)
+                    {
+                        double d = dm.dist(i, means.get(j), meanQI.get(j), X, accelCache);
+                        if(d < d1 || nearest < 0)
+                        {
+                            d2 = d1;
+                            d1 = d;
+                            nearest = j;
+                        }
+                        else if(d < d2)
+                            d2 = d;
+                    }
+                    upper[i] = d1;
+                    lower[i] = d2;
+                    if(nearest != a)
+                    {
+                        assignment[i] = nearest;
+                        partial.changed++;
+                    }
+                }
+                partial.add(assignment[i], X.get(i), weights[i]);
+            }
+            return partial;
+        }
+
+        /**
+         * Moves each mean to the weighted average of its points. The blocks
+         * are added up in order, so the new means do not depend on which
+         * thread did which block.
+         *
+         * @param partials the partial sums from every block, in block order
+         */
+        public void update(List<PartialMeans> partials)
+        {
+            int k = means.size();
+            mostMoved = -1;
+            maxMove = secondMove = 0;
+            for(int j = 0; j < k; j++)
+            {
+                Vec sum = new DenseVector(X.get(0).length());
+                double weightSum = 0;
+                for(PartialMeans partial : partials)
+                    if(partial.sums[j] != null)
+                    {
+                        sum.mutableAdd(partial.sums[j]);
+                        weightSum += partial.weightSums[j];
+                    }
+                //a mean with no points stays where it was
+                moved[j] = 0;
+                if(weightSum > 0)
+                {
+                    sum.mutableDivide(weightSum);
+                    moved[j] = dm.dist(means.get(j), sum);
+                    means.set(j, sum);
+                    meanQI.set(j, dm.getQueryInfo(sum));
+                }
+                if(moved[j] > maxMove)
+                {
+                    secondMove = maxMove;
+                    maxMove = moved[j];
+                    mostMoved = j;
+                }
+                else if(moved[j] > secondMove)
+                    secondMove = moved[j];
+            }
+            for(int j = 0; j < k; j++)
+            {
+                halfGap[j] = Double.POSITIVE_INFINITY;
+                for(int m = 0; m < k; m++)
+                    if(m != j)
+                        halfGap[j] = Math.min(halfGap[j], dm.dist(means.get(j), means.get(m)) / 2);
+            }
+        }
+
+        /**
+         * @return the weighted sum of squared distances from the points in
+         * [from, to) to their means
+         */
+        public double sse(int from, int to)
+        {
+            double sse = 0;
+            for(int i = from; i < to; i++)
+            {
+                int a = assignment[i];
+                double d = dm.dist(i, means.get(a), meanQI.get(a), X, accelCache);
+                sse += weights[i] * d * d;
+            }
+            return sse;
+        }
+    }
+
+    /**
+     * The weighted sums of the points of one block, for each cluster
+     */
+    private static class PartialMeans
+    {
+        private final Vec[] sums;
+        private final double[] weightSums;
+        private int changed = 0;
+
+        public PartialMeans(int k)
+        {
+            sums = new Vec[k];
+            weightSums = new double[k];
+        }
+
+        public void add(int cluster, Vec x, double weight)
+        {
+            if(sums[cluster] == null)
+                sums[cluster] = new DenseVector(x.length());
+            sums[cluster].mutableAdd(weight, x);
+            weightSums[cluster] += weight;
+        }
+    }
+
+    /**
+     * @return the squared distance from each point to its current mean
+     */
+    private double[] sqrdDistances(List<Vec> X, List<Double> accelCache, List<Vec> means, int[] assignment)
+    {
+        List<List<Double>> meanQI = new ArrayList<>(means.size());
+        for(Vec mean : means)
+            meanQI.add(dm.getQueryInfo(mean));
+        double[] sqrdDist = new double[X.size()];
+        for(int i = 0; i < sqrdDist.length; i++)
+        {
+            double d = dm.dist(i, means.get(assignment[i]), meanQI.get(assignment[i]), X, accelCache);
+            sqrdDist[i] = d * d;
+        }
+        return sqrdDist;
+    }
+
+    /**
+     * Picks the seed for a new mean the way greedy k-means++ does. A few
+     * candidate points are sampled with probability proportional to their
+     * squared distance to their closest mean, and the candidate that would
+     * reduce the sum of squared distances the most is used. Trying a few
+     * candidates makes a big difference here, since only one new seed is
+     * added at a time.
+     *
+     * @param X the data vectors
+     * @param accelCache the acceleration cache for the data
+     * @param sqrdDist the squared distance from each point to its closest
+     * mean or seed, which is updated to include the new seed
+     * @param seeds the number of means and seeds so far
+     * @return the new seed
+     */
+    private Vec nextSeed(List<Vec> X, List<Double> accelCache, double[] sqrdDist, int seeds)
+    {
+        int n = X.size();
+        double total = 0;
+        for(int i = 0; i < n; i++)
+            total += sqrdDist[i];
+
+        int candidates = 2 + (int) Math.log(seeds + 1);
+        int best = 0;
+        double bestTotal = Double.POSITIVE_INFINITY;
+        for(int c = 0; c < candidates; c++)
+        {
+            double target = rand.nextDouble() * total;
+            int candidate = 0;
+            for(; candidate < n - 1; candidate++)
+            {
+                target -= sqrdDist[candidate];
+                if(target <= 0)
+                    break;
+            }
+            //the new sum of squared distances if this candidate was a mean
+            double newTotal = 0;
+            for(int i = 0; i < n && newTotal < bestTotal; i++)
+            {
+                double d = dm.dist(candidate, i, X, accelCache);
+                newTotal += Math.min(sqrdDist[i], d * d);
+            }
+            if(newTotal < bestTotal)
+            {
+                bestTotal = newTotal;
+                best = candidate;
+            }
+        }
+        for(int i = 0; i < n; i++)
+        {
+            double d = dm.dist(best, i, X, accelCache);
+            sqrdDist[i] = Math.min(sqrdDist[i], d * d);
+        }
+        return new DenseVector(X.get(best));
+    }
+
+    /**
+     * The clustering found for one value of k
+     */
+    public static class Result
+    {
+        private final int k;
+        private final int[] assignments;
+        private final List<Vec> means;
+        private final double sse;
+
+        Result(int k, int[] assignments, List<Vec> means, double sse)
+        {
+            this.k = k;
+            this.assignments = assignments;
+            this.means = Collections.unmodifiableList(means);
+            this.sse = sse;
+        }
+
+        /**
+         * @return the number of clusters
+         */
+        public int getK()
+        {
+            return k;
+        }
+
+        /**
+         * @return the cluster each data point was assigned to
+         */
+        public int[] getAssignments()
+        {
+            return assignments;
+        }
+
+        /**
+         * @return the mean of each cluster
+         */
+        public List<Vec> getMeans()
+        {
+            return means;
+        }
+
+        /**
+         * @return the sum of squared distances from each point to its mean
+         */
+        public double getSSE()
+        {
+            return sse;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.clustering;
+
+import com.edwardraff.jsatexamples.random.ReproducibleMode;
+import com.edwardraff.jsatexamples.random.SeedSequence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import jsat.DataSet;
+import jsat.SimpleDataSet;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.DataPoint;
+import jsat.clustering.KClustererBase;
+import jsat.exceptions.FailedToFitException;
+import jsat.linear.DenseVector;
+import jsat.linear.Vec;
+import jsat.linear.distancemetrics.DistanceMetric;
+import jsat.linear.distancemetrics.EuclideanDistance;
+import jsat.utils.FakeExecutor;
+
+/**
+ * The gap statistic of Tibshirani, Walther, and Hastie for picking the
+ * number of clusters, built on {@link KMeansSweep}. It does the same thing as
+ * {@link jsat.clustering.GapStatistic} with its default settings: the log of
+ * the within cluster sum of squares of the data, for each k, is compared to
+ * the same curve for data drawn uniformly from the bounding box of the data.
+ * The smallest k whose gap is within one standard error of the gap of k+1 is
+ * picked.<br>
+ * <br>
+ * JSAT's version draws all the reference data from one random number
+ * generator, and clusters with a k-means whose means depend on the timing
+ * of its threads, so it only gives the same answer twice when run on one
+ * thread. Here each reference sample is drawn and clustered with its own
+ * {@link SeedSequence#split(long) split} of one seed, the samples are
+ * clustered in parallel, and their results are combined in the order of the
+ * samples. So the answer only depends on the seed, not on the number of
+ * threads. Each k-means curve is a {@link KMeansSweep}, which is also a lot
+ * less work than clustering each k from scratch.
+ *
+ * @author Edward Raff
+ */
+public class ParallelGapStatistic extends KClustererBase
+{
+    private static final long serialVersionUID = 4383716493217054813L;
+
+    private DistanceMetric dm;
+    private int samples = 10;
+    private SeedSequence seeds;
+    private double[] gap;
+    private double[] logW;
+    private double[] ElogW;
+    private double[] ElogWkStndDev;
+
+    /**
+     * Creates a new gap statistic using the Euclidean distance
+     */
+    public ParallelGapStatistic()
+    {
+        this(new EuclideanDistance());
+    }
+
+    /**
+     * Creates a new gap statistic
+     *
+     * @param dm the distance metric to use
+     */
+    public ParallelGapStatistic(DistanceMetric dm)
+    {
+        this.dm = dm;
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param toCopy the object to copy
+     */
+    public ParallelGapStatistic(ParallelGapStatistic toCopy)
+    {
+        this.dm = toCopy.dm.clone();
+        this.samples = toCopy.samples;
+        this.seeds = toCopy.seeds;
+        if(toCopy.gap != null)
+        {
+            this.gap = Arrays.copyOf(toCopy.gap, toCopy.gap.length);
+            this.logW = Arrays.copyOf(toCopy.logW, toCopy.logW.length);
+            this.ElogW = Arrays.copyOf(toCopy.ElogW, toCopy.ElogW.length);
+            this.ElogWkStndDev = Arrays.copyOf(toCopy.ElogWkStndDev, toCopy.ElogWkStndDev.length);
+        }
+    }
+
+    /**
+     * @param dm the distance metric to use
+     */
+    public void setDistanceMetric(DistanceMetric dm)
+    {
+        this.dm = dm;
+    }
+
+    /**
+     * @return the distance metric used
+     */
+    public DistanceMetric getDistanceMetric()
+    {
+        return dm;
+    }
+
+    /**
+     * Sets the number of reference data sets to compare the data to. More
+     * samples give a better estimate of the gap, at a cost of one k-means
+     * sweep each.
+     *
+     * @param samples the number of reference samples
+     */
+    public void setSamples(int samples)
+    {
+        if(samples < 1)
+            throw new IllegalArgumentException("Samples must be positive, not " + samples);
+        this.samples = samples;
+    }
+
+    /**
+     * @return the number of reference samples
+     */
+    public int getSamples()
+    {
+        return samples;
+    }
+
+    /**
+     * Sets the seeds the reference data and the k-means seeds are made from.
+     * By default a new seed is taken from
+     * {@link ReproducibleMode#getRandom() } every time the data is clustered,
+     * which is only repeatable inside a ReproducibleMode.
+     *
+     * @param seeds the seeds to use, or {@code null} for the default
+     */
+    public void setSeeds(SeedSequence seeds)
+    {
+        this.seeds = seeds;
+    }
+
+    /**
+     * @return the seeds the random choices are made from, or {@code null} if
+     * a new seed is used every time
+     */
+    public SeedSequence getSeeds()
+    {
+        return seeds;
+    }
+
+    /**
+     * @return the gap for each k tried in the last clustering, starting from
+     * the smallest k
+     */
+    public double[] getGap()
+    {
+        return gap;
+    }
+
+    /**
+     * @return the log of the within cluster sum of squares of the data, for
+     * each k tried in the last clustering
+     */
+    public double[] getLogW()
+    {
+        return logW;
+    }
+
+    /**
+     * @return the average log of the within cluster sum of squares of the
+     * reference samples, for each k tried in the last clustering
+     */
+    public double[] getElogW()
+    {
+        return ElogW;
+    }
+
+    /**
+     * @return the standard deviation of the log of the within cluster sum of
+     * squares of the reference samples, for each k tried in the last
+     * clustering
+     */
+    public double[] getElogWkStndDev()
+    {
+        return ElogWkStndDev;
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int clusters, int[] designations)
+    {
+        return cluster(dataSet, clusters, new FakeExecutor(), designations);
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int clusters, ExecutorService threadpool, int[] designations)
+    {
+        SeedSequence runSeeds = seeds != null ? seeds : new SeedSequence(ReproducibleMode.getRandom().nextLong());
+        KMeansSweep.Result result = new KMeansSweep(dm, runSeeds.split(samples).getRandom()).sweep(dataSet, new int[]{clusters}, threadpool).get(0);
+        if(designations == null)
+            designations = new int[dataSet.getSampleSize()];
+        System.arraycopy(result.getAssignments(), 0, designations, 0, designations.length);
+        return designations;
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int[] designations)
+    {
+        return cluster(dataSet, new FakeExecutor(), designations);
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, ExecutorService threadpool, int[] designations)
+    {
+        int n = dataSet.getSampleSize();
+        int highK = Math.min(n, Math.min(Math.max((int) Math.sqrt(n), 10), 100));
+        return cluster(dataSet, 1, highK, threadpool, designations);
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int lowK, int highK, int[] designations)
+    {
+        return cluster(dataSet, lowK, highK, new FakeExecutor(), designations);
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int lowK, int highK, ExecutorService threadpool, int[] designations)
+    {
+        if(lowK < 1 || highK < lowK)
+            throw new IllegalArgumentException("Invalid range of k [" + lowK + ", " + highK + "]");
+        int n = dataSet.getSampleSize();
+        int d = dataSet.getNumNumericalVars();
+        SeedSequence runSeeds = seeds != null ? seeds : new SeedSequence(ReproducibleMode.getRandom().nextLong());
+
+        //the reference data is drawn from the bounding box of the data
+        double[] min = new double[d];
+        double[] max = new double[d];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for(int i = 0; i < n; i++)
+        {
+            Vec x = dataSet.getDataPoint(i).getNumericalValues();
+            for(int j = 0; j < d; j++)
+            {
+                min[j] = Math.min(min[j], x.get(j));
+                max[j] = Math.max(max[j], x.get(j));
+            }
+        }
+
+        //each reference sample is its own job with its own seed, and is swept on one thread
+        List<Future<double[]>> futures = new ArrayList<>(samples);
+        for(int b = 0; b < samples; b++)
+        {
+            SeedSequence sampleSeeds = runSeeds.split(b);
+            futures.add(threadpool.submit(() ->
+            {
+                Random rand = sampleSeeds.split(0).getRandom();
+                List<DataPoint> reference = new ArrayList<>(n);
+                for(int i = 0; i < n; i++)
+                {
+                    DenseVector x = new DenseVector(d);
+                    for(int j = 0; j < d; j++)
+                        x.set(j, min[j] + rand.nextDouble() * (max[j] - min[j]));
+                    reference.add(new DataPoint(x, new int[0], new CategoricalData[0]));
+                }
+                KMeansSweep sweep = new KMeansSweep(dm, sampleSeeds.split(1).getRandom());
+                return logW(sweep.sweep(new SimpleDataSet(reference), lowK, highK));
+            }));
+        }
+        //the data itself is swept with all the threads
+        List<KMeansSweep.Result> results = new KMeansSweep(dm, runSeeds.split(samples).getRandom()).sweep(dataSet, lowK, highK, threadpool);
+        logW = logW(results);
+
+        //combined in the order of the samples, so the sums do not depend on which finished first
+        int ks = highK - lowK + 1;
+        ElogW = new double[ks];
+        ElogWkStndDev = new double[ks];
+        try
+        {
+            List<double[]> sampleLogW = new ArrayList<>(samples);
+            for(Future<double[]> future : futures)
+                sampleLogW.add(future.get());
+            for(double[] sample : sampleLogW)
+                for(int k = 0; k < ks; k++)
+                    ElogW[k] += sample[k] / samples;
+            for(double[] sample : sampleLogW)
+                for(int k = 0; k < ks; k++)
+                    ElogWkStndDev[k] += Math.pow(sample[k] - ElogW[k], 2) / samples;
+        }
+        catch(InterruptedException | ExecutionException ex)
+        {
+            throw new FailedToFitException(ex);
+        }
+        gap = new double[ks];
+        for(int k = 0; k < ks; k++)
+        {
+            ElogWkStndDev[k] = Math.sqrt(ElogWkStndDev[k]);
+            gap[k] = ElogW[k] - logW[k];
+        }
+
+        //the smallest k with Gap(k) >= Gap(k+1) - s(k+1), where s is the standard error
+        int best = ks - 1;
+        for(int k = 0; k < ks - 1; k++)
+            if(gap[k] >= gap[k + 1] - ElogWkStndDev[k + 1] * Math.sqrt(1 + 1.0 / samples))
+            {
+                best = k;
+                break;
+            }
+
+        if(designations == null)
+            designations = new int[n];
+        System.arraycopy(results.get(best).getAssignments(), 0, designations, 0, n);
+        return designations;
+    }
+
+    /**
+     * @return the log of the within cluster sum of squares for each k
+     */
+    private static double[] logW(List<KMeansSweep.Result> results)
+    {
+        double[] logW = new double[results.size()];
+        for(int i = 0; i < logW.length; i++)
+            logW[i] = Math.log(results.get(i).getSSE());
+        return logW;
+    }
+
+    @Override
+    public boolean supportsWeightedData()
+    {
+        return true;
+    }
+
+    @Override
+    public ParallelGapStatistic clone()
+    {
+        return new ParallelGapStatistic(this);
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.clustering;
+
+import com.edwardraff.jsatexamples.io.DataPointBatch;
+import com.edwardraff.jsatexamples.io.DataPointBatchSource;
+import com.edwardraff.jsatexamples.io.DataSetBatchSource;
+import com.edwardraff.jsatexamples.linear.Centroids;
+import com.edwardraff.jsatexamples.linear.PackedEuclideanDistance;
+import com.edwardraff.jsatexamples.metrics.Counter;
+import com.edwardraff.jsatexamples.metrics.Gauge;
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.metrics.Timer;
+import com.edwardraff.jsatexamples.random.ReproducibleMode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import jsat.DataSet;
+import jsat.SimpleDataSet;
+import jsat.classifiers.DataPoint;
+import jsat.clustering.KClustererBase;
+import jsat.clustering.SeedSelectionMethods.SeedSelection;
+import jsat.clustering.kmeans.HamerlyKMeans;
+import jsat.linear.DenseVector;
+import jsat.linear.Vec;
+import jsat.linear.distancemetrics.DistanceMetric;
+import jsat.linear.distancemetrics.EuclideanDistance;
+import jsat.math.OnLineStatistics;
+
+/**
+ * Mini-batch k-means that reads its data from a {@link DataPointBatchSource},
+ * so it can cluster data sets that are too big to fit in memory. Only the
+ * means, one batch of data, and a small sample used to pick the seeds are
+ * kept in memory at any time.<br>
+ * <br>
+ * The starting means are found by running k-means on the first
+ * {@link #setSeedSampleSize(int) few thousand} points. Then each batch is
+ * assigned to the nearest means, and each mean is moved towards the points
+ * assigned to it with a step size of one over the number of points it has
+ * seen so far (Sculley, <i>Web-Scale K-Means Clustering</i>, 2010). With
+ * {@link #setPasses(int) one pass} this is a streaming k-means that reads
+ * the data exactly once to find the means, and once more to assign the
+ * points to clusters. More passes give results closer to normal k-means.<br>
+ * <br>
+ * It also implements the normal {@link jsat.clustering.KClusterer} methods,
+ * so it can be used like any other clusterer on in memory data. In that case
+ * the data is read in a new random order each pass. When the number of
+ * clusters is not given, the means are found for every k in the range and k
+ * is picked from the drop in the sum of squared distances, the same way as
+ * {@link jsat.clustering.kmeans.KMeans} does.<br>
+ * <br>
+ * How far the means moved in each batch is a good sign of whether the means
+ * have converged. It is recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}, along with
+ * the time of each batch, and each batch is reported as a
+ * {@code streaming_kmeans_batch} event.
+ *
+ * @author Edward Raff
+ */
+public class StreamingKMeans extends KClustererBase
+{
+    private static final long serialVersionUID = 7715303472658119946L;
+
+    private DistanceMetric dm;
+    private int batchSize = 1000;
+    private int passes = 1;
+    private int seedSampleSize = 10000;
+    private Random rand;
+    private List<Vec> means;
+
+    /**
+     * Creates a new streaming k-means with the Euclidean distance
+     */
+    public StreamingKMeans()
+    {
+        this(new EuclideanDistance(), ReproducibleMode.getRandom());
+    }
+
+    /**
+     * Creates a new streaming k-means
+     *
+     * @param dm the distance metric used to find the nearest mean. The means
+     * are always averages, so this should be a metric that averages make sense
+     * for, like the Euclidean distance. A {@link PackedEuclideanDistance}
+     * assigns each batch to the means all at once, which is much faster for
+     * sparse data.
+     * @param rand the source of randomness
+     */
+    public StreamingKMeans(DistanceMetric dm, Random rand)
+    {
+        this.dm = dm;
+        this.rand = rand;
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param toCopy the object to copy
+     */
+    public StreamingKMeans(StreamingKMeans toCopy)
+    {
+        this.dm = toCopy.dm.clone();
+        this.batchSize = toCopy.batchSize;
+        this.passes = toCopy.passes;
+        this.seedSampleSize = toCopy.seedSampleSize;
+        this.rand = ReproducibleMode.getRandom();
+        if(toCopy.means != null)
+        {
+            this.means = new ArrayList<>(toCopy.means.size());
+            for(Vec mean : toCopy.means)
+                this.means.add(mean.clone());
+        }
+    }
+
+    /**
+     * @param batchSize the number of data points used for each update of the
+     * means
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive, not " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of data points used for each update of the means
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @param passes the number of times to read through the data while
+     * finding the means. 1 gives a one pass streaming k-means.
+     */
+    public void setPasses(int passes)
+    {
+        if(passes < 1)
+            throw new IllegalArgumentException("Number of passes must be positive, not " + passes);
+        this.passes = passes;
+    }
+
+    /**
+     * @return the number of times the data is read while finding the means
+     */
+    public int getPasses()
+    {
+        return passes;
+    }
+
+    /**
+     * @param seedSampleSize the number of data points, from the start of the
+     * data, used to find the starting means
+     */
+    public void setSeedSampleSize(int seedSampleSize)
+    {
+        if(seedSampleSize < 1)
+            throw new IllegalArgumentException("Seed sample size must be positive, not " + seedSampleSize);
+        this.seedSampleSize = seedSampleSize;
+    }
+
+    /**
+     * @return the number of data points used to find the starting means
+     */
+    public int getSeedSampleSize()
+    {
+        return seedSampleSize;
+    }
+
+    /**
+     * @return the means found by the last call to cluster or fit, or
+     * {@code null} if there has not been one
+     */
+    public List<Vec> getMeans()
+    {
+        return means;
+    }
+
+    /**
+     * Finds the means of the data, without assigning the points to clusters.
+     *
+     * @param source the data to cluster, read from the beginning
+     * @param k the number of clusters
+     * @return the means of the clusters
+     * @throws IOException if an error occurs reading the data
+     */
+    public List<Vec> fit(DataPointBatchSource source, int k) throws IOException
+    {
+        source.reset();
+        DataPointBatch batch = new DataPointBatch(batchSize);
+
+        //copy the start of the data to pick seeds from
+        List<DataPoint> sample = new ArrayList<>();
+        while(sample.size() < seedSampleSize && source.nextBatch(batch))
+            for(int i = 0; i < batch.size(); i++)
+                sample.add(batch.getDataPoint(i).clone());
+        if(sample.size() < k)
+            throw new IllegalArgumentException("Can not make " + k + " clusters from " + sample.size() + " points");
+        //k-means on the sample gives much better starting means than seeds
+        //alone, and the sample is small enough that this is cheap
+        SimpleDataSet sampleData = new SimpleDataSet(sample);
+        HamerlyKMeans sampleKMeans = new HamerlyKMeans(dm, SeedSelection.KPP, rand);
+        sampleKMeans.setStoreMeans(true);
+        sampleKMeans.cluster(sampleData, k, (int[]) null);
+        means = new ArrayList<>(k);
+        for(Vec seed : sampleKMeans.getMeans())
+            means.add(new DenseVector(seed));
+
+        double[] counts = new double[k];
+        int[] nearest = new int[batchSize];
+        Progress progress = new Progress(k);
+        //the sample was taken from the stream, so it is the start of the first pass
+        for(int start = 0; start < sample.size(); start += batchSize)
+        {
+            batch.clear();
+            for(int i = start; i < Math.min(start + batchSize, sample.size()); i++)
+                batch.add(sample.get(i), 0);
+            progress.update(batch, counts, nearest, 0);
+        }
+        //let the sample be collected before reading the rest of the data
+        sample = null;
+        sampleData = null;
+
+        for(int pass = 0; pass < passes; pass++)
+        {
+            if(pass > 0)
+                source.reset();
+            while(source.nextBatch(batch))
+                progress.update(batch, counts, nearest, pass);
+        }
+        return means;
+    }
+
+    /**
+     * Finds the means of the data, then reads the data one more time to assign
+     * every point to its nearest mean.
+     *
+     * @param source the data to cluster, read from the beginning
+     * @param k the number of clusters
+     * @return the cluster of each data point, in the order they were read
+     * @throws IOException if an error occurs reading the data
+     */
+    public int[] cluster(DataPointBatchSource source, int k) throws IOException
+    {
+        fit(source, k);
+        source.reset();
+        DataPointBatch batch = new DataPointBatch(batchSize);
+        int[] designations = new int[Math.max(seedSampleSize, 16)];
+        int[] nearest = new int[batchSize];
+        Centroids centroids = dm instanceof PackedEuclideanDistance ? new Centroids(means) : null;
+        int n = 0;
+        while(source.nextBatch(batch))
+        {
+            if(n + batch.size() > designations.length)
+                designations = Arrays.copyOf(designations, Math.max(designations.length * 2, n + batch.size()));
+            assign(batch, centroids, nearest);
+            System.arraycopy(nearest, 0, designations, n, batch.size());
+            n += batch.size();
+        }
+        return Arrays.copyOf(designations, n);
+    }
+
+    /**
+     * Does one mini-batch update. All points are assigned to the means as
+     * they were at the start of the batch, and then each mean is moved
+     * towards its points one at a time.
+     */
+    private void update(DataPointBatch batch, double[] counts, int[] nearest)
+    {
+        assign(batch, dm instanceof PackedEuclideanDistance ? new Centroids(means) : null, nearest);
+        for(int i = 0; i < batch.size(); i++)
+        {
+            DataPoint dp = batch.getDataPoint(i);
+            if(dp.getWeight() <= 0)
+                continue;//would give a step of 0/0 to a mean with no points yet
+            int c = nearest[i];
+            counts[c] += dp.getWeight();
+            double eta = dp.getWeight() / counts[c];
+            Vec mean = means.get(c);
+            mean.mutableMultiply(1 - eta);
+            mean.mutableAdd(eta, dp.getNumericalValues());
+        }
+    }
+
+    /**
+     * Does the mini-batch updates of one call to fit, and records how long
+     * each took and how far the means moved
+     */
+    private class Progress
+    {
+        final MetricsRegistry metrics = MetricsRegistry.getDefault();
+        final Timer batchTime = metrics.timer("jsat_streaming_kmeans_batch_seconds", "Time to update the means with one batch");
+        final Counter pointsSeen = metrics.counter("jsat_streaming_kmeans_points_total", "Points used to update the means");
+        final Gauge shift = metrics.gauge("jsat_streaming_kmeans_shift", "The farthest any mean moved in the last batch");
+        final List<Vec> previous;
+        long batches;
+
+        Progress(int k)
+        {
+            previous = new ArrayList<>(k);
+            for(Vec mean : means)
+                previous.add(mean.clone());
+        }
+
+        void update(DataPointBatch batch, double[] counts, int[] nearest, int pass)
+        {
+            long start = System.nanoTime();
+            for(int c = 0; c < means.size(); c++)
+                means.get(c).copyTo(previous.get(c));
+            StreamingKMeans.this.update(batch, counts, nearest);
+            double moved = 0;
+            for(int c = 0; c < means.size(); c++)
+                moved = Math.max(moved, dm.dist(previous.get(c), means.get(c)));
+            long elapsed = batchTime.since(start);
+            pointsSeen.add(batch.size());
+            shift.set(moved);
+            if(metrics.hasListeners())
+                metrics.event("streaming_kmeans_batch", "pass", pass, "batch", batches, "points", batch.size(),
+                        "shift", moved, "seconds", elapsed / 1e9);
+            batches++;
+        }
+    }
+
+    /**
+     * Finds the nearest mean to every point of a batch. With a
+     * {@link PackedEuclideanDistance} the whole batch is done at once by
+     * {@link Centroids}.
+     *
+     * @param centroids the current means, or {@code null} to compare each
+     * point with each mean using the distance metric
+     */
+    private void assign(DataPointBatch batch, Centroids centroids, int[] nearest)
+    {
+        if(centroids == null)
+        {
+            for(int i = 0; i < batch.size(); i++)
+                nearest[i] = nearestMean(batch.getDataPoint(i).getNumericalValues());
+            return;
+        }
+        List<Vec> points = new AbstractList<Vec>()
+        {
+            @Override
+            public Vec get(int index)
+            {
+                return batch.getDataPoint(index).getNumericalValues();
+            }
+
+            @Override
+            public int size()
+            {
+                return batch.size();
+            }
+        };
+        centroids.nearest(points, 0, points.size(), nearest);
+    }
+
+    private int nearestMean(Vec x)
+    {
+        int best = 0;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for(int c = 0; c < means.size(); c++)
+        {
+            double d = dm.dist(x, means.get(c));
+            if(d < bestDist)
+            {
+                bestDist = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int clusters, int[] designations)
+    {
+        fit(dataSet, clusters);
+        if(designations == null)
+            designations = new int[dataSet.getSampleSize()];
+        assignAll(dataSet, designations);
+        return designations;
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int clusters, ExecutorService threadpool, int[] designations)
+    {
+        return cluster(dataSet, clusters, designations);
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int[] designations)
+    {
+        return cluster(dataSet, 2, Math.max(2, (int) Math.sqrt(dataSet.getSampleSize() / 2)), designations);
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, ExecutorService threadpool, int[] designations)
+    {
+        return cluster(dataSet, designations);
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int lowK, int highK, int[] designations)
+    {
+        if(lowK < 1 || highK < lowK)
+            throw new IllegalArgumentException("Invalid range of k [" + lowK + ", " + highK + "]");
+        if(designations == null)
+            designations = new int[dataSet.getSampleSize()];
+        double[] sse = new double[highK - lowK + 1];
+        List<List<Vec>> meansOfK = new ArrayList<>(sse.length);
+        for(int k = lowK; k <= highK; k++)
+        {
+            fit(dataSet, k);
+            sse[k - lowK] = assignAll(dataSet, designations);
+            meansOfK.add(means);
+        }
+        means = meansOfK.get(pickK(lowK, sse) - lowK);
+        assignAll(dataSet, designations);
+        return designations;
+    }
+
+    @Override
+    public int[] cluster(DataSet dataSet, int lowK, int highK, ExecutorService threadpool, int[] designations)
+    {
+        return cluster(dataSet, lowK, highK, designations);
+    }
+
+    private void fit(DataSet<?> dataSet, int k)
+    {
+        try
+        {
+            fit(new DataSetBatchSource(dataSet, rand), k);
+        }
+        catch(IOException ex)//can't happen, the data is in memory
+        {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Assigns every point of the data set to its nearest mean
+     *
+     * @return the weighted sum of squared distances from each point to its
+     * mean
+     */
+    private double assignAll(DataSet<?> dataSet, int[] designations)
+    {
+        int n = dataSet.getSampleSize();
+        if(dm instanceof PackedEuclideanDistance)
+            new Centroids(means).nearest(dataSet.getDataVectors(), 0, n, designations);
+        else
+            for(int i = 0; i < n; i++)
+                designations[i] = nearestMean(dataSet.getDataPoint(i).getNumericalValues());
+        double sse = 0;
+        for(int i = 0; i < n; i++)
+        {
+            DataPoint dp = dataSet.getDataPoint(i);
+            double d = dm.dist(dp.getNumericalValues(), means.get(designations[i]));
+            sse += dp.getWeight() * d * d;
+        }
+        return sse;
+    }
+
+    /**
+     * Picks k the same way {@link jsat.clustering.kmeans.KMeans} does. If the
+     * biggest change in the error from one k to the next stands out from the
+     * rest, k is where the changes first get smaller than it. Otherwise the
+     * smallest k is used.
+     *
+     * @param lowK the first k tried
+     * @param sse the sum of squared distances for each k tried
+     * @return the chosen k
+     */
+    private static int pickK(int lowK, double[] sse)
+    {
+        OnLineStatistics changes = new OnLineStatistics();
+        double maxChange = Double.MIN_VALUE;
+        int bestK = lowK;
+        for(int i = 1; i < sse.length; i++)
+        {
+            double change = Math.abs(sse[i] - sse[i - 1]);
+            changes.add(change);
+            if(change > maxChange)
+            {
+                maxChange = change;
+                bestK = lowK + i;
+            }
+        }
+        if(maxChange < changes.getMean() + 2 * changes.getStandardDeviation())
+            return lowK;
+        for(int i = 1; i < sse.length; i++)
+            if(Math.abs(sse[i] - sse[i - 1]) < maxChange)
+                return lowK + i;
+        return bestK;
+    }
+
+    @Override
+    public boolean supportsWeightedData()
+    {
+        return true;
+    }
+
+    @Override
+    public StreamingKMeans clone()
+    {
+        return new StreamingKMeans(this);
+    }
+}
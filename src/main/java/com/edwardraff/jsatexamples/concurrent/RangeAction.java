@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.concurrent;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a body over a range of indices in a {@link java.util.concurrent.ForkJoinPool},
+ * splitting the range in half until the pieces are no larger than the grain.
+ * Each piece is given to the body as a whole, so the body can set up any
+ * working space once per piece rather than once per index.
+ *
+ * @author Edward Raff
+ */
+public class RangeAction extends RecursiveAction
+{
+    private static final long serialVersionUID = -3021583474590326148L;
+
+    private final int from;
+    private final int to;
+    private final int grain;
+    private final Body body;
+
+    /**
+     * The work done for one piece of the range
+     */
+    public interface Body
+    {
+        /**
+         * @param from the first index of the piece, inclusive
+         * @param to the last index of the piece, exclusive
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Creates a new action for the given range
+     *
+     * @param from the first index, inclusive
+     * @param to the last index, exclusive
+     * @param grain the largest piece that is not split any further
+     * @param body the work to do for each piece
+     */
+    public RangeAction(int from, int to, int grain, Body body)
+    {
+        this.from = from;
+        this.to = to;
+        this.grain = grain;
+        this.body = body;
+    }
+
+    /**
+     * Creates a new action that runs the body once for every index in the
+     * range
+     *
+     * @param from the first index, inclusive
+     * @param to the last index, exclusive
+     * @param grain the largest piece that is not split any further
+     * @param body the work to do for each index
+     * @return the action
+     */
+    public static RangeAction forEach(int from, int to, int grain, IntConsumer body)
+    {
+        return new RangeAction(from, to, grain, (start, end) ->
+        {
+            for(int i = start; i < end; i++)
+                body.accept(i);
+        });
+    }
+
+    @Override
+    protected void compute()
+    {
+        if(to - from <= grain)
+        {
+            body.run(from, to);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        invokeAll(new RangeAction(from, mid, grain, body), new RangeAction(mid, to, grain, body));
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.datatransform;
+
+import com.edwardraff.jsatexamples.concurrent.RangeAction;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import jsat.classifiers.DataPoint;
+import jsat.datatransform.DataTransform;
+import jsat.linear.DenseMatrix;
+import jsat.linear.DenseVector;
+import jsat.linear.IndexValue;
+import jsat.linear.Matrix;
+import jsat.linear.Vec;
+
+/**
+ * Base class for the approximate PCA transforms. Both of them end up with a
+ * d by k matrix of components and the mean of the data, and project a point
+ * with {@code W}<sup>T</sup>{@code (x - mean)}. The mean is never subtracted
+ * from the data itself, since that would turn every sparse vector into a
+ * dense one. Instead it is folded into the products, so only the non-zero
+ * values of each point are ever touched.<br>
+ * <br>
+ * The products with the data are done in parallel on a {@link ForkJoinPool}.
+ * Dense blocks are stored as flat row major arrays, so row {@code i} of an
+ * {@code n} by {@code l} block is at {@code [i*l, i*l+l)}.
+ *
+ * @author Edward Raff
+ */
+public abstract class AbstractPCA implements DataTransform
+{
+    private static final long serialVersionUID = -3350749201746391755L;
+
+    /**
+     * The components, one row of length {@link #pcs} per feature
+     */
+    protected double[] components;
+    /**
+     * The projection of the mean onto the components
+     */
+    protected double[] offset;
+    /**
+     * The number of components found
+     */
+    protected int pcs;
+    /**
+     * The variance of the data along each component
+     */
+    protected double[] explainedVariance;
+    /**
+     * The total variance of the data, summed over all the features
+     */
+    protected double totalVariance;
+
+    public AbstractPCA()
+    {
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param toCopy the object to copy
+     */
+    public AbstractPCA(AbstractPCA toCopy)
+    {
+        if(toCopy.components != null)
+        {
+            this.components = toCopy.components.clone();
+            this.offset = toCopy.offset.clone();
+            this.explainedVariance = toCopy.explainedVariance.clone();
+        }
+        this.pcs = toCopy.pcs;
+        this.totalVariance = toCopy.totalVariance;
+    }
+
+    /**
+     * @return the number of components the data is projected onto
+     */
+    public int getComponentCount()
+    {
+        return pcs;
+    }
+
+    /**
+     * @return a d by k matrix with the principal components as its columns
+     */
+    public Matrix getComponents()
+    {
+        if(components == null)
+            throw new IllegalStateException("PCA has not been fit");
+        int d = components.length / pcs;
+        Matrix W = new DenseMatrix(d, pcs);
+        for(int j = 0; j < d; j++)
+            for(int r = 0; r < pcs; r++)
+                W.set(j, r, components[j * pcs + r]);
+        return W;
+    }
+
+    /**
+     * @return the estimated variance of the data along each component, largest
+     * first
+     */
+    public double[] getExplainedVariance()
+    {
+        if(explainedVariance == null)
+            throw new IllegalStateException("PCA has not been fit");
+        return explainedVariance.clone();
+    }
+
+    /**
+     * @return the total variance of the data, which is the sum of the variance
+     * of every feature
+     */
+    public double getTotalVariance()
+    {
+        return totalVariance;
+    }
+
+    /**
+     * @return the fraction of the {@link #getTotalVariance() total variance}
+     * kept by the components
+     */
+    public double getExplainedVarianceRatio()
+    {
+        double sum = 0;
+        for(double v : getExplainedVariance())
+            sum += v;
+        return sum / totalVariance;
+    }
+
+    /**
+     * Sets the components, making each one's largest coordinate positive so
+     * the signs do not depend on the random start
+     *
+     * @param W the components, d rows of length {@code pcs}
+     * @param pcs the number of components
+     * @param mean the mean of the data
+     */
+    protected void setComponents(double[] W, int pcs, double[] mean)
+    {
+        int d = mean.length;
+        for(int r = 0; r < pcs; r++)
+        {
+            int largest = 0;
+            for(int j = 1; j < d; j++)
+                if(Math.abs(W[j * pcs + r]) > Math.abs(W[largest * pcs + r]))
+                    largest = j;
+            if(W[largest * pcs + r] < 0)
+                for(int j = 0; j < d; j++)
+                    W[j * pcs + r] = -W[j * pcs + r];
+        }
+        this.components = W;
+        this.pcs = pcs;
+        this.offset = new double[pcs];
+        for(int j = 0; j < d; j++)
+            for(int r = 0; r < pcs; r++)
+                offset[r] += mean[j] * W[j * pcs + r];
+    }
+
+    @Override
+    public DataPoint transform(DataPoint dp)
+    {
+        if(components == null)
+            throw new IllegalStateException("PCA has not been fit");
+        double[] y = new double[pcs];
+        addProduct(dp.getNumericalValues(), components, pcs, y, 0);
+        for(int r = 0; r < pcs; r++)
+            y[r] -= offset[r];
+        return new DataPoint(new DenseVector(y), dp.getCategoricalValues(), dp.getCategoricalData(), dp.getWeight());
+    }
+
+    @Override
+    abstract public AbstractPCA clone();
+
+    /**
+     * Adds {@code x}<sup>T</sup>{@code W} to {@code out[pos, pos+l)}, using
+     * only the non-zero values of x
+     */
+    static void addProduct(Vec x, double[] W, int l, double[] out, int pos)
+    {
+        if(x.isSparse())
+        {
+            for(IndexValue iv : x)
+            {
+                double v = iv.getValue();
+                for(int r = 0, w = iv.getIndex() * l; r < l; r++, w++)
+                    out[pos + r] += v * W[w];
+            }
+        }
+        else
+        {
+            for(int j = 0; j < x.length(); j++)
+            {
+                double v = x.get(j);
+                if(v == 0)
+                    continue;
+                for(int r = 0, w = j * l; r < l; r++, w++)
+                    out[pos + r] += v * W[w];
+            }
+        }
+    }
+
+    /**
+     * Adds {@code x q}<sup>T</sup> to a d by l block, where q is
+     * {@code Q[pos, pos+l)}, using only the non-zero values of x
+     */
+    static void addOuter(Vec x, double[] Q, int pos, int l, double[] out)
+    {
+        if(x.isSparse())
+        {
+            for(IndexValue iv : x)
+            {
+                double v = iv.getValue();
+                for(int r = 0, o = iv.getIndex() * l; r < l; r++, o++)
+                    out[o] += v * Q[pos + r];
+            }
+        }
+        else
+        {
+            for(int j = 0; j < x.length(); j++)
+            {
+                double v = x.get(j);
+                if(v == 0)
+                    continue;
+                for(int r = 0, o = j * l; r < l; r++, o++)
+                    out[o] += v * Q[pos + r];
+            }
+        }
+    }
+
+    /**
+     * Computes the mean of the data, and the total variance
+     *
+     * @param rows the data
+     * @param n the number of rows
+     * @param d the number of features
+     * @param mean where to store the mean
+     * @param pool the pool to do the work in
+     * @return the total variance
+     */
+    static double meanAndVariance(IntFunction<DataPoint> rows, int n, int d, double[] mean, ForkJoinPool pool)
+    {
+        //d values for the sums, and one more for the sum of squared norms
+        double[] sums = pool.invoke(new Reduce(0, n, grain(n, pool), d + 1, (partial, i) ->
+        {
+            for(IndexValue iv : rows.apply(i).getNumericalValues())
+            {
+                partial[iv.getIndex()] += iv.getValue();
+                partial[d] += iv.getValue() * iv.getValue();
+            }
+        }));
+        double meanNormSqrd = 0;
+        for(int j = 0; j < d; j++)
+        {
+            mean[j] = sums[j] / n;
+            meanNormSqrd += mean[j] * mean[j];
+        }
+        return sums[d] / n - meanNormSqrd;
+    }
+
+    /**
+     * Computes {@code (X - 1 mean}<sup>T</sup>{@code ) W}, an n by l block
+     *
+     * @param rows the data
+     * @param n the number of rows
+     * @param mean the mean of the data
+     * @param W a d by l block
+     * @param l the number of columns of W
+     * @param pool the pool to do the work in
+     * @return the n by l product
+     */
+    static double[] times(IntFunction<DataPoint> rows, int n, double[] mean, double[] W, int l, ForkJoinPool pool)
+    {
+        double[] meanW = new double[l];
+        for(int j = 0; j < mean.length; j++)
+            for(int r = 0; r < l; r++)
+                meanW[r] += mean[j] * W[j * l + r];
+        double[] out = new double[n * l];
+        //every row of the output is written by exactly one task
+        pool.invoke(RangeAction.forEach(0, n, grain(n, pool), i ->
+        {
+            int pos = i * l;
+            addProduct(rows.apply(i).getNumericalValues(), W, l, out, pos);
+            for(int r = 0; r < l; r++)
+                out[pos + r] -= meanW[r];
+        }));
+        return out;
+    }
+
+    /**
+     * Computes {@code (X - 1 mean}<sup>T</sup>{@code )}<sup>T</sup>{@code Q},
+     * a d by l block
+     *
+     * @param rows the data
+     * @param n the number of rows
+     * @param mean the mean of the data
+     * @param Q an n by l block
+     * @param l the number of columns of Q
+     * @param pool the pool to do the work in
+     * @return the d by l product
+     */
+    static double[] transposeTimes(IntFunction<DataPoint> rows, int n, double[] mean, double[] Q, int l, ForkJoinPool pool)
+    {
+        int d = mean.length;
+        //each task adds into its own d by l block, so only use as many
+        //tasks as there are threads
+        int grain = Math.max(64, (n + pool.getParallelism() - 1) / pool.getParallelism());
+        double[] out = pool.invoke(new Reduce(0, n, grain, d * l,
+                (partial, i) -> addOuter(rows.apply(i).getNumericalValues(), Q, i * l, l, partial)));
+        double[] colSums = new double[l];
+        for(int i = 0; i < n; i++)
+            for(int r = 0; r < l; r++)
+                colSums[r] += Q[i * l + r];
+        for(int j = 0; j < d; j++)
+            if(mean[j] != 0)
+                for(int r = 0; r < l; r++)
+                    out[j * l + r] -= mean[j] * colSums[r];
+        return out;
+    }
+
+    /**
+     * Makes the columns of a block orthonormal, in place. Modified Gram
+     * Schmidt is done twice, which is enough to get columns that are
+     * orthogonal to working precision. A column that is (numerically) a
+     * combination of the ones before it is set to zero.
+     *
+     * @param A the block
+     * @param rows the number of rows
+     * @param l the number of columns
+     */
+    static void orthonormalize(double[] A, int rows, int l)
+    {
+        for(int c = 0; c < l; c++)
+        {
+            double before = columnNorm(A, rows, l, c);
+            for(int repeat = 0; repeat < 2; repeat++)
+                for(int p = 0; p < c; p++)
+                {
+                    double dot = 0;
+                    for(int i = 0; i < rows; i++)
+                        dot += A[i * l + c] * A[i * l + p];
+                    for(int i = 0; i < rows; i++)
+                        A[i * l + c] -= dot * A[i * l + p];
+                }
+            double norm = columnNorm(A, rows, l, c);
+            double scale = norm > 1e-12 * before && norm > 0 ? 1 / norm : 0;
+            for(int i = 0; i < rows; i++)
+                A[i * l + c] *= scale;
+        }
+    }
+
+    private static double columnNorm(double[] A, int rows, int l, int c)
+    {
+        double sum = 0;
+        for(int i = 0; i < rows; i++)
+            sum += A[i * l + c] * A[i * l + c];
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @return a d by l block of standard normal values
+     */
+    static double[] gaussian(int d, int l, Random rand)
+    {
+        double[] G = new double[d * l];
+        for(int i = 0; i < G.length; i++)
+            G[i] = rand.nextGaussian();
+        return G;
+    }
+
+    private static int grain(int n, ForkJoinPool pool)
+    {
+        return Math.max(64, n / (4 * pool.getParallelism()));
+    }
+
+    /**
+     * Adds up an array of sums over every index in a range. Each leaf of the
+     * split gets its own array, and they are added together on the way back
+     * up.
+     */
+    private static class Reduce extends RecursiveTask<double[]>
+    {
+        private static final long serialVersionUID = -5093771806618449112L;
+        private final int from, to, grain, length;
+        private final ObjIntConsumer<double[]> body;
+
+        public Reduce(int from, int to, int grain, int length, ObjIntConsumer<double[]> body)
+        {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.length = length;
+            this.body = body;
+        }
+
+        @Override
+        protected double[] compute()
+        {
+            if(to - from > grain)
+            {
+                int mid = (from + to) >>> 1;
+                Reduce right = new Reduce(mid, to, grain, length, body);
+                right.fork();
+                double[] sums = new Reduce(from, mid, grain, length, body).compute();
+                double[] other = right.join();
+                for(int i = 0; i < length; i++)
+                    sums[i] += other[i];
+                return sums;
+            }
+            double[] sums = new double[length];
+            for(int i = from; i < to; i++)
+                body.accept(sums, i);
+            return sums;
+        }
+    }
+}
@@ -0,0 +1,839 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.datatransform;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import jsat.DataSet;
+import jsat.classifiers.DataPoint;
+import jsat.datatransform.Imputer;
+import jsat.datatransform.InPlaceTransform;
+import jsat.datatransform.LinearTransform;
+import jsat.datatransform.PCA;
+import jsat.datatransform.ZeroMeanTransform;
+import jsat.linear.DenseMatrix;
+import jsat.linear.DenseVector;
+import jsat.linear.EigenValueDecomposition;
+import jsat.linear.IndexValue;
+import jsat.linear.Matrix;
+import jsat.linear.Vec;
+
+/**
+ * Does the work of the common {@link Imputer} &rarr; {@link LinearTransform}
+ * &rarr; {@link ZeroMeanTransform} &rarr; {@link PCA} chain as a single
+ * transform. Chaining them with {@link DataSet#applyTransform(jsat.datatransform.DataTransform)
+ * applyTransform} goes over the whole data set at least twice per step, once
+ * to fit the step and once to apply it, and every step but the last creates a
+ * new copy of every data point.<br>
+ * <br>
+ * All of these steps are affine, so their composition is too. Every
+ * statistic they need can be worked out from sums collected in one pass over
+ * the <i>original</i> data:
+ * <ul>
+ * <li>The imputed values are the weighted means of the values that are not
+ * missing, just like {@link Imputer} with its default mode.</li>
+ * <li>The minimum and maximum used for scaling do not change when missing
+ * values are replaced by the mean, and the mean of the imputed, scaled data is
+ * just the scaled mean, so the scaling and zero mean steps need nothing
+ * more.</li>
+ * <li>The scatter matrix PCA needs is built from the products of the values
+ * that are present, plus the sums of each feature over the points where
+ * another feature is missing. Together they give the exact scatter matrix of
+ * the imputed, scaled and centered data.</li>
+ * </ul>
+ * So {@link #fit(jsat.DataSet) fitting} takes one parallel pass, and
+ * {@link #apply(jsat.DataSet) applying} the fused transform takes one more.
+ * The sums are kept after fitting, so calling {@link #update(jsat.DataSet) }
+ * with more data gives the same transform as fitting on all the data at once,
+ * without going over the old data again.<br>
+ * <br>
+ * Every step can be turned on or off. Without PCA the result matches the
+ * chained transforms up to floating point rounding. The principal components
+ * are found with an eigen decomposition of the scatter matrix, where
+ * {@link PCA} finds them one at a time by iterating until its threshold is
+ * met, so the projections only agree to about that threshold. Their signs
+ * may also differ; the components found here have their largest coordinate
+ * made positive, so they do not depend on the order the data was seen in.
+ * The sums are not centered, so features with a very large mean compared to
+ * their spread will lose some precision in the PCA step.<br>
+ * <br>
+ * The means and the scatter matrix both use the weights of the data points.
+ * When missing values are not imputed they stay missing, and the means skip
+ * them. PCA can't project a point with a missing value, so it needs missing
+ * values to be imputed. PCA also needs a dense d by d scatter matrix, and each
+ * thread collecting the sums has its own, so fitting with PCA is only meant
+ * for data with at most a few thousand features.
+ *
+ * @author Edward Raff
+ */
+public class FusedTransformPipeline implements InPlaceTransform
+{
+    private static final long serialVersionUID = 5318460272406174021L;
+    /**
+     * Most memory, in bytes, for the pairwise sums of all the chunks being
+     * collected at once
+     */
+    private static final long PAIR_BUDGET = 128L * 1024 * 1024;
+
+    private boolean impute = true;
+    private boolean scale = true;
+    private double rangeLow = 0;
+    private double rangeHigh = 1;
+    private boolean zeroMean = true;
+    private int maxPCs = 0;
+
+    /**
+     * The sums for all the data seen so far
+     */
+    private Stats stats;
+    /**
+     * The value that replaces a missing value for each feature
+     */
+    private double[] imputeValues;
+    /**
+     * The fused scaling and centering is {@code x * mult + shift}
+     */
+    private double[] mult;
+    private double[] shift;
+    /**
+     * The PCA projection with the scaling folded in, stored one feature at a
+     * time so that feature j contributes {@code projection[j*pcs .. j*pcs+pcs)}.
+     * It is {@code null} if PCA is not used.
+     */
+    private double[] projection;
+    /**
+     * The projection of the fused shift
+     */
+    private double[] bias;
+    private int pcs;
+
+    /**
+     * Creates a new pipeline that imputes missing values, scales the features
+     * to [0, 1], and makes them zero mean. PCA is off until
+     * {@link #setPCA(int) } is called.
+     */
+    public FusedTransformPipeline()
+    {
+    }
+
+    /**
+     * Creates a new pipeline with the given steps turned on
+     *
+     * @param impute whether missing values should be imputed
+     * @param scale whether the features should be scaled to [0, 1]
+     * @param zeroMean whether the features should be made zero mean
+     * @param maxPCs the number of principal components to keep, or 0 to not
+     * use PCA
+     */
+    public FusedTransformPipeline(boolean impute, boolean scale, boolean zeroMean, int maxPCs)
+    {
+        setImpute(impute);
+        setScale(scale);
+        setZeroMean(zeroMean);
+        setPCA(maxPCs);
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param toCopy the object to copy
+     */
+    public FusedTransformPipeline(FusedTransformPipeline toCopy)
+    {
+        this.impute = toCopy.impute;
+        this.scale = toCopy.scale;
+        this.rangeLow = toCopy.rangeLow;
+        this.rangeHigh = toCopy.rangeHigh;
+        this.zeroMean = toCopy.zeroMean;
+        this.maxPCs = toCopy.maxPCs;
+        if(toCopy.stats != null)
+            this.stats = new Stats(toCopy.stats);
+        if(toCopy.imputeValues != null)
+        {
+            this.imputeValues = toCopy.imputeValues.clone();
+            this.mult = toCopy.mult.clone();
+            this.shift = toCopy.shift.clone();
+        }
+        if(toCopy.projection != null)
+        {
+            this.projection = toCopy.projection.clone();
+            this.bias = toCopy.bias.clone();
+        }
+        this.pcs = toCopy.pcs;
+    }
+
+    /**
+     * Sets whether missing values are replaced by the mean of their feature.
+     * Changing a setting discards anything the pipeline was fit to.
+     *
+     * @param impute {@code true} to impute missing values
+     */
+    public void setImpute(boolean impute)
+    {
+        this.impute = impute;
+        reset();
+    }
+
+    /**
+     * @return {@code true} if missing values are imputed
+     */
+    public boolean isImpute()
+    {
+        return impute;
+    }
+
+    /**
+     * Sets whether every feature is scaled to the {@link #setRange(double, double) range}.
+     * Changing a setting discards anything the pipeline was fit to.
+     *
+     * @param scale {@code true} to scale the features
+     */
+    public void setScale(boolean scale)
+    {
+        this.scale = scale;
+        reset();
+    }
+
+    /**
+     * @return {@code true} if the features are scaled
+     */
+    public boolean isScale()
+    {
+        return scale;
+    }
+
+    /**
+     * Sets the range the features are scaled to, the same as
+     * {@link LinearTransform#setRange(double, double) }. Changing a setting
+     * discards anything the pipeline was fit to.
+     *
+     * @param low the value the minimum of each feature is mapped to
+     * @param high the value the maximum of each feature is mapped to
+     */
+    public void setRange(double low, double high)
+    {
+        if(Double.isNaN(low) || Double.isInfinite(low) || Double.isNaN(high) || Double.isInfinite(high))
+            throw new IllegalArgumentException("Range must be finite, not [" + low + ", " + high + "]");
+        this.rangeLow = low;
+        this.rangeHigh = high;
+        reset();
+    }
+
+    /**
+     * Sets whether the features are shifted to have a mean of zero. Changing a
+     * setting discards anything the pipeline was fit to.
+     *
+     * @param zeroMean {@code true} to make the features zero mean
+     */
+    public void setZeroMean(boolean zeroMean)
+    {
+        this.zeroMean = zeroMean;
+        reset();
+    }
+
+    /**
+     * @return {@code true} if the features are made zero mean
+     */
+    public boolean isZeroMean()
+    {
+        return zeroMean;
+    }
+
+    /**
+     * Sets the number of principal components to project onto. Changing a
+     * setting discards anything the pipeline was fit to.
+     *
+     * @param maxPCs the number of components to keep, or 0 to not use PCA
+     */
+    public void setPCA(int maxPCs)
+    {
+        if(maxPCs < 0)
+            throw new IllegalArgumentException("Number of principal components can not be negative, not " + maxPCs);
+        this.maxPCs = maxPCs;
+        reset();
+    }
+
+    /**
+     * @return the number of principal components to keep, or 0 if PCA is not
+     * used
+     */
+    public int getPCA()
+    {
+        return maxPCs;
+    }
+
+    /**
+     * @return the number of data points the pipeline has been fit to
+     */
+    public long getPointsSeen()
+    {
+        return stats == null ? 0 : stats.n;
+    }
+
+    private void reset()
+    {
+        stats = null;
+        imputeValues = mult = shift = projection = bias = null;
+        pcs = 0;
+    }
+
+    @Override
+    public void fit(DataSet data)
+    {
+        fit(data, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Fits the pipeline to the given data, forgetting anything it was fit to
+     * before
+     *
+     * @param data the data to fit to
+     * @param pool the pool to collect the statistics in
+     */
+    public void fit(DataSet data, ForkJoinPool pool)
+    {
+        reset();
+        update(data, pool);
+    }
+
+    /**
+     * Updates the pipeline with more data. The result is the same as fitting
+     * to all of the data given so far at once. The data must not have been
+     * transformed by this pipeline.
+     *
+     * @param data the new data
+     */
+    public void update(DataSet data)
+    {
+        update(data, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Updates the pipeline with more data. The result is the same as fitting
+     * to all of the data given so far at once. The data must not have been
+     * transformed by this pipeline.
+     *
+     * @param data the new data
+     * @param pool the pool to collect the statistics in
+     */
+    public void update(DataSet data, ForkJoinPool pool)
+    {
+        int d = data.getNumNumericalVars();
+        if(stats != null && stats.d != d)
+            throw new IllegalArgumentException("Pipeline was fit to " + stats.d + " features, but the data has " + d);
+        int n = data.getSampleSize();
+        if(n == 0)
+            return;
+        //enough chunks for work stealing to even things out
+        int chunks = 4 * pool.getParallelism();
+        if(maxPCs > 0)
+        {
+            //but every chunk has its own d by d sums, and up to two more of
+            //them if values are missing, so there are no more chunks than
+            //threads, and only as many as fit in the budget
+            long pairBytes = 3 * 8L * d * d;
+            chunks = (int) Math.max(1, Math.min(pool.getParallelism(), PAIR_BUDGET / pairBytes));
+        }
+        int grain = Math.max(256, (n + chunks - 1) / chunks);
+        Stats batch = pool.invoke(new StatsTask(data, 0, n, grain, maxPCs > 0));
+        if(maxPCs > 0 && !impute)
+            for(int j = 0; j < d; j++)
+                if(batch.missing[j] > 0)
+                    throw new IllegalArgumentException("Feature " + j + " has missing values, which must be imputed to use PCA");
+        if(stats == null)
+            stats = batch;
+        else
+            stats.add(batch);
+        rebuild();
+    }
+
+    /**
+     * Applies the fused transform to every point in the data set, in parallel
+     * on the common pool
+     *
+     * @param data the data set to transform
+     */
+    public void apply(DataSet data)
+    {
+        apply(data, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Applies the fused transform to every point in the data set. Without PCA
+     * the points are changed in place, with PCA every point is replaced by its
+     * projection.
+     *
+     * @param data the data set to transform
+     * @param pool the pool to do the work in
+     */
+    public void apply(DataSet data, ForkJoinPool pool)
+    {
+        if(mult == null)
+            throw new IllegalStateException("Pipeline has not been fit");
+        data.applyTransform(this, projection == null, pool);
+    }
+
+    /**
+     * Works out the fused transform from the sums
+     */
+    private void rebuild()
+    {
+        final int d = stats.d;
+        final long n = stats.n;
+        imputeValues = new double[d];
+        mult = new double[d];
+        shift = new double[d];
+        for(int j = 0; j < d; j++)
+        {
+            double presentWeight = stats.totalWeight - stats.missingWeight[j];
+            double m;
+            if(!impute)
+                m = Double.NaN;
+            else if(presentWeight > 0)
+                m = stats.weightedSum[j] / presentWeight;
+            else
+                m = 0;
+            imputeValues[j] = m;
+
+            double lo = stats.min[j], hi = stats.max[j];
+            if(stats.nonZero[j] + stats.missing[j] < n)//some implicit zeros
+            {
+                lo = Math.min(lo, 0);
+                hi = Math.max(hi, 0);
+            }
+            if(stats.missing[j] > 0 && impute)
+            {
+                lo = Math.min(lo, m);
+                hi = Math.max(hi, m);
+            }
+            if(lo > hi)//nothing at all was seen
+                lo = hi = 0;
+
+            double s = 1, t = 0;
+            if(scale)
+            {
+                //same special case as LinearTransform for constant features
+                if(hi - lo < 1e-6)
+                    s = rangeHigh - rangeLow;
+                else
+                {
+                    s = (rangeHigh - rangeLow) / (hi - lo);
+                    t = -lo * s;
+                }
+                t += rangeLow;
+            }
+            if(zeroMean)
+            {
+                //imputed values are the mean, so they don't change it, and
+                //values left missing are skipped
+                double mean = presentWeight > 0 ? stats.weightedSum[j] / presentWeight : 0;
+                //the scaled mean is mean*s+t, so subtracting it leaves only
+                //the scaled mean's offset
+                t = -mean * s;
+            }
+            mult[j] = s;
+            shift[j] = t;
+        }
+
+        if(maxPCs == 0)
+        {
+            projection = bias = null;
+            pcs = 0;
+            return;
+        }
+
+        //weighted sums of the imputed values, and the weighted scatter matrix
+        //of the final scaled and centered values built from them
+        double[] colSum = new double[d];
+        for(int j = 0; j < d; j++)
+        {
+            colSum[j] = stats.weightedSum[j];
+            if(stats.missing[j] > 0)
+                colSum[j] += stats.missingWeight[j] * imputeValues[j];
+        }
+        Matrix scatter = new DenseMatrix(d, d);
+        for(int a = 0; a < d; a++)
+            for(int b = a; b < d; b++)
+            {
+                double xx = stats.scatter[a * d + b];
+                if(stats.presentMissing != null)
+                {
+                    double bothMissing = stats.bothMissing[a * d + b];
+                    if(stats.missing[b] > 0)
+                        xx += imputeValues[b] * stats.presentMissing[a * d + b];
+                    if(stats.missing[a] > 0)
+                        xx += imputeValues[a] * stats.presentMissing[b * d + a];
+                    if(bothMissing > 0)
+                        xx += imputeValues[a] * imputeValues[b] * bothMissing;
+                }
+                double zz = mult[a] * mult[b] * xx + mult[a] * shift[b] * colSum[a]
+                        + shift[a] * mult[b] * colSum[b] + stats.totalWeight * shift[a] * shift[b];
+                scatter.set(a, b, zz);
+                scatter.set(b, a, zz);
+            }
+
+        EigenValueDecomposition evd = new EigenValueDecomposition(scatter);
+        evd.sortByEigenValue(Comparator.reverseOrder());
+        Matrix V = evd.getV();
+        pcs = (int) Math.min(Math.min(maxPCs, d), n);
+        projection = new double[d * pcs];
+        bias = new double[pcs];
+        for(int r = 0; r < pcs; r++)
+        {
+            //make the largest coordinate positive so the sign is repeatable
+            int largest = 0;
+            for(int j = 1; j < d; j++)
+                if(Math.abs(V.get(j, r)) > Math.abs(V.get(largest, r)))
+                    largest = j;
+            double sign = V.get(largest, r) < 0 ? -1 : 1;
+            for(int j = 0; j < d; j++)
+            {
+                double p = sign * V.get(j, r);
+                projection[j * pcs + r] = p * mult[j];
+                bias[r] += p * shift[j];
+            }
+        }
+    }
+
+    @Override
+    public DataPoint transform(DataPoint dp)
+    {
+        if(mult == null)
+            throw new IllegalStateException("Pipeline has not been fit");
+        Vec x = dp.getNumericalValues();
+        Vec out;
+        if(projection == null)
+        {
+            out = new DenseVector(mult.length);
+            for(int j = 0; j < mult.length; j++)
+                out.set(j, transform(j, x.get(j)));
+        }
+        else
+        {
+            double[] y = bias.clone();
+            if(x.isSparse())
+            {
+                //implicit zeros add nothing to the projection
+                for(IndexValue iv : x)
+                    project(iv.getIndex(), iv.getValue(), y);
+            }
+            else
+                for(int j = 0; j < mult.length; j++)
+                    project(j, x.get(j), y);
+            out = new DenseVector(y);
+        }
+        return new DataPoint(out, dp.getCategoricalValues(), dp.getCategoricalData(), dp.getWeight());
+    }
+
+    private double transform(int j, double x)
+    {
+        if(Double.isNaN(x))
+            x = imputeValues[j];
+        return x * mult[j] + shift[j];
+    }
+
+    private void project(int j, double x, double[] y)
+    {
+        if(Double.isNaN(x))
+            x = imputeValues[j];
+        if(x == 0)
+            return;
+        for(int r = 0, pos = j * pcs; r < pcs; r++, pos++)
+            y[r] += projection[pos] * x;
+    }
+
+    /**
+     * Changes the point in place. This is only possible when PCA is not used,
+     * since PCA changes the number of features.
+     *
+     * @param dp the data point to transform
+     */
+    @Override
+    public void mutableTransform(DataPoint dp)
+    {
+        if(mult == null)
+            throw new IllegalStateException("Pipeline has not been fit");
+        if(projection != null)
+            throw new IllegalStateException("PCA changes the number of features, so it can not be done in place");
+        Vec x = dp.getNumericalValues();
+        for(int j = 0; j < mult.length; j++)
+            x.set(j, transform(j, x.get(j)));
+    }
+
+    @Override
+    public boolean mutatesNominal()
+    {
+        return false;
+    }
+
+    @Override
+    public FusedTransformPipeline clone()
+    {
+        return new FusedTransformPipeline(this);
+    }
+
+    /**
+     * The sums for the points seen so far. Everything is a plain sum, so the
+     * sums for two sets of points can be added together.
+     */
+    private static class Stats implements Serializable
+    {
+        private static final long serialVersionUID = -2177356460131528836L;
+
+        final int d;
+        long n;
+        double totalWeight;
+        /**
+         * Number, and total weight, of the points missing each feature
+         */
+        final long[] missing;
+        final double[] missingWeight;
+        /**
+         * Number of points with a present non-zero value for each feature,
+         * needed to know if a sparse feature had any implicit zeros
+         */
+        final long[] nonZero;
+        /**
+         * Weighted sums of the values that are present
+         */
+        final double[] weightedSum;
+        final double[] min;
+        final double[] max;
+        /**
+         * Upper triangle of the weighted sum of x<sub>a</sub> x<sub>b</sub>,
+         * using zero for the missing values. {@code null} if PCA is not
+         * needed.
+         */
+        final double[] scatter;
+        /**
+         * [a*d+b] is the weighted sum of x<sub>a</sub> over the points
+         * missing feature b. Only created once something is missing.
+         */
+        double[] presentMissing;
+        /**
+         * Upper triangle of the weight of the points missing both a and b
+         */
+        double[] bothMissing;
+
+        public Stats(int d, boolean pairs)
+        {
+            this.d = d;
+            missing = new long[d];
+            missingWeight = new double[d];
+            nonZero = new long[d];
+            weightedSum = new double[d];
+            min = new double[d];
+            max = new double[d];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            scatter = pairs ? new double[d * d] : null;
+        }
+
+        public Stats(Stats toCopy)
+        {
+            this.d = toCopy.d;
+            this.n = toCopy.n;
+            this.totalWeight = toCopy.totalWeight;
+            this.missing = toCopy.missing.clone();
+            this.missingWeight = toCopy.missingWeight.clone();
+            this.nonZero = toCopy.nonZero.clone();
+            this.weightedSum = toCopy.weightedSum.clone();
+            this.min = toCopy.min.clone();
+            this.max = toCopy.max.clone();
+            this.scatter = toCopy.scatter == null ? null : toCopy.scatter.clone();
+            if(toCopy.presentMissing != null)
+            {
+                this.presentMissing = toCopy.presentMissing.clone();
+                this.bothMissing = toCopy.bothMissing.clone();
+            }
+        }
+
+        /**
+         * Adds one point to the sums
+         *
+         * @param dp the point
+         * @param idx scratch space for the indices of the non-zero values
+         * @param val scratch space for the non-zero values
+         * @param miss scratch space for the indices of the missing values
+         */
+        void add(DataPoint dp, int[] idx, double[] val, int[] miss)
+        {
+            Vec x = dp.getNumericalValues();
+            double w = dp.getWeight();
+            int nnz = 0, nm = 0;
+            if(x.isSparse())
+            {
+                for(IndexValue iv : x)
+                {
+                    double v = iv.getValue();
+                    if(Double.isNaN(v))
+                        miss[nm++] = iv.getIndex();
+                    else if(v != 0)
+                    {
+                        idx[nnz] = iv.getIndex();
+                        val[nnz++] = v;
+                    }
+                }
+            }
+            else
+                for(int j = 0; j < d; j++)
+                {
+                    double v = x.get(j);
+                    if(Double.isNaN(v))
+                        miss[nm++] = j;
+                    else if(v != 0)
+                    {
+                        idx[nnz] = j;
+                        val[nnz++] = v;
+                    }
+                }
+
+            n++;
+            totalWeight += w;
+            for(int p = 0; p < nnz; p++)
+            {
+                int j = idx[p];
+                double v = val[p];
+                nonZero[j]++;
+                weightedSum[j] += w * v;
+                if(v < min[j])
+                    min[j] = v;
+                if(v > max[j])
+                    max[j] = v;
+            }
+            for(int q = 0; q < nm; q++)
+            {
+                missing[miss[q]]++;
+                missingWeight[miss[q]] += w;
+            }
+
+            if(scatter == null)
+                return;
+            //indices come out in increasing order, so a <= b
+            for(int p = 0; p < nnz; p++)
+            {
+                int row = idx[p] * d;
+                double v = w * val[p];
+                for(int q = p; q < nnz; q++)
+                    scatter[row + idx[q]] += v * val[q];
+            }
+            if(nm == 0)
+                return;
+            if(presentMissing == null)
+            {
+                presentMissing = new double[d * d];
+                bothMissing = new double[d * d];
+            }
+            for(int p = 0; p < nnz; p++)
+            {
+                int row = idx[p] * d;
+                double v = w * val[p];
+                for(int q = 0; q < nm; q++)
+                    presentMissing[row + miss[q]] += v;
+            }
+            for(int p = 0; p < nm; p++)
+                for(int q = p; q < nm; q++)
+                    bothMissing[miss[p] * d + miss[q]] += w;
+        }
+
+        /**
+         * Adds the sums from another set of points to these ones
+         *
+         * @param other the other sums
+         */
+        void add(Stats other)
+        {
+            n += other.n;
+            totalWeight += other.totalWeight;
+            for(int j = 0; j < d; j++)
+            {
+                missing[j] += other.missing[j];
+                missingWeight[j] += other.missingWeight[j];
+                nonZero[j] += other.nonZero[j];
+                weightedSum[j] += other.weightedSum[j];
+                min[j] = Math.min(min[j], other.min[j]);
+                max[j] = Math.max(max[j], other.max[j]);
+            }
+            if(scatter == null)
+                return;
+            addTo(scatter, other.scatter);
+            if(other.presentMissing != null)
+            {
+                if(presentMissing == null)
+                {
+                    presentMissing = new double[d * d];
+                    bothMissing = new double[d * d];
+                }
+                addTo(presentMissing, other.presentMissing);
+                addTo(bothMissing, other.bothMissing);
+            }
+        }
+
+        private static void addTo(double[] a, double[] b)
+        {
+            for(int i = 0; i < a.length; i++)
+                a[i] += b[i];
+        }
+    }
+
+    /**
+     * Collects the sums for a range of the data set, splitting the range in
+     * half until it is small enough to do directly
+     */
+    private static class StatsTask extends RecursiveTask<Stats>
+    {
+        private static final long serialVersionUID = 4113409207366939468L;
+        private final DataSet data;
+        private final int from, to, grain;
+        private final boolean pairs;
+
+        public StatsTask(DataSet data, int from, int to, int grain, boolean pairs)
+        {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.pairs = pairs;
+        }
+
+        @Override
+        protected Stats compute()
+        {
+            if(to - from > grain)
+            {
+                int mid = (from + to) >>> 1;
+                StatsTask right = new StatsTask(data, mid, to, grain, pairs);
+                right.fork();
+                Stats left = new StatsTask(data, from, mid, grain, pairs).compute();
+                left.add(right.join());
+                return left;
+            }
+
+            int d = data.getNumNumericalVars();
+            Stats stats = new Stats(d, pairs);
+            int[] idx = new int[d];
+            double[] val = new double[d];
+            int[] miss = new int[d];
+            for(int i = from; i < to; i++)
+                stats.add(data.getDataPoint(i), idx, val, miss);
+            return stats;
+        }
+    }
+}
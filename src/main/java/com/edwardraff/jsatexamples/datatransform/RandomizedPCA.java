@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.datatransform;
+
+import com.edwardraff.jsatexamples.random.ReproducibleMode;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import jsat.DataSet;
+import jsat.classifiers.DataPoint;
+import jsat.linear.DenseMatrix;
+import jsat.linear.EigenValueDecomposition;
+import jsat.linear.Matrix;
+
+/**
+ * PCA using a randomized SVD (Halko, Martinsson, and Tropp, <i>Finding
+ * Structure with Randomness</i>, 2011). The data is multiplied by a random
+ * d by (k + {@link #setOversampling(int) oversampling}) matrix, which gives a
+ * small set of directions that almost surely cover the top k components. A
+ * few {@link #setPowerIterations(int) power iterations} sharpen them, and
+ * then the exact PCA of the data restricted to those directions is found
+ * with an eigen decomposition that is only (k + oversampling) in size.<br>
+ * <br>
+ * Unlike {@link jsat.datatransform.PCA}, which needs the whole data set as a
+ * dense matrix and finds the components one at a time, this only ever
+ * multiplies the data by thin dense blocks. Each multiplication is one
+ * parallel pass over the data using only the non-zero values, so the cost is
+ * O(nnz &middot; k) per pass, with 2 + 2 &middot; powerIterations passes in
+ * total plus one for the mean. The data does not need to be zero mean, the
+ * mean is accounted for without changing the data. For data with only a few
+ * dozen features those passes cost more than just doing the exact PCA, so
+ * this is meant for data with hundreds of features or more.
+ *
+ * @author Edward Raff
+ */
+public class RandomizedPCA extends AbstractPCA
+{
+    private static final long serialVersionUID = 2409862473116813367L;
+
+    private int maxPCs;
+    private int oversampling = 10;
+    private int powerIterations = 2;
+    private Random rand;
+
+    /**
+     * Creates a new randomized PCA
+     *
+     * @param maxPCs the number of principal components to find
+     */
+    public RandomizedPCA(int maxPCs)
+    {
+        this(maxPCs, ReproducibleMode.getRandom());
+    }
+
+    /**
+     * Creates a new randomized PCA
+     *
+     * @param maxPCs the number of principal components to find
+     * @param rand the source of randomness
+     */
+    public RandomizedPCA(int maxPCs, Random rand)
+    {
+        setMaxPCs(maxPCs);
+        this.rand = rand;
+    }
+
+    /**
+     * Creates a new randomized PCA fit to the given data
+     *
+     * @param data the data to fit to
+     * @param maxPCs the number of principal components to find
+     */
+    public RandomizedPCA(DataSet data, int maxPCs)
+    {
+        this(maxPCs);
+        fit(data);
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param toCopy the object to copy
+     */
+    public RandomizedPCA(RandomizedPCA toCopy)
+    {
+        super(toCopy);
+        this.maxPCs = toCopy.maxPCs;
+        this.oversampling = toCopy.oversampling;
+        this.powerIterations = toCopy.powerIterations;
+        this.rand = ReproducibleMode.getRandom();
+    }
+
+    /**
+     * @param maxPCs the number of principal components to find
+     */
+    public void setMaxPCs(int maxPCs)
+    {
+        if(maxPCs < 1)
+            throw new IllegalArgumentException("Number of principal components must be positive, not " + maxPCs);
+        this.maxPCs = maxPCs;
+    }
+
+    /**
+     * @return the number of principal components to find
+     */
+    public int getMaxPCs()
+    {
+        return maxPCs;
+    }
+
+    /**
+     * Sets how many extra random directions are used beyond the number of
+     * components wanted. A handful is usually enough to make the top
+     * components very accurate.
+     *
+     * @param oversampling the number of extra directions
+     */
+    public void setOversampling(int oversampling)
+    {
+        if(oversampling < 0)
+            throw new IllegalArgumentException("Oversampling can not be negative, not " + oversampling);
+        this.oversampling = oversampling;
+    }
+
+    /**
+     * @return the number of extra directions
+     */
+    public int getOversampling()
+    {
+        return oversampling;
+    }
+
+    /**
+     * Sets the number of power iterations. Each one costs two more passes
+     * over the data, and makes the components more accurate when the
+     * variances of the components decay slowly, as they do for most sparse
+     * data.
+     *
+     * @param powerIterations the number of power iterations
+     */
+    public void setPowerIterations(int powerIterations)
+    {
+        if(powerIterations < 0)
+            throw new IllegalArgumentException("Power iterations can not be negative, not " + powerIterations);
+        this.powerIterations = powerIterations;
+    }
+
+    /**
+     * @return the number of power iterations
+     */
+    public int getPowerIterations()
+    {
+        return powerIterations;
+    }
+
+    @Override
+    public void fit(DataSet data)
+    {
+        fit(data, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the principal components of the data
+     *
+     * @param data the data to fit to
+     * @param pool the pool to do the matrix products in
+     */
+    public void fit(DataSet data, ForkJoinPool pool)
+    {
+        int n = data.getSampleSize();
+        int d = data.getNumNumericalVars();
+        IntFunction<DataPoint> rows = data::getDataPoint;
+        double[] mean = new double[d];
+        totalVariance = meanAndVariance(rows, n, d, mean, pool);
+
+        int l = Math.min(maxPCs + oversampling, Math.min(n, d));
+        //Y = X Omega is an n by l block whose columns span the top of the
+        //data's range. Power iterations replace X with (X X^T)^q X
+        double[] Y = times(rows, n, mean, gaussian(d, l, rand), l, pool);
+        orthonormalize(Y, n, l);
+        for(int q = 0; q < powerIterations; q++)
+        {
+            double[] Z = transposeTimes(rows, n, mean, Y, l, pool);
+            orthonormalize(Z, d, l);
+            Y = times(rows, n, mean, Z, l, pool);
+            orthonormalize(Y, n, l);
+        }
+        //Z = X^T Y is B^T for B = Y^T X, the data in the basis of Y. The
+        //right singular vectors of B are the components we want, and are
+        //found from the small l by l matrix B B^T = Z^T Z
+        double[] Z = transposeTimes(rows, n, mean, Y, l, pool);
+        Matrix G = new DenseMatrix(l, l);
+        for(int a = 0; a < l; a++)
+            for(int b = a; b < l; b++)
+            {
+                double dot = 0;
+                for(int j = 0; j < d; j++)
+                    dot += Z[j * l + a] * Z[j * l + b];
+                G.set(a, b, dot);
+                G.set(b, a, dot);
+            }
+        EigenValueDecomposition evd = new EigenValueDecomposition(G);
+        evd.sortByEigenValue(Comparator.reverseOrder());
+        Matrix U = evd.getV();
+        double[] lambda = evd.getRealEigenvalues();
+
+        int k = Math.min(maxPCs, l);
+        double[] W = new double[d * k];
+        explainedVariance = new double[k];
+        for(int r = 0; r < k; r++)
+        {
+            double sigma = Math.sqrt(Math.max(lambda[r], 0));
+            explainedVariance[r] = sigma * sigma / n;
+            if(sigma == 0)
+                continue;
+            for(int j = 0; j < d; j++)
+            {
+                double v = 0;
+                for(int c = 0; c < l; c++)
+                    v += Z[j * l + c] * U.get(c, r);
+                W[j * k + r] = v / sigma;
+            }
+        }
+        setComponents(W, k, mean);
+    }
+
+    @Override
+    public RandomizedPCA clone()
+    {
+        return new RandomizedPCA(this);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.datatransform;
+
+import com.edwardraff.jsatexamples.io.DataPointBatch;
+import com.edwardraff.jsatexamples.io.DataPointBatchSource;
+import com.edwardraff.jsatexamples.io.DataSetBatchSource;
+import com.edwardraff.jsatexamples.random.ReproducibleMode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import jsat.DataSet;
+import jsat.linear.IndexValue;
+import jsat.linear.Vec;
+
+/**
+ * PCA that reads the data once, a batch at a time, using the subspace version
+ * of Oja's rule. For every batch the current components W are moved towards
+ * the batch's covariance times W, and then made orthonormal again:<br>
+ * W &larr; orth(W + &eta;<sub>t</sub> C<sub>batch</sub> W)<br>
+ * Only the components, the mean, and one batch are kept in memory, so this
+ * works on data that is {@link DataPointBatchSource streamed from disk}, and
+ * can keep being {@link #update(DataPointBatch) updated} as new data arrives.
+ * <br><br>
+ * The step size is {@link #setLearningRate(double) the learning rate} divided
+ * by the current estimate of the largest component's variance, so the same
+ * learning rate works no matter the scale of the data, and it decays with
+ * the square root of the number of batches seen. The mean is a running mean,
+ * and like in {@link RandomizedPCA} it is never subtracted from the data, so
+ * sparse points stay sparse. The products with each batch are done in
+ * parallel.<br>
+ * <br>
+ * One pass is less accurate than {@link RandomizedPCA}, which gets to look at
+ * the data several times, especially for the smaller components.
+ * {@link #setPasses(int) More passes} help when the data fits in memory or
+ * can be read again.
+ *
+ * @author Edward Raff
+ */
+public class StreamingPCA extends AbstractPCA
+{
+    private static final long serialVersionUID = 6097347915716305118L;
+
+    private int maxPCs;
+    private int batchSize = 1000;
+    private int passes = 1;
+    private double learningRate = 2.0;
+    private Random rand;
+
+    /**
+     * The current components, before they are given to the base class
+     */
+    private double[] W;
+    private double[] mean;
+    private long seen;
+    private long batches;
+    /**
+     * Sum of the squared norms of all the points seen, for the total variance
+     */
+    private double sumOfSquares;
+
+    /**
+     * Creates a new streaming PCA
+     *
+     * @param maxPCs the number of principal components to find
+     */
+    public StreamingPCA(int maxPCs)
+    {
+        this(maxPCs, ReproducibleMode.getRandom());
+    }
+
+    /**
+     * Creates a new streaming PCA
+     *
+     * @param maxPCs the number of principal components to find
+     * @param rand the source of randomness
+     */
+    public StreamingPCA(int maxPCs, Random rand)
+    {
+        if(maxPCs < 1)
+            throw new IllegalArgumentException("Number of principal components must be positive, not " + maxPCs);
+        this.maxPCs = maxPCs;
+        this.rand = rand;
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param toCopy the object to copy
+     */
+    public StreamingPCA(StreamingPCA toCopy)
+    {
+        super(toCopy);
+        this.maxPCs = toCopy.maxPCs;
+        this.batchSize = toCopy.batchSize;
+        this.passes = toCopy.passes;
+        this.learningRate = toCopy.learningRate;
+        this.rand = ReproducibleMode.getRandom();
+        if(toCopy.W != null)
+        {
+            this.W = toCopy.W.clone();
+            this.mean = toCopy.mean.clone();
+        }
+        this.seen = toCopy.seen;
+        this.batches = toCopy.batches;
+        this.sumOfSquares = toCopy.sumOfSquares;
+    }
+
+    /**
+     * @return the number of principal components to find
+     */
+    public int getMaxPCs()
+    {
+        return maxPCs;
+    }
+
+    /**
+     * @param batchSize the number of data points used for each update of the
+     * components when reading from a source
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive, not " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of data points used for each update
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @param passes the number of times to read through the data when fitting
+     */
+    public void setPasses(int passes)
+    {
+        if(passes < 1)
+            throw new IllegalArgumentException("Number of passes must be positive, not " + passes);
+        this.passes = passes;
+    }
+
+    /**
+     * @return the number of times to read through the data when fitting
+     */
+    public int getPasses()
+    {
+        return passes;
+    }
+
+    /**
+     * Sets the learning rate. It is relative to the largest variance, so the
+     * default of 2 works for most data. Larger values learn faster but are
+     * noisier.
+     *
+     * @param learningRate the learning rate
+     */
+    public void setLearningRate(double learningRate)
+    {
+        if(!(learningRate > 0) || Double.isInfinite(learningRate))
+            throw new IllegalArgumentException("Learning rate must be positive, not " + learningRate);
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * @return the learning rate
+     */
+    public double getLearningRate()
+    {
+        return learningRate;
+    }
+
+    /**
+     * @return the number of data points the components have been updated with
+     */
+    public long getPointsSeen()
+    {
+        return seen;
+    }
+
+    @Override
+    public void fit(DataSet data)
+    {
+        try
+        {
+            fit(new DataSetBatchSource(data, rand));
+        }
+        catch(IOException ex)//can't happen, the data is in memory
+        {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Finds the principal components of the data, forgetting anything seen
+     * before
+     *
+     * @param source the data, read from the beginning
+     * @throws IOException if an error occurs reading the data
+     */
+    public void fit(DataPointBatchSource source) throws IOException
+    {
+        W = mean = null;
+        explainedVariance = null;
+        seen = batches = 0;
+        sumOfSquares = 0;
+        DataPointBatch batch = new DataPointBatch(batchSize);
+        for(int pass = 0; pass < passes; pass++)
+        {
+            source.reset();
+            while(source.nextBatch(batch))
+                update(batch);
+        }
+    }
+
+    /**
+     * Updates the components with one more batch of data, on the common pool
+     *
+     * @param batch the new data
+     */
+    public void update(DataPointBatch batch)
+    {
+        update(batch, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Updates the components with one more batch of data
+     *
+     * @param batch the new data
+     * @param pool the pool to do the matrix products in
+     */
+    public void update(DataPointBatch batch, ForkJoinPool pool)
+    {
+        int b = batch.size();
+        if(b == 0)
+            return;
+        int d = batch.getDataPoint(0).getNumericalValues().length();
+        if(W == null)
+        {
+            //a random start is almost surely not orthogonal to any component
+            int k = Math.min(maxPCs, d);
+            W = gaussian(d, k, rand);
+            orthonormalize(W, d, k);
+            mean = new double[d];
+        }
+        else if(mean.length != d)
+            throw new IllegalArgumentException("PCA was fit to " + mean.length + " features, but the data has " + d);
+        int k = W.length / d;
+
+        //the running mean, including this batch
+        double[] batchSum = new double[d];
+        for(int i = 0; i < b; i++)
+        {
+            Vec x = batch.getDataPoint(i).getNumericalValues();
+            for(IndexValue iv : x)
+            {
+                batchSum[iv.getIndex()] += iv.getValue();
+                sumOfSquares += iv.getValue() * iv.getValue();
+            }
+        }
+        seen += b;
+        batches++;
+        double meanNormSqrd = 0;
+        for(int j = 0; j < d; j++)
+        {
+            mean[j] += (batchSum[j] - b * mean[j]) / seen;
+            meanNormSqrd += mean[j] * mean[j];
+        }
+        totalVariance = sumOfSquares / seen - meanNormSqrd;
+
+        //H = X_c W is the batch projected on the current components, and
+        //S = X_c^T H / b is the batch covariance times W
+        double[] H = times(batch::getDataPoint, b, mean, W, k, pool);
+        double[] S = transposeTimes(batch::getDataPoint, b, mean, H, k, pool);
+        double[] batchVariance = new double[k];
+        for(int i = 0; i < b; i++)
+            for(int r = 0; r < k; r++)
+                batchVariance[r] += H[i * k + r] * H[i * k + r] / b;
+
+        //the variance estimates follow the recent batches, since the older
+        //ones were measured along worse components
+        if(explainedVariance == null || explainedVariance.length != k)
+            explainedVariance = batchVariance;
+        else
+        {
+            double alpha = Math.max(b / (double) seen, 0.05);
+            for(int r = 0; r < k; r++)
+                explainedVariance[r] += alpha * (batchVariance[r] - explainedVariance[r]);
+        }
+
+        double largest = 0;
+        for(double v : explainedVariance)
+            largest = Math.max(largest, v);
+        if(largest > 0)
+        {
+            double eta = learningRate / Math.sqrt(batches) / largest / b;
+            for(int i = 0; i < W.length; i++)
+                W[i] += eta * S[i];
+            orthonormalize(W, d, k);
+        }
+
+        //the subspace rule does not keep the components in order, so sort
+        //them by their variance before handing them out
+        Integer[] order = new Integer[k];
+        for(int r = 0; r < k; r++)
+            order[r] = r;
+        double[] variance = explainedVariance;
+        Arrays.sort(order, (r1, r2) -> Double.compare(variance[r2], variance[r1]));
+        double[] sorted = new double[d * k];
+        explainedVariance = new double[k];
+        for(int r = 0; r < k; r++)
+        {
+            explainedVariance[r] = variance[order[r]];
+            for(int j = 0; j < d; j++)
+                sorted[j * k + r] = W[j * k + order[r]];
+        }
+        W = sorted.clone();
+        setComponents(sorted, k, mean);
+    }
+
+    @Override
+    public StreamingPCA clone()
+    {
+        return new StreamingPCA(this);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import java.io.IOException;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.DataPoint;
+import jsat.classifiers.UpdateableClassifier;
+
+/**
+ * Methods for training and evaluating models directly from a
+ * {@link DataPointBatchSource}, without ever holding the whole data set in
+ * memory.
+ *
+ * @author Edward Raff
+ */
+public class BatchSources
+{
+    private BatchSources()
+    {
+    }
+
+    /**
+     * Trains an online model with one pass over the source, starting from the
+     * beginning of the data. {@link UpdateableClassifier#setUp(jsat.classifiers.CategoricalData[], int, jsat.classifiers.CategoricalData) }
+     * is called first, so any previous training is lost.<br>
+     * The batch's data points are reused, so this should only be used with
+     * models that do not keep references to the points they are updated
+     * with.
+     *
+     * @param model the model to train
+     * @param source the data to train on
+     * @param batchSize the number of points to read at a time
+     * @return the number of data points the model was updated with
+     * @throws IOException if an error occurs reading the data
+     */
+    public static long trainC(UpdateableClassifier model, DataPointBatchSource source, int batchSize) throws IOException
+    {
+        source.reset();
+        model.setUp(source.getCategories(), source.getNumNumericalVars(), source.getPredicting());
+        DataPointBatch batch = new DataPointBatch(batchSize);
+        long count = 0;
+        while(source.nextBatch(batch))
+        {
+            for(int i = 0; i < batch.size(); i++)
+                model.update(batch.getDataPoint(i), batch.getLabel(i));
+            count += batch.size();
+        }
+        return count;
+    }
+
+    /**
+     * Copies the first points of a source into a data set, starting from the
+     * beginning of the data, and then resets the source. A sample from the
+     * start of the data is enough to fit most transforms, such as
+     * {@link jsat.datatransform.ZeroMeanTransform} or
+     * {@link jsat.datatransform.PCA}, which can then be applied to the whole
+     * source with a {@link PipelinedBatchSource}. The start of a file is not
+     * always a good sample of the rest of it, so this works best on data that
+     * was shuffled before it was written.
+     *
+     * @param source the data to read
+     * @param n the most points to read
+     * @return a data set of the first {@code n} points, or all of them if the
+     * source has fewer
+     * @throws IOException if an error occurs reading the data
+     */
+    public static ClassificationDataSet head(DataPointBatchSource source, int n) throws IOException
+    {
+        source.reset();
+        ClassificationDataSet data = new ClassificationDataSet(source.getNumNumericalVars(), source.getCategories(), source.getPredicting());
+        DataPointBatch batch = new DataPointBatch(Math.max(1, Math.min(n, 1024)));
+        while(data.getSampleSize() < n && source.nextBatch(batch))
+            for(int i = 0; i < batch.size() && data.getSampleSize() < n; i++)
+                data.addDataPoint(batch.getDataPoint(i).clone(), batch.getLabel(i));
+        source.reset();
+        return data;
+    }
+
+    /**
+     * Classifies every point in the source and builds a confusion matrix of
+     * the results, starting from the beginning of the data. Row <i>i</i> is
+     * all the points with true label <i>i</i>, and column <i>j</i> is the
+     * predicted label, matching
+     * {@link jsat.classifiers.ClassificationModelEvaluation#getConfusionMatrix() }.
+     *
+     * @param model the trained model to evaluate
+     * @param source the data to evaluate on
+     * @param batchSize the number of points to read at a time
+     * @return the confusion matrix, weighted by each point's weight
+     * @throws IOException if an error occurs reading the data
+     */
+    public static double[][] confusionMatrix(Classifier model, DataPointBatchSource source, int batchSize) throws IOException
+    {
+        source.reset();
+        int C = source.getPredicting().getNumOfCategories();
+        double[][] confusion = new double[C][C];
+        DataPointBatch batch = new DataPointBatch(batchSize);
+        while(source.nextBatch(batch))
+            for(int i = 0; i < batch.size(); i++)
+            {
+                DataPoint dp = batch.getDataPoint(i);
+                confusion[batch.getLabel(i)][model.classify(dp).mostLikely()] += dp.getWeight();
+            }
+        return confusion;
+    }
+
+    /**
+     * @param confusion a confusion matrix
+     * @return the weighted error rate, in [0, 1]
+     */
+    public static double errorRate(double[][] confusion)
+    {
+        double correct = 0, total = 0;
+        for(int i = 0; i < confusion.length; i++)
+            for(int j = 0; j < confusion[i].length; j++)
+            {
+                total += confusion[i][j];
+                if(i == j)
+                    correct += confusion[i][j];
+            }
+        return total == 0 ? 0 : 1.0 - correct/total;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Number parsing directly from the bytes of a {@link ByteBuffer}. The readers
+ * in this package use these instead of creating a String for every field and
+ * calling {@link Double#parseDouble(java.lang.String) }, which is where most
+ * of the garbage comes from when reading large text files.<br>
+ * <br>
+ * Only absolute gets are used, so the position of the buffer is never
+ * changed and the same buffer can be read from many threads at once.
+ *
+ * @author Edward Raff
+ */
+public final class ByteParsing
+{
+    /**
+     * Powers of ten that can be represented exactly by a double
+     */
+    private static final double[] POW10 = new double[23];
+    
+    static
+    {
+        POW10[0] = 1;
+        for(int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i-1]*10;
+    }
+    
+    private ByteParsing()
+    {
+    }
+    
+    /**
+     * Checks if a byte is ASCII white space (not including new lines, which
+     * the readers handle themselves).
+     * @param b the byte to check
+     * @return {@code true} if it is a space, tab, or carriage return
+     */
+    public static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+    
+    /**
+     * Parses a double from the bytes in the range [start, end). Leading and
+     * trailing white space is ignored. An empty range, "?", or "NaN" are
+     * treated as a missing value and return {@link Double#NaN}, which is how
+     * JSAT represents missing numeric values.<br>
+     * Values with at most 18 significant digits and a small exponent (the
+     * vast majority of what gets written to text files) are converted
+     * without any allocation, and the result is exactly what
+     * {@link Double#parseDouble(java.lang.String) } would return. Anything
+     * else falls back to {@link Double#parseDouble(java.lang.String) }.
+     *
+     * @param buf the buffer to read from
+     * @param start the first index to read, inclusive
+     * @param end the last index to read, exclusive
+     * @return the parsed value
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    public static double parseDouble(ByteBuffer buf, int start, int end)
+    {
+        while(start < end && isSpace(buf.get(start)))
+            start++;
+        while(end > start && isSpace(buf.get(end-1)))
+            end--;
+        if(start == end)
+            return Double.NaN;
+        
+        int i = start;
+        boolean negative = false;
+        byte b = buf.get(i);
+        if(b == '-' || b == '+')
+        {
+            negative = b == '-';
+            i++;
+        }
+        
+        long mantissa = 0;
+        int digits = 0;//significant digits placed in the mantissa
+        int exp10 = 0;
+        boolean sawDigit = false;
+        boolean exact = true;
+        
+        for(; i < end; i++)
+        {
+            b = buf.get(i);
+            if(b < '0' || b > '9')
+                break;
+            sawDigit = true;
+            if(digits < 18)
+            {
+                mantissa = mantissa*10 + (b - '0');
+                if(mantissa != 0)
+                    digits++;
+            }
+            else
+            {
+                exp10++;
+                exact = false;
+            }
+        }
+        if(i < end && buf.get(i) == '.')
+        {
+            for(i++; i < end; i++)
+            {
+                b = buf.get(i);
+                if(b < '0' || b > '9')
+                    break;
+                sawDigit = true;
+                if(digits < 18)
+                {
+                    mantissa = mantissa*10 + (b - '0');
+                    if(mantissa != 0)
+                        digits++;
+                    exp10--;
+                }
+                else
+                    exact = false;
+            }
+        }
+        if(!sawDigit)
+            return parseSpecial(buf, start, end);
+        if(i < end && (buf.get(i) == 'e' || buf.get(i) == 'E'))
+        {
+            i++;
+            boolean negExp = false;
+            if(i < end && (buf.get(i) == '-' || buf.get(i) == '+'))
+                negExp = buf.get(i++) == '-';
+            int e = 0;
+            int expStart = i;
+            for(; i < end; i++)
+            {
+                b = buf.get(i);
+                if(b < '0' || b > '9')
+                    break;
+                if(e < 100000)
+                    e = e*10 + (b - '0');
+            }
+            if(expStart == i)
+                throw new NumberFormatException("Invalid number: " + asString(buf, start, end));
+            exp10 += negExp ? -e : e;
+        }
+        if(i != end)
+            throw new NumberFormatException("Invalid number: " + asString(buf, start, end));
+        
+        /*
+         * When the mantissa fits in the 53 bits of a double and the power of
+         * ten is exact, a single multiply or divide gives the correctly
+         * rounded result.
+         */
+        if(exact && mantissa < (1L << 53) && exp10 >= -22 && exp10 <= 22)
+        {
+            double val = mantissa;
+            if(exp10 < 0)
+                val /= POW10[-exp10];
+            else
+                val *= POW10[exp10];
+            return negative ? -val : val;
+        }
+        
+        return Double.parseDouble(asString(buf, start, end));
+    }
+    
+    private static double parseSpecial(ByteBuffer buf, int start, int end)
+    {
+        String s = asString(buf, start, end);
+        if(s.equals("?") || s.equalsIgnoreCase("nan"))
+            return Double.NaN;
+        return Double.parseDouble(s);//handles Infinity, or throws the exception
+    }
+    
+    /**
+     * Parses a base 10 integer from the bytes in the range [start, end),
+     * ignoring leading and trailing white space.
+     *
+     * @param buf the buffer to read from
+     * @param start the first index to read, inclusive
+     * @param end the last index to read, exclusive
+     * @return the parsed value
+     * @throws NumberFormatException if the bytes are not an integer
+     */
+    public static int parseInt(ByteBuffer buf, int start, int end)
+    {
+        while(start < end && isSpace(buf.get(start)))
+            start++;
+        while(end > start && isSpace(buf.get(end-1)))
+            end--;
+        if(start == end)
+            throw new NumberFormatException("Empty integer");
+        int i = start;
+        boolean negative = false;
+        if(buf.get(i) == '-' || buf.get(i) == '+')
+            negative = buf.get(i++) == '-';
+        if(i == end)
+            throw new NumberFormatException("Invalid integer: " + asString(buf, start, end));
+        long val = 0;
+        for(; i < end; i++)
+        {
+            byte b = buf.get(i);
+            if(b < '0' || b > '9')
+                throw new NumberFormatException("Invalid integer: " + asString(buf, start, end));
+            val = val*10 + (b - '0');
+            if(val > Integer.MAX_VALUE + 1L)
+                throw new NumberFormatException("Integer out of range: " + asString(buf, start, end));
+        }
+        val = negative ? -val : val;
+        if(val > Integer.MAX_VALUE)
+            throw new NumberFormatException("Integer out of range: " + asString(buf, start, end));
+        return (int) val;
+    }
+    
+    /**
+     * Creates a String from the bytes in the range [start, end), decoded as
+     * UTF-8. This allocates, so it should only be used for things that are
+     * rare, like error messages and the names of new class labels.
+     *
+     * @param buf the buffer to read from
+     * @param start the first index to read, inclusive
+     * @param end the last index to read, exclusive
+     * @return the string
+     */
+    public static String asString(ByteBuffer buf, int start, int end)
+    {
+        byte[] bytes = new byte[end-start];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = buf.get(start+i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
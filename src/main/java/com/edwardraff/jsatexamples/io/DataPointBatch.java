@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import jsat.classifiers.DataPoint;
+
+/**
+ * A fixed size group of labeled data points read from a
+ * {@link DataPointBatchSource}. A batch is meant to be reused: sources fill it
+ * in place, and will reuse the {@link DataPoint} objects (and their vectors)
+ * already in it when they can. That keeps memory use constant no matter how
+ * much data is read, but it means a data point is only valid until the next
+ * call to {@link DataPointBatchSource#nextBatch(DataPointBatch) }. Clone any
+ * data point you need to keep.
+ *
+ * @author Edward Raff
+ */
+public class DataPointBatch
+{
+    private final DataPoint[] points;
+    private final int[] labels;
+    private int size;
+
+    /**
+     * Creates a new empty batch
+     * @param capacity the maximum number of data points in the batch
+     */
+    public DataPointBatch(int capacity)
+    {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("Batch capacity must be positive, not " + capacity);
+        points = new DataPoint[capacity];
+        labels = new int[capacity];
+    }
+
+    /**
+     * @return the maximum number of data points in this batch
+     */
+    public int capacity()
+    {
+        return points.length;
+    }
+
+    /**
+     * @return the number of data points currently in this batch
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return {@code true} if no more points can be added to the batch
+     */
+    public boolean isFull()
+    {
+        return size == points.length;
+    }
+
+    /**
+     * Empties the batch. The data point objects are kept so they can be
+     * reused.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * @param i the index of the data point, in [0, {@link #size() })
+     * @return the i'th data point in the batch
+     */
+    public DataPoint getDataPoint(int i)
+    {
+        if(i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " is not in a batch of size " + size);
+        return points[i];
+    }
+
+    /**
+     * @param i the index of the data point, in [0, {@link #size() })
+     * @return the class label of the i'th data point in the batch
+     */
+    public int getLabel(int i)
+    {
+        if(i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " is not in a batch of size " + size);
+        return labels[i];
+    }
+
+    /**
+     * Returns the data point object that was stored in the next free slot the
+     * last time the batch was filled, so that a source can reuse it. Will be
+     * {@code null} the first time a slot is used.
+     *
+     * @return the recyclable data point for the next slot, or {@code null}
+     */
+    public DataPoint peekReusable()
+    {
+        return points[size];
+    }
+
+    /**
+     * Adds a data point to the end of the batch.
+     *
+     * @param dp the data point
+     * @param label the class label of the data point
+     */
+    public void add(DataPoint dp, int label)
+    {
+        if(isFull())
+            throw new IllegalStateException("Batch is full");
+        points[size] = dp;
+        labels[size] = label;
+        size++;
+    }
+}
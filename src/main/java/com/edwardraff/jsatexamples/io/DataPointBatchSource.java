@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import jsat.classifiers.CategoricalData;
+
+/**
+ * A source of labeled data that is read in batches, rather than loaded into a
+ * {@link jsat.classifiers.ClassificationDataSet} all at once. Sources are
+ * used when the data is too big to fit in memory, and can be read through
+ * more than once by calling {@link #reset() }.
+ *
+ * @author Edward Raff
+ */
+public interface DataPointBatchSource extends Closeable
+{
+    /**
+     * @return the number of numeric features in each data point
+     */
+    public int getNumNumericalVars();
+
+    /**
+     * @return the information about the categorical features of each data
+     * point. Will be an empty array if there are none.
+     */
+    public CategoricalData[] getCategories();
+
+    /**
+     * @return the information about the class label being predicted
+     */
+    public CategoricalData getPredicting();
+
+    /**
+     * Fills the given batch with the next data points from this source. The
+     * batch is cleared first, and may contain less than its capacity if the
+     * end of the data is reached.
+     *
+     * @param batch the batch to fill
+     * @return {@code true} if any data points were read, {@code false} if
+     * there was no more data
+     * @throws IOException if an error occurs reading the data
+     */
+    public boolean nextBatch(DataPointBatch batch) throws IOException;
+
+    /**
+     * Moves this source back to the start of the data
+     *
+     * @throws IOException if an error occurs
+     */
+    public void reset() throws IOException;
+}
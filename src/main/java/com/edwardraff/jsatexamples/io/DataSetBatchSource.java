@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import java.util.Random;
+import jsat.DataSet;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.utils.IntList;
+import jsat.utils.ListUtils;
+
+/**
+ * A {@link DataPointBatchSource} over a data set that is already in memory.
+ * This lets code written for sources, which work on data bigger than memory,
+ * be used with a normal data set too. The data points are not copied.
+ *
+ * @author Edward Raff
+ */
+public class DataSetBatchSource implements DataPointBatchSource
+{
+    private final DataSet<?> data;
+    private final CategoricalData predicting;
+    private final Random rand;
+    private final IntList order;
+    private int pos = 0;
+
+    /**
+     * Creates a source that gives the data points in order. If the data set
+     * is a {@link ClassificationDataSet} its labels are used, otherwise every
+     * label is 0.
+     *
+     * @param data the data set to read
+     */
+    public DataSetBatchSource(DataSet<?> data)
+    {
+        this(data, null);
+    }
+
+    /**
+     * Creates a source that gives the data points in a new random order
+     * every time it is {@link #reset() reset}. If the data set is a
+     * {@link ClassificationDataSet} its labels are used, otherwise every
+     * label is 0.
+     *
+     * @param data the data set to read
+     * @param rand the source of randomness to shuffle with, or {@code null}
+     * to keep the original order
+     */
+    public DataSetBatchSource(DataSet<?> data, Random rand)
+    {
+        this.data = data;
+        this.rand = rand;
+        if(data instanceof ClassificationDataSet)
+            this.predicting = ((ClassificationDataSet) data).getPredicting();
+        else
+            this.predicting = new CategoricalData(1);
+        this.order = new IntList(data.getSampleSize());
+        ListUtils.addRange(order, 0, data.getSampleSize(), 1);
+        if(rand != null)
+            shuffle();
+    }
+
+    private void shuffle()
+    {
+        for(int i = order.size() - 1; i > 0; i--)
+        {
+            int j = rand.nextInt(i + 1);
+            int tmp = order.getI(i);
+            order.set(i, order.getI(j));
+            order.set(j, tmp);
+        }
+    }
+
+    /**
+     * @return the index in the data set of the data point at each position of
+     * the current order
+     */
+    public IntList getOrder()
+    {
+        return order;
+    }
+
+    @Override
+    public int getNumNumericalVars()
+    {
+        return data.getNumNumericalVars();
+    }
+
+    @Override
+    public CategoricalData[] getCategories()
+    {
+        return data.getCategories();
+    }
+
+    @Override
+    public CategoricalData getPredicting()
+    {
+        return predicting;
+    }
+
+    @Override
+    public boolean nextBatch(DataPointBatch batch)
+    {
+        batch.clear();
+        while(!batch.isFull() && pos < order.size())
+        {
+            int i = order.getI(pos++);
+            int label = data instanceof ClassificationDataSet ? ((ClassificationDataSet) data).getDataPointCategory(i) : 0;
+            batch.add(data.getDataPoint(i), label);
+        }
+        return batch.size() > 0;
+    }
+
+    @Override
+    public void reset()
+    {
+        pos = 0;
+        if(rand != null)
+            shuffle();
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
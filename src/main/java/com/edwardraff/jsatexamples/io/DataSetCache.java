@@ -0,0 +1,586 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import com.edwardraff.jsatexamples.linear.BufferVec;
+import com.edwardraff.jsatexamples.linear.CSRRowVec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import jsat.ARFFLoader;
+import jsat.DataSet;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.DataPoint;
+import jsat.datatransform.DataTransform;
+import jsat.io.LIBSVMLoader;
+import jsat.linear.IndexValue;
+import jsat.linear.Vec;
+
+/**
+ * An on-disk cache of data sets that have already been loaded and
+ * transformed. The first time a file is loaded, it is parsed, the
+ * transforms are fit and applied, and the result is written to a binary file
+ * in the cache directory. Every load after that memory maps the binary file
+ * instead, which skips both the parsing and the fitting of the
+ * transforms.<br>
+ * <br>
+ * Cache entries are keyed by the source file's path, size and last modified
+ * time, the name of the loader, and the names of the transforms in the
+ * chain. If the file changes, or a different chain is used, a new entry is
+ * made. The names are all the cache knows about the transforms, so give a
+ * step a new name if you change its parameters. A SHA-256 hash of the source
+ * file is stored with each entry, and {@link #setVerifyContents(boolean) }
+ * will check it on every load. That catches a file changed without its size
+ * or time changing, but reads the whole file each time.<br>
+ * <br>
+ * Dense data is stored as one double per value, and the vectors of a cached
+ * data set are not copied onto the heap: each data point's vector is a
+ * {@link BufferVec} view of the mapped file. The file is only opened for
+ * reading, so the cache directory can be read only. A vector that is changed
+ * (for example with
+ * {@link DataSet#applyTransform(jsat.datatransform.DataTransform) }) first
+ * copies its values onto the heap, and never changes the cache file. Sparse data, like most LIBSVM files, only stores
+ * the index and value of each non-zero, and is read back into
+ * {@link CSRRowVec} rows.
+ *
+ * @author Edward Raff
+ */
+public class DataSetCache
+{
+    private static final int MAGIC = 0x4A534331;//"JSC1"
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".jsatc";
+    /**
+     * Largest number of bytes mapped at once, since a single mapping is
+     * limited to 2GB
+     */
+    private static final int MAX_MAP = 1 << 30;
+
+    /**
+     * Loads a data set from a file that has not been cached yet.
+     */
+    public interface Loader
+    {
+        public ClassificationDataSet load(File file) throws IOException;
+    }
+
+    /**
+     * An ordered list of transforms to fit and apply to a data set after it
+     * is loaded. Each step gets a name, which becomes part of the cache key,
+     * and a function that fits the transform to the data set, such as
+     * {@code Imputer::new}. After a call to
+     * {@link #loadC(java.io.File, java.lang.String, com.edwardraff.jsatexamples.io.DataSetCache.Loader, com.edwardraff.jsatexamples.io.DataSetCache.TransformChain) },
+     * {@link #getFitted() } has the fitted transforms, so they can be
+     * applied to other data too (like a test set).
+     */
+    public static class TransformChain
+    {
+        private final List<String> names = new ArrayList<>();
+        private final List<Function<DataSet, DataTransform>> fitters = new ArrayList<>();
+        private List<DataTransform> fitted = Collections.emptyList();
+
+        /**
+         * Adds a step to the end of the chain
+         *
+         * @param name a name for this step, which should change if the step
+         * is changed
+         * @param fitter a function that returns a transform fit to the given
+         * data set
+         * @return this chain
+         */
+        public TransformChain then(String name, Function<DataSet, DataTransform> fitter)
+        {
+            names.add(name);
+            fitters.add(fitter);
+            return this;
+        }
+
+        /**
+         * @return the transforms fit during the last load using this chain,
+         * in the order they were applied
+         */
+        public List<DataTransform> getFitted()
+        {
+            return fitted;
+        }
+    }
+
+    private final Path directory;
+    private boolean verifyContents = false;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Creates a cache that stores its files in the given directory
+     *
+     * @param directory the directory to store cached data sets in, it will be
+     * created if it does not exist
+     * @throws IOException if the directory can not be created
+     */
+    public DataSetCache(File directory) throws IOException
+    {
+        this.directory = directory.toPath();
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * @return a loader for ARFF files that uses the given categorical feature
+     * as the class label
+     * @param classIndex the categorical feature to predict
+     */
+    public static Loader arffC(int classIndex)
+    {
+        return file -> ARFFLoader.loadArffFile(file).asClassificationDataSet(classIndex);
+    }
+
+    /**
+     * @return a loader for LIBSVM classification files
+     */
+    public static Loader libsvmC()
+    {
+        return LIBSVMLoader::loadC;
+    }
+
+    /**
+     * Sets whether a cache entry is only used if the hash of the source file
+     * still matches the one stored with it. This is off by default, and only
+     * the size and last modified time of the file are checked.
+     *
+     * @param verifyContents {@code true} to hash the source file on every
+     * load
+     */
+    public void setVerifyContents(boolean verifyContents)
+    {
+        this.verifyContents = verifyContents;
+    }
+
+    /**
+     * @return {@code true} if the source file is hashed on every load
+     */
+    public boolean isVerifyContents()
+    {
+        return verifyContents;
+    }
+
+    /**
+     * @return the number of loads that were read from the cache
+     */
+    public int getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return the number of loads that had to parse the source file
+     */
+    public int getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Loads a classification data set, using the cached copy if there is
+     * one.
+     *
+     * @param source the file to load
+     * @param loaderName a name for the loader, which is part of the cache key
+     * @param loader the loader to use if the file is not in the cache
+     * @param chain the transforms to apply to the data set
+     * @return the loaded and transformed data set
+     * @throws IOException if the file can not be read, or the cache can not
+     * be written
+     */
+    public ClassificationDataSet loadC(File source, String loaderName, Loader loader, TransformChain chain) throws IOException
+    {
+        Path cached = directory.resolve(key(source.toPath(), loaderName, chain.names) + SUFFIX);
+        String contentHash = verifyContents ? contentHash(source.toPath()) : null;
+        if(Files.exists(cached))
+        {
+            try
+            {
+                ClassificationDataSet data = read(cached, chain, contentHash);
+                hits++;
+                return data;
+            }
+            catch(InvalidCacheException ex)
+            {
+                //written by a different version, so it will never be readable
+                Files.deleteIfExists(cached);
+            }
+            catch(IOException | ClassNotFoundException | RuntimeException ex)
+            {
+                //out of date or can't be read right now, fall through and
+                //rebuild it. The entry is only replaced once the new one is
+                //complete
+            }
+        }
+        misses++;
+
+        ClassificationDataSet data = loader.load(source);
+        List<DataTransform> fitted = new ArrayList<>();
+        for(Function<DataSet, DataTransform> fitter : chain.fitters)
+        {
+            DataTransform transform = fitter.apply(data);
+            data.applyTransform(transform);
+            fitted.add(transform);
+        }
+        chain.fitted = fitted;
+
+        //write to a temp file and move it, so a crash never leaves half a cache entry behind
+        Path tmp = Files.createTempFile(directory, "partial", SUFFIX);
+        try
+        {
+            write(data, fitted, contentHash == null ? contentHash(source.toPath()) : contentHash, tmp);
+            Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmp);
+        }
+        return data;
+    }
+
+    private static String key(Path source, String loaderName, List<String> steps) throws IOException
+    {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        MessageDigest digest = sha256();
+        digest.update(source.toRealPath().toString().getBytes(StandardCharsets.UTF_8));
+        digest.update(("\0" + attributes.size() + "\0" + attributes.lastModifiedTime().toMillis()).getBytes(StandardCharsets.UTF_8));
+        digest.update(("\0" + loaderName).getBytes(StandardCharsets.UTF_8));
+        for(String step : steps)
+            digest.update(("\0" + step).getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    /**
+     * @return the SHA-256 hash of everything in the file
+     */
+    private static String contentHash(Path source) throws IOException
+    {
+        MessageDigest digest = sha256();
+        try(FileChannel channel = FileChannel.open(source, StandardOpenOption.READ))
+        {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            while(channel.read(buf) > 0)
+            {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder();
+        for(byte b : bytes)
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException ex)
+        {
+            throw new RuntimeException(ex);//every JVM is required to support SHA-256
+        }
+    }
+
+    /*
+     * File layout, all little endian:
+     * int magic, int version, int n, int d, int c, int metaLength, long nnz
+     * meta: serialized {CategoricalData[], CategoricalData, String[], ArrayList<DataTransform>, String source hash}
+     * padding to a multiple of 8 bytes
+     * dense (nnz is -1): double[n*d] numeric values, one row after another
+     * sparse: double[nnz] non-zero values, one row after another
+     * double[n] weights
+     * int[n] class labels
+     * int[c][n] categorical values, one column after another
+     * sparse only: int[n] non-zeros in each row, then int[nnz] their indices
+     */
+    private static final int HEADER_BYTES = 6 * 4 + 8;
+
+    private static void write(ClassificationDataSet data, List<DataTransform> fitted, String contentHash, Path path) throws IOException
+    {
+        int n = data.getSampleSize();
+        int d = data.getNumNumericalVars();
+        int c = data.getNumCategoricalVars();
+
+        //store sparse when an index and value per non-zero is smaller than every value
+        long nnz = 0;
+        for(int i = 0; i < n; i++)
+            nnz += nonZeros(data.getDataPoint(i).getNumericalValues());
+        boolean sparse = 12 * nnz + 4L * n < 8L * n * d;
+
+        String[] numericNames = new String[d];
+        for(int j = 0; j < d; j++)
+            numericNames[j] = data.getNumericName(j);
+        ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream oos = new ObjectOutputStream(metaBytes))
+        {
+            oos.writeObject(data.getCategories());
+            oos.writeObject(data.getPredicting());
+            oos.writeObject(numericNames);
+            oos.writeObject(new ArrayList<>(fitted));
+            oos.writeObject(contentHash);
+        }
+        byte[] meta = metaBytes.toByteArray();
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(d).putInt(c).putInt(meta.length).putLong(sparse ? nnz : -1);
+            for(byte b : meta)
+                put(channel, buf, 1).put(b);
+            for(int pad = (8 - (HEADER_BYTES + meta.length) % 8) % 8; pad > 0; pad--)
+                put(channel, buf, 1).put((byte) 0);
+
+            for(int i = 0; i < n; i++)
+            {
+                Vec x = data.getDataPoint(i).getNumericalValues();
+                if(sparse)
+                {
+                    for(IndexValue iv : x)
+                        if(iv.getValue() != 0)
+                            put(channel, buf, 8).putDouble(iv.getValue());
+                }
+                else
+                    for(int j = 0; j < d; j++)
+                        put(channel, buf, 8).putDouble(x.get(j));
+            }
+            for(int i = 0; i < n; i++)
+                put(channel, buf, 8).putDouble(data.getDataPoint(i).getWeight());
+            for(int i = 0; i < n; i++)
+                put(channel, buf, 4).putInt(data.getDataPointCategory(i));
+            for(int j = 0; j < c; j++)
+                for(int i = 0; i < n; i++)
+                    put(channel, buf, 4).putInt(data.getDataPoint(i).getCategoricalValue(j));
+            if(sparse)
+            {
+                for(int i = 0; i < n; i++)
+                    put(channel, buf, 4).putInt(nonZeros(data.getDataPoint(i).getNumericalValues()));
+                for(int i = 0; i < n; i++)
+                    for(IndexValue iv : data.getDataPoint(i).getNumericalValues())
+                        if(iv.getValue() != 0)
+                            put(channel, buf, 4).putInt(iv.getIndex());
+            }
+            buf.flip();
+            while(buf.hasRemaining())
+                channel.write(buf);
+        }
+    }
+
+    private static int nonZeros(Vec x)
+    {
+        int count = 0;
+        for(IndexValue iv : x)
+            if(iv.getValue() != 0)
+                count++;
+        return count;
+    }
+
+    /**
+     * Makes sure there is room for {@code bytes} more in the buffer, writing
+     * it out to the channel if needed
+     */
+    private static ByteBuffer put(FileChannel channel, ByteBuffer buf, int bytes) throws IOException
+    {
+        if(buf.remaining() < bytes)
+        {
+            buf.flip();
+            while(buf.hasRemaining())
+                channel.write(buf);
+            buf.clear();
+        }
+        return buf;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ClassificationDataSet read(Path path, TransformChain chain, String contentHash) throws IOException, ClassNotFoundException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining() && channel.read(header) > 0);
+            header.flip();
+            if(header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new InvalidCacheException("Not a cache file of version " + VERSION + ": " + path);
+            int n = header.getInt();
+            int d = header.getInt();
+            int c = header.getInt();
+            int metaLength = header.getInt();
+            long nnz = header.getLong();
+            boolean sparse = nnz >= 0;
+
+            ByteBuffer metaBuf = ByteBuffer.allocate(metaLength);
+            while(metaBuf.hasRemaining() && channel.read(metaBuf, HEADER_BYTES + metaBuf.position()) > 0);
+            CategoricalData[] categories;
+            CategoricalData predicting;
+            String[] numericNames;
+            List<DataTransform> fitted;
+            try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(metaBuf.array())))
+            {
+                categories = (CategoricalData[]) ois.readObject();
+                predicting = (CategoricalData) ois.readObject();
+                numericNames = (String[]) ois.readObject();
+                fitted = (List<DataTransform>) ois.readObject();
+                if(contentHash != null && !contentHash.equals(ois.readObject()))
+                    throw new IOException("Source file has changed since " + path + " was written");
+            }
+
+            long pos = HEADER_BYTES + metaLength;
+            pos += (8 - pos % 8) % 8;
+            long numericStart = pos;
+            long weightStart = numericStart + 8L * (sparse ? nnz : (long) n * d);
+            long labelStart = weightStart + 8L * n;
+            long catStart = labelStart + 4L * n;
+            long rowNnzStart = catStart + 4L * n * c;
+            long indexStart = rowNnzStart + 4L * n;
+            if(channel.size() != (sparse ? indexStart + 4L * nnz : rowNnzStart))
+                throw new IOException("Cache file is truncated: " + path);
+
+            double[] weights = new double[n];
+            readDoubles(channel, weightStart, weights);
+            int[] labels = new int[n];
+            readInts(channel, labelStart, labels);
+            int[][] catVals = new int[n][c];
+            int[] column = new int[n];
+            for(int j = 0; j < c; j++)
+            {
+                readInts(channel, catStart + 4L * n * j, column);
+                for(int i = 0; i < n; i++)
+                    catVals[i][j] = column[i];
+            }
+
+            ClassificationDataSet data = new ClassificationDataSet(d, categories, predicting);
+            if(sparse)
+            {
+                //CSRRowVec needs arrays, so the rows are copied out of the mapping in blocks of whole rows
+                int[] rowNnz = new int[n];
+                readInts(channel, rowNnzStart, rowNnz);
+                long offset = 0;
+                for(int blockStart = 0; blockStart < n; )
+                {
+                    int blockEnd = blockStart;
+                    long blockNnz = 0;
+                    while(blockEnd < n && (blockEnd == blockStart || blockNnz + rowNnz[blockEnd] <= MAX_MAP / 8))
+                        blockNnz += rowNnz[blockEnd++];
+                    int[] indices = new int[(int) blockNnz];
+                    double[] values = new double[(int) blockNnz];
+                    readInts(channel, indexStart + 4 * offset, indices);
+                    readDoubles(channel, numericStart + 8 * offset, values);
+                    int rowPos = 0;
+                    for(int i = blockStart; i < blockEnd; i++)
+                    {
+                        Vec x = new CSRRowVec(indices, values, rowPos, rowNnz[i], d);
+                        data.addDataPoint(new DataPoint(x, catVals[i], categories, weights[i]), labels[i]);
+                        rowPos += rowNnz[i];
+                    }
+                    offset += blockNnz;
+                    blockStart = blockEnd;
+                }
+            }
+            else
+            {
+                //each mapped segment holds a whole number of rows, so no vector crosses a segment
+                int rowsPerSegment = d == 0 ? Math.max(n, 1) : Math.max(1, MAX_MAP / (8 * d));
+                for(int segStart = 0; segStart < n; segStart += rowsPerSegment)
+                {
+                    int rows = Math.min(rowsPerSegment, n - segStart);
+                    DoubleBuffer seg = mapDoubles(channel, numericStart + 8L * segStart * d, (long) rows * d);
+                    for(int r = 0; r < rows; r++)
+                    {
+                        int i = segStart + r;
+                        Vec x = new BufferVec(seg, r * d, d);
+                        data.addDataPoint(new DataPoint(x, catVals[i], categories, weights[i]), labels[i]);
+                    }
+                }
+            }
+            for(int j = 0; j < d; j++)
+                if(numericNames[j] != null)//LIBSVM files have no names
+                    data.setNumericName(numericNames[j], j);
+            chain.fitted = fitted;
+            return data;
+        }
+    }
+
+    private static DoubleBuffer mapDoubles(FileChannel channel, long position, long count) throws IOException
+    {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, 8 * count).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    private static void readDoubles(FileChannel channel, long position, double[] out) throws IOException
+    {
+        for(int i = 0; i < out.length; )
+        {
+            int count = Math.min(out.length - i, MAX_MAP / 8);
+            mapDoubles(channel, position + 8L * i, count).get(out, i, count);
+            i += count;
+        }
+    }
+
+    private static void readInts(FileChannel channel, long position, int[] out) throws IOException
+    {
+        for(int i = 0; i < out.length; )
+        {
+            int count = Math.min(out.length - i, MAX_MAP / 4);
+            IntBuffer seg = channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * i, 4L * count).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            seg.get(out, i, count);
+            i += count;
+        }
+    }
+
+    /**
+     * Thrown when a file is not a cache entry of this version at all, as
+     * opposed to an entry that is out of date or could not be read
+     */
+    private static class InvalidCacheException extends IOException
+    {
+        private static final long serialVersionUID = 2816459350371284710L;
+
+        InvalidCacheException(String message)
+        {
+            super(message);
+        }
+    }
+}
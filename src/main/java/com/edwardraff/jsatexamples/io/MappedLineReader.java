@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a text file one line at a time through a sliding memory mapped window.
+ * No objects are created per line: after {@link #nextLine() } returns
+ * {@code true}, the bytes of the line are in {@link #buffer() } between
+ * {@link #lineStart() } and {@link #lineEnd() }. Only one window of the file
+ * is mapped at a time, so files of any size can be read, and the mapping
+ * lives outside of the Java heap.<br>
+ * <br>
+ * Both "\n" and "\r\n" line endings are supported, the line range never
+ * includes either.
+ *
+ * @author Edward Raff
+ */
+public class MappedLineReader implements Closeable
+{
+    /**
+     * The default amount of the file to map at once, 64 MB.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 26;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long startOffset;
+    private final long endOffset;
+    private int windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int pos;
+    private int lineStart;
+    private int lineEnd;
+    private long lineNumber;
+
+    /**
+     * Creates a reader over the whole file
+     * @param path the file to read
+     * @throws IOException if the file can not be opened
+     */
+    public MappedLineReader(Path path) throws IOException
+    {
+        this(path, 0, -1, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a reader over a byte range of a file. The range should start at
+     * the beginning of a line. Lines that begin before {@code endOffset} are
+     * read completely, even if they end after it. That way splitting a file
+     * into ranges at arbitrary offsets still reads every line exactly once,
+     * as long as each range's start is moved up to the start of a line.
+     *
+     * @param path the file to read
+     * @param startOffset the first byte to read
+     * @param endOffset the offset at which no new lines are started, or a
+     * negative value to read to the end of the file
+     * @param windowSize how many bytes to map at once
+     * @throws IOException if the file can not be opened
+     */
+    public MappedLineReader(Path path, long startOffset, long endOffset, int windowSize) throws IOException
+    {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.startOffset = startOffset;
+        this.endOffset = endOffset < 0 ? fileSize : Math.min(endOffset, fileSize);
+        this.windowSize = windowSize;
+        reset();
+    }
+
+    /**
+     * Finds the start of the first line that begins at or after the given
+     * offset. This is used to split a file into ranges for
+     * {@link #MappedLineReader(java.nio.file.Path, long, long, int) }.
+     *
+     * @param channel the file to search
+     * @param offset the offset to start searching from
+     * @return the offset of the start of a line, or the size of the file if
+     * there are no more lines
+     * @throws IOException if an error occurs reading the file
+     */
+    public static long nextLineStart(FileChannel channel, long offset) throws IOException
+    {
+        long size = channel.size();
+        if(offset <= 0)
+            return 0;
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = offset - 1;//the byte before could be the end of a line
+        while(pos < size)
+        {
+            buf.clear();
+            int read = channel.read(buf, pos);
+            if(read <= 0)
+                break;
+            for(int i = 0; i < read; i++)
+                if(buf.get(i) == '\n')
+                    return pos + i + 1;
+            pos += read;
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long fileSize()
+    {
+        return fileSize;
+    }
+
+    /**
+     * Moves back to the start of the range being read
+     * @throws IOException if an error occurs
+     */
+    public final void reset() throws IOException
+    {
+        map(startOffset);
+        lineNumber = 0;
+        lineStart = lineEnd = 0;
+    }
+
+    private void map(long start) throws IOException
+    {
+        long len = Math.min(windowSize, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(len, 0));
+        windowStart = start;
+        pos = 0;
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return {@code true} if a line was read, {@code false} if the end of
+     * the range was reached
+     * @throws IOException if an error occurs reading the file
+     */
+    public boolean nextLine() throws IOException
+    {
+        while(true)
+        {
+            if(windowStart + pos >= endOffset)
+                return false;
+            int limit = window.limit();
+            int i = pos;
+            while(i < limit && window.get(i) != '\n')
+                i++;
+            if(i < limit || windowStart + limit >= fileSize)
+            {
+                lineStart = pos;
+                lineEnd = i;
+                pos = Math.min(i + 1, limit);
+                if(lineEnd > lineStart && window.get(lineEnd - 1) == '\r')
+                    lineEnd--;
+                lineNumber++;
+                return true;
+            }
+            //the line continues past the mapped window
+            if(pos == 0)//and its longer than the whole window, so grow it
+            {
+                if(windowSize >= Integer.MAX_VALUE / 2)
+                    throw new IOException("Line " + (lineNumber + 1) + " is too long to map");
+                windowSize *= 2;
+            }
+            map(windowStart + pos);
+        }
+    }
+
+    /**
+     * @return the buffer holding the current line
+     */
+    public MappedByteBuffer buffer()
+    {
+        return window;
+    }
+
+    /**
+     * @return the index in {@link #buffer() } of the first byte of the
+     * current line
+     */
+    public int lineStart()
+    {
+        return lineStart;
+    }
+
+    /**
+     * @return the index in {@link #buffer() } just after the last byte of the
+     * current line
+     */
+    public int lineEnd()
+    {
+        return lineEnd;
+    }
+
+    /**
+     * @return the number of lines read since the start of the range, so the
+     * first line is line 1
+     */
+    public long lineNumber()
+    {
+        return lineNumber;
+    }
+
+    /**
+     * @return the offset in the file just after the current line
+     */
+    public long filePosition()
+    {
+        return windowStart + pos;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
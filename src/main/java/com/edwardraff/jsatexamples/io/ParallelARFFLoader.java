@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import jsat.SimpleDataSet;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.DataPoint;
+import jsat.linear.DenseVector;
+
+/**
+ * Loads ARFF files using multiple threads. The header is read once, then the
+ * data section is split into byte ranges that start on line boundaries, and
+ * each range is parsed as its own task in a {@link ForkJoinPool}. The parsed
+ * ranges are put back together in file order, so the result has the same
+ * rows, in the same order, as {@link jsat.ARFFLoader#loadArffFile(java.io.File) }.
+ * <br><br>
+ * Like JSAT's loader, names and nominal values are case insensitive and are
+ * stored in lower case, "?" marks a missing value, and only numeric
+ * (real/numeric/integer) and nominal attributes are supported. The sparse
+ * ARFF format is not supported.<br>
+ * <br>
+ * The time, rows and bytes of every load are recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}, and each
+ * load is reported as a {@code load} event.
+ *
+ * @author Edward Raff
+ */
+public class ParallelARFFLoader
+{
+    /**
+     * Data sections smaller than this are not split up any further, since the
+     * overhead of another task would be more than the time saved.
+     */
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+
+    private ParallelARFFLoader()
+    {
+    }
+
+    /**
+     * Loads an ARFF file using the common fork-join pool
+     *
+     * @param file the ARFF file to load
+     * @return the data set
+     * @throws IOException if an error occurs reading the file, or it is not
+     * a valid ARFF file
+     */
+    public static SimpleDataSet loadArffFile(File file) throws IOException
+    {
+        return loadArffFile(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads an ARFF file
+     *
+     * @param file the ARFF file to load
+     * @param pool the pool to parse the data section with
+     * @return the data set
+     * @throws IOException if an error occurs reading the file, or it is not
+     * a valid ARFF file
+     */
+    public static SimpleDataSet loadArffFile(File file, ForkJoinPool pool) throws IOException
+    {
+        long start = System.nanoTime();
+        Path path = file.toPath();
+        Header header = new Header();
+        long dataStart;
+        try(MappedLineReader lines = new MappedLineReader(path))
+        {
+            dataStart = header.read(lines);
+        }
+
+        long fileSize;
+        long[] bounds;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            fileSize = channel.size();
+            long dataBytes = fileSize - dataStart;
+            int chunks = (int) Math.max(1, Math.min(pool.getParallelism() * 4L, dataBytes / MIN_CHUNK_BYTES));
+            bounds = new long[chunks + 1];
+            bounds[0] = dataStart;
+            for(int i = 1; i < chunks; i++)
+                bounds[i] = Math.max(bounds[i - 1], MappedLineReader.nextLineStart(channel, dataStart + dataBytes * i / chunks));
+            bounds[chunks] = fileSize;
+        }
+
+        List<List<DataPoint>> parsed = new ArrayList<>(Collections.nCopies(bounds.length - 1, (List<DataPoint>) null));
+        ChunkTask task = new ChunkTask(path, header, bounds, parsed, 0, parsed.size());
+        pool.invoke(task);
+        if(task.failure != null)
+            throw task.failure;
+
+        int total = 0;
+        for(List<DataPoint> chunk : parsed)
+            total += chunk.size();
+        List<DataPoint> all = new ArrayList<>(total);
+        for(List<DataPoint> chunk : parsed)
+            all.addAll(chunk);
+
+        SimpleDataSet dataSet;
+        if(all.isEmpty())
+            dataSet = new SimpleDataSet(header.categories, header.numNumeric);
+        else
+            dataSet = new SimpleDataSet(all);
+        for(int i = 0; i < header.numNumeric; i++)
+            dataSet.setNumericName(header.numericNames.get(i), i);
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String loader = "ParallelARFFLoader";
+        long elapsed = metrics.timer("jsat_load_seconds", "Time to load a data set", "loader", loader).since(start);
+        metrics.counter("jsat_load_rows_total", "Rows loaded", "loader", loader).add(all.size());
+        metrics.counter("jsat_load_bytes_total", "Bytes of files loaded", "loader", loader).add(fileSize);
+        if(metrics.hasListeners())
+            metrics.event("load", "loader", loader, "file", file.getPath(), "rows", all.size(), "bytes", fileSize,
+                    "seconds", elapsed / 1e9, "rows_per_second", all.size() / (elapsed / 1e9));
+        return dataSet;
+    }
+
+    /**
+     * Splits the chunks in half until there is only one, which is then
+     * parsed. The first exception seen is kept so it can be rethrown as an
+     * IOException on the calling thread.
+     */
+    private static class ChunkTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = -7722419730953254601L;
+        private final Path path;
+        private final Header header;
+        private final long[] bounds;
+        private final List<List<DataPoint>> parsed;
+        private final int from, to;
+        volatile IOException failure;
+
+        public ChunkTask(Path path, Header header, long[] bounds, List<List<DataPoint>> parsed, int from, int to)
+        {
+            this.path = path;
+            this.header = header;
+            this.bounds = bounds;
+            this.parsed = parsed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(to - from > 1)
+            {
+                int mid = (from + to) >>> 1;
+                ChunkTask left = new ChunkTask(path, header, bounds, parsed, from, mid);
+                ChunkTask right = new ChunkTask(path, header, bounds, parsed, mid, to);
+                invokeAll(left, right);
+                failure = left.failure != null ? left.failure : right.failure;
+                return;
+            }
+            try
+            {
+                parsed.set(from, parseChunk(path, header, bounds[from], bounds[from + 1]));
+            }
+            catch(IOException ex)
+            {
+                failure = ex;
+            }
+            catch(RuntimeException ex)
+            {
+                failure = new IOException(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private static List<DataPoint> parseChunk(Path path, Header header, long start, long end) throws IOException
+    {
+        List<DataPoint> points = new ArrayList<>();
+        if(start >= end)
+            return points;
+        int A = header.isNominal.length;
+        int[] fieldStart = new int[A];
+        int[] fieldEnd = new int[A];
+        try(MappedLineReader lines = new MappedLineReader(path, start, end, MappedLineReader.DEFAULT_WINDOW_SIZE))
+        {
+            while(lines.nextLine())
+            {
+                ByteBuffer buf = lines.buffer();
+                int s = lines.lineStart(), e = lines.lineEnd();
+                while(s < e && ByteParsing.isSpace(buf.get(s)))
+                    s++;
+                if(s == e || buf.get(s) == '%')
+                    continue;
+                if(buf.get(s) == '{')
+                    throw new IOException("Sparse ARFF data is not supported, found at byte " + start + " line " + lines.lineNumber());
+
+                int fields = splitFields(buf, s, e, fieldStart, fieldEnd);
+                if(fields != A)
+                    throw new IOException("Expected " + A + " values but found " + fields + " in: " + ByteParsing.asString(buf, s, e));
+
+                DenseVector vec = new DenseVector(header.numNumeric);
+                int[] cats = new int[header.categories.length];
+                int n = 0, c = 0;
+                for(int a = 0; a < A; a++)
+                    if(header.isNominal[a])
+                    {
+                        int val = header.lookup(c, buf, fieldStart[a], fieldEnd[a]);
+                        if(val == -2)
+                            throw new IOException("Unknown value " + ByteParsing.asString(buf, fieldStart[a], fieldEnd[a]) + " for attribute " + header.categories[c].getCategoryName());
+                        cats[c++] = val;
+                    }
+                    else
+                        vec.set(n++, ByteParsing.parseDouble(buf, fieldStart[a], fieldEnd[a]));
+                points.add(new DataPoint(vec, cats, header.categories));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Finds the comma separated fields in a line. Quoted values may contain
+     * commas. The quotes and surrounding white space are not included in the
+     * field ranges.
+     *
+     * @return the number of fields found
+     */
+    private static int splitFields(ByteBuffer buf, int s, int e, int[] fieldStart, int[] fieldEnd)
+    {
+        int count = 0;
+        int i = s;
+        while(i <= e)
+        {
+            while(i < e && ByteParsing.isSpace(buf.get(i)))
+                i++;
+            int fs, fe;
+            if(i < e && (buf.get(i) == '\'' || buf.get(i) == '"'))
+            {
+                byte quote = buf.get(i);
+                fs = ++i;
+                while(i < e && buf.get(i) != quote)
+                    i++;
+                fe = i;
+                while(i < e && buf.get(i) != ',')
+                    i++;
+            }
+            else
+            {
+                fs = i;
+                while(i < e && buf.get(i) != ',')
+                    i++;
+                fe = i;
+                while(fe > fs && ByteParsing.isSpace(buf.get(fe - 1)))
+                    fe--;
+            }
+            if(count < fieldStart.length)
+            {
+                fieldStart[count] = fs;
+                fieldEnd[count] = fe;
+            }
+            count++;
+            i++;//skip the comma
+        }
+        return count;
+    }
+
+    /**
+     * The attribute information from the ARFF header
+     */
+    private static class Header
+    {
+        boolean[] isNominal;
+        int numNumeric;
+        List<String> numericNames = new ArrayList<>();
+        CategoricalData[] categories;
+        /**
+         * The lower case bytes of each option of each nominal attribute
+         */
+        byte[][][] options;
+
+        /**
+         * Reads the header, leaving the reader just after the @data line
+         *
+         * @return the offset of the first byte after the @data line
+         */
+        long read(MappedLineReader lines) throws IOException
+        {
+            List<Boolean> nominal = new ArrayList<>();
+            List<CategoricalData> cats = new ArrayList<>();
+            while(lines.nextLine())
+            {
+                String line = ByteParsing.asString(lines.buffer(), lines.lineStart(), lines.lineEnd()).trim();
+                if(line.isEmpty() || line.startsWith("%"))
+                    continue;
+                String lower = line.toLowerCase(Locale.ENGLISH);
+                if(lower.startsWith("@relation"))
+                    continue;
+                if(lower.startsWith("@data"))
+                {
+                    isNominal = new boolean[nominal.size()];
+                    for(int i = 0; i < isNominal.length; i++)
+                        isNominal[i] = nominal.get(i);
+                    categories = cats.toArray(new CategoricalData[cats.size()]);
+                    options = new byte[categories.length][][];
+                    for(int c = 0; c < categories.length; c++)
+                    {
+                        options[c] = new byte[categories[c].getNumOfCategories()][];
+                        for(int o = 0; o < options[c].length; o++)
+                            options[c][o] = categories[c].getOptionName(o).getBytes(StandardCharsets.UTF_8);
+                    }
+                    return lines.filePosition();
+                }
+                if(!lower.startsWith("@attribute"))
+                    throw new IOException("Unexpected line in ARFF header: " + line);
+
+                String rest = lower.substring("@attribute".length()).trim();
+                String name;
+                if(rest.startsWith("'") || rest.startsWith("\""))
+                {
+                    int close = rest.indexOf(rest.charAt(0), 1);
+                    if(close < 0)
+                        throw new IOException("Unterminated attribute name: " + line);
+                    name = rest.substring(1, close);
+                    rest = rest.substring(close + 1).trim();
+                }
+                else
+                {
+                    String[] parts = rest.split("\\s+", 2);
+                    name = parts[0];
+                    rest = parts.length > 1 ? parts[1].trim() : "";
+                }
+
+                if(rest.startsWith("{"))
+                {
+                    int close = rest.lastIndexOf('}');
+                    if(close < 0)
+                        throw new IOException("Unterminated nominal attribute: " + line);
+                    //the values are split the same way as a data line, so
+                    //quoted values may contain commas
+                    byte[] inner = rest.substring(1, close).getBytes(StandardCharsets.UTF_8);
+                    ByteBuffer buf = ByteBuffer.wrap(inner);
+                    int[] valueStart = new int[inner.length + 1];
+                    int[] valueEnd = new int[inner.length + 1];
+                    int values = splitFields(buf, 0, inner.length, valueStart, valueEnd);
+                    CategoricalData cat = new CategoricalData(values);
+                    cat.setCategoryName(name);
+                    for(int i = 0; i < values; i++)
+                        cat.setOptionName(ByteParsing.asString(buf, valueStart[i], valueEnd[i]), i);
+                    cats.add(cat);
+                    nominal.add(Boolean.TRUE);
+                }
+                else if(rest.startsWith("real") || rest.startsWith("numeric") || rest.startsWith("integer"))
+                {
+                    numericNames.add(name);
+                    numNumeric++;
+                    nominal.add(Boolean.FALSE);
+                }
+                else
+                    throw new IOException("Unsupported attribute type: " + line);
+            }
+            throw new IOException("No @data section found");
+        }
+
+        /**
+         * Finds the index of a nominal value, ignoring case.
+         *
+         * @return the index, -1 for a missing value, or -2 if the value is
+         * not one of the options
+         */
+        int lookup(int c, ByteBuffer buf, int s, int e)
+        {
+            if(e - s == 1 && buf.get(s) == '?')
+                return -1;
+            byte[][] opts = options[c];
+            for(int o = 0; o < opts.length; o++)
+            {
+                byte[] opt = opts[o];
+                if(opt.length != e - s)
+                    continue;
+                boolean match = true;
+                for(int i = 0; i < opt.length && match; i++)
+                {
+                    byte b = buf.get(s + i);
+                    if(b >= 'A' && b <= 'Z')
+                        b += 'a' - 'A';
+                    match = b == opt[i];
+                }
+                if(match)
+                    return o;
+            }
+            return -2;
+        }
+    }
+}
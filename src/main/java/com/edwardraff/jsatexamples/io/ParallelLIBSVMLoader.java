@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import com.edwardraff.jsatexamples.classifiers.PackedClassificationDataSet;
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import jsat.classifiers.CategoricalData;
+import jsat.utils.StringUtils;
+
+/**
+ * Loads LIBSVM files using multiple threads, straight into the compressed
+ * sparse row (CSR) storage of a {@link PackedClassificationDataSet}. The file
+ * is split into byte ranges that start on line boundaries, like
+ * {@link ParallelARFFLoader}, and each range is read through a memory mapped
+ * window and parsed into its own CSR block as a task in a
+ * {@link ForkJoinPool}. The blocks become the storage of the data set as
+ * they are, so no objects are created per row.<br>
+ * <br>
+ * The result has the same rows, labels, values, and number of features as
+ * {@link jsat.io.LIBSVMLoader#loadC(java.io.File) }. The labels are sorted and
+ * numbered from 0, values of zero are not stored, a feature given twice in a
+ * line keeps its last non-zero value, and the values are parsed with the same
+ * method JSAT uses, so they match to the last bit. The only difference is
+ * that rows are always stored sparsely, where JSAT makes rows that are more
+ * than half non-zero dense.<br>
+ * <br>
+ * Training and testing files should be loaded together with
+ * {@link #loadC(java.util.List, int, java.util.concurrent.ForkJoinPool) }.
+ * They then share the same number of features, even if the largest feature
+ * index only shows up in one of them, and the same numbering of the labels,
+ * even if some label only shows up in one of them.<br>
+ * <br>
+ * The time, rows and bytes of every load are recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}, and each
+ * load is reported as a {@code load} event.
+ *
+ * @author Edward Raff
+ */
+public class ParallelLIBSVMLoader
+{
+    /**
+     * Files smaller than this are not split up any further, since the
+     * overhead of another task would be more than the time saved.
+     */
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    /**
+     * Most bytes in one range. Every stored value takes at least 4 bytes
+     * ("1:1 "), so a range never has more than 8 million values.
+     */
+    private static final long MAX_CHUNK_BYTES = 1 << 25;
+
+    private ParallelLIBSVMLoader()
+    {
+    }
+
+    /**
+     * Loads a LIBSVM file using the common fork-join pool
+     *
+     * @param file the LIBSVM file to load
+     * @return the data set
+     * @throws IOException if an error occurs reading the file, or it is not
+     * a valid LIBSVM file
+     */
+    public static PackedClassificationDataSet loadC(File file) throws IOException
+    {
+        return loadC(file, -1, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads a LIBSVM file
+     *
+     * @param file the LIBSVM file to load
+     * @param vectorLength the number of features, or a non-positive value to
+     * use the largest feature index in the file
+     * @param pool the pool to parse the file with
+     * @return the data set
+     * @throws IOException if an error occurs reading the file, it is not a
+     * valid LIBSVM file, or it has a feature index larger than
+     * {@code vectorLength}
+     */
+    public static PackedClassificationDataSet loadC(File file, int vectorLength, ForkJoinPool pool) throws IOException
+    {
+        return loadC(Collections.singletonList(file), vectorLength, pool).get(0);
+    }
+
+    /**
+     * Loads several LIBSVM files, such as a training and a testing set, that
+     * share the same features and labels. All the files are parsed in
+     * parallel with each other.
+     *
+     * @param files the LIBSVM files to load
+     * @param vectorLength the number of features, or a non-positive value to
+     * use the largest feature index in any of the files
+     * @param pool the pool to parse the files with
+     * @return a data set for each file, in the same order
+     * @throws IOException if an error occurs reading the files, one is not a
+     * valid LIBSVM file, or has a feature index larger than
+     * {@code vectorLength}
+     */
+    public static List<PackedClassificationDataSet> loadC(List<File> files, int vectorLength, ForkJoinPool pool) throws IOException
+    {
+        long startTime = System.nanoTime();
+        long[] fileBytes = new long[files.size()];
+        List<Path> paths = new ArrayList<>();
+        List<Integer> fileOf = new ArrayList<>();
+        List<long[]> ranges = new ArrayList<>();
+        for(int f = 0; f < files.size(); f++)
+        {
+            Path path = files.get(f).toPath();
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+            {
+                long size = channel.size();
+                fileBytes[f] = size;
+                long chunks = Math.max((size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES,
+                        Math.min(pool.getParallelism() * 4L, size / MIN_CHUNK_BYTES));
+                chunks = Math.max(chunks, 1);
+                long start = 0;
+                for(long i = 1; i <= chunks; i++)
+                {
+                    long end = i == chunks ? size : Math.max(start, MappedLineReader.nextLineStart(channel, size * i / chunks));
+                    paths.add(path);
+                    fileOf.add(f);
+                    ranges.add(new long[]{start, end});
+                    start = end;
+                }
+            }
+        }
+
+        Chunk[] parsed = new Chunk[ranges.size()];
+        ChunkTask task = new ChunkTask(paths, ranges, parsed, 0, parsed.length);
+        pool.invoke(task);
+        if(task.failure != null)
+            throw task.failure;
+
+        //the labels and number of features are shared by all the files
+        TreeMap<Double, Integer> labelIds = new TreeMap<>();
+        int maxIndex = 0;//JSAT's loader never makes a vector with no features
+        for(Chunk chunk : parsed)
+        {
+            for(int l = 0; l < chunk.labelValues.size(); l++)
+                labelIds.put(chunk.labelValues.get(l), 0);
+            maxIndex = Math.max(maxIndex, chunk.maxIndex);
+        }
+        int dim = maxIndex + 1;
+        if(vectorLength > 0)
+        {
+            if(dim > vectorLength)
+                throw new IOException("Length given was " + vectorLength + ", but observed length was " + dim);
+            dim = vectorLength;
+        }
+        int id = 0;
+        for(Map.Entry<Double, Integer> entry : labelIds.entrySet())
+            entry.setValue(id++);
+        CategoricalData predicting = new CategoricalData(labelIds.size());
+
+        List<PackedClassificationDataSet> dataSets = new ArrayList<>();
+        for(int f = 0; f < files.size(); f++)
+        {
+            int rows = 0, blocks = 0;
+            for(int c = 0; c < parsed.length; c++)
+                if(fileOf.get(c) == f && parsed[c].rows > 0)
+                {
+                    rows += parsed[c].rows;
+                    blocks++;
+                }
+            int[] labels = new int[rows];
+            int[] rowNnz = new int[rows];
+            int[] blockRows = new int[blocks];
+            int[][] indices = new int[blocks][];
+            double[][] values = new double[blocks][];
+            int row = 0, block = 0;
+            for(int c = 0; c < parsed.length; c++)
+            {
+                Chunk chunk = parsed[c];
+                if(fileOf.get(c) != f || chunk.rows == 0)
+                    continue;
+                int[] global = new int[chunk.labelValues.size()];
+                for(int l = 0; l < global.length; l++)
+                    global[l] = labelIds.get(chunk.labelValues.get(l));
+                for(int i = 0; i < chunk.rows; i++)
+                    labels[row + i] = global[chunk.labels[i]];
+                System.arraycopy(chunk.rowNnz, 0, rowNnz, row, chunk.rows);
+                blockRows[block] = chunk.rows;
+                indices[block] = Arrays.copyOf(chunk.indices, chunk.used);
+                values[block] = Arrays.copyOf(chunk.values, chunk.used);
+                parsed[c] = null;//let the unused space go as we go
+                row += blockRows[block++];
+            }
+            dataSets.add(PackedClassificationDataSet.ofCSR(dim, predicting, labels, rowNnz, blockRows, indices, values));
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String loader = "ParallelLIBSVMLoader";
+        long elapsed = metrics.timer("jsat_load_seconds", "Time to load a data set", "loader", loader).since(startTime);
+        long rows = 0, bytes = 0;
+        for(int f = 0; f < files.size(); f++)
+        {
+            rows += dataSets.get(f).getSampleSize();
+            bytes += fileBytes[f];
+        }
+        metrics.counter("jsat_load_rows_total", "Rows loaded", "loader", loader).add(rows);
+        metrics.counter("jsat_load_bytes_total", "Bytes of files loaded", "loader", loader).add(bytes);
+        if(metrics.hasListeners())
+        {
+            StringBuilder names = new StringBuilder();
+            for(int f = 0; f < files.size(); f++)
+                names.append(f > 0 ? "," : "").append(files.get(f).getPath());
+            metrics.event("load", "loader", loader, "file", names.toString(), "rows", rows, "bytes", bytes,
+                    "seconds", elapsed / 1e9, "rows_per_second", rows / (elapsed / 1e9));
+        }
+        return dataSets;
+    }
+
+    /**
+     * Splits the ranges in half until there is only one, which is then
+     * parsed. The first exception seen is kept so it can be rethrown as an
+     * IOException on the calling thread.
+     */
+    private static class ChunkTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = -2991054519913130947L;
+
+        private final List<Path> paths;
+        private final List<long[]> ranges;
+        private final Chunk[] parsed;
+        private final int from, to;
+        volatile IOException failure;
+
+        public ChunkTask(List<Path> paths, List<long[]> ranges, Chunk[] parsed, int from, int to)
+        {
+            this.paths = paths;
+            this.ranges = ranges;
+            this.parsed = parsed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(to - from > 1)
+            {
+                int mid = (from + to) >>> 1;
+                ChunkTask left = new ChunkTask(paths, ranges, parsed, from, mid);
+                ChunkTask right = new ChunkTask(paths, ranges, parsed, mid, to);
+                invokeAll(left, right);
+                failure = left.failure != null ? left.failure : right.failure;
+                return;
+            }
+            try
+            {
+                parsed[from] = parseChunk(paths.get(from), ranges.get(from)[0], ranges.get(from)[1]);
+            }
+            catch(IOException ex)
+            {
+                failure = ex;
+            }
+            catch(RuntimeException ex)
+            {
+                failure = new IOException(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    private static Chunk parseChunk(Path path, long start, long end) throws IOException
+    {
+        Chunk chunk = new Chunk((int) Math.min((end - start) / 16 + 16, Integer.MAX_VALUE - 8));
+        if(start >= end)
+            return chunk;
+        ByteChars chars = new ByteChars();
+        try(MappedLineReader lines = new MappedLineReader(path, start, end, MappedLineReader.DEFAULT_WINDOW_SIZE))
+        {
+            while(lines.nextLine())
+            {
+                ByteBuffer buf = lines.buffer();
+                int s = lines.lineStart(), e = lines.lineEnd();
+                while(s < e && ByteParsing.isSpace(buf.get(s)))
+                    s++;
+                while(e > s && ByteParsing.isSpace(buf.get(e - 1)))
+                    e--;
+                if(s == e)
+                    continue;
+                chars.buf = buf;
+                try
+                {
+                    chunk.parseLine(buf, chars, s, e);
+                }
+                catch(NumberFormatException ex)
+                {
+                    throw new IOException(ex.getMessage() + " at byte " + start + " line " + lines.lineNumber() + ": " + ByteParsing.asString(buf, s, e), ex);
+                }
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * The CSR block parsed from one range of a file
+     */
+    private static class Chunk
+    {
+        int rows = 0;
+        /**
+         * The label of each row, as an index into {@link #labelValues}
+         */
+        int[] labels = new int[16];
+        int[] rowNnz = new int[16];
+        int used = 0;
+        int[] indices;
+        double[] values;
+        int maxIndex = -1;
+        List<Double> labelValues = new ArrayList<>();
+        Map<Double, Integer> labelIds = new HashMap<>();
+        /**
+         * The last label seen, so that runs of the same label don't need a
+         * map lookup
+         */
+        long lastLabelBits = Double.doubleToLongBits(Double.NaN);
+        int lastLabelId = -1;
+
+        Chunk(int capacity)
+        {
+            indices = new int[capacity];
+            values = new double[capacity];
+        }
+
+        void parseLine(ByteBuffer buf, ByteChars chars, int s, int e)
+        {
+            if(rows == labels.length)
+            {
+                labels = Arrays.copyOf(labels, rows * 2);
+                rowNnz = Arrays.copyOf(rowNnz, rows * 2);
+            }
+            int i = s;
+            while(i < e && !ByteParsing.isSpace(buf.get(i)))
+                i++;
+            double label = ByteParsing.parseDouble(buf, s, i);
+            if(Double.isNaN(label))
+                throw new NumberFormatException("Invalid label");
+            labels[rows] = labelId(label);
+
+            int rowFirst = used;
+            int previous = -1;
+            boolean sorted = true;
+            while(i < e)
+            {
+                while(i < e && ByteParsing.isSpace(buf.get(i)))
+                    i++;
+                if(i == e)
+                    break;
+                int colon = i;
+                while(colon < e && buf.get(colon) != ':')
+                    colon++;
+                int tokenEnd = colon + 1;
+                while(tokenEnd < e && isValueChar(buf.get(tokenEnd)))
+                    tokenEnd++;
+                if(colon >= e || tokenEnd == colon + 1 || (tokenEnd < e && !ByteParsing.isSpace(buf.get(tokenEnd))))
+                    throw new NumberFormatException("Expected index:value");
+                int index = ByteParsing.parseInt(buf, i, colon) - 1;
+                if(index < 0)
+                    throw new NumberFormatException("Feature indices start at 1");
+                double value = StringUtils.parseDouble(chars, colon + 1, tokenEnd);
+                //zeros still count towards the number of features
+                maxIndex = Math.max(maxIndex, index);
+                if(value != 0)
+                {
+                    if(used == values.length)
+                    {
+                        int cap = (int) Math.min(values.length * 2L + 16, Integer.MAX_VALUE - 8);
+                        indices = Arrays.copyOf(indices, cap);
+                        values = Arrays.copyOf(values, cap);
+                    }
+                    sorted &= index > previous;
+                    previous = index;
+                    indices[used] = index;
+                    values[used] = value;
+                    used++;
+                }
+                i = tokenEnd;
+            }
+            if(!sorted)
+                used = rowFirst + sortRow(rowFirst, used);
+            rowNnz[rows] = used - rowFirst;
+            rows++;
+        }
+
+        private int labelId(double label)
+        {
+            long bits = Double.doubleToLongBits(label);
+            if(bits != lastLabelBits)
+            {
+                Integer id = labelIds.get(label);
+                if(id == null)
+                {
+                    id = labelValues.size();
+                    labelValues.add(label);
+                    labelIds.put(label, id);
+                }
+                lastLabelBits = bits;
+                lastLabelId = id;
+            }
+            return lastLabelId;
+        }
+
+        /**
+         * Sorts the values of a row by index with a stable insertion sort,
+         * then keeps only the last value given for each index
+         *
+         * @return the number of values left in the row
+         */
+        private int sortRow(int from, int to)
+        {
+            for(int a = from + 1; a < to; a++)
+            {
+                int index = indices[a];
+                double value = values[a];
+                int b = a - 1;
+                for(; b >= from && indices[b] > index; b--)
+                {
+                    indices[b + 1] = indices[b];
+                    values[b + 1] = values[b];
+                }
+                indices[b + 1] = index;
+                values[b + 1] = value;
+            }
+            int count = 0;
+            for(int a = from; a < to; a++)
+                if(a + 1 == to || indices[a + 1] != indices[a])
+                {
+                    indices[from + count] = indices[a];
+                    values[from + count] = values[a];
+                    count++;
+                }
+            return count;
+        }
+    }
+
+    /**
+     * The characters JSAT's loader accepts in a value
+     */
+    private static boolean isValueChar(byte b)
+    {
+        return (b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '-' || b == '+';
+    }
+
+    /**
+     * Lets JSAT's {@link StringUtils#parseDouble(java.lang.CharSequence, int, int) }
+     * read the bytes of the mapped window directly, so values are parsed
+     * exactly as {@link jsat.io.LIBSVMLoader} parses them
+     */
+    private static class ByteChars implements CharSequence
+    {
+        ByteBuffer buf;
+
+        @Override
+        public int length()
+        {
+            return buf.limit();
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return (char) (buf.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return ByteParsing.asString(buf, start, end);
+        }
+
+        @Override
+        public String toString()
+        {
+            return ByteParsing.asString(buf, 0, buf.limit());
+        }
+    }
+}
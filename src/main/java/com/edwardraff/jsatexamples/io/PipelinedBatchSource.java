@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.metrics.Timer;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.DataPoint;
+import jsat.datatransform.DataTransform;
+import jsat.linear.DenseVector;
+import jsat.linear.Vec;
+
+/**
+ * Reads and transforms the data of another {@link DataPointBatchSource} in the
+ * background, so that whatever is using the data does not have to wait for
+ * it. Without this, loading, transforming, and training happen one after
+ * the other, so the disk sits idle while the model trains and the model
+ * waits while the disk is read. Here they are three stages that run at the
+ * same time:
+ * <ol>
+ * <li>A reader thread fills batches from the source, and copies the points
+ * out of them, since a source may reuse its points on the next read.</li>
+ * <li>Each batch is transformed as its own task in a {@link ForkJoinPool}, so
+ * several batches can be transformed at once.</li>
+ * <li>{@link #nextBatch(DataPointBatch) } hands out the transformed batches,
+ * in the same order the source gave them.</li>
+ * </ol>
+ * The stages are joined by bounded queues. Only {@link #setDepth(int) depth}
+ * batches can be read ahead of the consumer, and once they have all been
+ * read the reader waits for the consumer to catch up. So memory use is
+ * bounded no matter how much faster the reading is than the training.<br>
+ * <br>
+ * Since it is a DataPointBatchSource itself, it works anywhere a source does,
+ * such as {@link BatchSources#trainC(jsat.classifiers.UpdateableClassifier, DataPointBatchSource, int) }
+ * or {@link com.edwardraff.jsatexamples.clustering.StreamingKMeans}. An
+ * online model then starts training on the first batch while the rest of the
+ * file is still being read. The transforms are applied in the order given,
+ * the same as calling {@link jsat.DataSet#applyTransform(DataTransform) } with
+ * each in turn. They must already be fit, see
+ * {@link BatchSources#head(DataPointBatchSource, int) } for fitting them on
+ * the start of the data, and must be safe to use from many threads at once,
+ * as JSAT's transforms are once fit.<br>
+ * <br>
+ * A batch handed out holds at most {@link #getBatchSize() } points, and may
+ * hold fewer before the end of the data is reached. The time the reader
+ * spent waiting for the consumer, and the consumer waiting for data, is
+ * recorded in the {@link MetricsRegistry#getDefault() default metrics
+ * registry}, and tells which stage is the bottleneck.
+ *
+ * @author Edward Raff
+ */
+public class PipelinedBatchSource implements DataPointBatchSource
+{
+    private final DataPointBatchSource source;
+    private final List<DataTransform> transforms;
+    private final int batchSize;
+    private int depth = 8;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private Thread reader;
+    private volatile boolean stopped;
+    private BlockingQueue<Slot> free;
+    private BlockingQueue<CompletableFuture<Slot>> ready;
+    /**
+     * The slot whose points were handed out last, and the first of its points
+     * not handed out yet
+     */
+    private Slot current;
+    private int offset;
+    private boolean finished;
+
+    private final LongAdder readerWait = new LongAdder();
+    private final LongAdder consumerWait = new LongAdder();
+
+    /**
+     * Creates a new pipelined source
+     *
+     * @param source the source to read from
+     * @param batchSize the number of points to read from the source at a time
+     * @param transforms the transforms to apply to every point, in order. They
+     * must already be fit.
+     */
+    public PipelinedBatchSource(DataPointBatchSource source, int batchSize, DataTransform... transforms)
+    {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive, not " + batchSize);
+        this.source = source;
+        this.batchSize = batchSize;
+        this.transforms = Arrays.asList(transforms.clone());
+    }
+
+    /**
+     * @return the number of points read from the source at a time
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of batches that may be read and transformed ahead of
+     * the consumer. More lets the stages smooth out bursts in each other's
+     * speed, at the cost of more memory. Takes effect the next time the
+     * source is reset.
+     *
+     * @param depth the number of batches to read ahead
+     */
+    public void setDepth(int depth)
+    {
+        if(depth < 1)
+            throw new IllegalArgumentException("Depth must be positive, not " + depth);
+        this.depth = depth;
+    }
+
+    /**
+     * @return the number of batches that may be read ahead of the consumer
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @param pool the pool to transform batches in
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the pool batches are transformed in
+     */
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * @return the total time, in nanoseconds, the reader spent waiting for
+     * the consumer to free up a batch since the last reset. A large value
+     * means the consumer is the slowest stage.
+     */
+    public long getReaderWaitTime()
+    {
+        return readerWait.sum();
+    }
+
+    /**
+     * @return the total time, in nanoseconds, the consumer spent waiting for
+     * a batch to be read and transformed since the last reset. A large value
+     * means reading or transforming is the slowest stage.
+     */
+    public long getConsumerWaitTime()
+    {
+        return consumerWait.sum();
+    }
+
+    @Override
+    public int getNumNumericalVars()
+    {
+        //a transform may change the number of features, so ask it
+        if(transforms.isEmpty())
+            return source.getNumNumericalVars();
+        return transformedShape().numNumericalValues();
+    }
+
+    @Override
+    public CategoricalData[] getCategories()
+    {
+        if(transforms.isEmpty())
+            return source.getCategories();
+        return transformedShape().getCategoricalData();
+    }
+
+    @Override
+    public CategoricalData getPredicting()
+    {
+        return source.getPredicting();
+    }
+
+    /**
+     * Transforms an all zero point, to find the shape of the transformed data
+     */
+    private DataPoint transformedShape()
+    {
+        CategoricalData[] categories = source.getCategories();
+        DataPoint dp = new DataPoint(new DenseVector(source.getNumNumericalVars()), new int[categories.length], categories);
+        for(DataTransform transform : transforms)
+            dp = transform.transform(dp);
+        return dp;
+    }
+
+    @Override
+    public boolean nextBatch(DataPointBatch batch) throws IOException
+    {
+        batch.clear();
+        if(finished)
+            return false;
+        if(reader == null)
+            start();
+        if(current != null && offset == current.out.size())
+        {
+            //every point of the current slot has been handed out, and the
+            //caller is done with them now that it asked for more
+            free.add(current);
+            current = null;
+        }
+        if(current == null)
+        {
+            long start = System.nanoTime();
+            Slot next;
+            try
+            {
+                next = ready.take().get();
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for data", ex);
+            }
+            catch(ExecutionException ex)
+            {
+                stop();
+                finished = true;
+                if(ex.getCause() instanceof IOException)
+                    throw (IOException) ex.getCause();
+                throw new IOException("Could not read or transform a batch", ex.getCause());
+            }
+            finally
+            {
+                consumerWait.add(waitTimer("consume").since(start));
+            }
+            if(next.out == null)//the end of the data
+            {
+                finished = true;
+                stop();
+                return false;
+            }
+            current = next;
+            offset = 0;
+        }
+        while(!batch.isFull() && offset < current.out.size())
+        {
+            batch.add(current.out.getDataPoint(offset), current.out.getLabel(offset));
+            offset++;
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException
+    {
+        stop();
+        source.reset();
+        finished = false;
+        readerWait.reset();
+        consumerWait.reset();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        stop();
+        source.close();
+    }
+
+    private void start()
+    {
+        stopped = false;
+        free = new ArrayBlockingQueue<>(depth + 1);
+        //the slots in flight never outnumber the slots, so adding never blocks
+        ready = new ArrayBlockingQueue<>(depth + 2);
+        for(int i = 0; i < depth + 1; i++)
+            free.add(new Slot(batchSize));
+        current = null;
+        reader = new Thread(this::read, "PipelinedBatchSource-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Stops the reader, and waits for it to finish the batch it is reading.
+     * Transforms already running are left to finish on their own, their
+     * slots are simply dropped.<br>
+     * <br>
+     * The reader is not interrupted, since an interrupt while it reads a
+     * FileChannel closes the channel, and the source could not be read again
+     * after a reset. If it is waiting for a free slot it is given an extra
+     * one to wake it up, and it sees that it has been stopped.
+     */
+    private void stop()
+    {
+        if(reader == null)
+            return;
+        stopped = true;
+        //if this doesn't fit then a slot is already free, and the reader won't wait
+        free.offer(new Slot(0));
+        boolean interrupted = false;
+        while(reader.isAlive())
+            try
+            {
+                reader.join();
+            }
+            catch(InterruptedException ex)
+            {
+                interrupted = true;
+            }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+        reader = null;
+        current = null;
+    }
+
+    /**
+     * The reader stage. Each batch read goes on the ready queue as a future,
+     * in order, so the consumer gets them in order even when a later batch
+     * finishes transforming first.
+     */
+    private void read()
+    {
+        Timer wait = waitTimer("read");
+        DataPointBatch scratch = new DataPointBatch(batchSize);
+        try
+        {
+            while(!stopped)
+            {
+                long start = System.nanoTime();
+                Slot slot = free.take();
+                readerWait.add(wait.since(start));
+                if(stopped)
+                    return;
+                if(!source.nextBatch(scratch))
+                {
+                    ready.add(CompletableFuture.completedFuture(new Slot(0)));
+                    return;
+                }
+                slot.copyFrom(scratch);
+                if(transforms.isEmpty())
+                {
+                    slot.out = slot.raw;
+                    ready.add(CompletableFuture.completedFuture(slot));
+                }
+                else
+                    ready.add(CompletableFuture.supplyAsync(() -> slot.transform(transforms), pool));
+            }
+        }
+        catch(InterruptedException | IOException | RuntimeException ex)
+        {
+            //stop() never interrupts the reader, so the consumer is told about
+            //an interrupt from anywhere else the same as any other failure
+            CompletableFuture<Slot> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            ready.add(failed);
+        }
+    }
+
+    private static Timer waitTimer(String stage)
+    {
+        return MetricsRegistry.getDefault().timer("jsat_pipeline_wait_seconds", "Time a pipeline stage spent waiting on another", "stage", stage);
+    }
+
+    /**
+     * One batch moving through the pipeline. The raw points belong to the
+     * slot, so they stay valid after the source reads its next batch.
+     */
+    private static class Slot
+    {
+        final DataPointBatch raw;
+        final DataPointBatch transformed;
+        /**
+         * The points to hand out, {@code null} for the slot that marks the
+         * end of the data
+         */
+        DataPointBatch out;
+
+        Slot(int batchSize)
+        {
+            raw = batchSize > 0 ? new DataPointBatch(batchSize) : null;
+            transformed = batchSize > 0 ? new DataPointBatch(batchSize) : null;
+        }
+
+        /**
+         * Copies the points of a batch into this slot's own points, reusing
+         * the dense vectors from the last time the slot was used
+         */
+        void copyFrom(DataPointBatch batch)
+        {
+            raw.clear();
+            for(int i = 0; i < batch.size(); i++)
+            {
+                DataPoint from = batch.getDataPoint(i);
+                Vec x = from.getNumericalValues();
+                DataPoint to = raw.peekReusable();
+                if(to != null && from.numCategoricalValues() == 0 && to.numCategoricalValues() == 0
+                        && x instanceof DenseVector && to.getNumericalValues() instanceof DenseVector
+                        && to.getNumericalValues().length() == x.length())
+                {
+                    x.copyTo(to.getNumericalValues());
+                    to.setWeight(from.getWeight());
+                }
+                else
+                    to = from.clone();
+                raw.add(to, batch.getLabel(i));
+            }
+        }
+
+        Slot transform(List<DataTransform> transforms)
+        {
+            transformed.clear();
+            for(int i = 0; i < raw.size(); i++)
+            {
+                DataPoint dp = raw.getDataPoint(i);
+                for(DataTransform transform : transforms)
+                    dp = transform.transform(dp);
+                transformed.add(dp, raw.getLabel(i));
+            }
+            out = transformed;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import com.edwardraff.jsatexamples.metrics.Counter;
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.metrics.Timer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.DataPoint;
+import jsat.io.CSV;
+import jsat.linear.DenseVector;
+import jsat.linear.Vec;
+
+/**
+ * Reads a classification CSV file in fixed size batches, rather than building
+ * the whole {@link jsat.classifiers.ClassificationDataSet} in memory like
+ * {@link CSV#readC(int, java.nio.file.Path, int, java.util.Set) } does. The
+ * file is read through a {@link MappedLineReader} and the numbers are parsed
+ * straight from the mapped bytes, so the heap used stays the same no matter
+ * how big the file is.<br>
+ * <br>
+ * The format is the same one JSAT writes with
+ * {@link CSV#write(jsat.DataSet, java.nio.file.Path) }: one data point per
+ * line, with the class label in one column and numeric features in all the
+ * others. Class labels are given indices in sorted order of their names, which
+ * is the same thing {@code CSV.readC} does. Categorical
+ * features are not supported. Empty fields are treated as missing values.<br>
+ * <br>
+ * The time of each batch, and the rows and bytes read, are recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}.
+ *
+ * @author Edward Raff
+ */
+public class StreamingCSVReader implements DataPointBatchSource
+{
+    private final MappedLineReader lines;
+    private final int classColumn;
+    private final int linesToSkip;
+    private final byte delimiter;
+    private final byte comment;
+    private final int numNumeric;
+    private final CategoricalData predicting;
+    private final LabelTable labels;
+    /**
+     * End of the data in the current line, which excludes any comment
+     */
+    private int dataEnd;
+    /**
+     * Reused to return a column range without allocating
+     */
+    private final int[] columnRange = new int[2];
+
+    private final Timer batchTime = MetricsRegistry.getDefault().timer("jsat_load_batch_seconds", "Time to read one batch from a stream", "loader", "StreamingCSVReader");
+    private final Counter rowsRead = MetricsRegistry.getDefault().counter("jsat_load_rows_total", "Rows loaded", "loader", "StreamingCSVReader");
+    private final Counter bytesRead = MetricsRegistry.getDefault().counter("jsat_load_bytes_total", "Bytes of files loaded", "loader", "StreamingCSVReader");
+
+    /**
+     * Opens a CSV file for streaming using the default delimiter and comment
+     * characters. Since the class labels are not known ahead of time, one
+     * fast pass is made over the label column of the file to find them all.
+     *
+     * @param path the CSV file
+     * @param classColumn the column that holds the class label
+     * @param linesToSkip the number of lines to skip at the start of the file
+     * @throws IOException if an error occurs reading the file
+     */
+    public StreamingCSVReader(Path path, int classColumn, int linesToSkip) throws IOException
+    {
+        this(path, classColumn, CSV.DEFAULT_DELIMITER, linesToSkip, CSV.DEFAULT_COMMENT, null);
+    }
+
+    /**
+     * Opens a CSV file for streaming.
+     *
+     * @param path the CSV file
+     * @param classColumn the column that holds the class label
+     * @param delimiter the character that separates columns
+     * @param linesToSkip the number of lines to skip at the start of the file
+     * @param comment the character that starts a comment, the rest of the
+     * line after it is ignored
+     * @param predicting the class labels, in the order of their indices. If
+     * {@code null}, an extra pass over the file is made to find them.
+     * @throws IOException if an error occurs reading the file
+     */
+    public StreamingCSVReader(Path path, int classColumn, char delimiter, int linesToSkip, char comment, CategoricalData predicting) throws IOException
+    {
+        if(delimiter > 127 || comment > 127)
+            throw new IllegalArgumentException("Delimiter and comment characters must be ASCII");
+        this.lines = new MappedLineReader(path);
+        this.classColumn = classColumn;
+        this.linesToSkip = linesToSkip;
+        this.delimiter = (byte) delimiter;
+        this.comment = (byte) comment;
+        this.labels = new LabelTable();
+
+        try
+        {
+            skipLines();
+            if(!nextDataLine())
+                throw new IOException("No data in " + path);
+            int columns = 1;
+            ByteBuffer buf = lines.buffer();
+            for(int i = lines.lineStart(); i < dataEnd; i++)
+                if(buf.get(i) == this.delimiter)
+                    columns++;
+            if(classColumn < 0 || classColumn >= columns)
+                throw new IOException("Class column " + classColumn + " is not in the " + columns + " columns of " + path);
+            this.numNumeric = columns - 1;
+
+            if(predicting == null)
+            {
+                //first pass, only look at the class label
+                do
+                {
+                    int[] range = findColumn(classColumn);
+                    if(labels.indexOf(lines.buffer(), range[0], range[1]) < 0)
+                        labels.add(lines.buffer(), range[0], range[1]);
+                }
+                while(nextDataLine());
+                String[] names = new String[labels.size()];
+                for(int i = 0; i < names.length; i++)
+                    names[i] = labels.name(i);
+                Arrays.sort(names);
+                predicting = new CategoricalData(names.length);
+                for(int i = 0; i < names.length; i++)
+                    predicting.setOptionName(names[i], i);
+                labels.clear();
+            }
+            for(int i = 0; i < predicting.getNumOfCategories(); i++)
+                labels.add(predicting.getOptionName(i));
+            this.predicting = predicting;
+            reset();
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            lines.close();
+            throw ex;
+        }
+    }
+
+    private void skipLines() throws IOException
+    {
+        for(int i = 0; i < linesToSkip; i++)
+            if(!lines.nextLine())
+                return;
+    }
+
+    /**
+     * Advances to the next line with data on it, skipping blank and comment
+     * only lines.
+     */
+    private boolean nextDataLine() throws IOException
+    {
+        while(lines.nextLine())
+        {
+            ByteBuffer buf = lines.buffer();
+            int start = lines.lineStart();
+            int end = lines.lineEnd();
+            dataEnd = end;
+            for(int i = start; i < end; i++)
+                if(buf.get(i) == comment)
+                {
+                    dataEnd = i;
+                    break;
+                }
+            int i = start;
+            while(i < dataEnd && ByteParsing.isSpace(buf.get(i)))
+                i++;
+            if(i < dataEnd)
+                return true;
+        }
+        return false;
+    }
+
+    private int[] findColumn(int column) throws IOException
+    {
+        ByteBuffer buf = lines.buffer();
+        int col = 0;
+        int fieldStart = lines.lineStart();
+        for(int i = fieldStart; i <= dataEnd; i++)
+            if(i == dataEnd || buf.get(i) == delimiter)
+            {
+                if(col == column)
+                {
+                    columnRange[0] = fieldStart;
+                    columnRange[1] = i;
+                    trim(buf, columnRange);
+                    return columnRange;
+                }
+                col++;
+                fieldStart = i + 1;
+            }
+        throw new IOException("Line " + lines.lineNumber() + " has only " + col + " columns");
+    }
+
+    private static void trim(ByteBuffer buf, int[] range)
+    {
+        while(range[0] < range[1] && ByteParsing.isSpace(buf.get(range[0])))
+            range[0]++;
+        while(range[1] > range[0] && ByteParsing.isSpace(buf.get(range[1] - 1)))
+            range[1]--;
+    }
+
+    @Override
+    public int getNumNumericalVars()
+    {
+        return numNumeric;
+    }
+
+    @Override
+    public CategoricalData[] getCategories()
+    {
+        return new CategoricalData[0];
+    }
+
+    @Override
+    public CategoricalData getPredicting()
+    {
+        return predicting;
+    }
+
+    @Override
+    public boolean nextBatch(DataPointBatch batch) throws IOException
+    {
+        long start = System.nanoTime();
+        long position = lines.filePosition();
+        batch.clear();
+        while(!batch.isFull() && nextDataLine())
+        {
+            DataPoint dp = batch.peekReusable();
+            if(dp == null || dp.numCategoricalValues() != 0 || !(dp.getNumericalValues() instanceof DenseVector) || dp.getNumericalValues().length() != numNumeric)
+                dp = new DataPoint(new DenseVector(numNumeric));
+            else
+                dp.setWeight(1.0);
+            batch.add(dp, parseLine(dp.getNumericalValues()));
+        }
+        if(batch.size() == 0)
+            return false;
+        batchTime.since(start);
+        rowsRead.add(batch.size());
+        bytesRead.add(Math.max(0, lines.filePosition() - position));
+        return true;
+    }
+
+    /**
+     * Parses the current line into the given vector
+     * @return the class label of the line
+     */
+    private int parseLine(Vec vec) throws IOException
+    {
+        ByteBuffer buf = lines.buffer();
+        int label = -1;
+        int col = 0;
+        int fieldStart = lines.lineStart();
+        for(int i = fieldStart; i <= dataEnd; i++)
+            if(i == dataEnd || buf.get(i) == delimiter)
+            {
+                if(col > numNumeric)
+                    throw new IOException("Line " + lines.lineNumber() + " has more than the expected " + (numNumeric + 1) + " columns");
+                if(col == classColumn)
+                {
+                    columnRange[0] = fieldStart;
+                    columnRange[1] = i;
+                    trim(buf, columnRange);
+                    label = labels.indexOf(buf, columnRange[0], columnRange[1]);
+                    if(label < 0)
+                        throw new IOException("Line " + lines.lineNumber() + " has an unknown class label " + ByteParsing.asString(buf, columnRange[0], columnRange[1]));
+                }
+                else
+                {
+                    try
+                    {
+                        vec.set(col < classColumn ? col : col - 1, ByteParsing.parseDouble(buf, fieldStart, i));
+                    }
+                    catch(NumberFormatException ex)
+                    {
+                        throw new IOException("Line " + lines.lineNumber() + ", column " + col + ": " + ex.getMessage(), ex);
+                    }
+                }
+                col++;
+                fieldStart = i + 1;
+            }
+        if(col != numNumeric + 1)
+            throw new IOException("Line " + lines.lineNumber() + " has " + col + " columns, expected " + (numNumeric + 1));
+        return label;
+    }
+
+    @Override
+    public void reset() throws IOException
+    {
+        lines.reset();
+        skipLines();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        lines.close();
+    }
+
+    /**
+     * Maps the raw bytes of a class label to its index, without needing to
+     * create a String for each lookup.
+     */
+    private static class LabelTable
+    {
+        private byte[][] names = new byte[4][];
+        private int[] hashes = new int[4];
+        private int size = 0;
+
+        public int size()
+        {
+            return size;
+        }
+
+        public void clear()
+        {
+            Arrays.fill(names, 0, size, null);
+            size = 0;
+        }
+
+        public String name(int i)
+        {
+            return new String(names[i], StandardCharsets.UTF_8);
+        }
+
+        private static int hash(ByteBuffer buf, int start, int end)
+        {
+            int h = 1;
+            for(int i = start; i < end; i++)
+                h = 31 * h + buf.get(i);
+            return h;
+        }
+
+        public int indexOf(ByteBuffer buf, int start, int end)
+        {
+            int h = hash(buf, start, end);
+            int len = end - start;
+            for(int l = 0; l < size; l++)
+            {
+                if(hashes[l] != h || names[l].length != len)
+                    continue;
+                byte[] name = names[l];
+                boolean match = true;
+                for(int i = 0; i < len && match; i++)
+                    match = name[i] == buf.get(start + i);
+                if(match)
+                    return l;
+            }
+            return -1;
+        }
+
+        public void add(ByteBuffer buf, int start, int end)
+        {
+            byte[] name = new byte[end - start];
+            for(int i = 0; i < name.length; i++)
+                name[i] = buf.get(start + i);
+            add(name, hash(buf, start, end));
+        }
+
+        public void add(String name)
+        {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            add(bytes, hash(ByteBuffer.wrap(bytes), 0, bytes.length));
+        }
+
+        private void add(byte[] name, int hash)
+        {
+            if(size == names.length)
+            {
+                names = Arrays.copyOf(names, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            names[size] = name;
+            hashes[size] = hash;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import com.edwardraff.jsatexamples.metrics.Counter;
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.metrics.Timer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.DataPoint;
+import jsat.linear.SparseVector;
+import jsat.linear.Vec;
+
+/**
+ * Reads a LIBSVM file in fixed size batches, rather than building the whole
+ * {@link jsat.classifiers.ClassificationDataSet} in memory like
+ * {@link jsat.io.LIBSVMLoader} and {@link ParallelLIBSVMLoader} do. The file
+ * is read through a {@link MappedLineReader} and the numbers are parsed
+ * straight from the mapped bytes, so the heap used stays the same no matter
+ * how big the file is.<br>
+ * <br>
+ * The number of features and the class labels are not written in a LIBSVM
+ * file. If they are not given, one fast pass is made over the file to find
+ * the largest feature index and all the labels. As with the other loaders,
+ * the labels are then sorted and numbered from 0. When the same features and
+ * labels are needed for more than one file, such as a training and a testing
+ * file, give the second reader the {@link #getNumNumericalVars() } and
+ * {@link #getLabelValues() } of the first.<br>
+ * <br>
+ * Values of zero are not stored, and a feature given twice in a line keeps
+ * its last value. Rows are always read into a {@link SparseVector}.<br>
+ * <br>
+ * The time of each batch, and the rows and bytes read, are recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}.
+ *
+ * @author Edward Raff
+ */
+public class StreamingLIBSVMReader implements DataPointBatchSource
+{
+    private final MappedLineReader lines;
+    private final int numFeatures;
+    private final double[] labelValues;
+    private final Map<Double, Integer> labelIds;
+    private final CategoricalData predicting;
+    /**
+     * The last label seen, so that runs of the same label don't need a map
+     * lookup
+     */
+    private long lastLabelBits = Double.doubleToLongBits(Double.NaN);
+    private int lastLabelId = -1;
+    /**
+     * The data in the current line, without the white space around it
+     */
+    private int lineStart, lineEnd;
+
+    private final Timer batchTime = MetricsRegistry.getDefault().timer("jsat_load_batch_seconds", "Time to read one batch from a stream", "loader", "StreamingLIBSVMReader");
+    private final Counter rowsRead = MetricsRegistry.getDefault().counter("jsat_load_rows_total", "Rows loaded", "loader", "StreamingLIBSVMReader");
+    private final Counter bytesRead = MetricsRegistry.getDefault().counter("jsat_load_bytes_total", "Bytes of files loaded", "loader", "StreamingLIBSVMReader");
+
+    /**
+     * Opens a LIBSVM file for streaming. Since the number of features and the
+     * class labels are not known ahead of time, one pass is made over the
+     * file to find them.
+     *
+     * @param path the LIBSVM file
+     * @throws IOException if an error occurs reading the file, or it is not a
+     * valid LIBSVM file
+     */
+    public StreamingLIBSVMReader(Path path) throws IOException
+    {
+        this(path, -1, null);
+    }
+
+    /**
+     * Opens a LIBSVM file for streaming.
+     *
+     * @param path the LIBSVM file
+     * @param numFeatures the number of features, or a non-positive value to
+     * use the largest feature index in the file
+     * @param labelValues the value of each class label in the file, in the
+     * order of their indices. If {@code null}, the labels in the file are
+     * used in sorted order.
+     * @throws IOException if an error occurs reading the file, or it is not a
+     * valid LIBSVM file
+     */
+    public StreamingLIBSVMReader(Path path, int numFeatures, double[] labelValues) throws IOException
+    {
+        this.lines = new MappedLineReader(path);
+        try
+        {
+            if(numFeatures <= 0 || labelValues == null)
+            {
+                //first pass, only look at the labels and feature indices
+                TreeSet<Double> labelSet = new TreeSet<>();
+                int maxIndex = 0;//JSAT's loader never makes a vector with no features
+                while(nextDataLine())
+                {
+                    ByteBuffer buf = lines.buffer();
+                    int i = labelEnd(buf);
+                    labelSet.add(parseLabel(buf, i));
+                    while(i < lineEnd)
+                    {
+                        if(buf.get(i) == ':')
+                        {
+                            int s = i;
+                            while(s > lineStart && !ByteParsing.isSpace(buf.get(s - 1)))
+                                s--;
+                            maxIndex = Math.max(maxIndex, parseIndex(buf, s, i));
+                        }
+                        i++;
+                    }
+                }
+                if(numFeatures <= 0)
+                    numFeatures = maxIndex + 1;
+                else if(maxIndex >= numFeatures)
+                    throw new IOException("Length given was " + numFeatures + ", but observed length was " + (maxIndex + 1));
+                if(labelValues == null)
+                {
+                    labelValues = new double[labelSet.size()];
+                    int l = 0;
+                    for(double label : labelSet)
+                        labelValues[l++] = label;
+                }
+            }
+            this.numFeatures = numFeatures;
+            this.labelValues = labelValues.clone();
+            this.labelIds = new HashMap<>();
+            for(int l = 0; l < labelValues.length; l++)
+                if(labelIds.put(labelValues[l], l) != null)
+                    throw new IllegalArgumentException("Label " + labelValues[l] + " was given more than once");
+            this.predicting = new CategoricalData(labelValues.length);
+            reset();
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            lines.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Advances to the next line with data on it, skipping blank lines.
+     */
+    private boolean nextDataLine() throws IOException
+    {
+        while(lines.nextLine())
+        {
+            ByteBuffer buf = lines.buffer();
+            lineStart = lines.lineStart();
+            lineEnd = lines.lineEnd();
+            while(lineStart < lineEnd && ByteParsing.isSpace(buf.get(lineStart)))
+                lineStart++;
+            while(lineEnd > lineStart && ByteParsing.isSpace(buf.get(lineEnd - 1)))
+                lineEnd--;
+            if(lineStart < lineEnd)
+                return true;
+        }
+        return false;
+    }
+
+    private int labelEnd(ByteBuffer buf)
+    {
+        int i = lineStart;
+        while(i < lineEnd && !ByteParsing.isSpace(buf.get(i)))
+            i++;
+        return i;
+    }
+
+    private double parseLabel(ByteBuffer buf, int end) throws IOException
+    {
+        double label;
+        try
+        {
+            label = ByteParsing.parseDouble(buf, lineStart, end);
+        }
+        catch(NumberFormatException ex)
+        {
+            label = Double.NaN;
+        }
+        if(Double.isNaN(label))
+            throw new IOException("Line " + lines.lineNumber() + " has an invalid label " + ByteParsing.asString(buf, lineStart, end));
+        return label;
+    }
+
+    /**
+     * @return the zero based index of the feature written in [start, end)
+     */
+    private int parseIndex(ByteBuffer buf, int start, int end) throws IOException
+    {
+        int index;
+        try
+        {
+            index = ByteParsing.parseInt(buf, start, end) - 1;
+        }
+        catch(NumberFormatException ex)
+        {
+            throw new IOException("Line " + lines.lineNumber() + ": " + ex.getMessage(), ex);
+        }
+        if(index < 0)
+            throw new IOException("Line " + lines.lineNumber() + ": feature indices start at 1");
+        return index;
+    }
+
+    /**
+     * @return the value of each class label, in the order of their indices
+     */
+    public double[] getLabelValues()
+    {
+        return labelValues.clone();
+    }
+
+    @Override
+    public int getNumNumericalVars()
+    {
+        return numFeatures;
+    }
+
+    @Override
+    public CategoricalData[] getCategories()
+    {
+        return new CategoricalData[0];
+    }
+
+    @Override
+    public CategoricalData getPredicting()
+    {
+        return predicting;
+    }
+
+    @Override
+    public boolean nextBatch(DataPointBatch batch) throws IOException
+    {
+        long start = System.nanoTime();
+        long position = lines.filePosition();
+        batch.clear();
+        while(!batch.isFull() && nextDataLine())
+        {
+            DataPoint dp = batch.peekReusable();
+            if(dp == null || dp.numCategoricalValues() != 0 || !(dp.getNumericalValues() instanceof SparseVector) || dp.getNumericalValues().length() != numFeatures)
+                dp = new DataPoint(new SparseVector(numFeatures));
+            else
+            {
+                dp.getNumericalValues().zeroOut();
+                dp.setWeight(1.0);
+            }
+            batch.add(dp, parseLine(dp.getNumericalValues()));
+        }
+        if(batch.size() == 0)
+            return false;
+        batchTime.since(start);
+        rowsRead.add(batch.size());
+        bytesRead.add(Math.max(0, lines.filePosition() - position));
+        return true;
+    }
+
+    /**
+     * Parses the current line into the given vector, which must be all zeros
+     * @return the class label of the line
+     */
+    private int parseLine(Vec vec) throws IOException
+    {
+        ByteBuffer buf = lines.buffer();
+        int i = labelEnd(buf);
+        double label = parseLabel(buf, i);
+        long bits = Double.doubleToLongBits(label);
+        if(bits != lastLabelBits)
+        {
+            Integer id = labelIds.get(label);
+            if(id == null)
+                throw new IOException("Line " + lines.lineNumber() + " has an unknown class label " + label);
+            lastLabelBits = bits;
+            lastLabelId = id;
+        }
+
+        while(i < lineEnd)
+        {
+            while(i < lineEnd && ByteParsing.isSpace(buf.get(i)))
+                i++;
+            if(i == lineEnd)
+                break;
+            int colon = i;
+            while(colon < lineEnd && buf.get(colon) != ':')
+                colon++;
+            int tokenEnd = colon;
+            while(tokenEnd < lineEnd && !ByteParsing.isSpace(buf.get(tokenEnd)))
+                tokenEnd++;
+            if(colon == lineEnd || tokenEnd == colon + 1)
+                throw new IOException("Line " + lines.lineNumber() + ": expected index:value, not " + ByteParsing.asString(buf, i, tokenEnd));
+            int index = parseIndex(buf, i, colon);
+            if(index >= numFeatures)
+                throw new IOException("Line " + lines.lineNumber() + " has feature " + (index + 1) + ", but there are only " + numFeatures);
+            double value;
+            try
+            {
+                value = ByteParsing.parseDouble(buf, colon + 1, tokenEnd);
+            }
+            catch(NumberFormatException ex)
+            {
+                throw new IOException("Line " + lines.lineNumber() + ": " + ex.getMessage(), ex);
+            }
+            //set removes a value when it is given a zero
+            vec.set(index, value);
+            i = tokenEnd;
+        }
+        return lastLabelId;
+    }
+
+    @Override
+    public void reset() throws IOException
+    {
+        lines.reset();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        lines.close();
+    }
+}
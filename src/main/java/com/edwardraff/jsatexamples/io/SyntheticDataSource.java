@@ -0,0 +1,680 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.io;
+
+import com.edwardraff.jsatexamples.concurrent.RangeAction;
+import com.edwardraff.jsatexamples.random.SeedSequence;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import jsat.classifiers.CategoricalData;
+import jsat.classifiers.DataPoint;
+import jsat.linear.CholeskyDecomposition;
+import jsat.linear.DenseVector;
+import jsat.linear.IndexValue;
+import jsat.linear.Matrix;
+import jsat.linear.SparseVector;
+import jsat.linear.Vec;
+
+/**
+ * A {@link DataPointBatchSource} of synthetic labeled data, for testing code
+ * on as many rows as you like without having to store them. The data is a
+ * weighted mixture of components, each of which belongs to one class. Giving
+ * the components different weights makes the classes imbalanced. There are
+ * two kinds of components:
+ * <ul>
+ * <li>{@link #addGaussian(int, double, jsat.linear.Vec, jsat.linear.Matrix) Gaussians},
+ * which sample the same distribution as a
+ * {@link jsat.distributions.multivariate.NormalM} with the same mean and
+ * covariance, and give dense vectors</li>
+ * <li>{@link #addSparse(int, double, int, int, double) sparse counts}, which
+ * look like bag-of-words text with a few words that are common for each
+ * class, and give sparse vectors</li>
+ * </ul>
+ * Every row is made from its own random stream, seeded from the source's seed
+ * and the row's index. So row <i>i</i> is always the same, no matter the
+ * batch size, the number of threads, or if the data is read in batches,
+ * {@link #getDataPoint(long) one row at a time}, or
+ * {@link #writeLibsvm(java.io.File) written to disk}. The rows of each batch
+ * are made in parallel, and the batch's data points are reused from one
+ * batch to the next, so reading the data allocates almost nothing. Pass the
+ * source to
+ * {@link com.edwardraff.jsatexamples.classifiers.PackedClassificationDataSet#pack(com.edwardraff.jsatexamples.io.DataPointBatchSource, boolean) PackedClassificationDataSet.pack}
+ * to put the data straight into columnar storage.
+ *
+ * @author Edward Raff
+ */
+public class SyntheticDataSource implements DataPointBatchSource
+{
+    /**
+     * Fewest rows a task makes before it stops splitting the work up
+     */
+    private static final int GRAIN = 256;
+    /**
+     * About how many values are written to disk by each task
+     */
+    private static final int CHUNK_VALUES = 1 << 16;
+
+    private final long rows;
+    private final int dim;
+    private final CategoricalData predicting;
+    private final long seed;
+    /**
+     * Gives the seed of each row
+     */
+    private final SeedSequence rowSeeds;
+    private final List<Component> components = new ArrayList<>();
+    /**
+     * Running sum of the component weights, for picking a component
+     */
+    private double[] cumulativeWeight = new double[0];
+    private boolean sparse;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private long pos = 0;
+    /**
+     * The data points given out in the last batch, reused for the next one
+     */
+    private DataPoint[] slots = new DataPoint[0];
+    private int[] slotLabels = new int[0];
+
+    /**
+     * Creates a new source with no components. At least one must be added
+     * before reading any data.
+     *
+     * @param rows the number of rows of data
+     * @param dim the number of numeric features
+     * @param classes the number of classes
+     * @param seed the seed for all the random values
+     */
+    public SyntheticDataSource(long rows, int dim, int classes, long seed)
+    {
+        if(rows < 0)
+            throw new IllegalArgumentException("Number of rows can not be negative, not " + rows);
+        if(dim < 1)
+            throw new IllegalArgumentException("Number of features must be positive, not " + dim);
+        if(classes < 1)
+            throw new IllegalArgumentException("Number of classes must be positive, not " + classes);
+        this.rows = rows;
+        this.dim = dim;
+        this.predicting = new CategoricalData(classes);
+        this.seed = seed;
+        this.rowSeeds = new SeedSequence(seed);
+    }
+
+    /**
+     * Creates a mixture with one Gaussian per class, in the same way as
+     * {@link com.edwardraff.jsatexamples.benchmarks.BenchmarkData#gaussianMixture(int, int, int, long) }:
+     * each mean is drawn uniformly from [0, 10]<sup>d</sup>, and every
+     * feature has unit variance.
+     *
+     * @param rows the number of rows of data
+     * @param dim the number of numeric features
+     * @param classWeights the relative number of points in each class
+     * @param seed the seed for all the random values
+     * @return the source
+     */
+    public static SyntheticDataSource gaussianMixture(long rows, int dim, double[] classWeights, long seed)
+    {
+        SyntheticDataSource source = new SyntheticDataSource(rows, dim, classWeights.length, seed);
+        SplittableRandom rand = new SplittableRandom(SeedSequence.mix(seed));
+        for(int c = 0; c < classWeights.length; c++)
+        {
+            DenseVector mean = new DenseVector(dim);
+            for(int j = 0; j < dim; j++)
+                mean.set(j, rand.nextDouble() * 10);
+            source.addGaussian(c, classWeights[c], mean, 1.0);
+        }
+        return source;
+    }
+
+    /**
+     * Creates sparse data that looks like bag-of-words text with one topic
+     * per class. Each topic has 50 words of its own, and 70% of the words in
+     * a row come from its topic.
+     *
+     * @param rows the number of rows of data
+     * @param dim the number of numeric features, or words
+     * @param nnz the number of words in each row
+     * @param classWeights the relative number of points in each class
+     * @param seed the seed for all the random values
+     * @return the source
+     */
+    public static SyntheticDataSource sparseTopics(long rows, int dim, int nnz, double[] classWeights, long seed)
+    {
+        SyntheticDataSource source = new SyntheticDataSource(rows, dim, classWeights.length, seed);
+        for(int c = 0; c < classWeights.length; c++)
+            source.addSparse(c, classWeights[c], nnz, 50, 0.7);
+        return source;
+    }
+
+    /**
+     * Adds a Gaussian component. Its points are {@code mean + L z}, where
+     * {@code z} is standard normal and {@code L} is the Cholesky factor of the
+     * covariance, as in {@link jsat.distributions.multivariate.NormalM}. A
+     * full covariance costs O(d<sup>2</sup>) per point, a diagonal one only
+     * O(d).
+     *
+     * @param label the class of the component's points
+     * @param weight the relative number of points from this component
+     * @param mean the mean of the Gaussian
+     * @param covariance the covariance matrix, which must be positive
+     * definite
+     */
+    public void addGaussian(int label, double weight, Vec mean, Matrix covariance)
+    {
+        if(covariance.rows() != dim || covariance.cols() != dim)
+            throw new IllegalArgumentException("Covariance must be " + dim + " by " + dim + ", not " + covariance.rows() + " by " + covariance.cols());
+        boolean diagonal = true;
+        for(int i = 0; i < dim && diagonal; i++)
+            for(int j = 0; j < dim && diagonal; j++)
+                diagonal = i == j || covariance.get(i, j) == 0;
+        if(diagonal)
+        {
+            double[] stdDevs = new double[dim];
+            for(int j = 0; j < dim; j++)
+            {
+                if(!(covariance.get(j, j) > 0))
+                    throw new IllegalArgumentException("Covariance matrix must be positive definite");
+                stdDevs[j] = Math.sqrt(covariance.get(j, j));
+            }
+            add(new Gaussian(label, mean(mean), stdDevs, null), weight, false);
+            return;
+        }
+
+        Matrix upper;
+        try
+        {
+            upper = new CholeskyDecomposition(covariance).getLT();
+        }
+        catch(ArithmeticException ex)
+        {
+            throw new IllegalArgumentException("Covariance matrix must be positive definite", ex);
+        }
+        //keep the lower triangle packed row by row, so each output feature
+        //reads one contiguous run of it
+        double[] lower = new double[dim * (dim + 1) / 2];
+        for(int i = 0; i < dim; i++)
+            for(int j = 0; j <= i; j++)
+                lower[i * (i + 1) / 2 + j] = upper.get(j, i);
+        add(new Gaussian(label, mean(mean), null, lower), weight, false);
+    }
+
+    /**
+     * Adds a Gaussian component where every feature is independent with the
+     * same standard deviation
+     *
+     * @param label the class of the component's points
+     * @param weight the relative number of points from this component
+     * @param mean the mean of the Gaussian
+     * @param standardDeviation the standard deviation of every feature
+     */
+    public void addGaussian(int label, double weight, Vec mean, double standardDeviation)
+    {
+        if(!(standardDeviation > 0) || Double.isInfinite(standardDeviation))
+            throw new IllegalArgumentException("Standard deviation must be positive, not " + standardDeviation);
+        double[] stdDevs = new double[dim];
+        Arrays.fill(stdDevs, standardDeviation);
+        add(new Gaussian(label, mean(mean), stdDevs, null), weight, false);
+    }
+
+    /**
+     * Adds a sparse component of word counts. Each row draws {@code nnz}
+     * words, each of which is one of the component's informative words with
+     * probability {@code signal}, and any word otherwise. The value of a
+     * feature is the number of times its word was drawn, so a row can have
+     * fewer than {@code nnz} non-zeros. The informative words are picked
+     * at random from the seed.
+     *
+     * @param label the class of the component's points
+     * @param weight the relative number of points from this component
+     * @param nnz the number of words drawn for each row
+     * @param informative the number of words that are common in this
+     * component
+     * @param signal the fraction of words drawn from the informative words,
+     * in [0, 1]
+     */
+    public void addSparse(int label, double weight, int nnz, int informative, double signal)
+    {
+        if(nnz < 1)
+            throw new IllegalArgumentException("Number of non-zeros must be positive, not " + nnz);
+        if(informative < 1)
+            throw new IllegalArgumentException("Number of informative features must be positive, not " + informative);
+        if(!(signal >= 0 && signal <= 1))
+            throw new IllegalArgumentException("Signal must be in [0, 1], not " + signal);
+        SplittableRandom rand = new SplittableRandom(new SeedSequence(SeedSequence.mix(seed)).splitSeed(components.size()));
+        int[] words = new int[informative];
+        for(int w = 0; w < informative; w++)
+            words[w] = rand.nextInt(dim);
+        add(new SparseCounts(label, words, nnz, signal), weight, true);
+    }
+
+    private double[] mean(Vec mean)
+    {
+        if(mean.length() != dim)
+            throw new IllegalArgumentException("Mean must have " + dim + " features, not " + mean.length());
+        return mean.arrayCopy();
+    }
+
+    private void add(Component component, double weight, boolean sparseComponent)
+    {
+        if(component.label < 0 || component.label >= predicting.getNumOfCategories())
+            throw new IllegalArgumentException("Label must be in [0, " + predicting.getNumOfCategories() + "), not " + component.label);
+        if(!(weight > 0) || Double.isInfinite(weight))
+            throw new IllegalArgumentException("Weight must be positive, not " + weight);
+        if(!components.isEmpty() && sparse != sparseComponent)
+            throw new IllegalArgumentException("Can not mix dense and sparse components");
+        sparse = sparseComponent;
+        components.add(component);
+        cumulativeWeight = Arrays.copyOf(cumulativeWeight, components.size());
+        cumulativeWeight[components.size() - 1] = weight + (components.size() > 1 ? cumulativeWeight[components.size() - 2] : 0);
+        slots = new DataPoint[0];
+    }
+
+    /**
+     * Sets the pool the rows are made in. The data is the same for any pool.
+     *
+     * @param pool the pool to make rows in
+     */
+    public void setPool(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the pool the rows are made in
+     */
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * @return the number of rows of data
+     */
+    public long getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * @return the seed for all the random values
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * @return {@code true} if the components make sparse vectors
+     */
+    public boolean isSparse()
+    {
+        return sparse;
+    }
+
+    /**
+     * Makes one row of the data, without changing the position of the
+     * source
+     *
+     * @param row the index of the row
+     * @return the row's data point
+     */
+    public DataPoint getDataPoint(long row)
+    {
+        DataPoint dp = newDataPoint();
+        generate(checkRow(row), dp.getNumericalValues(), new Scratch());
+        return dp;
+    }
+
+    /**
+     * @param row the index of the row
+     * @return the class label of the row
+     */
+    public int getDataPointCategory(long row)
+    {
+        return generate(checkRow(row), newDataPoint().getNumericalValues(), new Scratch());
+    }
+
+    private long checkRow(long row)
+    {
+        if(row < 0 || row >= rows)
+            throw new IndexOutOfBoundsException("Row " + row + " is not in [0, " + rows + ")");
+        if(components.isEmpty())
+            throw new IllegalStateException("No components have been added");
+        return row;
+    }
+
+    private DataPoint newDataPoint()
+    {
+        return new DataPoint(sparse ? new SparseVector(dim, maxNnz()) : new DenseVector(dim));
+    }
+
+    /**
+     * @return the most non-zeros any row can have
+     */
+    private int maxNnz()
+    {
+        int maxNnz = 0;
+        for(Component c : components)
+            maxNnz = Math.max(maxNnz, c.maxNnz());
+        return maxNnz;
+    }
+
+    /**
+     * Writes all the rows to a file in LIBSVM's format, which can be read
+     * back with {@link jsat.io.LIBSVMLoader}. Chunks of rows are made and
+     * formatted in parallel, and written in order.
+     *
+     * @param file the file to write to
+     * @throws IOException if an error occurs writing the file
+     */
+    public void writeLibsvm(File file) throws IOException
+    {
+        try(OutputStream out = Files.newOutputStream(file.toPath()))
+        {
+            writeLibsvm(out);
+        }
+    }
+
+    /**
+     * Writes all the rows to a stream in LIBSVM's format. The stream is not
+     * closed.
+     *
+     * @param out the stream to write to
+     * @throws IOException if an error occurs writing the stream
+     */
+    public void writeLibsvm(OutputStream out) throws IOException
+    {
+        checkRow(0);
+        int chunkRows = Math.max(16, CHUNK_VALUES / maxNnz());
+        long chunks = (rows + chunkRows - 1) / chunkRows;
+        //only a few chunks per thread are held in memory at once
+        int window = 4 * pool.getParallelism();
+        for(long first = 0; first < chunks; first += window)
+        {
+            byte[][] text = new byte[(int) Math.min(window, chunks - first)][];
+            long firstChunk = first;
+            pool.invoke(new RangeAction(0, text.length, 1, (from, to) ->
+            {
+                Scratch scratch = new Scratch();
+                Vec x = newDataPoint().getNumericalValues();
+                StringBuilder sb = new StringBuilder();
+                for(int c = from; c < to; c++)
+                {
+                    sb.setLength(0);
+                    long start = (firstChunk + c) * chunkRows;
+                    long end = Math.min(start + chunkRows, rows);
+                    for(long row = start; row < end; row++)
+                    {
+                        sb.append(generate(row, x, scratch));
+                        for(IndexValue iv : x)
+                            if(iv.getValue() != 0)
+                                sb.append(' ').append(iv.getIndex() + 1).append(':').append(iv.getValue());
+                        sb.append('\n');
+                    }
+                    text[c] = sb.toString().getBytes(StandardCharsets.US_ASCII);
+                }
+            }));
+            for(byte[] chunk : text)
+                out.write(chunk);
+        }
+    }
+
+    @Override
+    public int getNumNumericalVars()
+    {
+        return dim;
+    }
+
+    @Override
+    public CategoricalData[] getCategories()
+    {
+        return new CategoricalData[0];
+    }
+
+    @Override
+    public CategoricalData getPredicting()
+    {
+        return predicting;
+    }
+
+    @Override
+    public boolean nextBatch(DataPointBatch batch)
+    {
+        batch.clear();
+        int n = (int) Math.min(batch.capacity(), rows - pos);
+        if(n <= 0)
+            return false;
+        checkRow(pos);
+        if(slots.length < n)
+        {
+            int had = slots.length;
+            slots = Arrays.copyOf(slots, n);
+            slotLabels = Arrays.copyOf(slotLabels, n);
+            for(int i = had; i < n; i++)
+                slots[i] = newDataPoint();
+        }
+        long first = pos;
+        pool.invoke(new RangeAction(0, n, GRAIN, (from, to) ->
+        {
+            Scratch scratch = new Scratch();
+            for(int i = from; i < to; i++)
+            {
+                slots[i].setWeight(1.0);
+                slotLabels[i] = generate(first + i, slots[i].getNumericalValues(), scratch);
+            }
+        }));
+        for(int i = 0; i < n; i++)
+            batch.add(slots[i], slotLabels[i]);
+        pos += n;
+        return true;
+    }
+
+    @Override
+    public void reset()
+    {
+        pos = 0;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    /**
+     * Makes one row into the given vector
+     *
+     * @return the class label of the row
+     */
+    private int generate(long row, Vec out, Scratch scratch)
+    {
+        SplittableRandom rand = new SplittableRandom(rowSeeds.splitSeed(row));
+        scratch.hasSpare = false;
+        //binary search for the first component whose running weight is
+        //past a uniform draw
+        double u = rand.nextDouble() * cumulativeWeight[cumulativeWeight.length - 1];
+        int lo = 0, hi = cumulativeWeight.length - 1;
+        while(lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if(cumulativeWeight[mid] > u)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        Component component = components.get(lo);
+        component.sample(rand, out, scratch);
+        return component.label;
+    }
+
+    /**
+     * Working space for the rows made by one task
+     */
+    private static class Scratch
+    {
+        double[] z = new double[0];
+        int[] words = new int[0];
+        boolean hasSpare;
+        double spare;
+
+        /**
+         * Marsaglia's polar method, keeping the second value for the next
+         * call
+         */
+        double nextGaussian(SplittableRandom rand)
+        {
+            if(hasSpare)
+            {
+                hasSpare = false;
+                return spare;
+            }
+            double v1, v2, s;
+            do
+            {
+                v1 = 2 * rand.nextDouble() - 1;
+                v2 = 2 * rand.nextDouble() - 1;
+                s = v1 * v1 + v2 * v2;
+            }
+            while(s >= 1 || s == 0);
+            double mult = Math.sqrt(-2 * Math.log(s) / s);
+            spare = v2 * mult;
+            hasSpare = true;
+            return v1 * mult;
+        }
+    }
+
+    private static abstract class Component
+    {
+        final int label;
+
+        Component(int label)
+        {
+            this.label = label;
+        }
+
+        /**
+         * @return the most non-zeros a row from this component can have
+         */
+        abstract int maxNnz();
+
+        abstract void sample(SplittableRandom rand, Vec out, Scratch scratch);
+    }
+
+    private static class Gaussian extends Component
+    {
+        final double[] mean;
+        /**
+         * Standard deviation of each feature, or null if there is a full
+         * covariance
+         */
+        final double[] stdDevs;
+        /**
+         * Packed lower triangle of the Cholesky factor, or null if the
+         * covariance is diagonal
+         */
+        final double[] lower;
+
+        Gaussian(int label, double[] mean, double[] stdDevs, double[] lower)
+        {
+            super(label);
+            this.mean = mean;
+            this.stdDevs = stdDevs;
+            this.lower = lower;
+        }
+
+        @Override
+        int maxNnz()
+        {
+            return mean.length;
+        }
+
+        @Override
+        void sample(SplittableRandom rand, Vec out, Scratch scratch)
+        {
+            int d = mean.length;
+            if(lower == null)
+            {
+                for(int j = 0; j < d; j++)
+                    out.set(j, mean[j] + stdDevs[j] * scratch.nextGaussian(rand));
+                return;
+            }
+            if(scratch.z.length < d)
+                scratch.z = new double[d];
+            double[] z = scratch.z;
+            for(int j = 0; j < d; j++)
+                z[j] = scratch.nextGaussian(rand);
+            for(int i = 0, offset = 0; i < d; offset += ++i)
+            {
+                double x = mean[i];
+                for(int j = 0; j <= i; j++)
+                    x += lower[offset + j] * z[j];
+                out.set(i, x);
+            }
+        }
+    }
+
+    private static class SparseCounts extends Component
+    {
+        final int[] informative;
+        final int nnz;
+        final double signal;
+
+        SparseCounts(int label, int[] informative, int nnz, double signal)
+        {
+            super(label);
+            this.informative = informative;
+            this.nnz = nnz;
+            this.signal = signal;
+        }
+
+        @Override
+        int maxNnz()
+        {
+            return nnz;
+        }
+
+        @Override
+        void sample(SplittableRandom rand, Vec out, Scratch scratch)
+        {
+            if(scratch.words.length < nnz)
+                scratch.words = new int[nnz];
+            int[] words = scratch.words;
+            int d = out.length();
+            for(int w = 0; w < nnz; w++)
+                words[w] = rand.nextDouble() < signal ? informative[rand.nextInt(informative.length)] : rand.nextInt(d);
+            //sorted words let the sparse vector append each new feature to
+            //its end, with repeats added up into counts
+            Arrays.sort(words, 0, nnz);
+            out.zeroOut();
+            for(int w = 0; w < nnz; )
+            {
+                int start = w;
+                while(w < nnz && words[w] == words[start])
+                    w++;
+                out.set(words[start], w - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.kernels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import jsat.DataSet;
+import jsat.distributions.kernels.KernelTrick;
+import jsat.parameters.Parameter;
+
+/**
+ * A cache of kernel matrix rows with a fixed memory budget, that many models
+ * can share. JSAT's {@link jsat.classifiers.svm.SupportVectorLearner.CacheMode}
+ * lets a model keep either the whole kernel matrix, which needs memory
+ * quadratic in the number of training points, or a small number of rows.
+ * This cache holds as many rows as fit in its budget, and when it is full
+ * evicts the rows that have not been used recently.<br>
+ * <br>
+ * Each row is a plain {@code double[]} with one value per training point.
+ * Values that have not been computed yet are NaN, and the model using the
+ * row fills them in as it needs them. Eviction uses the clock algorithm, an
+ * approximation of least recently used that only needs one bit per row. An
+ * evicted row is only dropped from the cache, so a model that is still
+ * holding on to it can keep using it safely.<br>
+ * <br>
+ * Rows are grouped by a {@link Namespace}, made up of the training data set
+ * and the kernel with all its parameter values. Two models trained on the
+ * same data set object with the same kernel settings get the same namespace,
+ * so they share every row. This happens all the time in a parameter search,
+ * where the same cross validation folds are trained on again and again with
+ * different values of C but the same kernel width. The data set must not be
+ * changed while models that share a cache are trained on it.<br>
+ * <br>
+ * All the methods are thread safe, so models being trained in parallel can
+ * share one cache. Looking up a row takes a lock, but the values in it are
+ * read and written without one. That is safe because every thread that
+ * fills in a value writes the same number.
+ *
+ * @author Edward Raff
+ */
+public class KernelRowCache
+{
+    /**
+     * Rough size of the header of an array, counted against the budget
+     */
+    private static final int ARRAY_OVERHEAD = 16;
+
+    private final long budget;
+    private long used = 0;
+    private final Map<Long, Row> rows = new HashMap<>();
+    private final List<Row> clock = new ArrayList<>();
+    private int hand = 0;
+
+    private final Map<DataSet, Map<String, Namespace>> namespaces = new WeakHashMap<>();
+    private long nextNamespace = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rowHits = new LongAdder();
+    private final LongAdder rowMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * The cached rows for one training set and kernel configuration
+     */
+    public static class Namespace
+    {
+        private final long id;
+        private final int rows;
+
+        private Namespace(long id, int rows)
+        {
+            this.id = id;
+            this.rows = rows;
+        }
+
+        /**
+         * @return the number of rows, which is the number of training points
+         */
+        public int getRows()
+        {
+            return rows;
+        }
+    }
+
+    private static class Row
+    {
+        final long key;
+        final double[] values;
+        boolean referenced;
+
+        Row(long key, double[] values)
+        {
+            this.key = key;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Creates a new cache
+     *
+     * @param budget the most memory, in bytes, to use for cached rows
+     */
+    public KernelRowCache(long budget)
+    {
+        if(budget <= 0)
+            throw new IllegalArgumentException("Budget must be positive, not " + budget);
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the namespace for a training set and kernel, creating it if
+     * needed. The kernel's parameters are read when this is called, so it
+     * should be called right before training.
+     *
+     * @param data the training data set
+     * @param kernel the kernel, with the parameter values it will be used
+     * with
+     * @return the namespace for the pair
+     */
+    public synchronized Namespace namespace(DataSet data, KernelTrick kernel)
+    {
+        int n = data.getSampleSize();
+        String kernelKey = kernelKey(kernel);
+        Map<String, Namespace> forData = namespaces.get(data);
+        if(forData == null)
+            namespaces.put(data, forData = new HashMap<>());
+        Namespace ns = forData.get(kernelKey);
+        if(ns == null || ns.rows != n)//a changed size means the data set was altered, so start over
+        {
+            if(nextNamespace > Integer.MAX_VALUE)
+                throw new IllegalStateException("Cache has run out of namespaces, create a new one");
+            ns = new Namespace(nextNamespace++, n);
+            forData.put(kernelKey, ns);
+        }
+        return ns;
+    }
+
+    /**
+     * Gets a row of the kernel matrix. Entries that have not been computed
+     * yet are NaN, and the caller should fill them in as it computes them. A
+     * row that is larger than the whole budget is never cached, and is
+     * returned as a new array every time.
+     *
+     * @param ns the namespace of the training set and kernel
+     * @param row the index of the row
+     * @return the row, of length {@link Namespace#getRows() }
+     */
+    public synchronized double[] getRow(Namespace ns, int row)
+    {
+        long key = (ns.id << 32) | row;
+        Row entry = rows.get(key);
+        if(entry != null)
+        {
+            entry.referenced = true;
+            rowHits.increment();
+            return entry.values;
+        }
+        rowMisses.increment();
+
+        double[] values = new double[ns.rows];
+        Arrays.fill(values, Double.NaN);
+        long bytes = rowBytes(values);
+        if(bytes > budget)
+            return values;
+        while(used + bytes > budget)
+            evict();
+        entry = new Row(key, values);
+        rows.put(key, entry);
+        clock.add(entry);
+        used += bytes;
+        return values;
+    }
+
+    /**
+     * Clock eviction: skip over (and clear the bit of) recently used rows
+     * until one is found that wasn't
+     */
+    private void evict()
+    {
+        while(true)
+        {
+            if(hand >= clock.size())
+                hand = 0;
+            Row entry = clock.get(hand);
+            if(entry.referenced)
+            {
+                entry.referenced = false;
+                hand++;
+                continue;
+            }
+            //move the last row into this spot, so removal is O(1)
+            Row last = clock.remove(clock.size() - 1);
+            if(last != entry)
+                clock.set(hand, last);
+            rows.remove(entry.key);
+            used -= rowBytes(entry.values);
+            evictions.increment();
+            return;
+        }
+    }
+
+    private static long rowBytes(double[] values)
+    {
+        return ARRAY_OVERHEAD + (long) values.length * Double.BYTES;
+    }
+
+    /**
+     * Adds to the count of kernel values found in, and missing from, the
+     * cached rows. The values are read directly from the rows, so only the
+     * models using them know these numbers. Models should add their counts
+     * up locally and report them once in a while, such as at the end of
+     * training.
+     *
+     * @param hits the number of values that were already computed
+     * @param misses the number of values that had to be computed
+     */
+    public void recordLookups(long hits, long misses)
+    {
+        this.hits.add(hits);
+        this.misses.add(misses);
+    }
+
+    /**
+     * Removes every row from the cache. The statistics are kept.
+     */
+    public synchronized void clear()
+    {
+        rows.clear();
+        clock.clear();
+        hand = 0;
+        used = 0;
+    }
+
+    /**
+     * @return the memory budget, in bytes
+     */
+    public long getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * @return the bytes used by the rows currently in the cache
+     */
+    public synchronized long getBytesUsed()
+    {
+        return used;
+    }
+
+    /**
+     * @return the number of rows currently in the cache
+     */
+    public synchronized int getCachedRows()
+    {
+        return rows.size();
+    }
+
+    /**
+     * @return the number of kernel values that were found already computed,
+     * as reported by {@link #recordLookups(long, long) }
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of kernel values that had to be computed, as
+     * reported by {@link #recordLookups(long, long) }
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return the fraction of kernel values that were found already computed,
+     * or 0 if there have been no lookups
+     */
+    public double getHitRate()
+    {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return the number of times a requested row was in the cache
+     */
+    public long getRowHits()
+    {
+        return rowHits.sum();
+    }
+
+    /**
+     * @return the number of times a requested row was not in the cache, and
+     * a new one was made
+     */
+    public long getRowMisses()
+    {
+        return rowMisses.sum();
+    }
+
+    /**
+     * @return the number of rows that have been evicted to make room for new
+     * ones
+     */
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * Resets all the hit, miss and eviction counts to zero
+     */
+    public void resetStats()
+    {
+        hits.reset();
+        misses.reset();
+        rowHits.reset();
+        rowMisses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("KernelRowCache(%,d of %,d bytes used, hit rate %.3f, %,d row misses, %,d evictions)",
+                getBytesUsed(), budget, getHitRate(), getRowMisses(), getEvictions());
+    }
+
+    private static String kernelKey(KernelTrick kernel)
+    {
+        StringBuilder sb = new StringBuilder(kernel.getClass().getName());
+        for(Parameter param : kernel.getParameters())
+            sb.append(' ').append(param.getASCIIName()).append('=').append(param.getValueString());
+        return sb.toString();
+    }
+}
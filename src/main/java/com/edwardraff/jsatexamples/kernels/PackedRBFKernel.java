@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.kernels;
+
+import com.edwardraff.jsatexamples.linear.NormCache;
+import java.util.List;
+import jsat.distributions.kernels.RBFKernel;
+import jsat.linear.Vec;
+
+/**
+ * The RBF kernel, with a {@link NormCache} as its acceleration cache and a
+ * {@link NormCache.Query} as its query info. The RBF kernel is
+ * exp(&minus;||x&minus;y||<sup>2</sup>/(2&sigma;<sup>2</sup>)), and JSAT
+ * already finds the squared distance from cached norms and one dot product.
+ * This kernel does the same math, so it gives the same values as
+ * {@link RBFKernel}, but reads the norms and vectors from primitive arrays.
+ * The dot product of a sparse training point with a query only reads the
+ * point's non-zeros, which helps most for data like MNIST that is mostly
+ * zeros.<br>
+ * <br>
+ * It can be used anywhere an RBFKernel is, such as in PlattSMO or
+ * {@link com.edwardraff.jsatexamples.classifiers.CachedPlattSMO}. Its
+ * parameter is named "PackedRBFKernel_Sigma" in a parameter search.
+ * {@link #eval(int, List, List, int, int, double[]) } computes a whole range
+ * of a kernel row at once.
+ *
+ * @author Edward Raff
+ */
+public class PackedRBFKernel extends RBFKernel
+{
+    private static final long serialVersionUID = -6215043759310987364L;
+
+    /**
+     * Creates a new RBF kernel with a width of 1
+     */
+    public PackedRBFKernel()
+    {
+        super();
+    }
+
+    /**
+     * Creates a new RBF kernel
+     *
+     * @param sigma the width of the kernel
+     */
+    public PackedRBFKernel(double sigma)
+    {
+        super(sigma);
+    }
+
+    /**
+     * The same value RBFKernel keeps, 1/(2&sigma;<sup>2</sup>)
+     */
+    private double sigmaSqrd2Inv()
+    {
+        double sigma = getSigma();
+        return 0.5 / (sigma * sigma);
+    }
+
+    @Override
+    public List<Double> getAccelerationCache(List<? extends Vec> trainingSet)
+    {
+        return new NormCache(trainingSet);
+    }
+
+    @Override
+    public List<Double> getQueryInfo(Vec q)
+    {
+        return new NormCache.Query(q);
+    }
+
+    @Override
+    public double eval(int a, int b, List<? extends Vec> trainingSet, List<Double> cache)
+    {
+        if(a == b)
+            return 1;
+        if(cache instanceof NormCache)
+        {
+            NormCache norms = (NormCache) cache;
+            if(norms.isPacked(a) && norms.isPacked(b))
+                return Math.exp(-(norms.getNorm(a) + norms.getNorm(b) - 2 * norms.dot(a, b)) * sigmaSqrd2Inv());
+        }
+        return super.eval(a, b, trainingSet, cache);
+    }
+
+    @Override
+    public double eval(int a, Vec b, List<Double> qi, List<? extends Vec> vecs, List<Double> cache)
+    {
+        if(cache instanceof NormCache && qi instanceof NormCache.Query)
+        {
+            NormCache norms = (NormCache) cache;
+            NormCache.Query query = (NormCache.Query) qi;
+            if(norms.isPacked(a))
+                return Math.exp(-(norms.getNorm(a) + query.getNorm() - 2 * norms.dot(a, query)) * sigmaSqrd2Inv());
+        }
+        return super.eval(a, b, qi, vecs, cache);
+    }
+
+    @Override
+    public double evalSum(List<? extends Vec> finalSet, List<Double> cache, double[] a, Vec b, int start, int end)
+    {
+        return evalSum(finalSet, cache, a, b, getQueryInfo(b), start, end);
+    }
+
+    @Override
+    public double evalSum(List<? extends Vec> finalSet, List<Double> cache, double[] a, Vec b, List<Double> qi, int start, int end)
+    {
+        if(!(cache instanceof NormCache) || !(qi instanceof NormCache.Query) || !((NormCache) cache).isPacked(end - 1))
+            return super.evalSum(finalSet, cache, a, b, qi, start, end);
+        NormCache norms = (NormCache) cache;
+        NormCache.Query query = (NormCache.Query) qi;
+        double gamma = sigmaSqrd2Inv();
+        double sum = 0;
+        for(int i = start; i < end; i++)
+            if(a[i] != 0)
+                sum += a[i] * Math.exp(-(norms.getNorm(i) + query.getNorm() - 2 * norms.dot(i, query)) * gamma);
+        return sum;
+    }
+
+    /**
+     * Computes a range of one row of the kernel matrix. The point the row is
+     * for is copied once, and then compared with every point in the range,
+     * which for sparse data is much faster than evaluating each entry on its
+     * own.
+     *
+     * @param a the index of the point the row is for
+     * @param vecs the training points
+     * @param cache the acceleration cache made for the training points
+     * @param from the first column to compute, inclusive
+     * @param to the last column to compute, exclusive
+     * @param out the array to write column j of the row to, at index
+     * {@code j-from}
+     */
+    public void eval(int a, List<? extends Vec> vecs, List<Double> cache, int from, int to, double[] out)
+    {
+        if(!(cache instanceof NormCache) || !((NormCache) cache).isPacked(Math.max(a, to - 1)))
+        {
+            for(int j = from; j < to; j++)
+                out[j - from] = eval(a, j, vecs, cache);
+            return;
+        }
+        NormCache norms = (NormCache) cache;
+        norms.dots(new NormCache.Query(vecs.get(a)), from, to, out);
+        double gamma = sigmaSqrd2Inv();
+        double normA = norms.getNorm(a);
+        for(int j = from; j < to; j++)
+            out[j - from] = j == a ? 1 : Math.exp(-(normA + norms.getNorm(j) - 2 * out[j - from]) * gamma);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Packed RBF Kernel( \u03c3 = " + getSigma() + ")";
+    }
+
+    @Override
+    public PackedRBFKernel clone()
+    {
+        return new PackedRBFKernel(getSigma());
+    }
+}
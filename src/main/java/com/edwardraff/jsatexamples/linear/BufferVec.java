@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.linear;
+
+import java.nio.DoubleBuffer;
+import jsat.linear.DenseVector;
+import jsat.linear.Vec;
+
+/**
+ * A dense vector whose values live in a region of a {@link DoubleBuffer},
+ * rather than in its own {@code double[]}. The buffer can be a memory mapped
+ * file or direct (off heap) memory, so a data set can be used without ever
+ * copying its values onto the Java heap. Many vectors can share one buffer,
+ * each one being a view of a different region.<br>
+ * <br>
+ * Changes to the vector write through to the buffer. If the buffer is read
+ * only, like a file mapped for reading, the first change copies the vector's
+ * values onto the heap, and from then on the vector is no longer a view.
+ * {@link #clone() } returns a normal {@link DenseVector} copy.
+ *
+ * @author Edward Raff
+ */
+public class BufferVec extends Vec
+{
+    private static final long serialVersionUID = 5317497281442128542L;
+
+    private transient DoubleBuffer buffer;
+    private int offset;
+    private final int length;
+
+    /**
+     * Creates a new vector view of a buffer
+     *
+     * @param buffer the buffer holding the values
+     * @param offset the index in the buffer of the first value
+     * @param length the number of values in the vector
+     */
+    public BufferVec(DoubleBuffer buffer, int offset, int length)
+    {
+        if(offset < 0 || length < 0 || offset + length > buffer.limit())
+            throw new IndexOutOfBoundsException("Region [" + offset + ", " + (offset + length) + ") is outside the buffer of size " + buffer.limit());
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public double get(int index)
+    {
+        if(index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + length + ")");
+        return buffer.get(offset + index);
+    }
+
+    @Override
+    public void set(int index, double val)
+    {
+        if(index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + length + ")");
+        if(buffer.isReadOnly())
+        {
+            buffer = DoubleBuffer.wrap(arrayCopy());
+            offset = 0;
+        }
+        buffer.put(offset + index, val);
+    }
+
+    @Override
+    public boolean canBeMutated()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isSparse()
+    {
+        return false;
+    }
+
+    @Override
+    public double dot(Vec v)
+    {
+        if(v.isSparse())
+            return v.dot(this);
+        if(v.length() != length)
+            throw new ArithmeticException("Vectors must have the same length");
+        double dot = 0;
+        for(int i = 0; i < length; i++)
+            dot += buffer.get(offset + i) * v.get(i);
+        return dot;
+    }
+
+    @Override
+    public double[] arrayCopy()
+    {
+        double[] copy = new double[length];
+        for(int i = 0; i < length; i++)
+            copy[i] = buffer.get(offset + i);
+        return copy;
+    }
+
+    @Override
+    public Vec clone()
+    {
+        return new DenseVector(arrayCopy());
+    }
+
+    /**
+     * Vectors backed by a buffer are written out as a plain dense vector,
+     * since the buffer itself can not be serialized.
+     */
+    private Object writeReplace()
+    {
+        return clone();
+    }
+}
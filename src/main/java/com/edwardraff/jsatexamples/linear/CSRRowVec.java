@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.linear;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import jsat.linear.IndexValue;
+import jsat.linear.SparseVector;
+import jsat.linear.Vec;
+
+/**
+ * A sparse vector that is a view of one row of a compressed sparse row (CSR)
+ * structure. The indices and values of many rows are stored back to back in
+ * two shared arrays, and this vector only remembers where its row starts and
+ * how many non-zeros it has.<br>
+ * <br>
+ * Changes to existing non-zero values are written to the shared arrays. There
+ * is no room in the shared arrays to make a zero value non-zero, so when that
+ * happens the row is first copied into arrays of its own, and from then on
+ * this vector is no longer a view. Use {@link #clone() } to get a normal
+ * {@link SparseVector}, which is also what is written when this vector is
+ * serialized.
+ *
+ * @author Edward Raff
+ */
+public class CSRRowVec extends Vec
+{
+    private static final long serialVersionUID = -3125315468742553405L;
+
+    //read directly by NormCache
+    int[] indices;
+    double[] values;
+    int start;
+    int nnz;
+    private final int length;
+    /**
+     * True once the row has been copied out of the shared arrays
+     */
+    private boolean copied = false;
+
+    /**
+     * Creates a new view of one row
+     *
+     * @param indices the shared array of indices, which must be sorted in
+     * increasing order within the row
+     * @param values the shared array of values
+     * @param start the position in the shared arrays of the row's first
+     * non-zero
+     * @param nnz the number of non-zeros in the row
+     * @param length the length of the vector
+     */
+    public CSRRowVec(int[] indices, double[] values, int start, int nnz, int length)
+    {
+        this.indices = indices;
+        this.values = values;
+        this.start = start;
+        this.nnz = nnz;
+        this.length = length;
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public int nnz()
+    {
+        return nnz;
+    }
+
+    private int find(int index)
+    {
+        if(index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + length + ")");
+        return Arrays.binarySearch(indices, start, start + nnz, index);
+    }
+
+    @Override
+    public double get(int index)
+    {
+        int pos = find(index);
+        return pos < 0 ? 0.0 : values[pos];
+    }
+
+    @Override
+    public void set(int index, double val)
+    {
+        int pos = find(index);
+        if(pos >= 0)
+        {
+            values[pos] = val;
+            return;
+        }
+        if(val == 0)
+            return;
+        int insert = -(pos + 1) - start;
+        if(!copied || nnz == indices.length)
+        {
+            //copy on write, with room to grow so that filling in a row is not quadratic
+            int[] newIndices = new int[Math.max(4, nnz * 2)];
+            double[] newValues = new double[newIndices.length];
+            System.arraycopy(indices, start, newIndices, 0, nnz);
+            System.arraycopy(values, start, newValues, 0, nnz);
+            indices = newIndices;
+            values = newValues;
+            start = 0;
+            copied = true;
+        }
+        System.arraycopy(indices, insert, indices, insert + 1, nnz - insert);
+        System.arraycopy(values, insert, values, insert + 1, nnz - insert);
+        indices[insert] = index;
+        values[insert] = val;
+        nnz++;
+    }
+
+    @Override
+    public boolean canBeMutated()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isSparse()
+    {
+        return true;
+    }
+
+    @Override
+    public double dot(Vec v)
+    {
+        double dot = 0;
+        if(v instanceof CSRRowVec)//merge the two sorted index lists
+        {
+            CSRRowVec b = (CSRRowVec) v;
+            int i = start, j = b.start;
+            int iEnd = start + nnz, jEnd = b.start + b.nnz;
+            while(i < iEnd && j < jEnd)
+            {
+                int ai = indices[i], bj = b.indices[j];
+                if(ai == bj)
+                    dot += values[i++] * b.values[j++];
+                else if(ai < bj)
+                    i++;
+                else
+                    j++;
+            }
+            return dot;
+        }
+        for(int i = start; i < start + nnz; i++)
+            dot += values[i] * v.get(indices[i]);
+        return dot;
+    }
+
+    @Override
+    public Iterator<IndexValue> getNonZeroIterator(int from)
+    {
+        int first = Arrays.binarySearch(indices, start, start + nnz, from);
+        final int begin = first >= 0 ? first : -(first + 1);
+        return new Iterator<IndexValue>()
+        {
+            int pos = begin;
+            final IndexValue iv = new IndexValue(0, 0);
+
+            @Override
+            public boolean hasNext()
+            {
+                return pos < start + nnz;
+            }
+
+            @Override
+            public IndexValue next()
+            {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                iv.setIndex(indices[pos]);
+                iv.setValue(values[pos]);
+                pos++;
+                return iv;
+            }
+        };
+    }
+
+    @Override
+    public SparseVector clone()
+    {
+        return new SparseVector(Arrays.copyOfRange(indices, start, start + nnz), Arrays.copyOfRange(values, start, start + nnz), length, nnz);
+    }
+
+    /**
+     * Serializes a copy of only this row, rather than the shared arrays of
+     * every row
+     *
+     * @return a {@link SparseVector} with the same values
+     */
+    protected Object writeReplace()
+    {
+        return clone();
+    }
+}
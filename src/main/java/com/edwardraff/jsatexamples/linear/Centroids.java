@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.linear;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import jsat.linear.IndexValue;
+import jsat.linear.Vec;
+
+/**
+ * A fixed set of centroids, such as the means of k-means, stored so the
+ * squared Euclidean distances from a point to all of them can be found in
+ * one pass over the point. The centroids are kept transposed: the values of
+ * feature j for every centroid are next to each other. Each non-zero of the
+ * point is then multiplied into one contiguous run of the array, adding to
+ * the dot product with every centroid at once, and the distances follow
+ * from ||x||<sup>2</sup>+||m||<sup>2</sup>&minus;2x&middot;m. A sparse point
+ * only costs its non-zeros times the number of centroids, and the runs are
+ * long enough for the JIT to use SIMD instructions on them.<br>
+ * <br>
+ * {@link #sqrdDists(List, int, int, double[]) } does this for many points at
+ * a time, copying the non-zeros of a block of points into primitive arrays
+ * first so the inner loop doesn't go through the {@link Vec} of each one.
+ * Splitting the centroids into groups that fit in cache was tried as well,
+ * but the runs become short enough that it is slower, even for thousands of
+ * centroids.<br>
+ * <br>
+ * The distances can differ from the ones computed directly in the last few
+ * bits, so when two centroids are almost exactly as close to a point,
+ * {@link #nearest(Vec) } may pick a different one than comparing the
+ * distances of a {@link jsat.linear.distancemetrics.EuclideanDistance}
+ * would.
+ *
+ * @author Edward Raff
+ */
+public class Centroids
+{
+    private final int k;
+    private final int dim;
+    /**
+     * Feature j of centroid c is at {@code j*k+c}
+     */
+    private final double[] transposed;
+    private final double[] norms;
+    /**
+     * The non-zeros of the points of one block, reused between calls
+     */
+    private int[] blockIndices = new int[0];
+    private double[] blockValues = new double[0];
+    private final int[] blockStart = new int[BLOCK + 1];
+    private final double[] blockNorms = new double[BLOCK];
+    /**
+     * The dot products of one point with every centroid
+     */
+    private final double[] acc;
+
+    /**
+     * The number of points done together
+     */
+    private static final int BLOCK = 64;
+
+    /**
+     * Copies a list of centroids
+     *
+     * @param centroids the centroids, which must all have the same length
+     */
+    public Centroids(List<? extends Vec> centroids)
+    {
+        if(centroids.isEmpty())
+            throw new IllegalArgumentException("There must be at least one centroid");
+        k = centroids.size();
+        dim = centroids.get(0).length();
+        transposed = new double[dim * k];
+        norms = new double[k];
+        for(int c = 0; c < k; c++)
+        {
+            Vec m = centroids.get(c);
+            if(m.length() != dim)
+                throw new IllegalArgumentException("Centroid " + c + " has length " + m.length() + ", not " + dim);
+            for(IndexValue iv : m)
+                transposed[iv.getIndex() * k + c] = iv.getValue();
+            norms[c] = m.dot(m);
+        }
+        acc = new double[k];
+    }
+
+    /**
+     * @return the number of centroids
+     */
+    public int getK()
+    {
+        return k;
+    }
+
+    /**
+     * Computes the squared distances from a range of points to every
+     * centroid. Not safe to call from more than one thread at a time.
+     *
+     * @param points the points
+     * @param from the index of the first point, inclusive
+     * @param to the index of the last point, exclusive
+     * @param out the array to write the distances to, as a row major matrix
+     * with one row of {@link #getK() } distances per point
+     */
+    public void sqrdDists(List<? extends Vec> points, int from, int to, double[] out)
+    {
+        if(out.length < (long) (to - from) * k)
+            throw new IllegalArgumentException("Output array of length " + out.length + " can not hold " + (to - from) + " rows of " + k + " distances");
+        for(int b = from; b < to; b += BLOCK)
+        {
+            int size = Math.min(BLOCK, to - b);
+            gather(points, b, size);
+            int row = (b - from) * k;
+            for(int i = 0; i < size; i++)
+            {
+                /*
+                 * Sum into a separate array and copy it out after, writing to
+                 * out directly keeps the JIT from vectorizing the loop
+                 */
+                Arrays.fill(acc, 0.0);
+                for(int p = blockStart[i]; p < blockStart[i + 1]; p++)
+                    axpy(acc, blockValues[p], transposed, blockIndices[p] * k);
+                System.arraycopy(acc, 0, out, row + i * k, k);
+            }
+            for(int i = 0; i < size; i++)
+            {
+                int offset = row + i * k;
+                for(int c = 0; c < k; c++)
+                    out[offset + c] = Math.max(blockNorms[i] + norms[c] - 2 * out[offset + c], 0);
+            }
+        }
+    }
+
+    /**
+     * Finds the nearest centroid to each of a range of points. Not safe to
+     * call from more than one thread at a time.
+     *
+     * @param points the points
+     * @param from the index of the first point, inclusive
+     * @param to the index of the last point, exclusive
+     * @param nearest the array to write the index of the nearest centroid of
+     * point i to, at index {@code i-from}
+     */
+    public void nearest(List<? extends Vec> points, int from, int to, int[] nearest)
+    {
+        double[] dists = new double[Math.min(BLOCK, Math.max(to - from, 0)) * k];
+        for(int b = from; b < to; b += BLOCK)
+        {
+            int end = Math.min(b + BLOCK, to);
+            sqrdDists(points, b, end, dists);
+            for(int i = b; i < end; i++)
+            {
+                int offset = (i - b) * k;
+                int best = 0;
+                for(int c = 1; c < k; c++)
+                    if(dists[offset + c] < dists[offset + best])
+                        best = c;
+                nearest[i - from] = best;
+            }
+        }
+    }
+
+    /**
+     * Finds the nearest centroid to one point. Not safe to call from more
+     * than one thread at a time.
+     *
+     * @param x the point
+     * @return the index of the nearest centroid
+     */
+    public int nearest(Vec x)
+    {
+        int[] out = new int[1];
+        nearest(Collections.singletonList(x), 0, 1, out);
+        return out[0];
+    }
+
+    private static void axpy(double[] y, double a, double[] x, int xOffset)
+    {
+        for(int c = 0; c < y.length; c++)
+            y[c] += a * x[xOffset + c];
+    }
+
+    /**
+     * Copies the non-zeros of a block of points into the block arrays, and
+     * finds their squared norms
+     */
+    private void gather(List<? extends Vec> points, int from, int size)
+    {
+        int total = 0;
+        for(int i = 0; i < size; i++)
+            total += points.get(from + i).nnz();
+        if(blockIndices.length < total)
+        {
+            blockIndices = new int[total];
+            blockValues = new double[total];
+        }
+        int pos = 0;
+        for(int i = 0; i < size; i++)
+        {
+            Vec x = points.get(from + i);
+            if(x.length() != dim)
+                throw new IllegalArgumentException("Point has length " + x.length() + ", not " + dim);
+            blockStart[i] = pos;
+            for(IndexValue iv : x)
+            {
+                blockIndices[pos] = iv.getIndex();
+                blockValues[pos++] = iv.getValue();
+            }
+            blockNorms[i] = x.dot(x);
+        }
+        blockStart[size] = pos;
+    }
+}
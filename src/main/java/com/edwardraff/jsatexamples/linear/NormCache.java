@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.linear;
+
+import com.edwardraff.jsatexamples.classifiers.ModelInternals;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import jsat.linear.DenseVector;
+import jsat.linear.IndexValue;
+import jsat.linear.Vec;
+import jsat.utils.DoubleList;
+
+/**
+ * The squared norms of a list of vectors, along with a copy of the vectors
+ * packed into primitive arrays. JSAT's distance metrics and kernels that
+ * work with the Euclidean distance keep an "acceleration cache" of the
+ * squared norms, so that the squared distance between two vectors can be
+ * found as ||x||<sup>2</sup>+||y||<sup>2</sup>&minus;2x&middot;y with one dot
+ * product. The cache is a {@code List<Double>}, so every lookup unboxes a
+ * norm, and the dot product goes through whatever {@link Vec} classes the
+ * data set happens to use. This class is that cache, so it can be given to
+ * any JSAT code that expects one, but it also keeps each vector as either a
+ * dense {@code double[]} or a sparse run of indices and values, so
+ * {@link PackedEuclideanDistance} and
+ * {@link com.edwardraff.jsatexamples.kernels.PackedRBFKernel} can compute
+ * the dot products directly.<br>
+ * <br>
+ * Rows that are {@link CSRRowVec} views or {@link DenseVector}s are not
+ * copied, their arrays are used as is. Other sparse vectors are copied into
+ * one array of indices and one of values, and other dense vectors into their
+ * own array.<br>
+ * <br>
+ * A {@link Query} holds a dense copy of a vector that is compared with many
+ * of the rows, such as a mean in k-means or the point a kernel model is
+ * classifying. The dot product of a sparse row with it reads just the row's
+ * non-zeros and the query values at their indices, without having to merge
+ * two lists of indices.<br>
+ * <br>
+ * JSAT's online kernel methods add norms to the cache as they add vectors,
+ * and some remove them. Added vectors are not packed, and removing or
+ * replacing the norm of a packed vector stops every vector after it from
+ * being used packed, since they no longer line up with the list. The
+ * {@link #isPacked(int) } check tells the metric or kernel when to fall back
+ * to the vector itself.<br>
+ * <br>
+ * Only the norms are serialized, as a {@link DoubleList}, which is what JSAT
+ * itself uses for the cache. The packed rows are a copy or a view of the
+ * model's own vectors, so a model that is read back in simply uses its
+ * vectors directly.
+ *
+ * @author Edward Raff
+ */
+public class NormCache extends AbstractList<Double> implements RandomAccess, Serializable
+{
+    private static final long serialVersionUID = 1958353642143789080L;
+
+    private double[] norms;
+    private int size;
+    /**
+     * The vectors [0, packed) are in the packed arrays
+     */
+    private int packed;
+    /**
+     * The index and value arrays of each sparse row, or {@code null} for a
+     * dense row
+     */
+    private final int[][] rowIndices;
+    private final double[][] rowValues;
+    private final int[] rowStart;
+    /**
+     * The non-zeros of each sparse row, or the length of each dense one
+     */
+    private final int[] rowNnz;
+    /**
+     * The values of each dense row, or {@code null} for a sparse row. A row
+     * wrapping a DenseVector starts at its offset in the array.
+     */
+    private final double[][] dense;
+    private final int[] denseStart;
+
+    /**
+     * Creates the cache for a list of vectors. The norms are computed the
+     * same way JSAT computes them, as {@code x.dot(x)}.
+     *
+     * @param vecs the vectors
+     */
+    public NormCache(List<? extends Vec> vecs)
+    {
+        int n = vecs.size();
+        norms = new double[Math.max(n, 1)];
+        size = packed = n;
+        rowIndices = new int[n][];
+        rowValues = new double[n][];
+        rowStart = new int[n];
+        rowNnz = new int[n];
+        dense = new double[n][];
+        denseStart = new int[n];
+
+        //every sparse row that isn't already a CSR view goes in one block
+        int copiedNnz = 0;
+        for(Vec x : vecs)
+            if(x.isSparse() && !(x instanceof CSRRowVec))
+                copiedNnz += x.nnz();
+        int[] indices = new int[copiedNnz];
+        double[] values = new double[copiedNnz];
+        int pos = 0;
+        for(int i = 0; i < n; i++)
+        {
+            Vec x = vecs.get(i);
+            norms[i] = x.dot(x);
+            if(x instanceof CSRRowVec)
+            {
+                CSRRowVec row = (CSRRowVec) x;
+                rowIndices[i] = row.indices;
+                rowValues[i] = row.values;
+                rowStart[i] = row.start;
+                rowNnz[i] = row.nnz;
+            }
+            else if(x.isSparse())
+            {
+                rowIndices[i] = indices;
+                rowValues[i] = values;
+                rowStart[i] = pos;
+                for(IndexValue iv : x)
+                {
+                    indices[pos] = iv.getIndex();
+                    values[pos++] = iv.getValue();
+                }
+                rowNnz[i] = pos - rowStart[i];
+            }
+            else if(x.getClass() == DenseVector.class)
+            {
+                //the offset of a view made by DenseVector(array, start, end)
+                dense[i] = ModelInternals.get(x, "array");
+                denseStart[i] = ModelInternals.getInt(x, "startIndex");
+                rowNnz[i] = x.length();
+            }
+            else
+            {
+                double[] d = new double[x.length()];
+                for(int j = 0; j < d.length; j++)
+                    d[j] = x.get(j);
+                dense[i] = d;
+                rowNnz[i] = d.length;
+            }
+        }
+    }
+
+    /**
+     * A vector that will be compared with many of the rows, copied into a
+     * dense array. It is also the query info list JSAT's metrics and kernels
+     * pass around, holding the squared norm of the vector.
+     */
+    public static class Query extends AbstractList<Double> implements RandomAccess, Serializable
+    {
+        private static final long serialVersionUID = 6003484804018547036L;
+
+        private final Vec x;
+        private final double norm;
+        private final double[] values;
+
+        /**
+         * Creates a query. The vector is copied, so later changes to it are
+         * not seen by the query.
+         *
+         * @param x the vector
+         */
+        public Query(Vec x)
+        {
+            this.x = x;
+            this.norm = x.dot(x);
+            this.values = new double[x.length()];
+            if(x.isSparse())
+                for(IndexValue iv : x)
+                    values[iv.getIndex()] = iv.getValue();
+            else
+                for(int j = 0; j < values.length; j++)
+                    values[j] = x.get(j);
+        }
+
+        /**
+         * @return the vector the query was made from
+         */
+        public Vec getVec()
+        {
+            return x;
+        }
+
+        /**
+         * @return the squared norm of the vector
+         */
+        public double getNorm()
+        {
+            return norm;
+        }
+
+        @Override
+        public Double get(int index)
+        {
+            if(index != 0)
+                throw new IndexOutOfBoundsException("Query info only has index 0, not " + index);
+            return norm;
+        }
+
+        @Override
+        public int size()
+        {
+            return 1;
+        }
+
+        /**
+         * Serializes just the norm, the same as JSAT's own query info
+         *
+         * @return a {@link DoubleList} holding the norm
+         */
+        protected Object writeReplace()
+        {
+            return new DoubleList(this);
+        }
+    }
+
+    /**
+     * @param i the index of a vector
+     * @return {@code true} if the vector can be used through the packed
+     * methods of this cache
+     */
+    public boolean isPacked(int i)
+    {
+        return i < packed;
+    }
+
+    /**
+     * @param i the index of a vector
+     * @return the squared norm of the vector
+     */
+    public double getNorm(int i)
+    {
+        if(i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " is not in [0, " + size + ")");
+        return norms[i];
+    }
+
+    /**
+     * Computes the dot product of two packed vectors
+     *
+     * @param a the index of the first vector
+     * @param b the index of the second vector
+     * @return the dot product of the two
+     */
+    public double dot(int a, int b)
+    {
+        checkPacked(a);
+        checkPacked(b);
+        double[] va = rowValues[a], vb = rowValues[b];
+        if(va == null && vb == null)
+            return denseDense(dense[a], denseStart[a], Math.min(rowNnz[a], rowNnz[b]), dense[b], denseStart[b]);
+        else if(va == null)
+            return sparseDense(b, dense[a], denseStart[a]);
+        else if(vb == null)
+            return sparseDense(a, dense[b], denseStart[b]);
+        //merge the two sorted index lists
+        int[] ia = rowIndices[a], ib = rowIndices[b];
+        int i = rowStart[a], j = rowStart[b];
+        int iEnd = i + rowNnz[a], jEnd = j + rowNnz[b];
+        double dot = 0;
+        while(i < iEnd && j < jEnd)
+        {
+            int ai = ia[i], bj = ib[j];
+            if(ai == bj)
+                dot += va[i++] * vb[j++];
+            else if(ai < bj)
+                i++;
+            else
+                j++;
+        }
+        return dot;
+    }
+
+    /**
+     * Computes the dot product of a packed vector with a query
+     *
+     * @param a the index of the vector
+     * @param q the query
+     * @return the dot product of the two
+     */
+    public double dot(int a, Query q)
+    {
+        checkPacked(a);
+        if(rowValues[a] != null)
+            return sparseDense(a, q.values, 0);
+        return denseDense(dense[a], denseStart[a], Math.min(rowNnz[a], q.values.length), q.values, 0);
+    }
+
+    /**
+     * Computes the dot products of a range of packed vectors with a query,
+     * which is the inner loop of a kernel row or of a kernel model's
+     * prediction.
+     *
+     * @param q the query
+     * @param from the index of the first vector, inclusive
+     * @param to the index of the last vector, exclusive
+     * @param out the array to write the dot product of vector i to, at index
+     * {@code i-from}
+     */
+    public void dots(Query q, int from, int to, double[] out)
+    {
+        checkPacked(to - 1);
+        double[] y = q.values;
+        for(int a = from; a < to; a++)
+            out[a - from] = rowValues[a] != null ? sparseDense(a, y, 0) : denseDense(dense[a], denseStart[a], Math.min(rowNnz[a], y.length), y, 0);
+    }
+
+    /**
+     * @param yStart the index in y of the dense vector's first value
+     */
+    private double sparseDense(int a, double[] y, int yStart)
+    {
+        int[] indices = rowIndices[a];
+        double[] values = rowValues[a];
+        double dot = 0;
+        for(int i = rowStart[a]; i < rowStart[a] + rowNnz[a]; i++)
+            dot += values[i] * y[yStart + indices[i]];
+        return dot;
+    }
+
+    private static double denseDense(double[] x, int xStart, int d, double[] y, int yStart)
+    {
+        double dot = 0;
+        for(int j = 0; j < d; j++)
+            dot += x[xStart + j] * y[yStart + j];
+        return dot;
+    }
+
+    private void checkPacked(int i)
+    {
+        if(i >= packed)
+            throw new IllegalArgumentException("Vector " + i + " is not packed");
+    }
+
+    @Override
+    public Double get(int index)
+    {
+        return getNorm(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public Double set(int index, Double element)
+    {
+        double old = getNorm(index);
+        norms[index] = element;
+        packed = Math.min(packed, index);
+        return old;
+    }
+
+    @Override
+    public void add(int index, Double element)
+    {
+        if(index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index " + index + " is not in [0, " + size + "]");
+        if(size == norms.length)
+            norms = Arrays.copyOf(norms, size * 2);
+        System.arraycopy(norms, index, norms, index + 1, size - index);
+        norms[index] = element;
+        size++;
+        packed = Math.min(packed, index);
+        modCount++;
+    }
+
+    /**
+     * Serializes the norms as a {@link DoubleList}, the cache JSAT would have
+     * made
+     *
+     * @return a list of the norms
+     */
+    protected Object writeReplace()
+    {
+        return new DoubleList(this);
+    }
+
+    @Override
+    public Double remove(int index)
+    {
+        double old = getNorm(index);
+        System.arraycopy(norms, index + 1, norms, index, size - index - 1);
+        size--;
+        packed = Math.min(packed, index);
+        modCount++;
+        return old;
+    }
+}
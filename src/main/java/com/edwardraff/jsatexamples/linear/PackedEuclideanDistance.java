@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.linear;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import jsat.linear.Vec;
+import jsat.linear.distancemetrics.EuclideanDistance;
+
+/**
+ * The Euclidean distance, with a {@link NormCache} as its acceleration cache
+ * and a {@link NormCache.Query} as its query info. It can be used anywhere
+ * {@link EuclideanDistance} is, such as in HamerlyKMeans, and computes the
+ * same distances with the same formula, but reads the norms and vectors from
+ * primitive arrays instead of going through boxed norms and the data set's
+ * {@link Vec} objects.<br>
+ * <br>
+ * Code that assigns many points to a few means at once, like a mini-batch
+ * k-means, can do better still with {@link Centroids}, which
+ * {@link com.edwardraff.jsatexamples.clustering.StreamingKMeans} uses when it
+ * is given this metric.
+ *
+ * @author Edward Raff
+ */
+public class PackedEuclideanDistance extends EuclideanDistance
+{
+    private static final long serialVersionUID = 6104583923405617340L;
+
+    @Override
+    public List<Double> getAccelerationCache(List<? extends Vec> vecs)
+    {
+        return new NormCache(vecs);
+    }
+
+    @Override
+    public List<Double> getAccelerationCache(List<? extends Vec> vecs, ExecutorService threadpool)
+    {
+        return new NormCache(vecs);
+    }
+
+    @Override
+    public List<Double> getQueryInfo(Vec q)
+    {
+        return new NormCache.Query(q);
+    }
+
+    @Override
+    public double dist(int a, int b, List<? extends Vec> vecs, List<Double> cache)
+    {
+        if(cache instanceof NormCache)
+        {
+            NormCache norms = (NormCache) cache;
+            if(norms.isPacked(a) && norms.isPacked(b))
+                return Math.sqrt(Math.max(norms.getNorm(a) + norms.getNorm(b) - 2 * norms.dot(a, b), 0));
+        }
+        return super.dist(a, b, vecs, cache);
+    }
+
+    @Override
+    public double dist(int a, Vec b, List<? extends Vec> vecs, List<Double> cache)
+    {
+        if(cache instanceof NormCache && ((NormCache) cache).isPacked(a))
+            return dist(a, b, getQueryInfo(b), vecs, cache);
+        return super.dist(a, b, vecs, cache);
+    }
+
+    @Override
+    public double dist(int a, Vec b, List<Double> qi, List<? extends Vec> vecs, List<Double> cache)
+    {
+        if(cache instanceof NormCache && qi instanceof NormCache.Query)
+        {
+            NormCache norms = (NormCache) cache;
+            NormCache.Query query = (NormCache.Query) qi;
+            if(norms.isPacked(a))
+                return Math.sqrt(Math.max(norms.getNorm(a) + query.getNorm() - 2 * norms.dot(a, query), 0));
+        }
+        return super.dist(a, b, qi, vecs, cache);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Packed Euclidean Distance";
+    }
+
+    @Override
+    public PackedEuclideanDistance clone()
+    {
+        return new PackedEuclideanDistance();
+    }
+}
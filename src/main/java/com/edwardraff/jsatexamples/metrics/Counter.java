@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, such as the number of rows loaded. Many threads
+ * can add to it at once without contending with each other.
+ *
+ * @author Edward Raff
+ */
+public class Counter extends Metric
+{
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String help, String[] labels)
+    {
+        super(name, help, labels);
+    }
+
+    /**
+     * Adds one to the count
+     */
+    public void increment()
+    {
+        count.increment();
+    }
+
+    /**
+     * @param amount the amount to add to the count, must not be negative
+     */
+    public void add(long amount)
+    {
+        if(amount < 0)
+            throw new IllegalArgumentException("A counter can not go down, can not add " + amount);
+        count.add(amount);
+    }
+
+    /**
+     * @return the current count
+     */
+    public long get()
+    {
+        return count.sum();
+    }
+
+    @Override
+    public String getType()
+    {
+        return "counter";
+    }
+}
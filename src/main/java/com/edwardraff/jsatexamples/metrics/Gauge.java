@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+/**
+ * A value that can go up and down, such as the error rate of the best model
+ * found so far, or how far the means moved in the last iteration of k-means.
+ *
+ * @author Edward Raff
+ */
+public class Gauge extends Metric
+{
+    private volatile double value;
+
+    Gauge(String name, String help, String[] labels)
+    {
+        super(name, help, labels);
+    }
+
+    /**
+     * @param value the new value
+     */
+    public void set(double value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * @return the current value
+     */
+    public double get()
+    {
+        return value;
+    }
+
+    @Override
+    public String getType()
+    {
+        return "gauge";
+    }
+}
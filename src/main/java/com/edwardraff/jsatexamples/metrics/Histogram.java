@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+import com.edwardraff.jsatexamples.serving.LatencyHistogram;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The distribution of a non-negative whole number, such as the number of
+ * points in each batch. Values are counted in the buckets of a
+ * {@link LatencyHistogram}, so percentiles are within about 3% of the true
+ * value and the memory used does not grow with the number of values.
+ *
+ * @author Edward Raff
+ */
+public class Histogram extends Metric
+{
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    Histogram(String name, String help, String[] labels)
+    {
+        super(name, help, labels);
+    }
+
+    /**
+     * @param value the value to record
+     */
+    public void record(long value)
+    {
+        histogram.record(value);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount()
+    {
+        return histogram.getCount();
+    }
+
+    /**
+     * @return the sum of the values recorded, in the units that
+     * {@link #getPercentile(double) } is reported in
+     */
+    public double getSum()
+    {
+        return histogram.getTotal(TimeUnit.NANOSECONDS) * getScale();
+    }
+
+    /**
+     * @param p the percentile wanted, in [0, 1]
+     * @return the value at the given percentile, or 0 if nothing has been
+     * recorded
+     */
+    public double getPercentile(double p)
+    {
+        return histogram.getPercentile(p, TimeUnit.NANOSECONDS) * getScale();
+    }
+
+    /**
+     * @return the amount a recorded value is multiplied by when it is
+     * reported
+     */
+    protected double getScale()
+    {
+        return 1;
+    }
+
+    @Override
+    public String getType()
+    {
+        return "summary";
+    }
+}
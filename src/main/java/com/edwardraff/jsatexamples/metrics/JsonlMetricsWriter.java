@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the events and metrics of a {@link MetricsRegistry} to a file, one
+ * JSON object per line. Every event becomes a line as soon as it is
+ * reported, for example
+ * <pre>
+ * {"time":1500000000000,"event":"cv_fold","model":"PlattSMO","fold":2,"train_seconds":1.52,...}
+ * </pre>
+ * Every so often, and once more when the writer is closed, a snapshot of
+ * every metric is written, one line for each:
+ * <pre>
+ * {"time":1500000000000,"metric":"jsat_load_rows_total","type":"counter","labels":{"loader":"ParallelLIBSVMLoader"},"value":500000}
+ * {"time":1500000000000,"metric":"jsat_cv_fold_train_seconds","type":"summary","labels":{"model":"PlattSMO"},"count":10,"sum":15.3,"p50":1.5,"p90":1.7,"p99":1.8}
+ * </pre>
+ * This makes the file easy to load into most analysis tools, and to read
+ * with {@code grep}.<br>
+ * <br>
+ * If writing fails, later lines are dropped so that the program being
+ * measured keeps going, and the error is thrown by {@link #close() }.
+ *
+ * @author Edward Raff
+ */
+public class JsonlMetricsWriter implements MetricsListener, Closeable
+{
+    private final MetricsRegistry registry;
+    private final Writer out;
+    private final ScheduledExecutorService snapshots;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Creates a new writer that writes a snapshot of the metrics only when it
+     * is closed, or when {@link #writeSnapshot() } is called. Any existing
+     * file is replaced.
+     *
+     * @param registry the registry to write the events and metrics of
+     * @param file the file to write to
+     * @throws IOException if the file can not be created
+     */
+    public JsonlMetricsWriter(MetricsRegistry registry, File file) throws IOException
+    {
+        this(registry, file, 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a new writer. Any existing file is replaced.
+     *
+     * @param registry the registry to write the events and metrics of
+     * @param file the file to write to
+     * @param interval the time between snapshots of the metrics, or 0 to
+     * only write one when the writer is closed
+     * @param unit the unit of the interval
+     * @throws IOException if the file can not be created
+     */
+    public JsonlMetricsWriter(MetricsRegistry registry, File file, long interval, TimeUnit unit) throws IOException
+    {
+        if(interval < 0)
+            throw new IllegalArgumentException("Interval can not be negative, not " + interval);
+        this.registry = registry;
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        if(interval > 0)
+        {
+            snapshots = Executors.newSingleThreadScheduledExecutor(r ->
+            {
+                Thread t = new Thread(r, "JsonlMetricsWriter");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshots.scheduleAtFixedRate(this::writeSnapshot, interval, interval, unit);
+        }
+        else
+            snapshots = null;
+        registry.addListener(this);
+    }
+
+    @Override
+    public void event(long time, String type, Map<String, Object> fields)
+    {
+        StringBuilder sb = new StringBuilder(64 + 24 * fields.size());
+        sb.append("{\"time\":").append(time).append(",\"event\":");
+        string(sb, type);
+        for(Map.Entry<String, Object> field : fields.entrySet())
+        {
+            sb.append(',');
+            string(sb, field.getKey());
+            sb.append(':');
+            value(sb, field.getValue());
+        }
+        sb.append("}\n");
+        write(sb, false);
+    }
+
+    /**
+     * Writes the current value of every metric, and flushes the file
+     */
+    public void writeSnapshot()
+    {
+        long time = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for(Metric metric : registry.getMetrics())
+        {
+            sb.append("{\"time\":").append(time).append(",\"metric\":");
+            string(sb, metric.getName());
+            sb.append(",\"type\":");
+            string(sb, metric.getType());
+            sb.append(",\"labels\":{");
+            for(int i = 0; i < metric.getLabelCount(); i++)
+            {
+                if(i > 0)
+                    sb.append(',');
+                string(sb, metric.getLabelName(i));
+                sb.append(':');
+                string(sb, metric.getLabelValue(i));
+            }
+            sb.append('}');
+            if(metric instanceof Counter)
+                sb.append(",\"value\":").append(((Counter) metric).get());
+            else if(metric instanceof Gauge)
+                value(sb.append(",\"value\":"), ((Gauge) metric).get());
+            else
+            {
+                Histogram histogram = (Histogram) metric;
+                sb.append(",\"count\":").append(histogram.getCount());
+                value(sb.append(",\"sum\":"), histogram.getSum());
+                for(double q : PrometheusEndpoint.QUANTILES)
+                    value(sb.append(",\"p").append(Math.round(q * 100)).append("\":"), histogram.getPercentile(q));
+            }
+            sb.append("}\n");
+        }
+        write(sb, true);
+    }
+
+    private synchronized void write(CharSequence lines, boolean flush)
+    {
+        if(closed || failure != null)
+            return;
+        try
+        {
+            out.append(lines);
+            if(flush)
+                out.flush();
+        }
+        catch(IOException ex)
+        {
+            failure = ex;
+        }
+    }
+
+    /**
+     * Stops listening for events, writes a last snapshot of the metrics, and
+     * closes the file
+     *
+     * @throws IOException if writing to the file failed at any point
+     */
+    @Override
+    public void close() throws IOException
+    {
+        registry.removeListener(this);
+        if(snapshots != null)
+            snapshots.shutdownNow();
+        synchronized(this)
+        {
+            if(closed)
+                return;
+            writeSnapshot();
+            closed = true;
+            try
+            {
+                out.close();
+            }
+            catch(IOException ex)
+            {
+                if(failure == null)
+                    failure = ex;
+            }
+            if(failure != null)
+                throw failure;
+        }
+    }
+
+    private static void value(StringBuilder sb, Object value)
+    {
+        if(value == null)
+            sb.append("null");
+        else if(value instanceof Double || value instanceof Float)
+        {
+            double d = ((Number) value).doubleValue();
+            //JSON has no NaN or infinity
+            if(Double.isNaN(d) || Double.isInfinite(d))
+                sb.append("null");
+            else
+                sb.append(d);
+        }
+        else if(value instanceof Number || value instanceof Boolean)
+            sb.append(value);
+        else
+            string(sb, value.toString());
+    }
+
+    private static void string(StringBuilder sb, String s)
+    {
+        sb.append('"');
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if(c == '\n')
+                sb.append("\\n");
+            else if(c == '\r')
+                sb.append("\\r");
+            else if(c == '\t')
+                sb.append("\\t");
+            else if(c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        sb.append('"');
+    }
+}
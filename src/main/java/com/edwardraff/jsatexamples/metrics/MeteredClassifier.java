@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import jsat.classifiers.CategoricalResults;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.DataPoint;
+import jsat.parameters.Parameter;
+import jsat.parameters.Parameterized;
+
+/**
+ * Wraps a classifier to time its training and classification in the
+ * {@link MetricsRegistry#getDefault() default registry}. Every call to
+ * {@code trainC} is also reported as a {@code train} event, with the values
+ * of the model's parameters.<br>
+ * <br>
+ * The parameters of the wrapped model are the parameters of this one, so it
+ * can be given to {@link jsat.parameters.RandomSearch} or
+ * {@link jsat.parameters.GridSearch} in place of the model. The search then
+ * reports the time of every fold of every trial, along with the parameters
+ * that trial used. The search's own code can not be changed, so this is the
+ * way to measure the searches that ship with JSAT.
+ *
+ * @author Edward Raff
+ */
+public class MeteredClassifier implements Classifier, Parameterized
+{
+    private static final long serialVersionUID = -3816002553196725480L;
+
+    private final Classifier model;
+    private final String name;
+    private transient Timer classifyTimer;
+
+    /**
+     * Creates a new metered classifier, labeled by the class name of the
+     * model
+     *
+     * @param model the model to wrap
+     */
+    public MeteredClassifier(Classifier model)
+    {
+        this(model, model.getClass().getSimpleName());
+    }
+
+    /**
+     * Creates a new metered classifier
+     *
+     * @param model the model to wrap
+     * @param name the name to label the model's metrics with
+     */
+    public MeteredClassifier(Classifier model, String name)
+    {
+        this.model = model;
+        this.name = name;
+    }
+
+    /**
+     * @return the wrapped model
+     */
+    public Classifier getModel()
+    {
+        return model;
+    }
+
+    @Override
+    public CategoricalResults classify(DataPoint data)
+    {
+        if(classifyTimer == null)
+            classifyTimer = MetricsRegistry.getDefault().timer("jsat_classify_seconds", "Time to classify one point", "model", name);
+        long start = System.nanoTime();
+        CategoricalResults result = model.classify(data);
+        classifyTimer.since(start);
+        return result;
+    }
+
+    @Override
+    public void trainC(ClassificationDataSet dataSet, ExecutorService threadPool)
+    {
+        long start = System.nanoTime();
+        model.trainC(dataSet, threadPool);
+        finished(dataSet, start);
+    }
+
+    @Override
+    public void trainC(ClassificationDataSet dataSet)
+    {
+        long start = System.nanoTime();
+        model.trainC(dataSet);
+        finished(dataSet, start);
+    }
+
+    private void finished(ClassificationDataSet dataSet, long start)
+    {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        long elapsed = metrics.timer("jsat_train_seconds", "Time to train a model", "model", name).since(start);
+        metrics.counter("jsat_train_points_total", "Points that models were trained on", "model", name).add(dataSet.getSampleSize());
+        if(metrics.hasListeners())
+            metrics.event("train", "model", name, "points", dataSet.getSampleSize(),
+                    "seconds", elapsed / 1e9, "parameters", describe(model));
+    }
+
+    /**
+     * @param model the model to describe
+     * @return the value of every parameter of the model, as
+     * {@code name=value} pairs separated by commas
+     */
+    public static String describe(Classifier model)
+    {
+        if(!(model instanceof Parameterized))
+            return "";
+        StringBuilder sb = new StringBuilder();
+        for(Parameter param : ((Parameterized) model).getParameters())
+        {
+            if(sb.length() > 0)
+                sb.append(", ");
+            sb.append(param.getASCIIName()).append('=').append(param.getValueString());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean supportsWeightedData()
+    {
+        return model.supportsWeightedData();
+    }
+
+    @Override
+    public List<Parameter> getParameters()
+    {
+        if(model instanceof Parameterized)
+            return ((Parameterized) model).getParameters();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Parameter getParameter(String paramName)
+    {
+        if(model instanceof Parameterized)
+            return ((Parameterized) model).getParameter(paramName);
+        return null;
+    }
+
+    @Override
+    public MeteredClassifier clone()
+    {
+        return new MeteredClassifier(model.clone(), name);
+    }
+}
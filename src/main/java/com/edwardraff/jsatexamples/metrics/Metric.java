@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+/**
+ * A named value kept by a {@link MetricsRegistry}. Metrics with the same name
+ * can be told apart by their labels, which are name and value pairs such as
+ * {@code model="PlattSMO"}, the same as in Prometheus.
+ *
+ * @author Edward Raff
+ */
+public abstract class Metric
+{
+    private final String name;
+    private final String help;
+    private final String[] labels;
+
+    /**
+     * @param name the name of the metric
+     * @param help a short description of the metric
+     * @param labels the label names and values, alternating
+     */
+    protected Metric(String name, String help, String[] labels)
+    {
+        this.name = name;
+        this.help = help;
+        this.labels = labels.clone();
+    }
+
+    /**
+     * @return the name of the metric
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return a short description of the metric
+     */
+    public String getHelp()
+    {
+        return help;
+    }
+
+    /**
+     * @return the number of labels
+     */
+    public int getLabelCount()
+    {
+        return labels.length / 2;
+    }
+
+    /**
+     * @param i the index of the label
+     * @return the name of the i'th label
+     */
+    public String getLabelName(int i)
+    {
+        return labels[i * 2];
+    }
+
+    /**
+     * @param i the index of the label
+     * @return the value of the i'th label
+     */
+    public String getLabelValue(int i)
+    {
+        return labels[i * 2 + 1];
+    }
+
+    /**
+     * @return the Prometheus type of the metric, one of "counter", "gauge",
+     * or "summary"
+     */
+    public abstract String getType();
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+import java.util.Map;
+
+/**
+ * Receives the events reported to a {@link MetricsRegistry}. An event is one
+ * thing that happened, such as a cross validation fold or search trial
+ * finishing, along with the details of it. Events may be reported from many
+ * threads at once.
+ *
+ * @author Edward Raff
+ */
+public interface MetricsListener
+{
+    /**
+     * Called when an event is reported
+     *
+     * @param time the time of the event, in milliseconds since the epoch
+     * @param type the type of the event
+     * @param fields the details of the event, in the order they were given
+     */
+    public void event(long time, String type, Map<String, Object> fields);
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the counters, gauges, histograms and timers of a program, and passes
+ * events on to any {@link MetricsListener listeners}. Asking for a metric
+ * with the same name and labels always returns the same object, so code can
+ * look a metric up each time it needs it instead of keeping it around.<br>
+ * <br>
+ * The classes in these examples that train many models, load data, or
+ * cluster all report to the {@link #getDefault() default registry}, so their
+ * timings can be collected from any program that uses them without changing
+ * the program. The default registry reads these system properties the first
+ * time it is used:
+ * <ul>
+ * <li>{@value #PORT_PROPERTY} starts a {@link PrometheusEndpoint} on the
+ * given port of the local machine.</li>
+ * <li>{@value #JSONL_PROPERTY} writes every event, and a snapshot of every
+ * metric, to the given file with a {@link JsonlMetricsWriter}.</li>
+ * <li>{@value #INTERVAL_PROPERTY} is the number of seconds between snapshots
+ * written to the JSONL file, 10 by default. A last snapshot is always
+ * written when the program exits.</li>
+ * <li>{@value #LINGER_PROPERTY} is the number of seconds to keep the
+ * Prometheus endpoint up after the program is done, so that the final
+ * values of a short program can still be scraped. 0 by default.</li>
+ * </ul>
+ * So running any example with
+ * {@code -Djsatexamples.metrics.port=9400 -Djsatexamples.metrics.jsonl=metrics.jsonl}
+ * is enough to see its metrics.
+ *
+ * @author Edward Raff
+ */
+public class MetricsRegistry
+{
+    /**
+     * The system property with the port to serve the default registry's
+     * metrics on
+     */
+    public static final String PORT_PROPERTY = "jsatexamples.metrics.port";
+    /**
+     * The system property with the file to write the default registry's
+     * events and metrics to
+     */
+    public static final String JSONL_PROPERTY = "jsatexamples.metrics.jsonl";
+    /**
+     * The system property with the number of seconds between snapshots of
+     * the default registry's metrics in the JSONL file
+     */
+    public static final String INTERVAL_PROPERTY = "jsatexamples.metrics.interval";
+    /**
+     * The system property with the number of seconds to keep serving the
+     * default registry's metrics after the program is done
+     */
+    public static final String LINGER_PROPERTY = "jsatexamples.metrics.linger";
+
+    //before DEFAULT, since exporting the default registry may log
+    private static final Logger LOGGER = Logger.getLogger(MetricsRegistry.class.getName());
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    static
+    {
+        exportFromProperties(DEFAULT);
+    }
+
+    /**
+     * Sorted by name and then labels, so all the metrics with one name are
+     * next to each other
+     */
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Class<?>> types = new ConcurrentHashMap<>();
+    private final List<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return the registry that the classes in these examples report to
+     */
+    public static MetricsRegistry getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets a counter, creating it if needed
+     *
+     * @param name the name of the counter
+     * @param help a short description, only used if the counter is new
+     * @param labels label names and values, alternating
+     * @return the counter
+     */
+    public Counter counter(String name, String help, String... labels)
+    {
+        return get(Counter.class, name, help, labels);
+    }
+
+    /**
+     * Gets a gauge, creating it if needed
+     *
+     * @param name the name of the gauge
+     * @param help a short description, only used if the gauge is new
+     * @param labels label names and values, alternating
+     * @return the gauge
+     */
+    public Gauge gauge(String name, String help, String... labels)
+    {
+        return get(Gauge.class, name, help, labels);
+    }
+
+    /**
+     * Gets a histogram, creating it if needed
+     *
+     * @param name the name of the histogram
+     * @param help a short description, only used if the histogram is new
+     * @param labels label names and values, alternating
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String help, String... labels)
+    {
+        return get(Histogram.class, name, help, labels);
+    }
+
+    /**
+     * Gets a timer, creating it if needed. By the Prometheus convention the
+     * name should end in {@code _seconds}.
+     *
+     * @param name the name of the timer
+     * @param help a short description, only used if the timer is new
+     * @param labels label names and values, alternating
+     * @return the timer
+     */
+    public Timer timer(String name, String help, String... labels)
+    {
+        return get(Timer.class, name, help, labels);
+    }
+
+    /**
+     * @return every metric, sorted by name and then labels
+     */
+    public List<Metric> getMetrics()
+    {
+        return new ArrayList<>(metrics.values());
+    }
+
+    /**
+     * @param listener the listener to pass events to
+     */
+    public void addListener(MetricsListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to stop passing events to
+     */
+    public void removeListener(MetricsListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return {@code true} if anyone is listening for events. When no one is,
+     * work done only to describe an event can be skipped.
+     */
+    public boolean hasListeners()
+    {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Reports an event to every listener. Nothing is done if there are no
+     * listeners, but the fields have already been boxed into an array by
+     * then, so callers should check {@link #hasListeners() } first.
+     *
+     * @param type the type of the event
+     * @param fields the names and values of the details of the event,
+     * alternating. Names must be strings, values should be strings, numbers
+     * or booleans.
+     */
+    public void event(String type, Object... fields)
+    {
+        if(listeners.isEmpty())
+            return;
+        if(fields.length % 2 != 0)
+            throw new IllegalArgumentException("Event fields must be name and value pairs, but " + fields.length + " were given");
+        Map<String, Object> map = new LinkedHashMap<>();
+        for(int i = 0; i < fields.length; i += 2)
+            map.put((String) fields[i], fields[i + 1]);
+        map = Collections.unmodifiableMap(map);
+        long time = System.currentTimeMillis();
+        for(MetricsListener listener : listeners)
+            listener.event(time, type, map);
+    }
+
+    private <M extends Metric> M get(Class<M> type, String name, String help, String[] labels)
+    {
+        String key = key(name, labels);
+        Metric metric = metrics.get(key);
+        if(metric == null)
+        {
+            Class<?> existing = types.putIfAbsent(name, type);
+            if(existing != null && existing != type)
+                throw new IllegalArgumentException(name + " is a " + existing.getSimpleName() + ", not a " + type.getSimpleName());
+            metric = metrics.computeIfAbsent(key, k -> create(type, name, help, labels));
+        }
+        if(metric.getClass() != type)
+            throw new IllegalArgumentException(name + " is a " + metric.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+        return type.cast(metric);
+    }
+
+    private static Metric create(Class<?> type, String name, String help, String[] labels)
+    {
+        if(!validName(name))
+            throw new IllegalArgumentException("Invalid metric name '" + name + "'");
+        if(labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be name and value pairs, but " + labels.length + " were given");
+        for(int i = 0; i < labels.length; i += 2)
+            if(!validName(labels[i]) || labels[i].contains(":") || labels[i + 1] == null)
+                throw new IllegalArgumentException("Invalid label " + labels[i] + "=" + labels[i + 1]);
+        if(type == Counter.class)
+            return new Counter(name, help, labels);
+        else if(type == Gauge.class)
+            return new Gauge(name, help, labels);
+        else if(type == Timer.class)
+            return new Timer(name, help, labels);
+        return new Histogram(name, help, labels);
+    }
+
+    /**
+     * Names may only use the characters Prometheus allows
+     */
+    private static boolean validName(String name)
+    {
+        if(name == null || name.isEmpty() || Character.isDigit(name.charAt(0)))
+            return false;
+        for(int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if(!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9') && c != '_' && c != ':')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The name, then each label, separated by a character that can not
+     * appear in a name and sorts before all others
+     */
+    private static String key(String name, String[] labels)
+    {
+        if(labels.length == 0)
+            return name;
+        StringBuilder sb = new StringBuilder(name);
+        for(String label : labels)
+            sb.append('\0').append(label);
+        return sb.toString();
+    }
+
+    private static void exportFromProperties(MetricsRegistry registry)
+    {
+        String port = System.getProperty(PORT_PROPERTY);
+        String jsonl = System.getProperty(JSONL_PROPERTY);
+        if(port == null && jsonl == null)
+            return;
+        PrometheusEndpoint endpoint = null;
+        JsonlMetricsWriter writer = null;
+        long linger = 0;
+        try
+        {
+            linger = Long.parseLong(System.getProperty(LINGER_PROPERTY, "0").trim());
+            if(port != null)
+            {
+                endpoint = new PrometheusEndpoint(registry);
+                endpoint.start(Integer.parseInt(port.trim()));
+            }
+            if(jsonl != null)
+            {
+                long interval = Long.parseLong(System.getProperty(INTERVAL_PROPERTY, "10").trim());
+                writer = new JsonlMetricsWriter(registry, new File(jsonl), interval, TimeUnit.SECONDS);
+            }
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            //metrics are never worth stopping the program over
+            LOGGER.log(Level.WARNING, "Could not export metrics", ex);
+        }
+        long lingerSeconds = linger;
+        PrometheusEndpoint finalEndpoint = endpoint;
+        JsonlMetricsWriter finalWriter = writer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            try
+            {
+                if(finalWriter != null)
+                    finalWriter.close();
+                if(finalEndpoint != null && finalEndpoint.isRunning())
+                {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(lingerSeconds));
+                    finalEndpoint.stop();
+                }
+            }
+            catch(IOException ex)
+            {
+                LOGGER.log(Level.WARNING, "Could not write metrics", ex);
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }, "MetricsRegistry-shutdown"));
+    }
+}
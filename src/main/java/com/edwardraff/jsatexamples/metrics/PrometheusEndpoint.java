@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics of a {@link MetricsRegistry} at {@code GET /metrics} in
+ * the Prometheus text format, using the HTTP server that ships with the JDK.
+ * Counters and gauges are one line each. Histograms and timers are written
+ * as Prometheus summaries, with the 50th, 90th and 99th percentiles and the
+ * sum and count of the values.<br>
+ * <br>
+ * The server only runs daemon threads, so it never keeps a program from
+ * exiting.
+ *
+ * @author Edward Raff
+ */
+public class PrometheusEndpoint
+{
+    /**
+     * The percentiles written for every histogram and timer
+     */
+    static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final MetricsRegistry registry;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a new endpoint. Nothing is served until
+     * {@link #start(int) } is called.
+     *
+     * @param registry the metrics to serve
+     */
+    public PrometheusEndpoint(MetricsRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    /**
+     * Starts serving on the loopback address
+     *
+     * @param port the port to listen on, or 0 to pick any free port
+     * @throws IOException if the server could not be started
+     */
+    public void start(int port) throws IOException
+    {
+        start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Starts serving on the given address
+     *
+     * @param address the address to listen on
+     * @throws IOException if the server could not be started
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException
+    {
+        if(server != null)
+            throw new IllegalStateException("Endpoint is already running");
+        HttpServer created = HttpServer.create(address, 0);
+        created.createContext("/metrics", this::metrics);
+        executor = Executors.newSingleThreadExecutor(r ->
+        {
+            Thread t = new Thread(r, "PrometheusEndpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        created.setExecutor(executor);
+        /*
+         * The server's dispatcher thread is made by start(), and is a daemon
+         * only if the thread that calls start() is one
+         */
+        Thread starter = new Thread(created::start);
+        starter.setDaemon(true);
+        starter.start();
+        try
+        {
+            starter.join();
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        server = created;
+    }
+
+    /**
+     * @return {@code true} if the endpoint has been started and not stopped
+     */
+    public synchronized boolean isRunning()
+    {
+        return server != null;
+    }
+
+    /**
+     * @return the port the endpoint is listening on
+     */
+    public synchronized int getPort()
+    {
+        if(server == null)
+            throw new IllegalStateException("Endpoint is not running");
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving
+     */
+    public synchronized void stop()
+    {
+        if(server == null)
+            return;
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            byte[] bytes = format(registry).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try(OutputStream out = exchange.getResponseBody())
+            {
+                out.write(bytes);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Writes every metric of a registry in the Prometheus text format
+     *
+     * @param registry the metrics to write
+     * @return the text that the endpoint serves
+     */
+    public static String format(MetricsRegistry registry)
+    {
+        StringBuilder sb = new StringBuilder();
+        String lastName = null;
+        for(Metric metric : registry.getMetrics())
+        {
+            String name = metric.getName();
+            if(!name.equals(lastName))
+            {
+                sb.append("# HELP ").append(name).append(' ');
+                escape(sb, metric.getHelp() == null ? "" : metric.getHelp(), false);
+                sb.append("\n# TYPE ").append(name).append(' ').append(metric.getType()).append('\n');
+                lastName = name;
+            }
+            if(metric instanceof Counter)
+                sample(sb, metric, "", null, null).append(((Counter) metric).get()).append('\n');
+            else if(metric instanceof Gauge)
+                number(sample(sb, metric, "", null, null), ((Gauge) metric).get()).append('\n');
+            else
+            {
+                Histogram histogram = (Histogram) metric;
+                for(double q : QUANTILES)
+                    number(sample(sb, metric, "", "quantile", Double.toString(q)), histogram.getPercentile(q)).append('\n');
+                number(sample(sb, metric, "_sum", null, null), histogram.getSum()).append('\n');
+                sample(sb, metric, "_count", null, null).append(histogram.getCount()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the name and labels of one sample, and the space before its
+     * value
+     */
+    private static StringBuilder sample(StringBuilder sb, Metric metric, String suffix, String extraName, String extraValue)
+    {
+        sb.append(metric.getName()).append(suffix);
+        int labels = metric.getLabelCount();
+        if(labels > 0 || extraName != null)
+        {
+            sb.append('{');
+            for(int i = 0; i < labels; i++)
+            {
+                if(i > 0)
+                    sb.append(',');
+                sb.append(metric.getLabelName(i)).append("=\"");
+                escape(sb, metric.getLabelValue(i), true);
+                sb.append('"');
+            }
+            if(extraName != null)
+                sb.append(labels > 0 ? "," : "").append(extraName).append("=\"").append(extraValue).append('"');
+            sb.append('}');
+        }
+        return sb.append(' ');
+    }
+
+    private static StringBuilder number(StringBuilder sb, double value)
+    {
+        if(Double.isNaN(value))
+            return sb.append("NaN");
+        else if(Double.isInfinite(value))
+            return sb.append(value > 0 ? "+Inf" : "-Inf");
+        return sb.append(value);
+    }
+
+    private static void escape(StringBuilder sb, String s, boolean quotes)
+    {
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c == '\\')
+                sb.append("\\\\");
+            else if(c == '\n')
+                sb.append("\\n");
+            else if(c == '"' && quotes)
+                sb.append("\\\"");
+            else
+                sb.append(c);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.metrics;
+
+/**
+ * A {@link Histogram} of how long something took. Times are recorded in
+ * nanoseconds and reported in seconds, as Prometheus expects.
+ *
+ * @author Edward Raff
+ */
+public class Timer extends Histogram
+{
+    Timer(String name, String help, String[] labels)
+    {
+        super(name, help, labels);
+    }
+
+    /**
+     * Records the time since the given start. This is meant to be used as
+     * <pre>
+     * long start = System.nanoTime();
+     * ...
+     * timer.since(start);
+     * </pre>
+     *
+     * @param start the start time, from {@link System#nanoTime() }
+     * @return the time that was recorded, in nanoseconds
+     */
+    public long since(long start)
+    {
+        long elapsed = System.nanoTime() - start;
+        record(elapsed);
+        return elapsed;
+    }
+
+    @Override
+    protected double getScale()
+    {
+        return 1e-9;
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.parameters;
+
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.random.ReproducibleMode;
+import com.edwardraff.jsatexamples.random.SeedSequence;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.ClassificationModelEvaluation;
+import jsat.classifiers.Classifier;
+import jsat.distributions.Distribution;
+import jsat.exceptions.FailedToFitException;
+import jsat.parameters.DoubleParameter;
+import jsat.parameters.IntParameter;
+import jsat.parameters.Parameter;
+import jsat.parameters.Parameterized;
+import jsat.utils.SystemInfo;
+
+/**
+ * Runs the random parameter searches of several different models at the same
+ * time, on one shared thread pool. Searching each model in turn, like
+ * EasyParameterSearch2 does, leaves cores idle whenever a model can't use all
+ * of them. Here every trial of every model is a separate job, and there is
+ * always one job per thread, so the total time is bounded by the number of
+ * cores rather than the sum of the time of each search.<br>
+ * <br>
+ * Models are scheduled by fair share: whenever a thread frees up, the next
+ * trial goes to the model that has used the least CPU time relative to its
+ * {@link #addModel(jsat.classifiers.Classifier, int, double) share}. Trials
+ * that are still running count as the average CPU time of the model's
+ * finished trials, so a model doesn't get every free thread just because
+ * none of its trials have finished yet. So a slow model can't starve the
+ * others, and a model can be given priority by giving it a bigger share. A {@link #setTimeBudget(long, java.util.concurrent.TimeUnit) wall time}
+ * and {@link #setCpuBudget(long, java.util.concurrent.TimeUnit) CPU time}
+ * budget stop new trials from starting once used up.<br>
+ * <br>
+ * All trials share a single copy of the training data and its cross
+ * validation folds. The data is only read, so no model may change it.<br>
+ * <br>
+ * Which model gets the next trial depends on timing, but the parameter
+ * values of trial t of model m come from their own seed, split from one
+ * {@link #setSeeds(SeedSequence) seed sequence} by m and t. Ties in the
+ * leaderboard are broken by model and then trial number. So without a time
+ * or CPU budget, the same seed gives the same leaderboard for any number of
+ * threads, only the order the listener hears about the trials changes.<br>
+ * <br>
+ * The wall time of every trial is recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}, and every
+ * trial is reported as a {@code search_trial} event with its parameters and
+ * error rate.
+ *
+ * @author Edward Raff
+ */
+public class MultiModelSearch
+{
+    private final int folds;
+    private final List<ModelEntry> models = new ArrayList<>();
+    private long timeBudgetNanos = Long.MAX_VALUE;
+    private long cpuBudgetNanos = Long.MAX_VALUE;
+    private LeaderboardListener listener;
+    private SeedSequence seeds;
+
+    private final List<TrialResult> leaderboard = new ArrayList<>();
+    private long cpuUsed;
+
+    /**
+     * Creates a new search
+     *
+     * @param folds the number of folds of cross validation used to score each
+     * trial
+     */
+    public MultiModelSearch(int folds)
+    {
+        if(folds < 2)
+            throw new IllegalArgumentException("At least 2 folds are needed, not " + folds);
+        this.folds = folds;
+    }
+
+    /**
+     * Adds a model to search with a share of 1
+     *
+     * @param model the model to search
+     * @param trials the number of random parameter values to try
+     */
+    public void addModel(Classifier model, int trials)
+    {
+        addModel(model, trials, 1.0);
+    }
+
+    /**
+     * Adds a model to search
+     *
+     * @param model the model to search. It is not modified.
+     * @param trials the number of random parameter values to try. If the model
+     * has no parameters that can be {@link jsat.parameters.RandomSearch#autoAddParameters(jsat.DataSet) automatically added},
+     * it is evaluated just once with its current values.
+     * @param share how much of the CPU time this model should get compared to
+     * the others. A model with a share of 2 gets twice the time of a model
+     * with a share of 1, as long as both have trials left.
+     */
+    public void addModel(Classifier model, int trials, double share)
+    {
+        if(trials < 1)
+            throw new IllegalArgumentException("Number of trials must be positive, not " + trials);
+        if(!(share > 0) || Double.isInfinite(share))
+            throw new IllegalArgumentException("Share must be positive, not " + share);
+        models.add(new ModelEntry(models.size(), model.clone(), trials, share));
+    }
+
+    /**
+     * Sets the most wall clock time the search may take. No new trials are
+     * started after this, but the ones running are allowed to finish.
+     *
+     * @param time the amount of time
+     * @param unit the unit of time
+     */
+    public void setTimeBudget(long time, TimeUnit unit)
+    {
+        this.timeBudgetNanos = unit.toNanos(time);
+    }
+
+    /**
+     * Sets the most CPU time, summed over all threads, the search may use. No
+     * new trials are started after this, but the ones running are allowed to
+     * finish.
+     *
+     * @param time the amount of time
+     * @param unit the unit of time
+     */
+    public void setCpuBudget(long time, TimeUnit unit)
+    {
+        this.cpuBudgetNanos = unit.toNanos(time);
+    }
+
+    /**
+     * Sets the listener that is told about each trial as it finishes.
+     *
+     * @param listener the listener, or {@code null} for none
+     */
+    public void setLeaderboardListener(LeaderboardListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the seeds the folds and parameter values of the search are made
+     * from. By default a new seed is taken from
+     * {@link ReproducibleMode#getRandom() } for every search, which is only
+     * repeatable inside a ReproducibleMode.
+     *
+     * @param seeds the seeds to use, or {@code null} for the default
+     */
+    public void setSeeds(SeedSequence seeds)
+    {
+        this.seeds = seeds;
+    }
+
+    /**
+     * @return the seeds the search is made from, or {@code null} if a new
+     * seed is used for every search
+     */
+    public SeedSequence getSeeds()
+    {
+        return seeds;
+    }
+
+    /**
+     * Runs the search on a new pool with one thread per core.
+     *
+     * @param train the training data
+     * @return the best trial for each model, in the order the models were
+     * added. Models that did not finish any trial within the budget are left
+     * out.
+     */
+    public List<TrialResult> search(ClassificationDataSet train)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(SystemInfo.LogicalCores);
+        try
+        {
+            return search(train, pool, SystemInfo.LogicalCores);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the search. The parameters of each model are found with the
+     * same guesses RandomSearch uses.
+     *
+     * @param train the training data
+     * @param pool the pool to run the trials on
+     * @param threads the number of trials to have running at once, normally
+     * the number of threads in the pool
+     * @return the best trial for each model, in the order the models were
+     * added. Models that did not finish any trial within the budget are left
+     * out.
+     */
+    public List<TrialResult> search(ClassificationDataSet train, ExecutorService pool, int threads)
+    {
+        long deadline = timeBudgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + timeBudgetNanos;
+        SeedSequence runSeeds = seeds != null ? seeds : new SeedSequence(ReproducibleMode.getRandom().nextLong());
+        leaderboard.clear();
+        cpuUsed = 0;
+        for(ModelEntry entry : models)
+            entry.reset(train);
+
+        //Every trial uses the same folds, made once and only ever read
+        List<ClassificationDataSet> testSets = Collections.unmodifiableList(train.cvSet(folds, runSeeds.split(0).getRandom()));
+        List<ClassificationDataSet> trainSets = new ArrayList<>(folds);
+        for(int i = 0; i < folds; i++)
+            trainSets.add(ClassificationDataSet.comineAllBut(testSets, i));
+
+        CompletionService<TrialResult> completion = new ExecutorCompletionService<>(pool);
+        int running = 0;
+        try
+        {
+            while(true)
+            {
+                //fill every free thread, as long as there is budget left
+                while(running < threads && withinBudget(deadline))
+                {
+                    ModelEntry next = nextModel();
+                    if(next == null)
+                        break;
+                    TrialResult trial = next.nextTrial(runSeeds.split(1).split(next.index));
+                    completion.submit(() -> runTrial(trial, train, testSets, trainSets));
+                    next.running++;
+                    running++;
+                }
+                if(running == 0)
+                    break;
+                TrialResult done = completion.take().get();
+                running--;
+                done.entry.running--;
+                done.entry.finished++;
+                done.entry.cpuNanos += done.cpuNanos;
+                cpuUsed += done.cpuNanos;
+                leaderboard.add(done);
+                leaderboard.sort(LEADERBOARD_ORDER);
+                if(done.entry.best == null || LEADERBOARD_ORDER.compare(done, done.entry.best) < 0)
+                {
+                    done.entry.best = done;
+                    MetricsRegistry.getDefault().gauge("jsat_search_best_error_rate", "Error rate of the best trial so far",
+                            "search", "MultiModelSearch", "model", done.getModelName()).set(done.errorRate);
+                }
+                if(listener != null)
+                    listener.trialFinished(done, Collections.unmodifiableList(leaderboard));
+            }
+        }
+        catch(InterruptedException | ExecutionException ex)
+        {
+            throw new FailedToFitException(ex);
+        }
+
+        List<TrialResult> bests = new ArrayList<>();
+        for(ModelEntry entry : models)
+            if(entry.best != null)
+                bests.add(entry.best);
+        return bests;
+    }
+
+    /**
+     * Best error rate first, with ties going to the model added first and
+     * then to the earlier trial, so the order doesn't depend on which trial
+     * finished first
+     */
+    private static final Comparator<TrialResult> LEADERBOARD_ORDER = Comparator.comparingDouble(TrialResult::getErrorRate)
+            .thenComparingInt(t -> t.entry.index).thenComparingInt(t -> t.trial);
+
+    private boolean withinBudget(long deadline)
+    {
+        return System.nanoTime() < deadline && cpuUsed < cpuBudgetNanos;
+    }
+
+    /**
+     * Picks the model with trials left that has used the least CPU time for
+     * its share, counting its running trials at their expected cost. Ties go
+     * to the model added first.
+     */
+    private ModelEntry nextModel()
+    {
+        //a model with no finished trials yet expects the average of all the finished trials
+        int finished = 0;
+        for(ModelEntry entry : models)
+            finished += entry.finished;
+        double averageCost = finished == 0 ? 1.0 : Math.max(1.0, cpuUsed / (double) finished);
+
+        ModelEntry next = null;
+        double nextCharge = 0;
+        for(ModelEntry entry : models)
+        {
+            if(entry.started >= entry.trials)
+                continue;
+            double charge = entry.charge(averageCost) / entry.share;
+            if(next == null || charge < nextCharge)
+            {
+                next = entry;
+                nextCharge = charge;
+            }
+        }
+        return next;
+    }
+
+    private static TrialResult runTrial(TrialResult trial, ClassificationDataSet train, List<ClassificationDataSet> testSets, List<ClassificationDataSet> trainSets)
+    {
+        long cpuStart = cpuTime();
+        long wallStart = System.nanoTime();
+        ClassificationModelEvaluation cme = new ClassificationModelEvaluation(trial.model, train);
+        cme.evaluateCrossValidation(testSets, trainSets);
+        trial.errorRate = cme.getErrorRate();
+        trial.cpuNanos = cpuTime() - cpuStart;
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        trial.wallNanos = metrics.timer("jsat_search_trial_seconds", "Wall time of one trial of a parameter search",
+                "search", "MultiModelSearch", "model", trial.getModelName()).since(wallStart);
+        if(metrics.hasListeners())
+            metrics.event("search_trial", "search", "MultiModelSearch", "model", trial.getModelName(),
+                    "parameters", trial.parameters, "error_rate", trial.errorRate,
+                    "wall_seconds", trial.wallNanos / 1e9, "cpu_seconds", trial.cpuNanos / 1e9);
+        return trial;
+    }
+
+    private static long cpuTime()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean.isCurrentThreadCpuTimeSupported())
+            return bean.getCurrentThreadCpuTime();
+        return System.nanoTime();
+    }
+
+    /**
+     * @return every finished trial of the last search, best first
+     */
+    public List<TrialResult> getLeaderboard()
+    {
+        return Collections.unmodifiableList(leaderboard);
+    }
+
+    /**
+     * @return the total CPU time used by the trials of the last search, in
+     * nanoseconds
+     */
+    public long getCpuTimeUsed()
+    {
+        return cpuUsed;
+    }
+
+    /**
+     * Told about every trial as it finishes. It is always called from the
+     * thread that called {@code search}, one trial at a time.
+     */
+    public interface LeaderboardListener
+    {
+        /**
+         * Called when a trial finishes
+         *
+         * @param trial the trial that just finished
+         * @param leaderboard every trial finished so far, best first. Only
+         * valid for the duration of the call.
+         */
+        public void trialFinished(TrialResult trial, List<TrialResult> leaderboard);
+    }
+
+    /**
+     * The result of evaluating one set of parameter values for one model
+     */
+    public static class TrialResult
+    {
+        private final ModelEntry entry;
+        private final int trial;
+        private final Classifier model;
+        private final String parameters;
+        private double errorRate;
+        private long wallNanos;
+        private long cpuNanos;
+
+        private TrialResult(ModelEntry entry, int trial, Classifier model, String parameters)
+        {
+            this.entry = entry;
+            this.trial = trial;
+            this.model = model;
+            this.parameters = parameters;
+        }
+
+        /**
+         * @return an untrained copy of the model, with the parameter values of
+         * this trial
+         */
+        public Classifier getModel()
+        {
+            return model.clone();
+        }
+
+        /**
+         * @return the name of the model
+         */
+        public String getModelName()
+        {
+            return model.getClass().getSimpleName();
+        }
+
+        /**
+         * @return the parameter values tried, as "name=value" pairs
+         */
+        public String getParameters()
+        {
+            return parameters;
+        }
+
+        /**
+         * @return the cross validation error rate
+         */
+        public double getErrorRate()
+        {
+            return errorRate;
+        }
+
+        /**
+         * @return the wall clock time the trial took, in nanoseconds
+         */
+        public long getWallTime()
+        {
+            return wallNanos;
+        }
+
+        /**
+         * @return the CPU time the trial used, in nanoseconds
+         */
+        public long getCpuTime()
+        {
+            return cpuNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%-20s error %.4f  %s", getModelName(), errorRate, parameters);
+        }
+    }
+
+    /**
+     * A model being searched, with the parameters to search and how much of
+     * the search it has used so far
+     */
+    private static class ModelEntry
+    {
+        final int index;
+        final Classifier base;
+        final int trials;
+        final double share;
+        final List<Parameter> params = new ArrayList<>();
+        final List<Distribution> dists = new ArrayList<>();
+        int started;
+        int running;
+        int finished;
+        long cpuNanos;
+        TrialResult best;
+
+        ModelEntry(int index, Classifier base, int trials, double share)
+        {
+            this.index = index;
+            this.base = base;
+            this.trials = trials;
+            this.share = share;
+        }
+
+        /**
+         * @param defaultCost the CPU time to expect of a trial if none of this
+         * model's trials have finished
+         * @return the CPU time used by finished trials, plus the expected CPU
+         * time of the running ones
+         */
+        double charge(double defaultCost)
+        {
+            double perTrial = finished > 0 ? cpuNanos / (double) finished : defaultCost;
+            return cpuNanos + running * perTrial;
+        }
+
+        /**
+         * Gets ready for a new search, finding the parameters to search the
+         * same way {@link jsat.parameters.RandomSearch#autoAddParameters(jsat.DataSet) }
+         * does
+         */
+        void reset(ClassificationDataSet train)
+        {
+            started = 0;
+            running = 0;
+            finished = 0;
+            cpuNanos = 0;
+            best = null;
+            params.clear();
+            dists.clear();
+            if(base instanceof Parameterized)
+                for(Parameter param : ((Parameterized) base).getParameters())
+                {
+                    Distribution dist = null;
+                    if(param instanceof DoubleParameter)
+                        dist = ((DoubleParameter) param).getGuess(train);
+                    else if(param instanceof IntParameter)
+                        dist = ((IntParameter) param).getGuess(train);
+                    if(dist != null)
+                    {
+                        params.add(param);
+                        dists.add(dist);
+                    }
+                }
+        }
+
+        /**
+         * @param modelSeeds the seeds of this model, with a child for each
+         * trial
+         */
+        TrialResult nextTrial(SeedSequence modelSeeds)
+        {
+            int trial = started++;
+            Random rand = modelSeeds.split(trial).getRandom();
+            if(params.isEmpty())//nothing to search, so only one trial is needed
+                started = trials;
+            StringBuilder values = new StringBuilder();
+            for(int i = 0; i < params.size(); i++)
+            {
+                double val = dists.get(i).invCdf(rand.nextDouble());
+                Parameter param = params.get(i);
+                if(param instanceof DoubleParameter)
+                    ((DoubleParameter) param).setValue(val);
+                else
+                    ((IntParameter) param).setValue((int) Math.round(val));
+                if(i > 0)
+                    values.append(", ");
+                values.append(param.getASCIIName()).append('=').append(param.getValueString());
+            }
+            return new TrialResult(this, trial, base.clone(), values.toString());
+        }
+    }
+}
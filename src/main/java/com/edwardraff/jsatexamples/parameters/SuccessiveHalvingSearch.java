@@ -0,0 +1,677 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.parameters;
+
+import com.edwardraff.jsatexamples.metrics.MetricsRegistry;
+import com.edwardraff.jsatexamples.random.ReproducibleMode;
+import com.edwardraff.jsatexamples.random.SeedSequence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import jsat.DataSet;
+import jsat.classifiers.ClassificationDataSet;
+import jsat.classifiers.ClassificationModelEvaluation;
+import jsat.classifiers.Classifier;
+import jsat.distributions.Distribution;
+import jsat.exceptions.FailedToFitException;
+import jsat.parameters.DoubleParameter;
+import jsat.parameters.IntParameter;
+import jsat.parameters.ModelSearch;
+import jsat.parameters.Parameter;
+import jsat.parameters.Parameterized;
+import jsat.regression.RegressionDataSet;
+import jsat.regression.RegressionModelEvaluation;
+import jsat.regression.Regressor;
+import jsat.utils.FakeExecutor;
+
+/**
+ * A drop in replacement for {@link jsat.parameters.RandomSearch} that stops
+ * evaluating bad parameter values early. Random search gives every trial a
+ * full cross validation on all of the training data, even when it is clear
+ * after a small sample that a trial is a poor choice.<br>
+ * <br>
+ * Successive halving starts by evaluating all the random trials on a small
+ * subset of the data. Only the best 1/&eta; of them are kept, and those are
+ * evaluated again on &eta; times as much data. This repeats until the
+ * remaining trials are evaluated on all of the data, and the best of them is
+ * picked. Most of the trials only ever see a small part of the data, so the
+ * search is much cheaper than random search with the same number of
+ * trials.<br>
+ * <br>
+ * The catch is that a trial that looks bad on a small sample may have been
+ * the best with all of the data. {@link #setHyperband(boolean) Hyperband}
+ * hedges against this by running several rounds of successive halving, from
+ * very aggressive (many trials on tiny subsets) to none at all (a few trials
+ * on all the data).<br>
+ * <br>
+ * Parameters are added the same way as with RandomSearch, including
+ * {@link #autoAddParameters(jsat.DataSet) }. For classification each subset
+ * has about the same class balance as all of the data. For regression the
+ * subsets are random, and trials are compared by the
+ * {@link #setRegressionTargetScore(jsat.regression.evaluation.RegressionScore) regression target score}.<br>
+ * <br>
+ * Every bracket, trial, and round gets its own seed split from one
+ * {@link #setSeeds(SeedSequence) seed sequence}, so with the same seed the
+ * search tries the same values on the same folds no matter how many threads
+ * evaluate them.<br>
+ * <br>
+ * The time of every evaluation of a trial is recorded in the
+ * {@link MetricsRegistry#getDefault() default metrics registry}, and each is
+ * reported as a {@code search_trial} event with the trial's parameters, the
+ * number of points it was evaluated on, and its score.
+ *
+ * @author Edward Raff
+ */
+public class SuccessiveHalvingSearch extends ModelSearch
+{
+    private static final long serialVersionUID = 6203718457023397251L;
+    private int trials = 25;
+    private int eta = 3;
+    private double minDataFraction = 1.0 / 27;
+    private boolean hyperband = false;
+    private List<Distribution> searchValues;
+    private SeedSequence seeds;
+
+    private final AtomicLong trainingPointsUsed = new AtomicLong();
+    private final AtomicLong evaluations = new AtomicLong();
+    private double bestScore;
+
+    /**
+     * Creates a new search
+     *
+     * @param baseClassifier the model to search the parameters of
+     * @param folds the number of folds of cross validation to use when
+     * evaluating each trial
+     */
+    public SuccessiveHalvingSearch(Classifier baseClassifier, int folds)
+    {
+        super(baseClassifier, folds);
+        searchValues = new ArrayList<>();
+    }
+
+    /**
+     * Creates a new search
+     *
+     * @param baseRegressor the model to search the parameters of
+     * @param folds the number of folds of cross validation to use when
+     * evaluating each trial
+     */
+    public SuccessiveHalvingSearch(Regressor baseRegressor, int folds)
+    {
+        super(baseRegressor, folds);
+        searchValues = new ArrayList<>();
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param toCopy the object to copy
+     */
+    public SuccessiveHalvingSearch(SuccessiveHalvingSearch toCopy)
+    {
+        super(toCopy);
+        this.trials = toCopy.trials;
+        this.eta = toCopy.eta;
+        this.minDataFraction = toCopy.minDataFraction;
+        this.hyperband = toCopy.hyperband;
+        this.seeds = toCopy.seeds;
+        this.searchValues = new ArrayList<>(toCopy.searchValues.size());
+        for(Distribution d : toCopy.searchValues)
+            this.searchValues.add(d.clone());
+        this.trainingPointsUsed.set(toCopy.trainingPointsUsed.get());
+        this.evaluations.set(toCopy.evaluations.get());
+        this.bestScore = toCopy.bestScore;
+    }
+
+    /**
+     * Finds all the parameters of the base model that know how to guess a
+     * good distribution of values for a data set, and adds them to the
+     * search. This works just like
+     * {@link jsat.parameters.RandomSearch#autoAddParameters(jsat.DataSet) }.
+     *
+     * @param data the data set to get parameter guesses for
+     * @return the number of parameters added
+     */
+    public int autoAddParameters(DataSet data)
+    {
+        Object base = baseClassifier != null ? baseClassifier : baseRegressor;
+        if(!(base instanceof Parameterized))
+            return 0;
+        int totalParms = 0;
+        for(Parameter param : ((Parameterized) base).getParameters())
+        {
+            Distribution dist;
+            if(param instanceof DoubleParameter)
+            {
+                dist = ((DoubleParameter) param).getGuess(data);
+                if(dist != null)
+                {
+                    addParameter((DoubleParameter) param, dist);
+                    totalParms++;
+                }
+            }
+            else if(param instanceof IntParameter)
+            {
+                dist = ((IntParameter) param).getGuess(data);
+                if(dist != null)
+                {
+                    addParameter((IntParameter) param, dist);
+                    totalParms++;
+                }
+            }
+        }
+        return totalParms;
+    }
+
+    /**
+     * Adds a parameter to search over
+     *
+     * @param param the parameter of the base model
+     * @param dist the distribution to sample values from
+     */
+    public void addParameter(DoubleParameter param, Distribution dist)
+    {
+        if(param == null || dist == null)
+            throw new IllegalArgumentException("null not allowed for parameter or distribution");
+        searchParams.add(param);
+        searchValues.add(dist.clone());
+    }
+
+    /**
+     * Adds a parameter to search over. Sampled values are rounded to the
+     * nearest integer.
+     *
+     * @param param the parameter of the base model
+     * @param dist the distribution to sample values from
+     */
+    public void addParameter(IntParameter param, Distribution dist)
+    {
+        if(param == null || dist == null)
+            throw new IllegalArgumentException("null not allowed for parameter or distribution");
+        searchParams.add(param);
+        searchValues.add(dist.clone());
+    }
+
+    /**
+     * Adds a parameter to search over by name
+     *
+     * @param name the name of the parameter of the base model
+     * @param dist the distribution to sample values from
+     */
+    public void addParameter(String name, Distribution dist)
+    {
+        Parameter param = getParameterByName(name);
+        if(param instanceof DoubleParameter)
+            addParameter((DoubleParameter) param, dist);
+        else if(param instanceof IntParameter)
+            addParameter((IntParameter) param, dist);
+        else
+            throw new IllegalArgumentException("Parameter " + name + " is not a double or int parameter");
+    }
+
+    /**
+     * Sets the number of random trials to start with. Ignored when
+     * {@link #setHyperband(boolean) Hyperband} is used, since it decides how
+     * many trials each round gets.
+     *
+     * @param trials the number of trials
+     */
+    public void setTrials(int trials)
+    {
+        if(trials < 1)
+            throw new IllegalArgumentException("Number of trials must be positive, not " + trials);
+        this.trials = trials;
+    }
+
+    /**
+     * @return the number of random trials to start with
+     */
+    public int getTrials()
+    {
+        return trials;
+    }
+
+    /**
+     * Sets how aggressive each round of elimination is. Only the best 1/eta
+     * trials are kept after each round, and the amount of data used goes up
+     * by a factor of eta. 3 is the usual choice.
+     *
+     * @param eta the reduction factor, at least 2
+     */
+    public void setEta(int eta)
+    {
+        if(eta < 2)
+            throw new IllegalArgumentException("eta must be at least 2, not " + eta);
+        this.eta = eta;
+    }
+
+    /**
+     * @return the reduction factor
+     */
+    public int getEta()
+    {
+        return eta;
+    }
+
+    /**
+     * Sets the smallest fraction of the training data a trial is evaluated
+     * on. Together with eta this decides the number of rounds of
+     * elimination. The default of 1/27 gives 4 rounds with eta = 3.
+     *
+     * @param minDataFraction the smallest fraction of the data to use, in
+     * (0, 1]
+     */
+    public void setMinDataFraction(double minDataFraction)
+    {
+        if(!(minDataFraction > 0 && minDataFraction <= 1))
+            throw new IllegalArgumentException("Fraction must be in (0, 1], not " + minDataFraction);
+        this.minDataFraction = minDataFraction;
+    }
+
+    /**
+     * @return the smallest fraction of the training data a trial is evaluated
+     * on
+     */
+    public double getMinDataFraction()
+    {
+        return minDataFraction;
+    }
+
+    /**
+     * @param hyperband {@code true} to run the Hyperband schedule of several
+     * successive halving brackets, {@code false} to run one bracket with
+     * {@link #setTrials(int) trials} starting trials
+     */
+    public void setHyperband(boolean hyperband)
+    {
+        this.hyperband = hyperband;
+    }
+
+    /**
+     * @return {@code true} if the Hyperband schedule is used
+     */
+    public boolean isHyperband()
+    {
+        return hyperband;
+    }
+
+    /**
+     * Sets the seeds the random choices of the search are made from. By
+     * default a new seed is taken from {@link ReproducibleMode#getRandom() }
+     * for every search, which is only repeatable inside a ReproducibleMode.
+     *
+     * @param seeds the seeds to use, or {@code null} for the default
+     */
+    public void setSeeds(SeedSequence seeds)
+    {
+        this.seeds = seeds;
+    }
+
+    /**
+     * @return the seeds the random choices of the search are made from, or
+     * {@code null} if a new seed is used for every search
+     */
+    public SeedSequence getSeeds()
+    {
+        return seeds;
+    }
+
+    /**
+     * Returns the total number of data points all the models were trained
+     * on during the last search, not counting the final model. This is a
+     * machine independent measure of the work done. Plain random search with
+     * <i>T</i> trials, <i>k</i> folds, and <i>n</i> data points uses
+     * <i>T (k-1) n</i>.
+     *
+     * @return the number of training data points used by the search
+     */
+    public long getTrainingPointsUsed()
+    {
+        return trainingPointsUsed.get();
+    }
+
+    /**
+     * @return the number of cross validations done during the last search
+     */
+    public long getEvaluations()
+    {
+        return evaluations.get();
+    }
+
+    /**
+     * @return the score of the chosen parameters, measured by cross
+     * validation on all of the training data
+     */
+    public double getBestScore()
+    {
+        return bestScore;
+    }
+
+    @Override
+    public void trainC(ClassificationDataSet dataSet)
+    {
+        trainC(dataSet, new FakeExecutor());
+    }
+
+    @Override
+    public void trainC(ClassificationDataSet dataSet, ExecutorService threadPool)
+    {
+        if(baseClassifier == null)
+            throw new FailedToFitException("The base model " + baseRegressor.getClass().getSimpleName() + " is not a classifier");
+        Trial best = search(dataSet, threadPool);
+        trainedClassifier = best.classifier;
+        if(trainFinalModel)
+        {
+            if(threadPool == null || threadPool instanceof FakeExecutor)
+                trainedClassifier.trainC(dataSet);
+            else
+                trainedClassifier.trainC(dataSet, threadPool);
+        }
+    }
+
+    @Override
+    public void train(RegressionDataSet dataSet)
+    {
+        train(dataSet, new FakeExecutor());
+    }
+
+    @Override
+    public void train(RegressionDataSet dataSet, ExecutorService threadPool)
+    {
+        if(baseRegressor == null)
+            throw new FailedToFitException("The base model " + baseClassifier.getClass().getSimpleName() + " is not a regressor");
+        Trial best = search(dataSet, threadPool);
+        trainedRegressor = best.regressor;
+        if(trainFinalModel)
+        {
+            if(threadPool == null || threadPool instanceof FakeExecutor)
+                trainedRegressor.train(dataSet);
+            else
+                trainedRegressor.train(dataSet, threadPool);
+        }
+    }
+
+    /**
+     * Runs the search on a classification or regression data set
+     *
+     * @return the best trial, scored on all of the data
+     */
+    private Trial search(DataSet<?> dataSet, ExecutorService threadPool)
+    {
+        trainingPointsUsed.set(0);
+        evaluations.set(0);
+        SeedSequence runSeeds = seeds != null ? seeds : new SeedSequence(ReproducibleMode.getRandom().nextLong());
+        int[] order = stratifiedOrder(dataSet, runSeeds.split(0).getRandom());
+        int s_max = (int) Math.floor(Math.log(1 / minDataFraction) / Math.log(eta) + 1e-9);
+
+        Trial best = null;
+        if(hyperband)
+        {
+            for(int s = s_max; s >= 0; s--)
+            {
+                int n = (int) Math.ceil((s_max + 1.0) / (s + 1) * Math.pow(eta, s));
+                Trial bracketBest = successiveHalving(dataSet, order, n, s, runSeeds.split(1).split(s), threadPool);
+                if(best == null || better(dataSet, bracketBest.score, best.score))
+                    best = bracketBest;
+            }
+        }
+        else
+            best = successiveHalving(dataSet, order, trials, s_max, runSeeds.split(1).split(s_max), threadPool);
+
+        bestScore = best.score;
+        return best;
+    }
+
+    /**
+     * Runs one bracket of successive halving
+     *
+     * @param n the number of random trials to start with
+     * @param rounds the number of times to eliminate trials, the first round
+     * uses eta<sup>-rounds</sup> of the data
+     * @param bracketSeeds the seeds of this bracket, child 0 has a seed for
+     * each trial and child 1 a seed for the folds of each round
+     * @return the best trial, scored on all of the data
+     */
+    private Trial successiveHalving(DataSet<?> dataSet, int[] order, int n, int rounds, SeedSequence bracketSeeds, ExecutorService threadPool)
+    {
+        boolean regression = dataSet instanceof RegressionDataSet;
+        List<Trial> alive = new ArrayList<>(n);
+        for(int t = 0; t < n; t++)
+            alive.add(sampleTrial(bracketSeeds.split(0).split(t).getRandom(), regression));
+
+        for(int r = 0; r <= rounds; r++)
+        {
+            double fraction = Math.pow(eta, r - rounds);
+            int size = (int) Math.min(dataSet.getSampleSize(), Math.max(Math.round(fraction * dataSet.getSampleSize()), folds * 2));
+            DataSet<?> subset;
+            if(regression)
+            {
+                RegressionDataSet regData = (RegressionDataSet) dataSet;
+                RegressionDataSet regSubset = new RegressionDataSet(dataSet.getNumNumericalVars(), dataSet.getCategories());
+                for(int i = 0; i < size; i++)
+                    regSubset.addDataPoint(regData.getDataPoint(order[i]), regData.getTargetValue(order[i]));
+                subset = regSubset;
+            }
+            else
+            {
+                ClassificationDataSet classData = (ClassificationDataSet) dataSet;
+                ClassificationDataSet classSubset = new ClassificationDataSet(dataSet.getNumNumericalVars(), dataSet.getCategories(), classData.getPredicting());
+                for(int i = 0; i < size; i++)
+                    classSubset.addDataPoint(classData.getDataPoint(order[i]), classData.getDataPointCategory(order[i]));
+                subset = classSubset;
+            }
+
+            evaluate(alive, subset, bracketSeeds.split(1).split(r).getRandom(), threadPool);
+            boolean lowerIsBetter = lowerIsBetter(dataSet);
+            //a stable sort, so ties stay in the order the trials were sampled
+            alive.sort(Comparator.comparingDouble(t -> lowerIsBetter ? t.score : -t.score));
+            if(r < rounds)
+                alive = new ArrayList<>(alive.subList(0, Math.max(1, alive.size() / eta)));
+        }
+        return alive.get(0);
+    }
+
+    /**
+     * Scores every trial by cross validation on the given data. All trials
+     * use the same folds, so they are compared fairly.
+     */
+    private void evaluate(List<Trial> trials, DataSet<?> data, Random rand, ExecutorService threadPool)
+    {
+        boolean parallel = trainModelsInParallel && threadPool != null && !(threadPool instanceof FakeExecutor);
+        ExecutorService cvPool = parallel ? null : threadPool;
+        ToDoubleFunction<Trial> crossValidation;
+        String scoreName;
+        if(data instanceof RegressionDataSet)
+        {
+            RegressionDataSet regData = (RegressionDataSet) data;
+            List<RegressionDataSet> testSets = regData.cvSet(folds, rand);
+            List<RegressionDataSet> trainSets = new ArrayList<>(testSets.size());
+            for(int i = 0; i < testSets.size(); i++)
+                trainSets.add(RegressionDataSet.comineAllBut(testSets, i));
+            crossValidation = trial ->
+            {
+                RegressionModelEvaluation rme;
+                if(cvPool == null)
+                    rme = new RegressionModelEvaluation(trial.regressor, regData);
+                else
+                    rme = new RegressionModelEvaluation(trial.regressor, regData, cvPool);
+                rme.addScorer(regressionTargetScore.clone());
+                rme.evaluateCrossValidation(testSets, trainSets);
+                return rme.getScoreStats(regressionTargetScore).getMean();
+            };
+            scoreName = regressionTargetScore.getName();
+        }
+        else
+        {
+            ClassificationDataSet classData = (ClassificationDataSet) data;
+            List<ClassificationDataSet> testSets = classData.cvSet(folds, rand);
+            List<ClassificationDataSet> trainSets = new ArrayList<>(testSets.size());
+            for(int i = 0; i < testSets.size(); i++)
+                trainSets.add(ClassificationDataSet.comineAllBut(testSets, i));
+            crossValidation = trial ->
+            {
+                ClassificationModelEvaluation cme;
+                if(cvPool == null)
+                    cme = new ClassificationModelEvaluation(trial.classifier, classData);
+                else
+                    cme = new ClassificationModelEvaluation(trial.classifier, classData, cvPool);
+                cme.addScorer(classificationTargetScore.clone());
+                cme.evaluateCrossValidation(testSets, trainSets);
+                return cme.getScoreStats(classificationTargetScore).getMean();
+            };
+            scoreName = classificationTargetScore.getName();
+        }
+
+        List<Future<?>> futures = new ArrayList<>(trials.size());
+        for(Trial trial : trials)
+        {
+            Runnable job = () ->
+            {
+                long start = System.nanoTime();
+                trial.score = crossValidation.applyAsDouble(trial);
+                trainingPointsUsed.addAndGet((long) (folds - 1) * data.getSampleSize());
+                evaluations.incrementAndGet();
+
+                MetricsRegistry metrics = MetricsRegistry.getDefault();
+                String model = (trial.classifier != null ? trial.classifier : trial.regressor).getClass().getSimpleName();
+                long elapsed = metrics.timer("jsat_search_trial_seconds", "Wall time of one trial of a parameter search",
+                        "search", "SuccessiveHalvingSearch", "model", model).since(start);
+                if(metrics.hasListeners())
+                    metrics.event("search_trial", "search", "SuccessiveHalvingSearch", "model", model,
+                            "parameters", trial.parameters, "points", data.getSampleSize(),
+                            "score", trial.score, "score_name", scoreName,
+                            "wall_seconds", elapsed / 1e9);
+            };
+            if(parallel)
+                futures.add(threadPool.submit(job));
+            else
+                job.run();
+        }
+        try
+        {
+            for(Future<?> future : futures)
+                future.get();
+        }
+        catch(InterruptedException | ExecutionException ex)
+        {
+            throw new FailedToFitException(ex);
+        }
+    }
+
+    /**
+     * Sets the search parameters of the base model to new random values, and
+     * returns a trial with a copy of the model with those values
+     */
+    private Trial sampleTrial(Random rand, boolean regression)
+    {
+        StringBuilder values = new StringBuilder();
+        for(int i = 0; i < searchParams.size(); i++)
+        {
+            double val = searchValues.get(i).invCdf(rand.nextDouble());
+            Parameter param = searchParams.get(i);
+            if(param instanceof DoubleParameter)
+                ((DoubleParameter) param).setValue(val);
+            else if(param instanceof IntParameter)
+                ((IntParameter) param).setValue((int) Math.round(val));
+            if(i > 0)
+                values.append(", ");
+            values.append(param.getASCIIName()).append('=').append(param.getValueString());
+        }
+        if(regression)
+            return new Trial(null, baseRegressor.clone(), values.toString());
+        return new Trial(baseClassifier.clone(), null, values.toString());
+    }
+
+    /**
+     * Orders the data points so that any prefix of the order has about the
+     * same class balance as the whole data set. This way even the smallest
+     * subset used has examples of every class. Regression data is treated as
+     * one class, so the order is just shuffled.
+     */
+    private static int[] stratifiedOrder(DataSet<?> dataSet, Random rand)
+    {
+        int n = dataSet.getSampleSize();
+        Integer[] order = new Integer[n];
+        for(int i = 0; i < n; i++)
+            order[i] = i;
+        Collections.shuffle(Arrays.asList(order), rand);
+
+        //the j'th point of a class with c points goes at position j/c
+        ClassificationDataSet classData = dataSet instanceof ClassificationDataSet ? (ClassificationDataSet) dataSet : null;
+        int[] classCounts = new int[classData == null ? 1 : classData.getClassSize()];
+        for(int i = 0; i < n; i++)
+            classCounts[classData == null ? 0 : classData.getDataPointCategory(i)]++;
+        int[] seen = new int[classCounts.length];
+        double[] key = new double[n];
+        for(int i : order)
+        {
+            int y = classData == null ? 0 : classData.getDataPointCategory(i);
+            key[i] = (seen[y]++ + 0.5) / classCounts[y];
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> key[i]));
+
+        int[] result = new int[n];
+        for(int i = 0; i < n; i++)
+            result[i] = order[i];
+        return result;
+    }
+
+    private boolean lowerIsBetter(DataSet<?> dataSet)
+    {
+        if(dataSet instanceof RegressionDataSet)
+            return regressionTargetScore.lowerIsBetter();
+        return classificationTargetScore.lowerIsBetter();
+    }
+
+    private boolean better(DataSet<?> dataSet, double a, double b)
+    {
+        return lowerIsBetter(dataSet) ? a < b : a > b;
+    }
+
+    @Override
+    public SuccessiveHalvingSearch clone()
+    {
+        return new SuccessiveHalvingSearch(this);
+    }
+
+    /**
+     * One set of parameter values being tried, with either a classifier or a
+     * regressor
+     */
+    private static class Trial
+    {
+        final Classifier classifier;
+        final Regressor regressor;
+        final String parameters;
+        volatile double score;
+
+        Trial(Classifier classifier, Regressor regressor, String parameters)
+        {
+            this.classifier = classifier;
+            this.regressor = regressor;
+            this.parameters = parameters;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.random;
+
+import java.util.Random;
+import jsat.utils.random.RandomUtil;
+
+/**
+ * Makes training and evaluation give exactly the same results from run to
+ * run, no matter how many threads are used. Every random choice has to come
+ * from a seed that is picked by what the choice is for, rather than by which
+ * thread gets there first. A mode holds one {@link SeedSequence}, and the
+ * seeds of everything run inside it are split from that:
+ * <ul>
+ * <li>The classes of these examples that would take a seed from JSAT's
+ * {@link RandomUtil#getRandom() } when none is given, like
+ * {@link com.edwardraff.jsatexamples.clustering.KMeansSweep},
+ * {@link com.edwardraff.jsatexamples.clustering.ParallelGapStatistic},
+ * {@link com.edwardraff.jsatexamples.clustering.StreamingKMeans}, and the
+ * {@link com.edwardraff.jsatexamples.parameters.SuccessiveHalvingSearch} and
+ * {@link com.edwardraff.jsatexamples.parameters.MultiModelSearch}, take it
+ * from {@link #getRandom() } instead. Inside a mode that gives the next
+ * child of the mode's seed, in the order they ask for one.</li>
+ * <li>They split their seed again by task index, so every fold, trial, and
+ * reference sample gets the same seed whichever thread runs it. Results are
+ * added up in task order, and ties are broken by task index.
+ * KMeansSweep and ParallelGapStatistic stay fully parallel.</li>
+ * <li>JSAT code that takes a {@link Random} is given one split from
+ * {@link #getSeeds() }, like
+ * {@code evaluateCrossValidation(folds, mode.getSeeds().split(0).getRandom())}
+ * of {@link jsat.classifiers.ClassificationModelEvaluation} and
+ * {@link jsat.DataSet#randomSplit(java.util.Random, double...) randomSplit},
+ * or a {@link jsat.clustering.kmeans.HamerlyKMeans} made with one for
+ * {@link jsat.clustering.kmeans.XMeans}, {@link jsat.clustering.kmeans.GMeans}
+ * and {@link jsat.clustering.kmeans.KMeansPDN}.</li>
+ * </ul>
+ * JSAT's own RandomUtil is left alone. Every call to it moves a shared seed
+ * forward, so the stream a model gets depends on how many calls came before
+ * it, from any thread. Pinning that seed would give every caller the same
+ * stream, tying unrelated models together and breaking
+ * {@link jsat.classifiers.trees.RandomForest}, which asks for a new stream
+ * at every node. So JSAT code that can't be given a seed is only repeatable
+ * when run on one thread, one model at a time:
+ * <ul>
+ * <li>{@link jsat.parameters.RandomSearch} and
+ * {@link jsat.parameters.GridSearch} make the folds of every trial from
+ * RandomUtil, and RandomSearch keeps the first of two tied trials to
+ * finish. A SuccessiveHalvingSearch with
+ * {@link com.edwardraff.jsatexamples.parameters.SuccessiveHalvingSearch#setMinDataFraction(double) setMinDataFraction(1)}
+ * is a plain random search, with seeds.</li>
+ * <li>JSAT's k-means adds up each thread's part of the new means in the
+ * order the threads finish. XMeans, GMeans, KMeansPDN and
+ * {@link jsat.clustering.GapStatistic} are only repeatable when they are not
+ * given a thread pool, and GapStatistic draws its reference data from
+ * RandomUtil. ParallelGapStatistic is a seeded replacement.</li>
+ * <li>Models that draw from RandomUtil while they train, like
+ * {@link jsat.classifiers.svm.extended.AMM} and RandomForest. Their folds
+ * can be run in parallel, but their results then depend on timing.</li>
+ * <li>Code that uses Java's unseeded randomness, like the
+ * {@link java.util.Collections#shuffle(java.util.List) } that
+ * {@link jsat.classifiers.linear.LogisticRegressionDCD} calls, as does
+ * {@link jsat.classifiers.BaseUpdateableClassifier} for every updateable
+ * model that is trained on a whole data set. Nothing can make it
+ * repeatable.</li>
+ * </ul>
+ * Searches with a time budget still stop at a different point every
+ * run.<br>
+ * <br>
+ * Only one mode can be enabled at a time. It is meant to be used in a
+ * try-with-resources block.
+ *
+ * @author Edward Raff
+ */
+public final class ReproducibleMode implements AutoCloseable
+{
+    private static ReproducibleMode current;
+
+    private final SeedSequence seeds;
+    /**
+     * Where {@link #getRandom() } takes its seeds from, apart from the
+     * children of {@link #seeds} so the two never hand out the same seed
+     */
+    private final SeedSequence defaults;
+    private long nextDefault = 0;
+
+    private ReproducibleMode(long seed)
+    {
+        this.seeds = new SeedSequence(seed);
+        this.defaults = new SeedSequence(SeedSequence.mix(seed));
+    }
+
+    /**
+     * Enables reproducible mode
+     *
+     * @param seed the seed everything is derived from
+     * @return the mode, to be closed when done
+     * @throws IllegalStateException if reproducible mode is already enabled
+     */
+    public static synchronized ReproducibleMode enable(long seed)
+    {
+        if(current != null)
+            throw new IllegalStateException("Reproducible mode is already enabled");
+        current = new ReproducibleMode(seed);
+        return current;
+    }
+
+    /**
+     * @return {@code true} if reproducible mode is enabled
+     */
+    public static synchronized boolean isEnabled()
+    {
+        return current != null;
+    }
+
+    /**
+     * Gives a new source of randomness to code that was not given one.
+     * Inside a mode it is started from the next child of the mode's seed, so
+     * the code gets the same one every run as long as it asks in the same
+     * order, which is the case when it asks from one thread. Otherwise it is
+     * {@link RandomUtil#getRandom() }.
+     *
+     * @return a new source of randomness
+     */
+    public static synchronized Random getRandom()
+    {
+        if(current == null)
+            return RandomUtil.getRandom();
+        return current.defaults.split(current.nextDefault++).getRandom();
+    }
+
+    /**
+     * @return the seed sequence of this mode, to split seeds from for code
+     * that takes a {@link SeedSequence} or a {@link java.util.Random}
+     */
+    public SeedSequence getSeeds()
+    {
+        return seeds;
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized(ReproducibleMode.class)
+        {
+            if(current == this)
+                current = null;
+        }
+    }
+}
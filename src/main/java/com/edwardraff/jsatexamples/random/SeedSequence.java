@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.random;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import jsat.utils.random.XORWOW;
+
+/**
+ * A seed that can be split into any number of independent child seeds. Each
+ * child is found from the parent seed and the index of the child alone, so
+ * the seed a task gets does not depend on which thread runs it, or on how
+ * many tasks were handed out before it. Giving task i of a parallel job
+ * {@code seeds.split(i)} makes its random choices the same no matter how
+ * many threads there are or what order the tasks finish in.<br>
+ * <br>
+ * Children can be split again, so a search can give each model its own
+ * sequence, and each trial of that model its own seed from that. Seeds are
+ * mixed with the finalizer of the SplitMix64 generator, the same one
+ * {@link SplittableRandom} uses, so nearby seeds and indices still give
+ * unrelated streams.
+ *
+ * @author Edward Raff
+ */
+public final class SeedSequence
+{
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private final long seed;
+
+    /**
+     * Creates a new sequence
+     *
+     * @param seed the root seed
+     */
+    public SeedSequence(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the seed of this sequence
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * Returns the child of this sequence at the given index. Calling this
+     * twice with the same index gives the same child.
+     *
+     * @param index the index of the child
+     * @return the child sequence
+     */
+    public SeedSequence split(long index)
+    {
+        return new SeedSequence(splitSeed(index));
+    }
+
+    /**
+     * Returns the seed of the child at the given index, without creating the
+     * child. This is the same as {@code split(index).getSeed()}, and is meant
+     * for hashing many indices, such as assigning every row of a file to a
+     * fold.
+     *
+     * @param index the index of the child
+     * @return the seed of the child
+     */
+    public long splitSeed(long index)
+    {
+        return mix(seed + GOLDEN_GAMMA * (index + 1));
+    }
+
+    /**
+     * @return a new source of randomness started from this seed, of the same
+     * type {@link jsat.utils.random.RandomUtil} gives out
+     */
+    public Random getRandom()
+    {
+        return new XORWOW(seed);
+    }
+
+    /**
+     * @return a new splittable source of randomness started from this seed
+     */
+    public SplittableRandom getSplittableRandom()
+    {
+        return new SplittableRandom(seed);
+    }
+
+    /**
+     * The finalizer of the SplitMix64 generator, which turns nearby values
+     * into unrelated ones
+     *
+     * @param z the value to mix
+     * @return the mixed value
+     */
+    public static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SeedSequence(" + seed + ")";
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.serving;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies that many threads can record into at once without
+ * locking, and that can report percentiles such as the median and 99th
+ * percentile. Keeping every latency to sort later would use memory in
+ * proportion to the number of requests, so instead each value is counted in a
+ * bucket. Every power of two range of nanoseconds is split into 32 equal
+ * buckets, so a reported percentile is within about 3% of the true value,
+ * from a few nanoseconds up to hours.
+ *
+ * @author Edward Raff
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records one latency
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        counts.incrementAndGet(bucket(Math.max(nanos, 0)));
+        count.increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * @param unit the time unit to return the result in
+     * @return the mean latency, or 0 if nothing has been recorded
+     */
+    public double getMean(TimeUnit unit)
+    {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n / unit.toNanos(1);
+    }
+
+    /**
+     * @param unit the time unit to return the result in
+     * @return the sum of all the latencies recorded
+     */
+    public double getTotal(TimeUnit unit)
+    {
+        return (double) sum.sum() / unit.toNanos(1);
+    }
+
+    /**
+     * Gets a percentile of the recorded latencies. If latencies are being
+     * recorded at the same time, the result is for some mix of the ones
+     * recorded before and during the call.
+     *
+     * @param p the percentile wanted, in [0, 1]. For example 0.99 for the
+     * 99th percentile.
+     * @param unit the time unit to return the result in
+     * @return the latency at the given percentile, or 0 if nothing has been
+     * recorded
+     */
+    public double getPercentile(double p, TimeUnit unit)
+    {
+        if(p < 0 || p > 1 || Double.isNaN(p))
+            throw new IllegalArgumentException("Percentile must be in [0, 1], not " + p);
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for(int i = 0; i < snapshot.length; i++)
+            total += (snapshot[i] = counts.get(i));
+        if(total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for(int i = 0; i < snapshot.length; i++)
+        {
+            seen += snapshot[i];
+            if(seen >= rank)
+                return midpoint(i) / unit.toNanos(1);
+        }
+        return midpoint(snapshot.length - 1) / unit.toNanos(1);
+    }
+
+    /**
+     * Removes all the recorded latencies
+     */
+    public void reset()
+    {
+        for(int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        count.reset();
+        sum.reset();
+    }
+
+    /**
+     * Values below 32 get a bucket each. Above that, the highest set bit
+     * picks the power of two range, and the next 5 bits pick the bucket
+     * within it.
+     */
+    private static int bucket(long value)
+    {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static double midpoint(int bucket)
+    {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        double width = Math.pow(2, exponent - SUB_BITS);
+        return Math.pow(2, exponent) + (sub + 0.5) * width;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.serving;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A simple closed loop load generator for a {@link ModelServer}, or anything
+ * else that takes POST requests. Each client thread sends a request, waits
+ * for the response, and then immediately sends the next one, cycling through
+ * a list of request bodies. The latency of every request is measured on the
+ * client side, so it includes the time spent in the network stack and in the
+ * server's HTTP layer.<br>
+ * <br>
+ * It can also be run on its own against a running server:<br>
+ * {@code LoadGenerator url file.libsvm [clients] [seconds] [points per request]}
+ *
+ * @author Edward Raff
+ */
+public class LoadGenerator
+{
+    private final URL url;
+    private final List<byte[]> bodies;
+
+    /**
+     * Creates a new load generator
+     *
+     * @param url the URL to POST the requests to
+     * @param bodies the request bodies to send, in turn
+     */
+    public LoadGenerator(URL url, List<String> bodies)
+    {
+        if(bodies.isEmpty())
+            throw new IllegalArgumentException("Need at least one request body");
+        this.url = url;
+        this.bodies = new ArrayList<>(bodies.size());
+        for(String body : bodies)
+            this.bodies.add(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Groups the lines of a LIBSVM file into request bodies for a
+     * {@link ModelServer}
+     *
+     * @param file the LIBSVM file
+     * @param pointsPerRequest how many lines to put in each request
+     * @return the request bodies
+     * @throws IOException if the file could not be read
+     */
+    public static List<String> libsvmBodies(File file, int pointsPerRequest) throws IOException
+    {
+        List<String> bodies = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        int inBody = 0;
+        for(String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+        {
+            if(line.trim().isEmpty())
+                continue;
+            sb.append(line).append('\n');
+            if(++inBody == pointsPerRequest)
+            {
+                bodies.add(sb.toString());
+                sb.setLength(0);
+                inBody = 0;
+            }
+        }
+        if(inBody > 0)
+            bodies.add(sb.toString());
+        return bodies;
+    }
+
+    /**
+     * Sends requests from several clients at once, for a fixed amount of time
+     *
+     * @param clients the number of clients, each with at most one request in
+     * flight
+     * @param duration how long to send requests for
+     * @param unit the time unit of the duration
+     * @return the results of the run
+     * @throws InterruptedException if interrupted while waiting for the
+     * clients
+     */
+    public Report run(int clients, long duration, TimeUnit unit) throws InterruptedException
+    {
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        long start = System.nanoTime();
+        long end = start + unit.toNanos(duration);
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int c = 0; c < clients; c++)
+        {
+            final int first = c;
+            futures.add(pool.submit(() ->
+            {
+                int next = first;
+                byte[] buffer = new byte[8192];
+                while(System.nanoTime() < end)
+                {
+                    byte[] body = bodies.get(next);
+                    next = (next + clients) % bodies.size();
+                    long sent = System.nanoTime();
+                    try
+                    {
+                        if(post(body, buffer) == 200)
+                            latency.record(System.nanoTime() - sent);
+                        else
+                            errors.increment();
+                    }
+                    catch(IOException ex)
+                    {
+                        errors.increment();
+                    }
+                }
+            }));
+        }
+        pool.shutdown();
+        try
+        {
+            for(Future<?> future : futures)
+                future.get();
+        }
+        catch(ExecutionException ex)
+        {
+            throw new RuntimeException(ex.getCause());
+        }
+        return new Report(latency, errors.sum(), System.nanoTime() - start);
+    }
+
+    private int post(byte[] body, byte[] buffer) throws IOException
+    {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(body.length);
+        conn.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+        try(OutputStream out = conn.getOutputStream())
+        {
+            out.write(body);
+        }
+        int code = conn.getResponseCode();
+        //read the response fully, so the connection can be kept alive
+        try(InputStream in = code == 200 ? conn.getInputStream() : conn.getErrorStream())
+        {
+            if(in != null)
+                while(in.read(buffer) >= 0);
+        }
+        return code;
+    }
+
+    /**
+     * The results of one run of the load generator
+     */
+    public static class Report
+    {
+        private final LatencyHistogram latency;
+        private final long errors;
+        private final long elapsed;
+
+        private Report(LatencyHistogram latency, long errors, long elapsed)
+        {
+            this.latency = latency;
+            this.errors = errors;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * @return the number of requests that got a 200 response
+         */
+        public long getRequests()
+        {
+            return latency.getCount();
+        }
+
+        /**
+         * @return the number of requests that failed or got any response but
+         * 200
+         */
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        /**
+         * @return the successful requests per second
+         */
+        public double getQPS()
+        {
+            return latency.getCount() / (elapsed / 1e9);
+        }
+
+        /**
+         * @return the latency of the successful requests
+         */
+        public LatencyHistogram getLatency()
+        {
+            return latency;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%,d requests, %d errors, %.1f QPS, p50 %.3f ms, p99 %.3f ms",
+                    getRequests(), errors, getQPS(),
+                    latency.getPercentile(0.5, TimeUnit.MILLISECONDS),
+                    latency.getPercentile(0.99, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 2)
+        {
+            System.out.println("Usage: LoadGenerator url file.libsvm [clients] [seconds] [points per request]");
+            return;
+        }
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int pointsPerRequest = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        LoadGenerator generator = new LoadGenerator(new URL(args[0]), libsvmBodies(new File(args[1]), pointsPerRequest));
+        System.out.println(generator.run(clients, seconds, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,685 @@
+/*
+ * Copyright (C) 2017 Edward Raff
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.edwardraff.jsatexamples.serving;
+
+import com.edwardraff.jsatexamples.classifiers.BatchClassifier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jsat.classifiers.Classifier;
+import jsat.classifiers.DataPoint;
+import jsat.linear.DenseVector;
+import jsat.linear.Vec;
+
+/**
+ * Serves a trained {@link Classifier} over HTTP/1.1 on the local machine,
+ * using the HTTP server that ships with the JDK, so nothing else needs to be
+ * installed or running. Points are scored in micro batches with a
+ * {@link BatchClassifier}, which trades a small, bounded amount of latency
+ * for much less work per point when many requests arrive at once.<br>
+ * <br>
+ * There are two endpoints:
+ * <ul>
+ * <li>{@code POST /predict} takes one point per line, in the LIBSVM format
+ * ({@code index:value} pairs with indices starting at 1). A leading class
+ * label is ignored, so lines can be sent straight from a LIBSVM file. Each
+ * line of the response has the predicted class followed by the probability
+ * of every class, separated by spaces.</li>
+ * <li>{@code GET /stats} returns the number of requests served, the QPS, and
+ * the p50 and p99 latency, one {@code name value} pair per line.</li>
+ * </ul>
+ * <br>
+ * The request threads parse the points and put them on a queue. Each scoring
+ * thread takes the oldest point off the queue, and then keeps collecting
+ * points into the same batch until it is full, or until waiting any longer
+ * would let the oldest point miss the {@link #setLatencyBudget(long, TimeUnit)
+ * latency budget}. How long to wait is adapted to the load. The scoring
+ * threads keep a moving average of the time to score a point and of the time
+ * between arrivals, and if the next point is not expected before the budget
+ * runs out, the batch is scored right away. So a lone request is never held
+ * back waiting for company, while under heavy load the batches fill up on
+ * their own.<br>
+ * <br>
+ * A request is only queued if there is room in the queue for all of its
+ * points, otherwise it gets a 503 response and none of its points are
+ * scored. The points of a request that timed out are skipped by the scoring
+ * threads, so an overloaded server doesn't spend its time on answers no one
+ * is waiting for.<br>
+ * <br>
+ * If the model throws an exception while scoring a batch, every request with
+ * a point in that batch gets a 500 response, and the scoring thread carries
+ * on with the next batch.<br>
+ * <br>
+ * The JDK's server writes the headers and body of a response separately. With
+ * Nagle's algorithm on, the body then waits for the client's delayed ACK of
+ * the headers, adding about 40ms to every request. Run the JVM with
+ * {@code -Dsun.net.httpserver.nodelay=true} to turn it off.<br>
+ * <br>
+ * Models are loaded with Java serialization, see {@link #readModel(File) }.
+ * Only numeric features are supported.
+ *
+ * @author Edward Raff
+ */
+public class ModelServer
+{
+    /**
+     * How much weight the newest value gets in the moving averages of the
+     * scoring cost and the time between arrivals
+     */
+    private static final double SMOOTHING = 0.05;
+    private static final Logger LOGGER = Logger.getLogger(ModelServer.class.getName());
+
+    private final Classifier model;
+    private final int numFeatures;
+    private final int categories;
+    private int maxBatchSize = 64;
+    private long latencyBudget = TimeUnit.MILLISECONDS.toNanos(2);
+    private int scoringThreads = 1;
+    private int requestThreads = 32;
+    private int queueCapacity = 1 << 14;
+    private long requestTimeout = TimeUnit.SECONDS.toNanos(10);
+
+    private HttpServer server;
+    private ExecutorService requestPool;
+    private Thread[] scorers;
+    private BlockingQueue<Pending> queue;
+    /**
+     * Room left in the queue. A request takes room for all of its points
+     * before queuing any of them, and the scoring threads give it back as
+     * they take points off the queue.
+     */
+    private Semaphore queueRoom;
+    private volatile boolean running;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder points = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile long statsStart = System.nanoTime();
+
+    /**
+     * Creates a new server for a model. The server does not accept requests
+     * until {@link #start(int) } is called.
+     *
+     * @param model the trained model to serve
+     * @param numFeatures the number of numeric features the model was trained
+     * on
+     * @param categories the number of classes the model was trained on
+     */
+    public ModelServer(Classifier model, int numFeatures, int categories)
+    {
+        if(numFeatures < 1)
+            throw new IllegalArgumentException("Number of features must be positive, not " + numFeatures);
+        this.model = model;
+        this.numFeatures = numFeatures;
+        this.categories = categories;
+        //fail now, rather than on the first request, if the model can't be used
+        BatchClassifier.of(model, categories);
+    }
+
+    /**
+     * Reads a model saved with Java serialization
+     *
+     * @param file the file holding the model
+     * @return the model
+     * @throws IOException if the file could not be read, or does not hold a
+     * Classifier
+     */
+    public static Classifier readModel(File file) throws IOException
+    {
+        try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            return (Classifier) in.readObject();
+        }
+        catch(ClassNotFoundException | ClassCastException ex)
+        {
+            throw new IOException("File " + file + " does not hold a Classifier", ex);
+        }
+    }
+
+    /**
+     * Saves a model with Java serialization, so that it can be loaded by
+     * {@link #readModel(File) }.
+     *
+     * @param model the model to save
+     * @param file the file to write to
+     * @throws IOException if the file could not be written
+     */
+    public static void writeModel(Classifier model, File file) throws IOException
+    {
+        try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            out.writeObject(model);
+        }
+    }
+
+    /**
+     * Sets the most points that are scored in one batch. A value of 1 turns
+     * micro batching off.
+     *
+     * @param maxBatchSize the largest batch size
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        if(maxBatchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive, not " + maxBatchSize);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return the most points that are scored in one batch
+     */
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the longest a point may wait in the queue for a batch to fill up,
+     * including the expected time to score the batch. Points are never held
+     * back once the budget is used up, but a point can still wait longer than
+     * this when every scoring thread is busy. A budget of zero scores whatever
+     * is in the queue right away, without ever waiting for more.
+     *
+     * @param budget the latency budget
+     * @param unit the time unit of the budget
+     */
+    public void setLatencyBudget(long budget, TimeUnit unit)
+    {
+        if(budget < 0)
+            throw new IllegalArgumentException("Latency budget must be non negative, not " + budget);
+        this.latencyBudget = unit.toNanos(budget);
+    }
+
+    /**
+     * @param unit the time unit to return the result in
+     * @return the latency budget
+     */
+    public long getLatencyBudget(TimeUnit unit)
+    {
+        return unit.convert(latencyBudget, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the number of threads that score batches. Each has its own
+     * {@link BatchClassifier}, and they all share the model.
+     *
+     * @param scoringThreads the number of scoring threads
+     */
+    public void setScoringThreads(int scoringThreads)
+    {
+        if(scoringThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive, not " + scoringThreads);
+        this.scoringThreads = scoringThreads;
+    }
+
+    /**
+     * Sets the number of threads that handle HTTP requests. A request thread
+     * is busy until the points of its request have been scored, so this
+     * limits how many requests can be in flight at once.
+     *
+     * @param requestThreads the number of request threads
+     */
+    public void setRequestThreads(int requestThreads)
+    {
+        if(requestThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive, not " + requestThreads);
+        this.requestThreads = requestThreads;
+    }
+
+    /**
+     * Sets the most points that may be waiting to be scored. Requests with
+     * more points than there is room for in the queue get a 503 response.
+     *
+     * @param queueCapacity the size of the queue
+     */
+    public void setQueueCapacity(int queueCapacity)
+    {
+        if(queueCapacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be positive, not " + queueCapacity);
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Starts serving on the loopback address
+     *
+     * @param port the port to listen on, or 0 to pick any free port
+     * @throws IOException if the server could not be started
+     */
+    public void start(int port) throws IOException
+    {
+        start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Starts serving on the given address
+     *
+     * @param address the address to listen on
+     * @throws IOException if the server could not be started
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException
+    {
+        if(running)
+            throw new IllegalStateException("Server is already running");
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        queueRoom = new Semaphore(queueCapacity);
+        server = HttpServer.create(address, 0);
+        server.createContext("/predict", this::predict);
+        server.createContext("/stats", this::stats);
+        requestPool = Executors.newFixedThreadPool(requestThreads);
+        server.setExecutor(requestPool);
+
+        running = true;
+        scorers = new Thread[scoringThreads];
+        for(int i = 0; i < scorers.length; i++)
+        {
+            scorers[i] = new Thread(new Scorer(), "ModelServer-scorer-" + i);
+            scorers[i].setDaemon(true);
+            scorers[i].start();
+        }
+        resetStats();
+        server.start();
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server. Requests that are still in flight are dropped.
+     */
+    public synchronized void stop()
+    {
+        if(!running)
+            return;
+        running = false;
+        server.stop(0);
+        requestPool.shutdownNow();
+        for(Thread scorer : scorers)
+            scorer.interrupt();
+    }
+
+    /**
+     * Clears the latency histogram and all the counters, so that the stats
+     * describe only the requests from now on
+     */
+    public void resetStats()
+    {
+        latency.reset();
+        requests.reset();
+        points.reset();
+        batches.reset();
+        rejected.reset();
+        statsStart = System.nanoTime();
+    }
+
+    /**
+     * @return the latency of each request, from when the server started
+     * reading it to when the response was written
+     */
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * @return the number of requests served since the stats were reset
+     */
+    public long getRequests()
+    {
+        return requests.sum();
+    }
+
+    /**
+     * @return the number of requests turned away because the queue was full
+     * or they timed out
+     */
+    public long getRejected()
+    {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the requests served per second since the stats were reset
+     */
+    public double getQPS()
+    {
+        double seconds = (System.nanoTime() - statsStart) / 1e9;
+        return seconds > 0 ? requests.sum() / seconds : 0;
+    }
+
+    /**
+     * @return the average number of points scored in one batch
+     */
+    public double getMeanBatchSize()
+    {
+        long b = batches.sum();
+        return b == 0 ? 0 : (double) points.sum() / b;
+    }
+
+    private void predict(HttpExchange exchange) throws IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            if(!"POST".equals(exchange.getRequestMethod()))
+            {
+                respond(exchange, 405, "Use POST\n");
+                return;
+            }
+
+            List<Pending> pending = new ArrayList<>();
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)))
+            {
+                String line;
+                while((line = reader.readLine()) != null)
+                    if(!line.trim().isEmpty())
+                        pending.add(new Pending(parse(line)));
+            }
+            catch(IllegalArgumentException ex)
+            {
+                respond(exchange, 400, ex.getMessage() + "\n");
+                return;
+            }
+
+            //reserve room for the whole request first, so it is never left half queued
+            if(!queueRoom.tryAcquire(pending.size()))
+            {
+                rejected.increment();
+                respond(exchange, 503, "Server is overloaded\n");
+                return;
+            }
+            CountDownLatch done = new CountDownLatch(pending.size());
+            for(Pending p : pending)
+            {
+                p.done = done;
+                p.enqueued = System.nanoTime();
+                queue.add(p);
+            }
+            if(!done.await(requestTimeout, TimeUnit.NANOSECONDS))
+            {
+                for(Pending p : pending)
+                    p.abandoned = true;
+                rejected.increment();
+                respond(exchange, 503, "Timed out\n");
+                return;
+            }
+            for(Pending p : pending)
+                if(p.error != null)
+                {
+                    respond(exchange, 500, "Scoring failed: " + p.error + "\n");
+                    return;
+                }
+
+            StringBuilder sb = new StringBuilder(pending.size() * (8 + 12 * categories));
+            for(Pending p : pending)
+            {
+                sb.append(p.prediction);
+                for(double prob : p.probabilities)
+                    sb.append(' ').append(prob);
+                sb.append('\n');
+            }
+            respond(exchange, 200, sb.toString());
+            requests.increment();
+            latency.record(System.nanoTime() - start);
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append("requests ").append(getRequests()).append('\n');
+            sb.append("rejected ").append(getRejected()).append('\n');
+            sb.append("qps ").append(getQPS()).append('\n');
+            sb.append("latency_p50_ms ").append(latency.getPercentile(0.5, TimeUnit.MILLISECONDS)).append('\n');
+            sb.append("latency_p99_ms ").append(latency.getPercentile(0.99, TimeUnit.MILLISECONDS)).append('\n');
+            sb.append("mean_batch_size ").append(getMeanBatchSize()).append('\n');
+            respond(exchange, 200, sb.toString());
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try(OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Parses one line in the LIBSVM format, with or without a leading label
+     */
+    private DataPoint parse(String line)
+    {
+        Vec x = new DenseVector(numFeatures);
+        String[] tokens = line.trim().split("\\s+");
+        for(int i = 0; i < tokens.length; i++)
+        {
+            int colon = tokens[i].indexOf(':');
+            if(colon < 0)
+            {
+                if(i == 0)
+                    continue;//the label
+                throw new IllegalArgumentException("Expected index:value, not '" + tokens[i] + "'");
+            }
+            int index;
+            double value;
+            try
+            {
+                index = Integer.parseInt(tokens[i].substring(0, colon)) - 1;
+                value = Double.parseDouble(tokens[i].substring(colon + 1));
+            }
+            catch(NumberFormatException ex)
+            {
+                throw new IllegalArgumentException("Expected index:value, not '" + tokens[i] + "'");
+            }
+            if(index < 0 || index >= numFeatures)
+                throw new IllegalArgumentException("Feature index " + (index + 1) + " is not in [1, " + numFeatures + "]");
+            x.set(index, value);
+        }
+        return new DataPoint(x);
+    }
+
+    /**
+     * A point waiting to be scored
+     */
+    private class Pending
+    {
+        final DataPoint dp;
+        final double[] probabilities = new double[categories];
+        int prediction;
+        /**
+         * Set instead of the prediction if scoring failed
+         */
+        String error;
+        long enqueued;
+        CountDownLatch done;
+        /**
+         * Set when the request gave up waiting, so the point need not be
+         * scored
+         */
+        volatile boolean abandoned;
+
+        public Pending(DataPoint dp)
+        {
+            this.dp = dp;
+        }
+    }
+
+    private class Scorer implements Runnable
+    {
+        private final BatchClassifier batchClassifier = BatchClassifier.of(model, categories);
+        private final List<Pending> batch = new ArrayList<>();
+        private final List<DataPoint> dps = new ArrayList<>();
+        private double[] probabilities = new double[0];
+        private int[] predictions = new int[0];
+        /**
+         * Moving average of the nanoseconds it takes to score one point
+         */
+        private double costPerPoint = 0;
+        /**
+         * Moving average of the nanoseconds between points being queued
+         */
+        private double interArrival = Double.POSITIVE_INFINITY;
+        private long lastArrival = -1;
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while(running)
+                {
+                    Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if(first == null)
+                        continue;
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - 1);
+                    long deadline = first.enqueued + latencyBudget;
+                    while(batch.size() < maxBatchSize)
+                    {
+                        long slack = deadline - System.nanoTime() - (long) (costPerPoint * (batch.size() + 1));
+                        //only wait if another point should show up in time
+                        if(slack <= 0 || interArrival > slack)
+                            break;
+                        Pending next = queue.poll(slack, TimeUnit.NANOSECONDS);
+                        if(next == null)
+                            break;
+                        batch.add(next);
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                    }
+                    queueRoom.release(batch.size());
+                    batch.removeIf(p -> p.abandoned);
+                    if(batch.isEmpty())
+                        continue;
+                    try
+                    {
+                        score();
+                    }
+                    catch(RuntimeException ex)
+                    {
+                        fail(ex);
+                    }
+                }
+            }
+            catch(InterruptedException ex)
+            {
+                //stop() was called
+            }
+        }
+
+        private void score()
+        {
+            int n = batch.size();
+            if(predictions.length < n)
+            {
+                predictions = new int[n];
+                probabilities = new double[n * categories];
+            }
+            for(Pending p : batch)
+            {
+                dps.add(p.dp);
+                if(lastArrival >= 0)
+                {
+                    long gap = Math.max(p.enqueued - lastArrival, 0);
+                    interArrival = Double.isInfinite(interArrival) ? gap : (1 - SMOOTHING) * interArrival + SMOOTHING * gap;
+                }
+                lastArrival = Math.max(lastArrival, p.enqueued);
+            }
+
+            long start = System.nanoTime();
+            batchClassifier.classify(dps, 0, n, probabilities, predictions);
+            long elapsed = System.nanoTime() - start;
+            costPerPoint = (1 - SMOOTHING) * costPerPoint + SMOOTHING * elapsed / n;
+
+            for(int i = 0; i < n; i++)
+            {
+                Pending p = batch.get(i);
+                System.arraycopy(probabilities, i * categories, p.probabilities, 0, categories);
+                p.prediction = predictions[i];
+                p.done.countDown();
+            }
+            points.add(n);
+            batches.increment();
+            batch.clear();
+            dps.clear();
+        }
+
+        /**
+         * Answers every point of the batch with an error, so the requests
+         * waiting on them don't time out and this thread can keep going
+         */
+        private void fail(RuntimeException ex)
+        {
+            LOGGER.log(Level.WARNING, "Scoring a batch of " + batch.size() + " points failed", ex);
+            for(Pending p : batch)
+            {
+                p.error = ex.toString();
+                p.done.countDown();
+            }
+            batch.clear();
+            dps.clear();
+        }
+    }
+}